@@ -20,6 +20,7 @@ package org.dasein.cloud;
 
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -31,6 +32,7 @@ import org.dasein.cloud.identity.IdentityServices;
 import org.dasein.cloud.network.NetworkServices;
 import org.dasein.cloud.platform.PlatformServices;
 import org.dasein.cloud.storage.StorageServices;
+import org.dasein.cloud.util.TagMatcher;
 import org.dasein.util.CalendarWrapper;
 
 /**
@@ -69,51 +71,14 @@ public abstract class CloudProvider {
     }
 
     static public boolean matchesTags(@Nonnull Map<String,?> currentValues, @Nonnull String name, @Nonnull String description, @Nullable Map<String,String> valuesToMatch) {
-        if( valuesToMatch != null && !valuesToMatch.isEmpty() ) {
-            name = name.toLowerCase();
-            description = description.toLowerCase();
-            for( Map.Entry<String,String> entry : valuesToMatch.entrySet() ) {
-                String v = (entry.getValue() == null ? null : entry.getValue().toLowerCase());
-                Object t = currentValues.get(entry.getKey());
-
-                if( entry.getKey().equals("Name") ) {
-
-                    if( v != null ) {
-                        String n = name.toLowerCase();
-
-                        if( n.contains(v) || (t != null && t.toString().toLowerCase().contains(v)) ) {
-                            continue;
-                        }
-                    }
-                    return false;
-                }
-                if( entry.getKey().equals("Description") ) {
-                    if( v != null ) {
-                        String d = description.toLowerCase();
-
-                        if( d.contains(v) || (t != null && t.toString().toLowerCase().contains(v)) ) {
-                            continue;
-                        }
-                    }
-                    return false;
-                }
-                if( t == null && v == null ) {
-                    continue;
-                }
-                if( t == null ) {
-                    return false;
-                }
-                if( v == null ) {
-                    return false;
-                }
-                if( !t.toString().contains(v) ) {
-                    return false;
-                }
-            }
+        if( valuesToMatch == null || valuesToMatch.isEmpty() ) {
+            return true;
         }
-        return true;
+        return TagMatcher.getInstance(valuesToMatch).matches(currentValues, name, description);
     }
 
+    static private final ConcurrentHashMap<String,Class<? extends CloudProvider>> storageClasses = new ConcurrentHashMap<String, Class<? extends CloudProvider>>();
+
     private CloudProvider computeCloud = null;
     private ProviderContext context = null;
     
@@ -129,15 +94,21 @@ public abstract class CloudProvider {
      * implementation.
      */
     public void close() {
+        final ProviderContext closing;
+        final CloudProvider storage;
         int h;
         
         synchronized( this ) {
             h = holdCount;
+            closing = context;
+        }
+        synchronized( storageLock ) {
+            storage = storageCloudProvider;
         }
         if( h > 0 ) {
             Thread t = new Thread() {
                 public void run() {
-                    waitForHold();
+                    waitForHold(closing, storage);
                 }
             };
             
@@ -146,7 +117,7 @@ public abstract class CloudProvider {
             t.start();
         }
         else {
-            waitForHold();
+            waitForHold(closing, storage);
         }
     }
     
@@ -169,6 +140,8 @@ public abstract class CloudProvider {
      */
     public final void connect(@Nonnull ProviderContext context, @Nullable CloudProvider computeProvider) {
         close();
+        // derive the context identity now so that the first cache or trace lookup does not pay for it
+        context.getKey();
         this.context = context;
         this.computeCloud = computeProvider;
     }
@@ -216,24 +189,44 @@ public abstract class CloudProvider {
      */
     public abstract @Nonnull String getProviderName();
     
-    private CloudProvider storageCloudProvider = null;
+    private volatile CloudProvider storageCloudProvider = null;
+    private final Object           storageLock          = new Object();
     
     /**
-     * Provides access to the cloud storage services supported by this cloud provider.
+     * Provides access to the cloud storage services supported by this cloud provider. A storage-only provider named
+     * in the context is constructed the first time it is needed and reused until this provider is closed.
      * @return an implementation of the {@link org.dasein.cloud.storage.StorageServices} API
      */
-    public synchronized @Nullable StorageServices getStorageServices() {
-        if( storageCloudProvider != null ) {
-            return storageCloudProvider.getStorageServices();
+    public @Nullable StorageServices getStorageServices() {
+        CloudProvider p = storageCloudProvider;
+
+        if( p != null ) {
+            return p.getStorageServices();
         }
         ProviderContext computeContext = getContext();
-        String storage = computeContext.getStorage();
+        String storage = (computeContext == null ? null : computeContext.getStorage());
 
         if( storage == null ) {
             return null;
         }
+        synchronized( storageLock ) {
+            if( storageCloudProvider == null ) {
+                storageCloudProvider = connectStorage(computeContext, storage);
+            }
+            p = storageCloudProvider;
+        }
+        return (p == null ? null : p.getStorageServices());
+    }
+
+    private @Nullable CloudProvider connectStorage(@Nonnull ProviderContext computeContext, @Nonnull String storage) {
         try { 
-            CloudProvider p = (CloudProvider)Class.forName(storage).newInstance();
+            Class<? extends CloudProvider> storageClass = storageClasses.get(storage);
+
+            if( storageClass == null ) {
+                storageClass = Class.forName(storage).asSubclass(CloudProvider.class);
+                storageClasses.put(storage, storageClass);
+            }
+            CloudProvider p = storageClass.newInstance();
             ProviderContext ctx = new ProviderContext();
             Properties props = computeContext.getStorageCustomProperties();
             
@@ -248,8 +241,7 @@ public abstract class CloudProvider {
             ctx.setX509Key(computeContext.getStorageX509Key());
             ctx.setCustomProperties(props == null ? new Properties() : props);
             p.connect(ctx, this);
-            storageCloudProvider = p;
-            return p.getStorageServices();
+            return p;
         }
         catch( Throwable t ) {
             t.printStackTrace();
@@ -318,25 +310,40 @@ public abstract class CloudProvider {
         return null;
     }
     
-    private void waitForHold() {
+    private void waitForHold(@Nullable ProviderContext closing, @Nullable CloudProvider storage) {
         long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 20L);
         
-        while( timeout > System.currentTimeMillis() ) {
-            synchronized( this ) {
-                if( holdCount < 1 ) {
-                    break;
+        boolean interrupted = false;
+
+        synchronized( this ) {
+            long remaining;
+
+            // release() notifies on each drop in the hold count
+            while( holdCount > 0 && (remaining = timeout - System.currentTimeMillis()) > 0L ) {
+                try { wait(remaining); }
+                catch( InterruptedException e ) {
+                    // keep honoring the hold, but let the caller see the interrupt once the wait is over
+                    interrupted = true;
                 }
             }
-            try { Thread.sleep(1000L); }
-            catch( InterruptedException e ) { }
+            // a new context may have been connected while waiting, and it is not ours to clear
+            if( context == closing ) {
+                context = null;
+            }
         }
-        if( context != null) {
-            context.clear();
-            context = null;
+        if( closing != null ) {
+            closing.clear();
+        }
+        if( storage != null ) {
+            synchronized( storageLock ) {
+                if( storageCloudProvider == storage ) {
+                    storageCloudProvider = null;
+                }
+            }
+            storage.close();
         }
-        if( storageCloudProvider != null ) {
-            storageCloudProvider.close();
-            storageCloudProvider = null;
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
         }
     }
 }
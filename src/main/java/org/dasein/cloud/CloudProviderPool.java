@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of connected {@link CloudProvider} instances so that services handling many short requests need not connect
+ * and close a provider for each one. Providers are pooled by the {@link ContextKey} of the context they are connected
+ * to, so contexts naming the same cloud, endpoint, account, region and credentials share providers. A borrowed
+ * provider is connected to a private copy of the first context borrowed under that identity, so closing it never
+ * clears credentials belonging to the caller. Providers left idle longer than the idle timeout are closed by a
+ * background reaper.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class CloudProviderPool {
+    /**
+     * Constructs a pool creating providers of the specified class.
+     * @param providerClass the class of provider to pool
+     * @return a new pool
+     */
+    static public @Nonnull CloudProviderPool getInstance(final @Nonnull Class<? extends CloudProvider> providerClass) {
+        return getInstance(new ProviderFactory() {
+            @Override
+            public @Nonnull CloudProvider newProvider(@Nonnull ProviderContext context) throws InternalException {
+                try {
+                    return providerClass.getDeclaredConstructor().newInstance();
+                }
+                catch( NoSuchMethodException e ) {
+                    throw new InternalException(e);
+                }
+                catch( InvocationTargetException e ) {
+                    throw new InternalException(e.getCause() == null ? e : e.getCause());
+                }
+                catch( InstantiationException e ) {
+                    throw new InternalException(e);
+                }
+                catch( IllegalAccessException e ) {
+                    throw new InternalException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Constructs a pool creating providers through the specified factory.
+     * @param factory the factory for new providers
+     * @return a new pool
+     */
+    static public @Nonnull CloudProviderPool getInstance(@Nonnull ProviderFactory factory) {
+        return new CloudProviderPool(factory);
+    }
+
+    static private class IdleProvider {
+        public final CloudProvider provider;
+        public final long          since = System.currentTimeMillis();
+
+        public IdleProvider(@Nonnull CloudProvider provider) {
+            this.provider = provider;
+        }
+    }
+
+    private final IdentityHashMap<CloudProvider,ContextKey>    active      = new IdentityHashMap<CloudProvider, ContextKey>();
+    private boolean                                            closed      = false;
+    private final ProviderFactory                              factory;
+    private final HashMap<ContextKey,LinkedList<IdleProvider>> idle        = new HashMap<ContextKey, LinkedList<IdleProvider>>();
+    private int                                                idleCount   = 0;
+    private long                                               idleTimeout = 300000L;
+    private int                                                maxIdle     = 8;
+    private Thread                                             reaper      = null;
+
+    private CloudProviderPool(@Nonnull ProviderFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Borrows a provider connected to the specified context, connecting a new one if none is idle. The provider must
+     * be handed back through {@link #returnProvider(CloudProvider)} when the caller is done with it.
+     * @param ctx the context to which the provider should be connected
+     * @return a connected provider for the exclusive use of the caller until it is returned
+     * @throws CloudException the provider could not be constructed
+     * @throws InternalException an error occurred within the Dasein Cloud implementation or the pool is closed
+     */
+    public @Nonnull CloudProvider borrowProvider(@Nonnull ProviderContext ctx) throws CloudException, InternalException {
+        ContextKey key = ctx.getKey();
+
+        synchronized( this ) {
+            if( closed ) {
+                throw new InternalException("The provider pool is closed");
+            }
+            LinkedList<IdleProvider> providers = idle.get(key);
+
+            while( providers != null && !providers.isEmpty() ) {
+                CloudProvider provider = providers.removeLast().provider;
+
+                idleCount--;
+                if( providers.isEmpty() ) {
+                    idle.remove(key);
+                }
+                if( provider.isConnected() ) {
+                    active.put(provider, key);
+                    return provider;
+                }
+            }
+        }
+        CloudProvider provider = factory.newProvider(ctx);
+
+        provider.connect(ctx.copy());
+        synchronized( this ) {
+            active.put(provider, key);
+        }
+        return provider;
+    }
+
+    /**
+     * Closes every idle provider and stops the reaper. Providers still borrowed are closed as they are returned.
+     */
+    public void close() {
+        List<CloudProvider> closing = new ArrayList<CloudProvider>();
+
+        synchronized( this ) {
+            closed = true;
+            for( LinkedList<IdleProvider> providers : idle.values() ) {
+                for( IdleProvider p : providers ) {
+                    closing.add(p.provider);
+                }
+            }
+            idle.clear();
+            idleCount = 0;
+            notifyAll();
+        }
+        for( CloudProvider provider : closing ) {
+            provider.close();
+        }
+    }
+
+    /**
+     * Closes any provider idle for longer than the idle timeout. The reaper calls this method periodically, but it
+     * may be called at any time.
+     */
+    public void evictIdle() {
+        List<CloudProvider> closing = new ArrayList<CloudProvider>();
+
+        synchronized( this ) {
+            // with no idle timeout everything idle goes, even a provider returned in this very millisecond
+            long cutoff = (idleTimeout < 1L ? Long.MAX_VALUE : System.currentTimeMillis() - idleTimeout);
+            Iterator<Map.Entry<ContextKey,LinkedList<IdleProvider>>> it = idle.entrySet().iterator();
+
+            while( it.hasNext() ) {
+                LinkedList<IdleProvider> providers = it.next().getValue();
+
+                // the oldest providers sit at the head of each list
+                while( !providers.isEmpty() && providers.getFirst().since < cutoff ) {
+                    closing.add(providers.removeFirst().provider);
+                    idleCount--;
+                }
+                if( providers.isEmpty() ) {
+                    it.remove();
+                }
+            }
+        }
+        for( CloudProvider provider : closing ) {
+            provider.close();
+        }
+    }
+
+    /**
+     * @return the number of providers currently borrowed from this pool
+     */
+    public synchronized @Nonnegative int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * @return the number of connected providers waiting in this pool to be borrowed
+     */
+    public synchronized @Nonnegative int getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * @return the number of milliseconds a provider may sit idle before it is closed
+     */
+    public synchronized @Nonnegative long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return the maximum number of idle providers kept for any one context identity
+     */
+    public synchronized @Nonnegative int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Hands a borrowed provider back to the pool for reuse. The provider is closed instead if the pool is closed,
+     * enough providers for its context are already idle, or the caller closed it.
+     * @param provider the provider being returned
+     * @throws InternalException the provider was not borrowed from this pool
+     */
+    public void returnProvider(@Nonnull CloudProvider provider) throws InternalException {
+        synchronized( this ) {
+            ContextKey key = active.remove(provider);
+
+            if( key == null ) {
+                throw new InternalException("The provider " + provider + " was not borrowed from this pool");
+            }
+            if( !closed && provider.isConnected() ) {
+                LinkedList<IdleProvider> providers = idle.get(key);
+
+                if( providers == null ) {
+                    providers = new LinkedList<IdleProvider>();
+                    idle.put(key, providers);
+                }
+                if( providers.size() < maxIdle ) {
+                    providers.addLast(new IdleProvider(provider));
+                    idleCount++;
+                    startReaper();
+                    return;
+                }
+            }
+        }
+        provider.close();
+    }
+
+    // must be called while holding the lock on this pool
+    private void startReaper() {
+        if( reaper != null ) {
+            return;
+        }
+        reaper = new Thread() {
+            public void run() {
+                while( true ) {
+                    synchronized( CloudProviderPool.this ) {
+                        if( closed ) {
+                            reaper = null;
+                            return;
+                        }
+                        try { CloudProviderPool.this.wait(Math.max(1000L, idleTimeout / 2)); }
+                        catch( InterruptedException e ) {
+                            reaper = null;
+                            return;
+                        }
+                    }
+                    evictIdle();
+                }
+            }
+        };
+        reaper.setName("Provider Pool Reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Sets the number of milliseconds a provider may sit idle before it is closed. With a timeout of zero, the next
+     * eviction closes every idle provider.
+     * @param idleTimeout the idle timeout in milliseconds
+     * @return this
+     */
+    public synchronized @Nonnull CloudProviderPool withIdleTimeout(@Nonnegative long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        notifyAll();
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of idle providers kept for any one context identity.
+     * @param maxIdle the maximum number of idle providers per context identity
+     * @return this
+     */
+    public synchronized @Nonnull CloudProviderPool withMaxIdle(@Nonnegative int maxIdle) {
+        this.maxIdle = maxIdle;
+        return this;
+    }
+}
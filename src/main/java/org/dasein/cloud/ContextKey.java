@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud;
+
+import org.dasein.cloud.util.CacheLevel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of the identity of a {@link ProviderContext}: the cloud, endpoint, account, region and
+ * credentials it refers to. Because provider contexts are mutable, anything keyed on one must key on this snapshot
+ * instead. Keys are built once per context state through {@link ProviderContext#getKey()} and carry a precomputed
+ * hash and everything derived from the context that the caches and API tracing need on every call.
+ * Credentials are held only as a digest, so a key never retains live secrets.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public final class ContextKey {
+    /**
+     * Builds a key from the current state of the specified context. Most callers should use
+     * {@link ProviderContext#getKey()}, which reuses the key until the context changes.
+     * @param ctx the context from which the key is derived
+     * @return a key identifying the context
+     */
+    static public @Nonnull ContextKey getInstance(@Nonnull ProviderContext ctx) {
+        return new ContextKey(ctx);
+    }
+
+    static private @Nonnull byte[] digest(@Nullable byte[] ... keys) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            for( byte[] key : keys ) {
+                int len = (key == null ? -1 : key.length);
+
+                digest.update(new byte[] { (byte)(len >>> 24), (byte)(len >>> 16), (byte)(len >>> 8), (byte)len });
+                if( key != null ) {
+                    digest.update(key);
+                }
+            }
+            return digest.digest();
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static private boolean same(@Nullable Object a, @Nullable Object b) {
+        return (a == null ? b == null : a.equals(b));
+    }
+
+    static private @Nonnull String sanitize(@Nonnull String str) {
+        return str.replace('.', '_');
+    }
+
+    static private final class Scope {
+        private final String accountNumber;
+        private final String endpoint;
+        private final int    hashCode;
+        private final String regionId;
+
+        public Scope(@Nullable String endpoint, @Nullable String regionId, @Nullable String accountNumber) {
+            this.accountNumber = accountNumber;
+            this.endpoint = endpoint;
+            this.regionId = regionId;
+            this.hashCode = Arrays.hashCode(new Object[] { endpoint, regionId, accountNumber });
+        }
+
+        @Override
+        public boolean equals(@Nullable Object ob) {
+            if( ob == this ) {
+                return true;
+            }
+            if( !(ob instanceof Scope) ) {
+                return false;
+            }
+            Scope other = (Scope)ob;
+
+            return (hashCode == other.hashCode && same(endpoint, other.endpoint) && same(regionId, other.regionId) && same(accountNumber, other.accountNumber));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    static private final class Trace {
+        public final ConcurrentHashMap<String,String> callNames = new ConcurrentHashMap<String, String>();
+        public final String                           cloudName;
+        public final String                           prefix;
+        public final String                           providerName;
+
+        public Trace(@Nonnull String providerName, @Nonnull String cloudName, @Nonnull String accountNumber) {
+            this.cloudName = cloudName;
+            this.providerName = providerName;
+            this.prefix = sanitize(providerName) + "." + sanitize(cloudName) + "." + sanitize(accountNumber) + ".";
+        }
+    }
+
+    private final String     accountNumber;
+    private final String     cloudName;
+    private final byte[]     credentials;
+    private final Properties customProperties;
+    private final String     effectiveAccountNumber;
+    private final String     endpoint;
+    private final int        hashCode;
+    private final String     providerName;
+    private final String     regionId;
+    private final Scope[]    scopes;
+    private final String     storage;
+    private final String     storageAccountNumber;
+    private final String     storageEndpoint;
+    private volatile Trace   trace;
+
+    private ContextKey(@Nonnull ProviderContext ctx) {
+        Properties props = ctx.getCustomProperties();
+
+        accountNumber = ctx.getAccountNumber();
+        cloudName = ctx.getCloudName();
+        effectiveAccountNumber = ctx.getEffectiveAccountNumber();
+        endpoint = ctx.getEndpoint();
+        providerName = ctx.getProviderName();
+        regionId = ctx.getRegionId();
+        storage = ctx.getStorage();
+        storageAccountNumber = ctx.getStorageAccountNumber();
+        storageEndpoint = ctx.getStorageEndpoint();
+        if( props == null ) {
+            customProperties = null;
+        }
+        else {
+            customProperties = new Properties();
+            customProperties.putAll(props);
+        }
+        credentials = digest(ctx.getAccessPublic(), ctx.getAccessPrivate(), ctx.getX509Cert(), ctx.getX509Key(), ctx.getStoragePublic(), ctx.getStoragePrivate(), ctx.getStorageX509Cert(), ctx.getStorageX509Key());
+        hashCode = Arrays.hashCode(new Object[] { accountNumber, cloudName, endpoint, providerName, regionId }) * 31 + Arrays.hashCode(credentials);
+        scopes = new Scope[CacheLevel.values().length];
+        scopes[CacheLevel.CLOUD.ordinal()] = new Scope(endpoint, null, null);
+        scopes[CacheLevel.REGION.ordinal()] = new Scope(endpoint, regionId, null);
+        scopes[CacheLevel.CLOUD_ACCOUNT.ordinal()] = new Scope(endpoint, null, accountNumber);
+        scopes[CacheLevel.REGION_ACCOUNT.ordinal()] = new Scope(endpoint, regionId, accountNumber);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object ob) {
+        if( ob == this ) {
+            return true;
+        }
+        if( !(ob instanceof ContextKey) ) {
+            return false;
+        }
+        ContextKey other = (ContextKey)ob;
+
+        // the cached hashes differ for nearly all unequal keys, so the field comparisons rarely run
+        return (hashCode == other.hashCode && Arrays.equals(credentials, other.credentials)
+                && same(accountNumber, other.accountNumber) && same(regionId, other.regionId) && same(endpoint, other.endpoint)
+                && same(providerName, other.providerName) && same(cloudName, other.cloudName) && same(effectiveAccountNumber, other.effectiveAccountNumber)
+                && same(storage, other.storage) && same(storageEndpoint, other.storageEndpoint) && same(storageAccountNumber, other.storageAccountNumber)
+                && same(customProperties, other.customProperties));
+    }
+
+    /**
+     * @return the account number of the context, or <code>null</code> if none was set
+     */
+    public @Nullable String getAccountNumber() {
+        return accountNumber;
+    }
+
+    /**
+     * Provides the fully qualified name under which {@link org.dasein.cloud.util.APITrace} counts calls to the
+     * specified API from this context. Names are built once per API call and reused thereafter.
+     * @param providerName the name of the provider making the call
+     * @param cloudName the name of the cloud being called
+     * @param apiCall the API call being made
+     * @return the trace name for the call
+     */
+    public @Nonnull String getCallName(@Nonnull String providerName, @Nonnull String cloudName, @Nonnull String apiCall) {
+        Trace t = getTrace(providerName, cloudName);
+        String name = t.callNames.get(apiCall);
+
+        if( name == null ) {
+            name = t.prefix + apiCall;
+            t.callNames.put(apiCall, name);
+        }
+        return name;
+    }
+
+    /**
+     * @return the cloud name of the context, or <code>null</code> if none was set
+     */
+    public @Nullable String getCloudName() {
+        return cloudName;
+    }
+
+    /**
+     * @return the endpoint of the context, or <code>null</code> if none was set
+     */
+    public @Nullable String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return the provider name of the context, or <code>null</code> if none was set
+     */
+    public @Nullable String getProviderName() {
+        return providerName;
+    }
+
+    /**
+     * @return the region ID of the context, or <code>null</code> if none was set
+     */
+    public @Nullable String getRegionId() {
+        return regionId;
+    }
+
+    /**
+     * Provides the portion of this key relevant to items cached at the specified level. Contexts whose scopes are equal
+     * at a given level share cached items at that level.
+     * @param level the caching level
+     * @return an immutable, hash-cached scope for the level
+     */
+    public @Nonnull Object getScope(@Nonnull CacheLevel level) {
+        return scopes[level.ordinal()];
+    }
+
+    private @Nonnull Trace getTrace(@Nonnull String providerName, @Nonnull String cloudName) {
+        Trace t = trace;
+
+        // a key is almost always traced under a single provider, so one remembered prefix is enough
+        if( t == null || !t.providerName.equals(providerName) || !t.cloudName.equals(cloudName) ) {
+            t = new Trace(providerName, cloudName, accountNumber == null ? "---" : accountNumber);
+            trace = t;
+        }
+        return t;
+    }
+
+    /**
+     * Provides the sanitized prefix under which {@link org.dasein.cloud.util.APITrace} counts calls from this context.
+     * @param providerName the name of the provider making calls
+     * @param cloudName the name of the cloud being called
+     * @return the trace prefix, ending in the trace delimiter
+     */
+    public @Nonnull String getTracePrefix(@Nonnull String providerName, @Nonnull String cloudName) {
+        return getTrace(providerName, cloudName).prefix;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return (providerName + "/" + cloudName + "/" + endpoint + "/" + accountNumber + "/" + regionId);
+    }
+}
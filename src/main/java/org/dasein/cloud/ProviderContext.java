@@ -73,6 +73,8 @@ public class ProviderContext implements Serializable {
     private byte[]     x509Cert;
     private byte[]     x509Key;
 
+    private transient volatile ContextKey key;
+
     /**
      * Constructs a new, empty provider context for managing the provider context information.
      */
@@ -95,8 +97,69 @@ public class ProviderContext implements Serializable {
      */
     public void clear() {
         clear(accessPublic, accessPrivate, storagePublic, storagePrivate, x509Cert, x509Key, storageX509Cert, storageX509Key);
+        key = null;
+    }
+
+    static private @Nullable byte[] copy(@Nullable byte[] key) {
+        return (key == null ? null : key.clone());
+    }
+
+    static private @Nullable Properties copy(@Nullable Properties properties) {
+        if( properties == null ) {
+            return null;
+        }
+        Properties p = new Properties();
+
+        p.putAll(properties);
+        return p;
+    }
+
+    /**
+     * Makes a deep copy of this context. Credentials are copied rather than shared, so clearing either context
+     * leaves the other intact.
+     * @return a copy of this context
+     */
+    public @Nonnull ProviderContext copy() {
+        ProviderContext ctx = new ProviderContext();
+
+        ctx.accessPrivate = copy(accessPrivate);
+        ctx.accessPublic = copy(accessPublic);
+        ctx.accountNumber = accountNumber;
+        ctx.cloudName = cloudName;
+        ctx.customProperties = copy(customProperties);
+        ctx.effectiveAccountNumber = effectiveAccountNumber;
+        ctx.endpoint = endpoint;
+        ctx.providerName = providerName;
+        ctx.regionId = regionId;
+        ctx.storage = storage;
+        ctx.storageAccountNumber = storageAccountNumber;
+        ctx.storageCustomProperties = copy(storageCustomProperties);
+        ctx.storageEndpoint = storageEndpoint;
+        ctx.storagePrivate = copy(storagePrivate);
+        ctx.storagePublic = copy(storagePublic);
+        ctx.storageX509Cert = copy(storageX509Cert);
+        ctx.storageX509Key = copy(storageX509Key);
+        ctx.x509Cert = copy(x509Cert);
+        ctx.x509Key = copy(x509Key);
+        return ctx;
     }
     
+    /**
+     * Provides the immutable identity of this context in its current state. The key is built on first use and reused
+     * until any setter changes this context. Changes made directly to arrays or properties previously handed to this
+     * context are not detected.
+     * @return the key identifying this context
+     */
+    public @Nonnull ContextKey getKey() {
+        ContextKey k = key;
+
+        if( k == null ) {
+            k = ContextKey.getInstance(this);
+            key = k;
+        }
+        return k;
+    }
+
     /**
      * The private access key is the primary authentication password for web services calls.
      * In this AWS world, this is your access secret key.
@@ -195,6 +258,7 @@ public class ProviderContext implements Serializable {
     public void setAccessKeys(@Nullable byte[] publicKey, @Nullable byte[] privateKey) {
         accessPublic = publicKey;
         accessPrivate = privateKey;
+        key = null;
     }
     
     /**
@@ -203,6 +267,7 @@ public class ProviderContext implements Serializable {
      */
     public void setAccessPrivate(@Nullable byte[] accessPrivate) {
         this.accessPrivate = accessPrivate;
+        key = null;
     }
     
     /**
@@ -211,6 +276,7 @@ public class ProviderContext implements Serializable {
      */
     public void setAccessPublic(@Nullable byte[] accessPublic) {
         this.accessPublic = accessPublic;
+        key = null;
     }
     
     /**
@@ -219,6 +285,7 @@ public class ProviderContext implements Serializable {
      */
     public void setAccountNumber(@Nonnull String accountNumber) {
         this.accountNumber = accountNumber;
+        key = null;
     }
     
     /**
@@ -227,6 +294,7 @@ public class ProviderContext implements Serializable {
      */
     public void setCloudName(@Nullable String name) {
     	cloudName = name;
+        key = null;
     }
     
     /**
@@ -235,6 +303,7 @@ public class ProviderContext implements Serializable {
      */
     public void setCustomProperties(@Nonnull Properties properties) {
     	customProperties = properties;
+        key = null;
     }
     
     /**
@@ -243,6 +312,7 @@ public class ProviderContext implements Serializable {
      */
     public void setEndpoint(@Nullable String endpoint) {
         this.endpoint = endpoint;
+        key = null;
     }
     
     /**
@@ -251,6 +321,7 @@ public class ProviderContext implements Serializable {
      */
     public void setProviderName(@Nullable String name) {
     	providerName = name;
+        key = null;
     }
     
     /**
@@ -259,6 +330,7 @@ public class ProviderContext implements Serializable {
      */
     public void setRegionId(@Nullable String regionId) {
         this.regionId = regionId;
+        key = null;
     }
 
     /**
@@ -269,6 +341,7 @@ public class ProviderContext implements Serializable {
     public void setStorageKeys(@Nullable byte[] publicKey, @Nullable byte[] privateKey) {
         storagePublic = publicKey;
         storagePrivate = privateKey;
+        key = null;
     }
 
     /**
@@ -277,6 +350,7 @@ public class ProviderContext implements Serializable {
      */
     public void setStoragePrivate(@Nullable byte[] storagePrivate) {
         this.storagePrivate = storagePrivate;
+        key = null;
     }
     
     /**
@@ -285,6 +359,7 @@ public class ProviderContext implements Serializable {
      */
     public void setStoragePublic(@Nullable byte[] storagePublic) {
         this.storagePublic = storagePublic;
+        key = null;
     }
 
     public String getStorage() {
@@ -293,6 +368,7 @@ public class ProviderContext implements Serializable {
 
     public void setStorage(String storage) {
         this.storage = storage;
+        key = null;
     }
 
     public String getStorageAccountNumber() {
@@ -301,6 +377,7 @@ public class ProviderContext implements Serializable {
 
     public void setStorageAccountNumber(String storageAccountNumber) {
         this.storageAccountNumber = storageAccountNumber;
+        key = null;
     }
 
     public byte[] getX509Cert() {
@@ -309,6 +386,7 @@ public class ProviderContext implements Serializable {
 
     public void setX509Cert(byte[] x509Cert) {
         this.x509Cert = x509Cert;
+        key = null;
     }
 
     public byte[] getX509Key() {
@@ -317,6 +395,7 @@ public class ProviderContext implements Serializable {
 
     public void setX509Key(byte[] x509Key) {
         this.x509Key = x509Key;
+        key = null;
     }
 
     public static Random getRandom() {
@@ -329,6 +408,7 @@ public class ProviderContext implements Serializable {
 
     public void setStorageX509Cert(byte[] storageX509Cert) {
         this.storageX509Cert = storageX509Cert;
+        key = null;
     }
 
     public byte[] getStorageX509Key() {
@@ -337,10 +417,12 @@ public class ProviderContext implements Serializable {
 
     public void setStorageX509Key(byte[] storageX509Key) {
         this.storageX509Key = storageX509Key;
+        key = null;
     }
 
     public void setStorageEndpoint(String storageEndpoint) {
         this.storageEndpoint = storageEndpoint;
+        key = null;
     }
 
     public String getStorageEndpoint() {
@@ -349,6 +431,7 @@ public class ProviderContext implements Serializable {
 
     public void setEffectiveAccountNumber(String effectiveAccountNumber) {
         this.effectiveAccountNumber = effectiveAccountNumber;
+        key = null;
     }
 
     public String getEffectiveAccountNumber() {
@@ -360,6 +443,7 @@ public class ProviderContext implements Serializable {
 
     public void setStorageCustomProperties(Properties storageCustomProperties) {
         this.storageCustomProperties = storageCustomProperties;
+        key = null;
     }
 
     public Properties getStorageCustomProperties() {
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Creates the provider instances handed out by a {@link CloudProviderPool} and, through it, by the fan-out executor.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public interface ProviderFactory {
+    /**
+     * Constructs an unconnected provider instance for the specified context.
+     * @param context the context the provider will be connected to
+     * @return a new provider instance
+     * @throws CloudException the provider could not be constructed
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     */
+    public @Nonnull CloudProvider newProvider(@Nonnull ProviderContext context) throws CloudException, InternalException;
+}
@@ -28,12 +28,17 @@ import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.Tag;
 import org.dasein.cloud.identity.ServiceAction;
+import org.dasein.cloud.util.BatchLoader;
+import org.dasein.cloud.util.CompiledFilter;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Basic implementations of deprecated methods, helper functions, and default approaches to implementing methods for
@@ -44,7 +49,8 @@ import java.util.Locale;
  * @since 2013.04
  */
 public abstract class AbstractImageSupport implements MachineImageSupport {
-    private CloudProvider provider;
+    private ImageCatalogIndex catalogIndex;
+    private CloudProvider     provider;
 
     public AbstractImageSupport(@Nonnull CloudProvider provider) {
         this.provider = provider;
@@ -143,9 +149,52 @@ public abstract class AbstractImageSupport implements MachineImageSupport {
         return ctx;
     }
 
+    /**
+     * Looks up many images in a single call. Concurrent calls to {@link #getMachineImage(String)} are coalesced into
+     * calls to this method. The default implementation calls {@link #getImage(String)} once for each ID. Override it if
+     * the cloud can describe many images by ID in one API call.
+     * @param ids the IDs of the images to look up
+     * @return the images found, keyed by ID
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     */
+    protected @Nonnull Map<String,MachineImage> getImages(@Nonnull Collection<String> ids) throws CloudException, InternalException {
+        HashMap<String,MachineImage> found = new HashMap<String, MachineImage>();
+
+        for( String id : ids ) {
+            MachineImage img = getImage(id);
+
+            if( img != null ) {
+                found.put(id, img);
+            }
+        }
+        return found;
+    }
+
     @Override
     public final @Nullable MachineImage getMachineImage(@Nonnull String providerImageId) throws CloudException, InternalException {
-        return getImage(providerImageId);
+        BatchLoader<MachineImage> loader = BatchLoader.getInstance(getProvider(), "machineImages", MachineImage.class);
+
+        return loader.load(getContext(), providerImageId, new BatchLoader.Fetcher<MachineImage>() {
+            public @Nonnull Map<String,MachineImage> fetch(@Nonnull Collection<String> ids) throws CloudException, InternalException {
+                return getImages(ids);
+            }
+        });
+    }
+
+    /**
+     * Provides the index of the public image catalog used by
+     * {@link #searchPublicImageCatalog(String, Platform, Architecture, ImageClass...)}. Each image support holds exactly one
+     * index, which {@link ImageCatalogIndex#getInstance(MachineImageSupport)} also returns for this support.
+     * @return the index of this support's public image catalog
+     */
+    public @Nonnull ImageCatalogIndex getImageCatalogIndex() {
+        synchronized( this ) {
+            if( catalogIndex == null ) {
+                catalogIndex = new ImageCatalogIndex(this);
+            }
+            return catalogIndex;
+        }
     }
 
     protected final @Nonnull CloudProvider getProvider() {
@@ -290,6 +339,35 @@ public abstract class AbstractImageSupport implements MachineImageSupport {
         return new String[0];
     }
 
+    /**
+     * Compares an image's platform to a platform being searched for. {@link Platform#UNKNOWN} matches any platform and
+     * {@link Platform#UNIX} matches any Unix platform; any other platform must match exactly.
+     * @param platform the platform being searched for
+     * @param mine the platform of the image being checked
+     * @return true if the image's platform satisfies the search
+     */
+    static boolean matches(@Nonnull Platform platform, @Nonnull Platform mine) {
+        if( platform.equals(Platform.UNKNOWN) ) {
+            return true;
+        }
+        if( platform.isWindows() && !mine.isWindows() ) {
+            return false;
+        }
+        if( platform.isUnix() && !mine.isUnix() ) {
+            return false;
+        }
+        if( platform.isBsd() && !mine.isBsd() ) {
+            return false;
+        }
+        if( platform.isLinux() && !mine.isLinux() ) {
+            return false;
+        }
+        if( platform.equals(Platform.UNIX) ) {
+            return mine.isUnix();
+        }
+        return platform.equals(mine);
+    }
+
     /**
      * Compares a machine image to the specified set of criteria to see if there is a match.
      * @param image the image to be checked
@@ -316,29 +394,8 @@ public abstract class AbstractImageSupport implements MachineImageSupport {
                 return false;
             }
         }
-        if( platform != null && !platform.equals(Platform.UNKNOWN) ) {
-            Platform mine = image.getPlatform();
-
-            if( platform.isWindows() && !mine.isWindows() ) {
-                return false;
-            }
-            if( platform.isUnix() && !mine.isUnix() ) {
-                return false;
-            }
-            if( platform.isBsd() && !mine.isBsd() ) {
-                return false;
-            }
-            if( platform.isLinux() && !mine.isLinux() ) {
-                return false;
-            }
-            if( platform.equals(Platform.UNIX) ) {
-                if( !mine.isUnix() ) {
-                    return false;
-                }
-            }
-            else if( !platform.equals(mine) ) {
-                return false;
-            }
+        if( platform != null && !matches(platform, image.getPlatform()) ) {
+            return false;
         }
         if( keyword != null ) {
             keyword = keyword.toLowerCase();
@@ -400,22 +457,16 @@ public abstract class AbstractImageSupport implements MachineImageSupport {
             return listImages(options);
         }
         else {
-            ArrayList<MachineImage> images = new ArrayList<MachineImage>();
+            CompiledFilter.Builder<MachineImage> filter = CompiledFilter.getBuilder(true);
 
-            for( MachineImage img : listImages(options) ) {
-                boolean matches = false;
-
-                for( ImageClass cls : imageClasses ) {
-                    if( img.getImageClass().equals(cls) ) {
-                        matches = true;
-                        break;
+            for( final ImageClass cls : imageClasses ) {
+                filter.withCriterion(CompiledFilter.COST_EQUALS, new CompiledFilter.Criterion<MachineImage>() {
+                    public boolean matches(@Nonnull MachineImage img) {
+                        return cls.equals(img.getImageClass());
                     }
-                }
-                if( matches && options.matches(img) ) {
-                    images.add(img);
-                }
+                });
             }
-            return images;
+            return options.compile().filter(filter.build().filter(listImages(options)));
         }
     }
 
@@ -433,6 +484,25 @@ public abstract class AbstractImageSupport implements MachineImageSupport {
         return matches;
     }
 
+    /**
+     * Searches the public image catalog through {@link #getImageCatalogIndex()} rather than listing it, so only the
+     * first search and periodic rebuilds call {@link #searchPublicImages(ImageFilterOptions)}. The keyword is split into
+     * words, each of which must begin a word of the image name, description or ID, and several words must begin
+     * consecutive words in order. Unlike the regular expression used by
+     * {@link #searchPublicImages(String, Platform, Architecture, ImageClass...)}, a keyword found only in the middle of a
+     * word does not match. The platform matches as in {@link #matches(MachineImage, String, Platform, Architecture, ImageClass...)}.
+     * @param keyword the words to search for or <code>null</code> for any image
+     * @param platform the platform to match or <code>null</code> for any platform
+     * @param architecture the architecture to match or <code>null</code> for any architecture
+     * @param imageClasses the image classes to match or none for any class
+     * @return the matching public images
+     * @throws CloudException an error occurred with the cloud provider loading the index
+     * @throws InternalException an error occurred within the Dasein Cloud implementation loading the index
+     */
+    public @Nonnull Iterable<MachineImage> searchPublicImageCatalog(@Nullable String keyword, @Nullable Platform platform, @Nullable Architecture architecture, @Nullable ImageClass ... imageClasses) throws CloudException, InternalException {
+        return getImageCatalogIndex().search(null, keyword, platform, architecture, imageClasses);
+    }
+
     @Override
     public @Nonnull Iterable<MachineImage> searchPublicImages(@Nonnull ImageFilterOptions options) throws CloudException, InternalException {
         return Collections.emptyList();
@@ -27,11 +27,18 @@ import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.Tag;
 import org.dasein.cloud.identity.ServiceAction;
+import org.dasein.cloud.util.BatchLoader;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Basic non-functional functionality for any implementation of snapshot support in any cloud.
@@ -81,6 +88,16 @@ public abstract class AbstractSnapshotSupport implements SnapshotSupport {
         return ctx;
     }
 
+    /**
+     * Identifies the filter criteria the cloud evaluates natively when listing snapshots. Criteria returned here are
+     * passed to {@link #listSnapshotsNatively(SnapshotFilterOptions)} and the remaining criteria are evaluated locally. Override this
+     * method along with the native listing method when the cloud API supports server-side filtering.
+     * @return the natively supported filter criteria, empty by default
+     */
+    protected @Nonnull Set<FilterCriterion> getNativeFilterCriteria() {
+        return EnumSet.noneOf(FilterCriterion.class);
+    }
+
     /**
      * @return the provider object associated with any calls through this support object
      */
@@ -90,12 +107,39 @@ public abstract class AbstractSnapshotSupport implements SnapshotSupport {
 
     @Override
     public @Nullable Snapshot getSnapshot(@Nonnull String snapshotId) throws InternalException, CloudException {
+        BatchLoader<Snapshot> loader = BatchLoader.getInstance(getProvider(), "snapshots", Snapshot.class);
+
+        return loader.load(getContext(), snapshotId, new BatchLoader.Fetcher<Snapshot>() {
+            public @Nonnull Map<String,Snapshot> fetch(@Nonnull Collection<String> ids) throws CloudException, InternalException {
+                return getSnapshots(ids);
+            }
+        });
+    }
+
+    /**
+     * Looks up many snapshots in a single call. Concurrent calls to {@link #getSnapshot(String)} are coalesced into
+     * calls to this method. The default implementation makes one pass through {@link #listSnapshots()}. Override it if
+     * the cloud can describe many snapshots by ID in one API call.
+     * @param ids the IDs of the snapshots to look up
+     * @return the snapshots found, keyed by ID
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     * @throws CloudException an error occurred within the cloud provider
+     */
+    protected @Nonnull Map<String,Snapshot> getSnapshots(@Nonnull Collection<String> ids) throws InternalException, CloudException {
+        HashSet<String> wanted = new HashSet<String>(ids);
+        HashMap<String,Snapshot> found = new HashMap<String, Snapshot>();
+
         for( Snapshot snapshot : listSnapshots() ) {
-            if( snapshot.getProviderSnapshotId().equals(snapshotId) ) {
-                return snapshot;
+            String id = snapshot.getProviderSnapshotId();
+
+            if( wanted.contains(id) ) {
+                found.put(id, snapshot);
+                if( found.size() == wanted.size() ) {
+                    break;
+                }
             }
         }
-        return null;
+        return found;
     }
 
     @Override
@@ -124,14 +168,24 @@ public abstract class AbstractSnapshotSupport implements SnapshotSupport {
     }
 
     public @Nonnull Iterable<Snapshot> listSnapshots(SnapshotFilterOptions options) throws InternalException, CloudException {
-        ArrayList<Snapshot> snapshots = new ArrayList<Snapshot>();
+        FilterPushDown<SnapshotFilterOptions,Snapshot> split = options.pushDown(getNativeFilterCriteria(), getContext().getAccountNumber());
+        SnapshotFilterOptions pushed = split.getPushedDown();
+        Iterable<Snapshot> snapshots = (pushed == null ? listSnapshots() : listSnapshotsNatively(pushed));
 
-        for( Snapshot snapshot : listSnapshots() ) {
-            if( options.matches(snapshot, getContext().getAccountNumber()) ) {
-                snapshots.add(snapshot);
-            }
-        }
-        return snapshots;
+        return (split.hasResidual() ? split.getResidual().filter(snapshots) : snapshots);
+    }
+
+    /**
+     * Lists the snapshots matching the specified options using the cloud's own filtering. The options contain only
+     * criteria returned by {@link #getNativeFilterCriteria()}, with any implied account criterion made explicit.
+     * The default implementation filters the full listing locally.
+     * @param options the options to be evaluated by the cloud
+     * @return the snapshots matching the options
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     * @throws CloudException an error occurred within the cloud provider
+     */
+    protected @Nonnull Iterable<Snapshot> listSnapshotsNatively(@Nonnull SnapshotFilterOptions options) throws InternalException, CloudException {
+        return options.compile(null).filter(listSnapshots());
     }
 
     @Override
@@ -190,14 +244,7 @@ public abstract class AbstractSnapshotSupport implements SnapshotSupport {
         if( !options.hasCriteria() ) {
             return listSnapshots();
         }
-        ArrayList<Snapshot> snapshots = new ArrayList<Snapshot>();
-
-        for( Snapshot snapshot : listSnapshots() ) {
-            if( options.matches(snapshot, null) ) {
-                snapshots.add(snapshot);
-            }
-        }
-        return snapshots;
+        return options.compile(null).filter(listSnapshots());
     }
 
     @Override
@@ -18,6 +18,7 @@
 
 package org.dasein.cloud.compute;
 
+import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.CloudProvider;
 import org.dasein.cloud.InternalException;
@@ -29,30 +30,34 @@ import org.dasein.cloud.Tag;
 import org.dasein.cloud.identity.IdentityServices;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.BatchLoader;
 import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
+import org.dasein.cloud.util.Page;
+import org.dasein.cloud.util.PagedIterable;
+import org.dasein.cloud.util.StreamingException;
 import org.dasein.util.CalendarWrapper;
-import org.dasein.util.uom.storage.Gigabyte;
-import org.dasein.util.uom.storage.Megabyte;
-import org.dasein.util.uom.storage.Storage;
-import org.dasein.util.uom.time.Day;
+import org.dasein.util.uom.time.Minute;
 import org.dasein.util.uom.time.TimePeriod;
 import org.dasein.util.uom.time.Week;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Default implementation of virtual machine support for clouds with very little support.
@@ -117,6 +122,26 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
         return 100;
     }
 
+    /**
+     * Provides the maximum number of concurrent calls to {@link #launch(VMLaunchOptions)} made by
+     * {@link #launchMany(VMLaunchOptions, int)} when the cloud does not support launching many virtual machines in a
+     * single call. Override this method to suit the API rate limits of your cloud.
+     * @return the maximum number of concurrent launch calls for a single batch
+     */
+    protected @Nonnegative int getLaunchParallelism() {
+        return 10;
+    }
+
+    /**
+     * Identifies the filter criteria the cloud evaluates natively when listing virtual machines. Criteria returned here are
+     * passed to {@link #listVirtualMachinesNatively(VMFilterOptions)} and the remaining criteria are evaluated locally. Override this
+     * method along with the native listing method when the cloud API supports server-side filtering.
+     * @return the natively supported filter criteria, empty by default
+     */
+    protected @Nonnull Set<FilterCriterion> getNativeFilterCriteria() {
+        return EnumSet.noneOf(FilterCriterion.class);
+    }
+
     @Override
     public int getMaximumVirtualMachineCount() throws CloudException, InternalException {
         return -2;
@@ -124,6 +149,11 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
 
     @Override
     public @Nullable VirtualMachineProduct getProduct(@Nonnull String productId) throws InternalException, CloudException {
+        VirtualMachineProduct product = getProductCatalog().getProduct(productId, getContext().getRegionId());
+
+        if( product != null || isProductCatalogAuthoritative() ) {
+            return product;
+        }
         for( Architecture architecture : Architecture.values() ) {
             for( VirtualMachineProduct prd : listProducts(architecture) ) {
                 if( productId.equals(prd.getProviderProductId()) ) {
@@ -134,6 +164,91 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
         return null;
     }
 
+    /**
+     * Indicates whether {@link #getProductCatalog()} holds every product this support lists. {@link #getProduct(String)}
+     * always looks a product up in the catalog first; when the catalog is authoritative, a miss there is final, and
+     * otherwise it falls back to scanning {@link #listProducts(Architecture)}. Subclasses that take their products from
+     * the catalog, as the default {@link #listProducts(Architecture)} does, should override this method to return true.
+     * @return true if the product catalog holds every product this support lists
+     */
+    protected boolean isProductCatalogAuthoritative() {
+        return false;
+    }
+
+    /**
+     * Provides the catalog of products defined in the resource identified by {@link #getVMProductsResource()} for
+     * this provider and cloud. The catalog is parsed once, shared by all support instances using the same resource,
+     * and parsed again once it is a day old.
+     * @return the product catalog for the current cloud
+     * @throws CloudException no context has been set for loading the products
+     * @throws InternalException the product resource could not be read or parsed
+     */
+    protected @Nonnull VMProductCatalog getProductCatalog() throws CloudException, InternalException {
+        return VMProductCatalog.getInstance(getVMProductsResource(), getProvider().getProviderName(), getProvider().getCloudName());
+    }
+
+    /**
+     * Provides a selector over the products available in the current region for each supported architecture.
+     * @return a selector over the current products
+     * @throws InternalException an error occurred within Dasein Cloud listing the products
+     * @throws CloudException an error occurred with the cloud provider listing the products
+     */
+    public @Nonnull VMProductSelector getProductSelector() throws InternalException, CloudException {
+        String regionId = getContext().getRegionId();
+
+        if( regionId == null ) {
+            throw new CloudException("No region was set for this request");
+        }
+        return getProductSelector(regionId);
+    }
+
+    /**
+     * Provides a selector over the products available in the specified region for each supported architecture. The
+     * selector is built from {@link #listProducts(Architecture, String)} and cached for the account for up to fifteen
+     * minutes or until {@link #clearProductSelectors()} is called.
+     * @param regionId the region whose products are sought
+     * @return a selector over the products in the specified region
+     * @throws InternalException an error occurred within Dasein Cloud listing the products
+     * @throws CloudException an error occurred with the cloud provider listing the products
+     */
+    public @Nonnull VMProductSelector getProductSelector(@Nonnull String regionId) throws InternalException, CloudException {
+        Cache<VMProductSelector> cache = getProductSelectorCache();
+        Iterable<VMProductSelector> selectors = cache.get(getContext());
+        ArrayList<VMProductSelector> list = new ArrayList<VMProductSelector>();
+
+        if( selectors != null ) {
+            for( VMProductSelector selector : selectors ) {
+                if( regionId.equals(selector.getRegionId()) ) {
+                    return selector;
+                }
+                list.add(selector);
+            }
+        }
+        EnumMap<Architecture,Iterable<VirtualMachineProduct>> products = new EnumMap<Architecture, Iterable<VirtualMachineProduct>>(Architecture.class);
+
+        for( Architecture architecture : listSupportedArchitectures() ) {
+            products.put(architecture, listProducts(architecture, regionId));
+        }
+        VMProductSelector selector = VMProductSelector.getInstance(regionId, products);
+
+        list.add(selector);
+        cache.put(getContext(), list);
+        return selector;
+    }
+
+    /**
+     * Discards the cached product selectors for every region so that the next call to
+     * {@link #getProductSelector(String)} reflects the current products. Call this method when products or their
+     * prices are known to have changed.
+     */
+    public void clearProductSelectors() {
+        getProductSelectorCache().clear();
+    }
+
+    private @Nonnull Cache<VMProductSelector> getProductSelectorCache() {
+        return Cache.getInstance(getProvider(), "productSelector", VMProductSelector.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Minute>(15, TimePeriod.MINUTE));
+    }
+
     /**
      * @return the current provider governing any operations against this cloud in this support instance
      */
@@ -143,12 +258,44 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
 
     @Override
     public @Nullable VirtualMachine getVirtualMachine(@Nonnull String vmId) throws InternalException, CloudException {
-        for( VirtualMachine vm : listVirtualMachines(null) ) {
-            if( vm.getProviderVirtualMachineId().equals(vmId) ) {
-                return vm;
+        BatchLoader<VirtualMachine> loader = BatchLoader.getInstance(getProvider(), "virtualMachines", VirtualMachine.class);
+
+        return loader.load(getContext(), vmId, new BatchLoader.Fetcher<VirtualMachine>() {
+            public @Nonnull Map<String,VirtualMachine> fetch(@Nonnull Collection<String> ids) throws CloudException, InternalException {
+                return getVirtualMachines(ids);
+            }
+        });
+    }
+
+    /**
+     * Looks up many virtual machines in a single call. Concurrent calls to {@link #getVirtualMachine(String)} are
+     * coalesced into calls to this method. The default implementation makes one pass through
+     * {@link #listVirtualMachines()}. Override it if the cloud can describe many virtual machines by ID in one API call.
+     * @param ids the IDs of the virtual machines to look up
+     * @return the virtual machines found, keyed by ID
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     * @throws CloudException an error occurred within the cloud provider
+     */
+    protected @Nonnull Map<String,VirtualMachine> getVirtualMachines(@Nonnull Collection<String> ids) throws InternalException, CloudException {
+        HashSet<String> wanted = new HashSet<String>(ids);
+        HashMap<String,VirtualMachine> found = new HashMap<String, VirtualMachine>();
+
+        try {
+            for( VirtualMachine vm : listVirtualMachines() ) {
+                String id = vm.getProviderVirtualMachineId();
+
+                if( wanted.contains(id) ) {
+                    found.put(id, vm);
+                    if( found.size() == wanted.size() ) {
+                        break;
+                    }
+                }
             }
         }
-        return null;
+        catch( StreamingException e ) {
+            throw e.rethrowCause();
+        }
+        return found;
     }
 
     @Override
@@ -281,6 +428,143 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
         return launch(options);
     }
 
+    /**
+     * Launches a fleet of identically configured virtual machines. The product and machine image are looked up once
+     * for the whole fleet, after which the launches proceed in the background, either through a single native
+     * multi-count launch where the cloud supports one or through a bounded number of parallel calls to
+     * {@link #launch(VMLaunchOptions, VirtualMachineProduct, MachineImage)} with the already resolved product and image.
+     * The failure of individual launches does not stop the rest of the fleet; it is instead reported for that member
+     * through the returned batch. This method is not part of {@link VirtualMachineSupport} so that implementations
+     * of that interface which do not extend this class are unaffected.
+     * @param withLaunchOptions the launch options to use for every virtual machine in the fleet
+     * @param count the number of virtual machines to launch
+     * @return a batch tracking the progress and outcome of each launch
+     * @throws CloudException the cloud provider rejected the launch options
+     * @throws InternalException the count is negative or an error occurred within the Dasein Cloud API implementation
+     */
+    public @Nonnull VMLaunchBatch launchMany(final @Nonnull VMLaunchOptions withLaunchOptions, final @Nonnegative int count) throws CloudException, InternalException {
+        if( count < 0 ) {
+            throw new InternalException("Cannot launch a negative number of virtual machines: " + count);
+        }
+        int max = getMaximumVirtualMachineCount();
+
+        if( max > -1 && count > max ) {
+            throw new CloudException(CloudErrorType.QUOTA, 0, "QuotaExceeded", "Cannot launch " + count + " virtual machines when the limit is " + max);
+        }
+        final VirtualMachineProduct product = getProduct(withLaunchOptions.getStandardProductId());
+
+        if( product == null ) {
+            throw new CloudException("No such product: " + withLaunchOptions.getStandardProductId());
+        }
+        ComputeServices services = getProvider().getComputeServices();
+        MachineImageSupport imageSupport = (services == null ? null : services.getImageSupport());
+        final MachineImage image = (imageSupport == null ? null : imageSupport.getImage(withLaunchOptions.getMachineImageId()));
+
+        if( imageSupport != null && image == null ) {
+            throw new CloudException("No such machine image: " + withLaunchOptions.getMachineImageId());
+        }
+        final VMLaunchBatch batch = new VMLaunchBatch(this, count);
+
+        if( count < 1 ) {
+            return batch;
+        }
+        final int parallelism = Math.max(1, Math.min(count, getLaunchParallelism()));
+        Thread launcher = new Thread() {
+            public void run() {
+                try {
+                    Iterable<VirtualMachine> vms = launchMultiple(withLaunchOptions, count);
+                    int i = 0;
+
+                    for( VirtualMachine vm : vms ) {
+                        if( i < count ) {
+                            batch.launched(i++, vm);
+                        }
+                    }
+                    int launched = i;
+
+                    for( ; i<count; i++ ) {
+                        batch.failed(i, new CloudException("Only " + launched + " of " + count + " virtual machines were launched"));
+                    }
+                    return;
+                }
+                catch( OperationNotSupportedException ignore ) {
+                    // fall back to individual launches
+                }
+                catch( Throwable e ) {
+                    for( int i=0; i<count; i++ ) {
+                        batch.failed(i, e);
+                    }
+                    return;
+                }
+                ExecutorService service = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                    private final AtomicInteger threads = new AtomicInteger(0);
+
+                    public Thread newThread(@Nonnull Runnable r) {
+                        Thread t = new Thread(r);
+
+                        t.setName("Launch " + withLaunchOptions.getFriendlyName() + " " + threads.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+                for( int i=0; i<count; i++ ) {
+                    final int index = i;
+
+                    service.submit(new Runnable() {
+                        public void run() {
+                            try {
+                                batch.launched(index, launch(withLaunchOptions, product, image));
+                            }
+                            catch( Throwable e ) {
+                                batch.failed(index, e);
+                            }
+                        }
+                    });
+                }
+                service.shutdown();
+            }
+        };
+
+        launcher.setName("Launch " + count + " x " + withLaunchOptions.getFriendlyName());
+        launcher.setDaemon(true);
+        launcher.start();
+        return batch;
+    }
+
+    /**
+     * Launches a single member of a fleet started through {@link #launchMany(VMLaunchOptions, int)}, whose product and
+     * machine image have already been looked up for the whole fleet. The default implementation ignores them and
+     * delegates to {@link #launch(VMLaunchOptions)}; override it to launch directly with the resolved objects so
+     * that large fleets do not repeat the same lookups for every virtual machine.
+     * @param withLaunchOptions the launch options to use for the virtual machine
+     * @param product the product named by the launch options
+     * @param image the machine image named by the launch options, or <code>null</code> if the cloud has no image support
+     * @return the launched virtual machine
+     * @throws CloudException the cloud provider failed to launch the virtual machine
+     * @throws InternalException an error occurred within the Dasein Cloud API implementation
+     */
+    protected @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions, @Nonnull VirtualMachineProduct product, @Nullable MachineImage image) throws CloudException, InternalException {
+        return launch(withLaunchOptions);
+    }
+
+    /**
+     * Launches the specified number of identically configured virtual machines in a single call to the cloud provider.
+     * Override this method for clouds with native multi-count launch support; the default implementation does not
+     * support it, causing {@link #launchMany(VMLaunchOptions, int)} to fall back to parallel calls to
+     * {@link #launch(VMLaunchOptions, VirtualMachineProduct, MachineImage)}. If fewer virtual machines are returned
+     * than requested, the remainder of the batch is reported as failed.
+     * @param withLaunchOptions the launch options to use for every virtual machine
+     * @param count the number of virtual machines to launch
+     * @return the launched virtual machines
+     * @throws CloudException the cloud provider failed to launch the virtual machines
+     * @throws InternalException an error occurred within the Dasein Cloud API implementation
+     * @throws OperationNotSupportedException the cloud does not support launching many virtual machines in one call
+     */
+    protected @Nonnull Iterable<VirtualMachine> launchMultiple(@Nonnull VMLaunchOptions withLaunchOptions, @Nonnegative int count) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Multi-count launches are not supported for " + getProvider().getCloudName());
+    }
+
     @Override
     public @Nonnull Iterable<String> listFirewalls(@Nonnull String vmId) throws InternalException, CloudException {
         return Collections.emptyList();
@@ -385,120 +669,34 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
         return value;
     }
 
+    /**
+     * Lists the products supporting the specified architecture in the specified region, which need not be the region
+     * of the current context. The default implementation answers for the current region through
+     * {@link #listProducts(Architecture)} and for other regions through {@link #getProductCatalog()} when
+     * {@link #isProductCatalogAuthoritative()} is true. Override this method for clouds whose API can list the products
+     * of any region.
+     * @param architecture the architecture the products must support
+     * @param regionId the region in which the products are sought
+     * @return the matching products
+     * @throws InternalException an error occurred within Dasein Cloud listing the products
+     * @throws CloudException an error occurred with the cloud provider listing the products
+     * @throws OperationNotSupportedException products cannot be listed for a region other than the current one
+     */
+    protected @Nonnull Iterable<VirtualMachineProduct> listProducts(@Nonnull Architecture architecture, @Nonnull String regionId) throws InternalException, CloudException {
+        if( regionId.equals(getContext().getRegionId()) ) {
+            return listProducts(architecture);
+        }
+        if( isProductCatalogAuthoritative() ) {
+            return getProductCatalog().listProducts(architecture, regionId);
+        }
+        throw new OperationNotSupportedException("Listing products for regions other than the current region is not supported for " + getProvider().getCloudName());
+    }
+
     @Override
     public @Nonnull Iterable<VirtualMachineProduct> listProducts(@Nonnull Architecture architecture) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "VM.listProducts");
         try {
-            Cache<VirtualMachineProduct> cache = Cache.getInstance(getProvider(), "products" + architecture.name(), VirtualMachineProduct.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-            Iterable<VirtualMachineProduct> products = cache.get(getContext());
-
-            if( products != null ) {
-                return products;
-            }
-            ArrayList<VirtualMachineProduct> list = new ArrayList<VirtualMachineProduct>();
-
-            try {
-                String resource = getVMProductsResource();
-                InputStream input = AbstractVMSupport.class.getResourceAsStream(resource);
-
-                if( input == null ) {
-                    input = AbstractVMSupport.class.getResourceAsStream("/org/dasein/cloud/std/vmproducts.json");
-                }
-                if( input == null ) {
-                    return Collections.emptyList();
-                }
-                BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-                StringBuilder json = new StringBuilder();
-                String line;
-
-                while( (line = reader.readLine()) != null ) {
-                    json.append(line);
-                    json.append("\n");
-                }
-                JSONArray arr = new JSONArray(json.toString());
-                JSONObject toCache = null;
-
-                for( int i=0; i<arr.length(); i++ ) {
-                    JSONObject productSet = arr.getJSONObject(i);
-                    String cloud, provider;
-
-                    if( productSet.has("cloud") ) {
-                        cloud = productSet.getString("cloud");
-                    }
-                    else {
-                        continue;
-                    }
-                    if( productSet.has("provider") ) {
-                        provider = productSet.getString("provider");
-                    }
-                    else {
-                        continue;
-                    }
-                    if( !productSet.has("products") ) {
-                        continue;
-                    }
-                    if( toCache == null || (provider.equals("default") && cloud.equals("default")) ) {
-                        toCache = productSet;
-                    }
-                    if( provider.equalsIgnoreCase(getProvider().getProviderName()) && cloud.equalsIgnoreCase(getProvider().getCloudName()) ) {
-                        toCache = productSet;
-                        break;
-                    }
-                }
-                if( toCache == null ) {
-                    return Collections.emptyList();
-                }
-                JSONArray plist = toCache.getJSONArray("products");
-
-                for( int i=0; i<plist.length(); i++ ) {
-                    JSONObject product = plist.getJSONObject(i);
-                    boolean supported = false;
-
-                    if( product.has("architectures") ) {
-                        JSONArray architectures = product.getJSONArray("architectures");
-
-                        for( int j=0; j<architectures.length(); j++ ) {
-                            String a = architectures.getString(j);
-
-                            if( architecture.name().equals(a) ) {
-                                supported = true;
-                                break;
-                            }
-                        }
-                    }
-                    if( !supported ) {
-                        continue;
-                    }
-                    if( product.has("excludesRegions") ) {
-                        JSONArray regions = product.getJSONArray("excludesRegions");
-
-                        for( int j=0; j<regions.length(); j++ ) {
-                            String r = regions.getString(j);
-
-                            if( r.equals(getContext().getRegionId()) ) {
-                                supported = false;
-                                break;
-                            }
-                        }
-                    }
-                    if( !supported ) {
-                        continue;
-                    }
-                    VirtualMachineProduct prd = toProduct(product);
-
-                    if( prd != null ) {
-                        list.add(prd);
-                    }
-                }
-                cache.put(getContext(), list);
-            }
-            catch( IOException e ) {
-                throw new InternalException(e);
-            }
-            catch( JSONException e ) {
-                throw new InternalException(e);
-            }
-            return list;
+            return getProductCatalog().listProducts(architecture, getContext().getRegionId());
         }
         finally {
             APITrace.end();
@@ -524,15 +722,39 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
     public @Nonnull Iterable<ResourceStatus> listVirtualMachineStatus() throws InternalException, CloudException {
         ArrayList<ResourceStatus> status = new ArrayList<ResourceStatus>();
 
-        for( VirtualMachine vm : listVirtualMachines() ) {
-            status.add(new ResourceStatus(vm.getProviderVirtualMachineId(), vm.getCurrentState()));
+        try {
+            for( VirtualMachine vm : listVirtualMachines() ) {
+                status.add(new ResourceStatus(vm.getProviderVirtualMachineId(), vm.getCurrentState()));
+            }
+        }
+        catch( StreamingException e ) {
+            throw e.rethrowCause();
         }
         return status;
     }
 
+    /**
+     * Fetches a single page of the virtual machines in the current region. The default implementation of
+     * {@link #listVirtualMachines()} streams the listing through this method, fetching pages only as they are
+     * consumed, so clouds with a paginated API need only override this method to list large numbers of virtual
+     * machines without holding them all in memory. The default implementation returns a single empty page.
+     * @param pageToken the token from the previous page identifying the page to fetch, or <code>null</code> for the first page
+     * @return the requested page
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     * @throws CloudException an error occurred within the cloud provider
+     */
+    protected @Nonnull Page<VirtualMachine> listVirtualMachinePage(@Nullable String pageToken) throws InternalException, CloudException {
+        return Page.getInstance(Collections.<VirtualMachine>emptyList(), null);
+    }
+
     @Override
     public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
-        return Collections.emptyList();
+        return new PagedIterable<VirtualMachine>() {
+            @Override
+            protected @Nonnull Page<VirtualMachine> fetchPage(@Nullable String pageToken) throws CloudException, InternalException {
+                return listVirtualMachinePage(pageToken);
+            }
+        };
     }
 
     @Override
@@ -540,14 +762,24 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
         if( options == null ) {
             return listVirtualMachines();
         }
-        ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+        FilterPushDown<VMFilterOptions,VirtualMachine> split = options.pushDown(getNativeFilterCriteria());
+        VMFilterOptions pushed = split.getPushedDown();
+        Iterable<VirtualMachine> vms = (pushed == null ? listVirtualMachines() : listVirtualMachinesNatively(pushed));
 
-        for( VirtualMachine vm : listVirtualMachines() ) {
-            if( options.matches(vm) ) {
-                vms.add(vm);
-            }
-        }
-        return vms;
+        return (split.hasResidual() ? split.getResidual().filter(vms) : vms);
+    }
+
+    /**
+     * Lists the virtual machines matching the specified options using the cloud's own filtering. The options
+     * contain only criteria returned by {@link #getNativeFilterCriteria()}. The default implementation filters the
+     * full listing locally.
+     * @param options the options to be evaluated by the cloud
+     * @return the virtual machines matching the options
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     * @throws CloudException an error occurred within the cloud provider
+     */
+    protected @Nonnull Iterable<VirtualMachine> listVirtualMachinesNatively(@Nonnull VMFilterOptions options) throws InternalException, CloudException {
+        return options.compile().filter(listVirtualMachines());
     }
 
     @Override
@@ -677,62 +909,4 @@ public abstract class AbstractVMSupport implements VirtualMachineSupport {
         return new String[0];
     }
 
-    private @Nullable VirtualMachineProduct toProduct(@Nonnull JSONObject json) throws InternalException {
-        VirtualMachineProduct prd = new VirtualMachineProduct();
-
-        try {
-            if( json.has("id") ) {
-                prd.setProviderProductId(json.getString("id"));
-            }
-            else {
-                return null;
-            }
-            if( json.has("name") ) {
-                prd.setName(json.getString("name"));
-            }
-            else {
-                prd.setName(prd.getProviderProductId());
-            }
-            if( json.has("description") ) {
-                prd.setDescription(json.getString("description"));
-            }
-            else {
-                prd.setDescription(prd.getName());
-            }
-            if( json.has("cpuCount") ) {
-                prd.setCpuCount(json.getInt("cpuCount"));
-            }
-            else {
-                prd.setCpuCount(1);
-            }
-            if( json.has("rootVolumeSizeInGb") ) {
-                prd.setRootVolumeSize(new Storage<Gigabyte>(json.getInt("rootVolumeSizeInGb"), Storage.GIGABYTE));
-            }
-            else {
-                prd.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
-            }
-            if( json.has("ramSizeInMb") ) {
-                prd.setRamSize(new Storage<Megabyte>(json.getInt("ramSizeInMb"), Storage.MEGABYTE));
-            }
-            else {
-                prd.setRamSize(new Storage<Megabyte>(512, Storage.MEGABYTE));
-            }
-            if( json.has("standardHourlyRates") ) {
-                JSONArray rates = json.getJSONArray("standardHourlyRates");
-
-                for( int i=0; i<rates.length(); i++ ) {
-                    JSONObject rate = rates.getJSONObject(i);
-
-                    if( rate.has("rate") ) {
-                        prd.setStandardHourlyRate((float)rate.getDouble("rate"));
-                    }
-                }
-            }
-        }
-        catch( JSONException e ) {
-            throw new InternalException(e);
-        }
-        return prd;
-    }
-
 }
@@ -27,15 +27,26 @@ import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.Tag;
 import org.dasein.cloud.identity.ServiceAction;
+import org.dasein.cloud.util.BatchLoader;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Storage;
+import org.dasein.util.uom.time.Minute;
+import org.dasein.util.uom.time.TimePeriod;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Implements the basic functionality of volume support so that it is easier to rapidly craft a support class for
@@ -62,54 +73,20 @@ public abstract class AbstractVolumeSupport implements VolumeSupport {
         Storage<Gigabyte> storage = new Storage<Gigabyte>(sizeInGb, Storage.GIGABYTE);
 
         if( getVolumeProductRequirement().equals(Requirement.REQUIRED) ) {
-            VolumeProduct lastChance = null;
-            VolumeProduct closest = null;
+            ProviderContext ctx = getProvider().getContext();
+            VolumeProduct closest;
 
-            for( VolumeProduct product : listVolumeProducts() ) {
-                if( lastChance == null ) {
-                    lastChance = product;
-                }
-                else {
-                    Float l = lastChance.getMonthlyGigabyteCost();
-                    Float t = product.getMonthlyGigabyteCost();
-
-                    if( l != null && t != null && t < l ) {
-                        lastChance = product;
-                    }
-                }
-                if( isVolumeSizeDeterminedByProduct() ) {
-                    Storage<Gigabyte> size = product.getVolumeSize();
-                    int sz = (size == null ? 0 : size.intValue());
-
-                    if( sz >= sizeInGb ) {
-                        if( closest == null ) {
-                            closest = product;
-                        }
-                        else {
-                            size = closest.getVolumeSize();
-                            if( size == null || size.intValue() > sz ) {
-                                closest = product;
-                            }
-                        }
-                    }
-                }
-                else {
-                    if( closest == null ) {
-                        closest = product;
-                    }
-                    else {
-                        Float c = closest.getMonthlyGigabyteCost();
-                        Float t = product.getMonthlyGigabyteCost();
+            if( ctx == null || ctx.getRegionId() == null ) {
+                closest = scanVolumeProducts(sizeInGb);
+            }
+            else {
+                VolumeProductSelector selector = getVolumeProductSelector(ctx.getRegionId());
 
-                        if( c != null && t != null && t < c ) {
-                            closest = product;
-                        }
-                    }
+                closest = (isVolumeSizeDeterminedByProduct() ? selector.getSmallest(sizeInGb) : selector.getCheapest());
+                if( closest == null ) {
+                    closest = selector.getCheapest();
                 }
             }
-            if( closest == null ) {
-                closest = lastChance;
-            }
             if( closest != null ) {
                 if( fromSnapshot != null ) {
                     String name = "Volume from Snapshot " + fromSnapshot;
@@ -167,6 +144,16 @@ public abstract class AbstractVolumeSupport implements VolumeSupport {
         return ctx;
     }
 
+    /**
+     * Identifies the filter criteria the cloud evaluates natively when listing volumes. Criteria returned here are
+     * passed to {@link #listVolumesNatively(VolumeFilterOptions)} and the remaining criteria are evaluated locally. Override this
+     * method along with the native listing method when the cloud API supports server-side filtering.
+     * @return the natively supported filter criteria, empty by default
+     */
+    protected @Nonnull Set<FilterCriterion> getNativeFilterCriteria() {
+        return EnumSet.noneOf(FilterCriterion.class);
+    }
+
     /**
      * @return the cloud provider under which this support instance is operating
      */
@@ -186,12 +173,153 @@ public abstract class AbstractVolumeSupport implements VolumeSupport {
 
     @Override
     public Volume getVolume(@Nonnull String volumeId) throws InternalException, CloudException {
+        BatchLoader<Volume> loader = BatchLoader.getInstance(getProvider(), "volumes", Volume.class);
+
+        return loader.load(getContext(), volumeId, new BatchLoader.Fetcher<Volume>() {
+            public @Nonnull Map<String,Volume> fetch(@Nonnull Collection<String> ids) throws CloudException, InternalException {
+                return getVolumes(ids);
+            }
+        });
+    }
+
+    /**
+     * Looks up many volumes in a single call. Concurrent calls to {@link #getVolume(String)} are coalesced into calls
+     * to this method. The default implementation makes one pass through {@link #listVolumes()}. Override it if the
+     * cloud can describe many volumes by ID in one API call.
+     * @param ids the IDs of the volumes to look up
+     * @return the volumes found, keyed by ID
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     * @throws CloudException an error occurred within the cloud provider
+     */
+    protected @Nonnull Map<String,Volume> getVolumes(@Nonnull Collection<String> ids) throws InternalException, CloudException {
+        HashSet<String> wanted = new HashSet<String>(ids);
+        HashMap<String,Volume> found = new HashMap<String, Volume>();
+
         for( Volume volume : listVolumes() ) {
-            if( volume.getProviderVolumeId().equals(volumeId) ) {
-                return volume;
+            String id = volume.getProviderVolumeId();
+
+            if( wanted.contains(id) ) {
+                found.put(id, volume);
+                if( found.size() == wanted.size() ) {
+                    break;
+                }
             }
         }
-        return null;
+        return found;
+    }
+
+    /**
+     * Finds the volume product for a new volume by scanning {@link #listVolumeProducts()}, for use when there is no
+     * region in which to look up a cached {@link VolumeProductSelector}.
+     * @param sizeInGb the size of the volume being created
+     * @return the closest matching product, or <code>null</code> if no products are defined
+     * @throws InternalException an error occurred within Dasein Cloud listing the products
+     * @throws CloudException an error occurred with the cloud provider listing the products
+     */
+    private @Nullable VolumeProduct scanVolumeProducts(@Nonnegative int sizeInGb) throws InternalException, CloudException {
+        VolumeProduct lastChance = null;
+        VolumeProduct closest = null;
+
+        for( VolumeProduct product : listVolumeProducts() ) {
+            if( lastChance == null ) {
+                lastChance = product;
+            }
+            else {
+                Float l = lastChance.getMonthlyGigabyteCost();
+                Float t = product.getMonthlyGigabyteCost();
+
+                if( l != null && t != null && t < l ) {
+                    lastChance = product;
+                }
+            }
+            if( isVolumeSizeDeterminedByProduct() ) {
+                Storage<Gigabyte> size = product.getVolumeSize();
+                int sz = (size == null ? 0 : size.intValue());
+
+                if( sz >= sizeInGb ) {
+                    if( closest == null ) {
+                        closest = product;
+                    }
+                    else {
+                        size = closest.getVolumeSize();
+                        if( size == null || size.intValue() > sz ) {
+                            closest = product;
+                        }
+                    }
+                }
+            }
+            else {
+                if( closest == null ) {
+                    closest = product;
+                }
+                else {
+                    Float c = closest.getMonthlyGigabyteCost();
+                    Float t = product.getMonthlyGigabyteCost();
+
+                    if( c != null && t != null && t < c ) {
+                        closest = product;
+                    }
+                }
+            }
+        }
+        return (closest == null ? lastChance : closest);
+    }
+
+    /**
+     * Provides a selector over the volume products available in the current region.
+     * @return a selector over the current volume products
+     * @throws InternalException an error occurred within Dasein Cloud listing the products
+     * @throws CloudException an error occurred with the cloud provider listing the products
+     */
+    public @Nonnull VolumeProductSelector getVolumeProductSelector() throws InternalException, CloudException {
+        String regionId = getContext().getRegionId();
+
+        if( regionId == null ) {
+            throw new CloudException("No region was set for this request");
+        }
+        return getVolumeProductSelector(regionId);
+    }
+
+    /**
+     * Provides a selector over the volume products available in the specified region. The selector is built from
+     * {@link #listVolumeProducts(String)} and cached for the account for up to fifteen minutes or until
+     * {@link #clearVolumeProductSelectors()} is called.
+     * @param regionId the region whose volume products are sought
+     * @return a selector over the volume products in the specified region
+     * @throws InternalException an error occurred within Dasein Cloud listing the products
+     * @throws CloudException an error occurred with the cloud provider listing the products
+     */
+    public @Nonnull VolumeProductSelector getVolumeProductSelector(@Nonnull String regionId) throws InternalException, CloudException {
+        Cache<VolumeProductSelector> cache = getVolumeProductSelectorCache();
+        Iterable<VolumeProductSelector> selectors = cache.get(getContext());
+        ArrayList<VolumeProductSelector> list = new ArrayList<VolumeProductSelector>();
+
+        if( selectors != null ) {
+            for( VolumeProductSelector selector : selectors ) {
+                if( regionId.equals(selector.getRegionId()) ) {
+                    return selector;
+                }
+                list.add(selector);
+            }
+        }
+        VolumeProductSelector selector = VolumeProductSelector.getInstance(regionId, listVolumeProducts(regionId));
+
+        list.add(selector);
+        cache.put(getContext(), list);
+        return selector;
+    }
+
+    /**
+     * Discards the cached volume product selectors for every region so that the next call to
+     * {@link #getVolumeProductSelector(String)} reflects the current products. Call this method when volume products
+     * or their prices are known to have changed.
+     */
+    public void clearVolumeProductSelectors() {
+        getVolumeProductSelectorCache().clear();
+    }
+
+    private @Nonnull Cache<VolumeProductSelector> getVolumeProductSelectorCache() {
+        return Cache.getInstance(getProvider(), "volumeProductSelector", VolumeProductSelector.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Minute>(15, TimePeriod.MINUTE));
     }
 
     @Override
@@ -209,6 +337,23 @@ public abstract class AbstractVolumeSupport implements VolumeSupport {
         return Collections.singletonList(VolumeFormat.BLOCK);
     }
 
+    /**
+     * Lists the volume products available in the specified region, which need not be the region of the current
+     * context. The default implementation answers only for the current region through {@link #listVolumeProducts()}.
+     * Override this method for clouds whose API can list the volume products of any region.
+     * @param regionId the region in which the products are sought
+     * @return the volume products in the specified region
+     * @throws InternalException an error occurred within Dasein Cloud listing the products
+     * @throws CloudException an error occurred with the cloud provider listing the products
+     * @throws OperationNotSupportedException products cannot be listed for a region other than the current one
+     */
+    protected @Nonnull Iterable<VolumeProduct> listVolumeProducts(@Nonnull String regionId) throws InternalException, CloudException {
+        if( regionId.equals(getContext().getRegionId()) ) {
+            return listVolumeProducts();
+        }
+        throw new OperationNotSupportedException("Listing volume products for regions other than the current region is not supported for " + getProvider().getCloudName());
+    }
+
     @Override
     public @Nonnull Iterable<VolumeProduct> listVolumeProducts() throws InternalException, CloudException {
         return Collections.emptyList();
@@ -229,14 +374,24 @@ public abstract class AbstractVolumeSupport implements VolumeSupport {
         if( options == null || !options.hasCriteria() ) {
             return listVolumes();
         }
-        ArrayList<Volume> volumes = new ArrayList<Volume>();
+        FilterPushDown<VolumeFilterOptions,Volume> split = options.pushDown(getNativeFilterCriteria());
+        VolumeFilterOptions pushed = split.getPushedDown();
+        Iterable<Volume> volumes = (pushed == null ? listVolumes() : listVolumesNatively(pushed));
 
-        for( Volume v : listVolumes() ) {
-            if( options.matches(v) ) {
-                volumes.add(v);
-            }
-        }
-        return volumes;
+        return (split.hasResidual() ? split.getResidual().filter(volumes) : volumes);
+    }
+
+    /**
+     * Lists the volumes matching the specified options using the cloud's own filtering. The options contain only
+     * criteria returned by {@link #getNativeFilterCriteria()}. The default implementation filters the full listing
+     * locally.
+     * @param options the options to be evaluated by the cloud
+     * @return the volumes matching the options
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     * @throws CloudException an error occurred within the cloud provider
+     */
+    protected @Nonnull Iterable<Volume> listVolumesNatively(@Nonnull VolumeFilterOptions options) throws InternalException, CloudException {
+        return options.compile().filter(listVolumes());
     }
 
     @Override
@@ -0,0 +1,668 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.ResourceStatus;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Creates large numbers of snapshots across accounts and regions and tracks them to completion. Snapshot requests are
+ * queued per account and region and submitted through {@link SnapshotSupport#createSnapshot(SnapshotCreateOptions)}
+ * in parallel, with no more than {@link #getAccountConcurrencyLimit()} calls in flight for any one account and no more
+ * than {@link #getRegionConcurrencyLimit()} for any one region, whichever accounts they come from. Regions are told
+ * apart by ID alone. Requests rejected with
+ * {@link CloudErrorType#THROTTLING} are requeued after an exponential backoff with jitter, up to
+ * {@link #getMaxRetries()} times; any other failure is final.
+ * </p>
+ * <p>
+ * Once created, snapshots are tracked with a single call to {@link SnapshotSupport#listSnapshotStatus()} per account
+ * and region every {@link #getPollInterval()} milliseconds rather than a lookup per snapshot. A snapshot is complete
+ * when it is reported {@link SnapshotState#AVAILABLE} and failed if it is reported {@link SnapshotState#DELETED}.
+ * Snapshots missing from a status listing are assumed to be still pending until they have gone unreported for
+ * {@link #getMissingTimeout()} milliseconds, after which they fail.
+ * </p>
+ * <p>
+ * {@link #getJobs()} reports every request still outstanding but only the {@link #getHistoryLimit()} most recently
+ * finished ones, so an orchestrator kept for many runs does not hold every request it has ever seen.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class BulkSnapshotOrchestrator {
+    /**
+     * @return an orchestrator with default concurrency limits, polling interval and retry policy
+     */
+    static public @Nonnull BulkSnapshotOrchestrator getInstance() {
+        return new BulkSnapshotOrchestrator();
+    }
+
+    /**
+     * The progress of a single snapshot request.
+     */
+    static public enum Status {
+        /**
+         * Waiting for the account and region to have capacity for another request
+         */
+        QUEUED,
+        /**
+         * The snapshot is being requested from the cloud provider
+         */
+        CREATING,
+        /**
+         * The request was throttled and is waiting to be retried
+         */
+        THROTTLED,
+        /**
+         * The snapshot was requested and is being created by the cloud provider
+         */
+        PENDING,
+        /**
+         * The snapshot is available
+         */
+        COMPLETE,
+        /**
+         * The snapshot could not be created
+         */
+        FAILED;
+
+        /**
+         * @return true if the request will make no further progress
+         */
+        public boolean isFinished() {
+            return (this == COMPLETE || this == FAILED);
+        }
+    }
+
+    /**
+     * A snapshot request and its progress.
+     */
+    static public class Job {
+        private final String                accountNumber;
+        private volatile int                attempts;
+        private volatile Throwable          error;
+        private volatile long               lastSeen;
+        private final SnapshotCreateOptions options;
+        private final String                regionId;
+        private volatile String             snapshotId;
+        private volatile Status             status = Status.QUEUED;
+        private final SnapshotSupport       support;
+
+        private Job(@Nonnull SnapshotSupport support, @Nonnull String accountNumber, @Nonnull String regionId, @Nonnull SnapshotCreateOptions options) {
+            this.support = support;
+            this.accountNumber = accountNumber;
+            this.regionId = regionId;
+            this.options = options;
+        }
+
+        /**
+         * @return the account in which the snapshot is created
+         */
+        public @Nonnull String getAccountNumber() {
+            return accountNumber;
+        }
+
+        /**
+         * @return the number of times the snapshot has been requested from the cloud provider
+         */
+        public @Nonnegative int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return the error that caused the request to fail or <code>null</code> if it has not failed
+         */
+        public @Nullable Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return the options with which the snapshot is created
+         */
+        public @Nonnull SnapshotCreateOptions getOptions() {
+            return options;
+        }
+
+        /**
+         * @return the region in which the snapshot is created
+         */
+        public @Nonnull String getRegionId() {
+            return regionId;
+        }
+
+        /**
+         * @return the ID of the new snapshot or <code>null</code> if it has not yet been created
+         */
+        public @Nullable String getSnapshotId() {
+            return snapshotId;
+        }
+
+        /**
+         * @return the current progress of the request
+         */
+        public @Nonnull Status getStatus() {
+            return status;
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return (options + " in " + accountNumber + "/" + regionId + " [" + status + (snapshotId == null ? "" : " " + snapshotId) + "]");
+        }
+    }
+
+    static private class Lane {
+        public final String          accountNumber;
+        public final LinkedList<Job> queue = new LinkedList<Job>();
+        public final String          regionId;
+
+        public Lane(@Nonnull String accountNumber, @Nonnull String regionId) {
+            this.accountNumber = accountNumber;
+            this.regionId = regionId;
+        }
+    }
+
+    static private @Nonnull ThreadFactory newThreadFactory(final @Nonnull String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger(0);
+
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName(name + " " + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private final Map<String,Integer>                                accountRunning = new HashMap<String, Integer>();
+    private final ConcurrentHashMap<SnapshotSupport,Map<String,Job>> creating       = new ConcurrentHashMap<SnapshotSupport, Map<String, Job>>();
+    private final LinkedList<Job>                                    finished       = new LinkedList<Job>();
+    private final LinkedHashSet<Job>                                 jobs           = new LinkedHashSet<Job>();
+    private final Map<String,Lane>                                   lanes          = new LinkedHashMap<String, Lane>();
+    private final Random                                             random         = new Random();
+    private final Map<String,Integer>                                regionRunning  = new HashMap<String, Integer>();
+    private final ScheduledExecutorService                           scheduler      = Executors.newSingleThreadScheduledExecutor(newThreadFactory("Snapshot Scheduler"));
+    private final ExecutorService                                    workers        = Executors.newCachedThreadPool(newThreadFactory("Snapshot Worker"));
+
+    private int     accountConcurrencyLimit = 10;
+    private int     historyLimit            = 1000;
+    private long    initialBackoff          = 1000L;
+    private long    maximumBackoff          = 60000L;
+    private int     maxRetries              = 5;
+    private long    missingTimeout          = 10L * 60000L;
+    private int     outstanding             = 0;
+    private long    pollInterval            = 30000L;
+    private boolean polling                 = false;
+    private int     regionConcurrencyLimit  = 5;
+
+    private BulkSnapshotOrchestrator() { }
+
+    /**
+     * Waits for every submitted request to complete or fail.
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return true if every request finished, false if the timeout elapsed first
+     * @throws InternalException the calling thread was interrupted while waiting
+     */
+    public synchronized boolean awaitCompletion(@Nonnegative long timeout, @Nonnull TimeUnit unit) throws InternalException {
+        long until = System.currentTimeMillis() + unit.toMillis(timeout);
+
+        try {
+            while( outstanding > 0 ) {
+                long wait = until - System.currentTimeMillis();
+
+                if( wait <= 0L ) {
+                    return false;
+                }
+                wait(wait);
+            }
+            return true;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+    }
+
+    private @Nonnull Runnable create(final @Nonnull Job job, final @Nonnull Lane lane) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    job.attempts++;
+                    String id = job.support.createSnapshot(job.options);
+
+                    if( id == null ) {
+                        finish(job, Status.FAILED, new CloudException("No snapshot ID was returned for " + job.options));
+                    }
+                    else {
+                        Map<String,Job> pending = creating.get(job.support);
+
+                        job.snapshotId = id;
+                        job.lastSeen = System.currentTimeMillis();
+                        job.status = Status.PENDING;
+                        if( pending == null ) {
+                            creating.putIfAbsent(job.support, new ConcurrentHashMap<String, Job>());
+                            pending = creating.get(job.support);
+                        }
+                        pending.put(id, job);
+                    }
+                }
+                catch( CloudException e ) {
+                    if( e.getErrorType().equals(CloudErrorType.THROTTLING) && job.attempts <= maxRetries ) {
+                        retry(job, lane);
+                    }
+                    else {
+                        finish(job, Status.FAILED, e);
+                    }
+                }
+                catch( Throwable e ) {
+                    finish(job, Status.FAILED, e);
+                }
+                finally {
+                    synchronized( BulkSnapshotOrchestrator.this ) {
+                        release(lane);
+                        dispatch();
+                    }
+                }
+            }
+        };
+    }
+
+    private synchronized void dispatch() {
+        boolean progress = true;
+
+        while( progress ) {
+            progress = false;
+            for( Lane lane : lanes.values() ) {
+                if( lane.queue.isEmpty() ) {
+                    continue;
+                }
+                Integer running = accountRunning.get(lane.accountNumber);
+
+                if( running != null && running >= accountConcurrencyLimit ) {
+                    continue;
+                }
+                Integer inRegion = regionRunning.get(lane.regionId);
+
+                if( inRegion != null && inRegion >= regionConcurrencyLimit ) {
+                    continue;
+                }
+                Job job = lane.queue.removeFirst();
+
+                job.status = Status.CREATING;
+                accountRunning.put(lane.accountNumber, running == null ? 1 : running + 1);
+                regionRunning.put(lane.regionId, inRegion == null ? 1 : inRegion + 1);
+                try {
+                    workers.submit(create(job, lane));
+                }
+                catch( RejectedExecutionException e ) {
+                    release(lane);
+                    finish(job, Status.FAILED, e);
+                    continue;
+                }
+                progress = true;
+            }
+        }
+    }
+
+    private synchronized void finish(@Nonnull Job job, @Nonnull Status status, @Nullable Throwable error) {
+        if( job.status.isFinished() ) {
+            return;
+        }
+        job.error = error;
+        job.status = status;
+        outstanding--;
+        jobs.remove(job);
+        finished.addLast(job);
+        while( finished.size() > historyLimit ) {
+            finished.removeFirst();
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return the maximum number of snapshot requests in flight at once for any one account
+     */
+    public synchronized @Nonnegative int getAccountConcurrencyLimit() {
+        return accountConcurrencyLimit;
+    }
+
+    /**
+     * @return the number of finished requests reported by {@link #getJobs()}
+     */
+    public synchronized @Nonnegative int getHistoryLimit() {
+        return historyLimit;
+    }
+
+    /**
+     * @return the most recently finished requests in the order they finished, followed by every outstanding request
+     * in the order submitted
+     */
+    public synchronized @Nonnull List<Job> getJobs() {
+        List<Job> list = new ArrayList<Job>(finished);
+
+        list.addAll(jobs);
+        return list;
+    }
+
+    /**
+     * @return the number of times a throttled request is retried before it fails
+     */
+    public synchronized @Nonnegative int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return the time in milliseconds a created snapshot may go unreported by status listings before it fails
+     */
+    public synchronized @Nonnegative long getMissingTimeout() {
+        return missingTimeout;
+    }
+
+    /**
+     * @return the number of requests that have not yet completed or failed
+     */
+    public synchronized @Nonnegative int getOutstandingCount() {
+        return outstanding;
+    }
+
+    /**
+     * @return the time in milliseconds between status listings for snapshots being created
+     */
+    public synchronized @Nonnegative long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * @return the maximum number of snapshot requests in flight at once for any one region across all accounts
+     */
+    public synchronized @Nonnegative int getRegionConcurrencyLimit() {
+        return regionConcurrencyLimit;
+    }
+
+    private void poll() {
+        for( Map.Entry<SnapshotSupport,Map<String,Job>> entry : creating.entrySet() ) {
+            Map<String,Job> pending = entry.getValue();
+
+            if( pending.isEmpty() ) {
+                continue;
+            }
+            Iterable<ResourceStatus> statuses;
+
+            try {
+                statuses = entry.getKey().listSnapshotStatus();
+            }
+            catch( Throwable ignore ) {
+                // try again at the next interval
+                continue;
+            }
+            long now = System.currentTimeMillis();
+
+            for( ResourceStatus status : statuses ) {
+                Job job = pending.get(status.getProviderResourceId());
+
+                if( job == null ) {
+                    continue;
+                }
+                SnapshotState state = toState(status.getResourceStatus());
+
+                job.lastSeen = now;
+                if( SnapshotState.AVAILABLE.equals(state) ) {
+                    pending.remove(job.snapshotId);
+                    finish(job, Status.COMPLETE, null);
+                }
+                else if( SnapshotState.DELETED.equals(state) ) {
+                    pending.remove(job.snapshotId);
+                    finish(job, Status.FAILED, new CloudException("Snapshot " + job.snapshotId + " was deleted before it completed"));
+                }
+            }
+            long timeout = getMissingTimeout();
+
+            for( Job job : pending.values() ) {
+                if( now - job.lastSeen >= timeout ) {
+                    pending.remove(job.snapshotId);
+                    finish(job, Status.FAILED, new CloudException("Snapshot " + job.snapshotId + " has not been reported by the cloud provider for " + (now - job.lastSeen) + "ms"));
+                }
+            }
+        }
+    }
+
+    private synchronized void release(@Nonnull Lane lane) {
+        accountRunning.put(lane.accountNumber, accountRunning.get(lane.accountNumber) - 1);
+        regionRunning.put(lane.regionId, regionRunning.get(lane.regionId) - 1);
+    }
+
+    private void retry(final @Nonnull Job job, final @Nonnull Lane lane) {
+        long delay;
+
+        synchronized( this ) {
+            delay = Math.min(maximumBackoff, initialBackoff << Math.min(30, job.attempts - 1));
+            delay = delay/2 + (long)(random.nextDouble() * (delay/2));
+            job.status = Status.THROTTLED;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    synchronized( BulkSnapshotOrchestrator.this ) {
+                        job.status = Status.QUEUED;
+                        lane.queue.addLast(job);
+                        dispatch();
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch( RejectedExecutionException e ) {
+            finish(job, Status.FAILED, e);
+        }
+    }
+
+    /**
+     * Stops all submission, retries and polling. Requests that have not finished are left as they are.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Queues snapshots for creation in the account and region of the specified provider's current context.
+     * @param provider a provider connected to the account and region in which the snapshots are created
+     * @param options the snapshots to create
+     * @return the queued requests
+     * @throws CloudException the provider has no current context
+     * @throws OperationNotSupportedException the provider does not support snapshots
+     */
+    public @Nonnull List<Job> submit(@Nonnull CloudProvider provider, @Nonnull SnapshotCreateOptions ... options) throws CloudException, OperationNotSupportedException {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was specified for this request");
+        }
+        String regionId = ctx.getRegionId();
+
+        if( regionId == null ) {
+            throw new CloudException("No region was specified for this request");
+        }
+        ComputeServices services = provider.getComputeServices();
+        SnapshotSupport support = (services == null ? null : services.getSnapshotSupport());
+
+        if( support == null ) {
+            throw new OperationNotSupportedException("Snapshots are not supported in " + provider.getCloudName());
+        }
+        return submit(support, ctx.getAccountNumber(), regionId, options);
+    }
+
+    /**
+     * Queues snapshots for creation through the specified snapshot support.
+     * @param support the snapshot support through which the snapshots are created
+     * @param accountNumber the account to which the snapshot support is connected
+     * @param regionId the region to which the snapshot support is connected
+     * @param options the snapshots to create
+     * @return the queued requests
+     */
+    public @Nonnull List<Job> submit(@Nonnull SnapshotSupport support, @Nonnull String accountNumber, @Nonnull String regionId, @Nonnull SnapshotCreateOptions ... options) {
+        List<Job> submitted = new ArrayList<Job>();
+
+        synchronized( this ) {
+            String key = accountNumber + "/" + regionId;
+            Lane lane = lanes.get(key);
+
+            if( lane == null ) {
+                lane = new Lane(accountNumber, regionId);
+                lanes.put(key, lane);
+            }
+            for( SnapshotCreateOptions o : options ) {
+                Job job = new Job(support, accountNumber, regionId, o);
+
+                submitted.add(job);
+                jobs.add(job);
+                lane.queue.addLast(job);
+                outstanding++;
+            }
+            if( !polling ) {
+                polling = true;
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        poll();
+                    }
+                }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+            }
+            dispatch();
+        }
+        return submitted;
+    }
+
+    private @Nullable SnapshotState toState(@Nullable Object status) {
+        if( status instanceof SnapshotState ) {
+            return (SnapshotState)status;
+        }
+        if( status != null ) {
+            try {
+                return SnapshotState.valueOf(status.toString().toUpperCase());
+            }
+            catch( IllegalArgumentException ignore ) {
+                // not a state we recognize
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the maximum number of snapshot requests in flight at once for any one account.
+     * @param limit the maximum number of concurrent requests per account
+     * @return this
+     */
+    public synchronized @Nonnull BulkSnapshotOrchestrator withAccountConcurrencyLimit(@Nonnegative int limit) {
+        accountConcurrencyLimit = Math.max(1, limit);
+        return this;
+    }
+
+    /**
+     * Sets the range of the exponential backoff applied to throttled requests. The delay before retry <i>n</i> is drawn
+     * from between half and all of <code>initial * 2^(n-1)</code>, capped at <code>maximum</code>.
+     * @param initial the base delay in milliseconds before the first retry
+     * @param maximum the longest delay in milliseconds before any retry
+     * @return this
+     */
+    public synchronized @Nonnull BulkSnapshotOrchestrator withBackoff(@Nonnegative long initial, @Nonnegative long maximum) {
+        initialBackoff = Math.max(1L, initial);
+        maximumBackoff = Math.max(initialBackoff, maximum);
+        return this;
+    }
+
+    /**
+     * Sets the number of times a throttled request is retried before it fails.
+     * @param retries the maximum number of retries
+     * @return this
+     */
+    public synchronized @Nonnull BulkSnapshotOrchestrator withMaxRetries(@Nonnegative int retries) {
+        maxRetries = Math.max(0, retries);
+        return this;
+    }
+
+    /**
+     * Sets the time between status listings for snapshots being created. Takes effect only before the first submission.
+     * @param millis the polling interval in milliseconds
+     * @return this
+     */
+    public synchronized @Nonnull BulkSnapshotOrchestrator withPollInterval(@Nonnegative long millis) {
+        pollInterval = Math.max(1L, millis);
+        return this;
+    }
+
+    /**
+     * Sets the number of finished requests reported by {@link #getJobs()}. Older finished requests are forgotten.
+     * @param limit the maximum number of finished requests to remember
+     * @return this
+     */
+    public synchronized @Nonnull BulkSnapshotOrchestrator withHistoryLimit(@Nonnegative int limit) {
+        historyLimit = Math.max(0, limit);
+        while( finished.size() > historyLimit ) {
+            finished.removeFirst();
+        }
+        return this;
+    }
+
+    /**
+     * Sets how long a created snapshot may go unreported by status listings before it fails. The time is measured from
+     * creation or from the last listing in which the snapshot appeared.
+     * @param millis the timeout in milliseconds
+     * @return this
+     */
+    public synchronized @Nonnull BulkSnapshotOrchestrator withMissingTimeout(@Nonnegative long millis) {
+        missingTimeout = Math.max(1L, millis);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of snapshot requests in flight at once for any one region across all accounts.
+     * @param limit the maximum number of concurrent requests per region
+     * @return this
+     */
+    public synchronized @Nonnull BulkSnapshotOrchestrator withRegionConcurrencyLimit(@Nonnegative int limit) {
+        regionConcurrencyLimit = Math.max(1, limit);
+        return this;
+    }
+}
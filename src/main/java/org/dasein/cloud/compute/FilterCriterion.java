@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+/**
+ * The individual criteria that may appear in the compute filter options ({@link VMFilterOptions},
+ * {@link VolumeFilterOptions}, {@link SnapshotFilterOptions}, and {@link ImageFilterOptions}). Providers declare which
+ * of these they can evaluate natively in the cloud so that Dasein Cloud can push those criteria down to the cloud
+ * provider and evaluate only the remainder locally. A provider should declare a criterion only if the cloud evaluates
+ * it with exactly the semantics documented for the filter options.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public enum FilterCriterion {
+    /**
+     * The account that owns the resource.
+     */
+    ACCOUNT,
+    /**
+     * The architecture of a machine image.
+     */
+    ARCHITECTURE,
+    /**
+     * The virtual machine to which a volume is attached.
+     */
+    ATTACHED_TO,
+    /**
+     * The image class of a machine image.
+     */
+    IMAGE_CLASS,
+    /**
+     * The platform of a machine image.
+     */
+    PLATFORM,
+    /**
+     * A regular expression matched against the resource name, description, and tag values.
+     */
+    REGEX,
+    /**
+     * The current state of a virtual machine.
+     */
+    STATE,
+    /**
+     * Meta-data tag values.
+     */
+    TAGS
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import org.dasein.cloud.util.CompiledFilter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The result of splitting a set of filter options into the part a cloud provider evaluates natively and the residual
+ * part Dasein Cloud evaluates locally against the results. When all criteria must match, each natively supported
+ * criterion is pushed down on its own. When any single criterion is sufficient, the options are pushed down only if
+ * the cloud supports every criterion, since pushing down just some of them would drop resources matching the others.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ * @param <O> the type of filter options
+ * @param <T> the type of resource being filtered
+ */
+public class FilterPushDown<O,T> {
+    /**
+     * Constructs a split filter. An empty residual is replaced by one that matches everything only when criteria were
+     * pushed down, meaning the cloud has evaluated every criterion. Otherwise the residual keeps its own matching mode,
+     * so options that match any criterion but have none still match nothing, exactly as their <code>matches()</code>
+     * method does.
+     * @param pushedDown the options to send to the cloud provider, or <code>null</code> if nothing is pushed down
+     * @param residual the filter to apply locally to the results
+     * @param <O> the type of filter options
+     * @param <T> the type of resource being filtered
+     * @return the split filter
+     */
+    static public @Nonnull <O,T> FilterPushDown<O,T> getInstance(@Nullable O pushedDown, @Nonnull CompiledFilter<T> residual) {
+        return new FilterPushDown<O,T>(pushedDown, (residual.hasCriteria() || pushedDown == null) ? residual : CompiledFilter.<T>getInstance(false));
+    }
+
+    /**
+     * Determines which of the criteria present in a set of filter options may be pushed down.
+     * @param present the criteria present in the filter options
+     * @param supported the criteria the cloud provider evaluates natively
+     * @param matchesAny true if any single criterion is sufficient for a match
+     * @return the criteria to push down
+     */
+    static public @Nonnull EnumSet<FilterCriterion> getPushable(@Nonnull Set<FilterCriterion> present, @Nonnull Set<FilterCriterion> supported, boolean matchesAny) {
+        EnumSet<FilterCriterion> pushable = EnumSet.noneOf(FilterCriterion.class);
+
+        if( matchesAny ) {
+            if( supported.containsAll(present) ) {
+                pushable.addAll(present);
+            }
+        }
+        else {
+            for( FilterCriterion c : present ) {
+                if( supported.contains(c) ) {
+                    pushable.add(c);
+                }
+            }
+        }
+        return pushable;
+    }
+
+    private final O                 pushedDown;
+    private final CompiledFilter<T> residual;
+
+    private FilterPushDown(@Nullable O pushedDown, @Nonnull CompiledFilter<T> residual) {
+        this.pushedDown = pushedDown;
+        this.residual = residual;
+    }
+
+    /**
+     * @return the options to send to the cloud provider, or <code>null</code> if no criteria can be pushed down
+     */
+    public @Nullable O getPushedDown() {
+        return pushedDown;
+    }
+
+    /**
+     * @return the filter to apply locally to the results returned by the cloud provider
+     */
+    public @Nonnull CompiledFilter<T> getResidual() {
+        return residual;
+    }
+
+    /**
+     * @return true if results from the cloud provider must still be filtered locally, which includes the case of a
+     * residual that matches nothing because it has no criteria of which any one would suffice
+     */
+    public boolean hasResidual() {
+        return (residual.hasCriteria() || residual.isMatchesAny());
+    }
+}
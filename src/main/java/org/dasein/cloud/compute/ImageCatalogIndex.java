@@ -0,0 +1,432 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A local index over the public machine image catalog of a single region, as listed by
+ * {@link MachineImageSupport#searchPublicImages(ImageFilterOptions)}. Because image support is bound to the region of
+ * its provider context, an application searching several regions keeps one index per region. Each
+ * {@link AbstractImageSupport} holds a single index, through which it answers
+ * {@link AbstractImageSupport#searchPublicImageCatalog(String, Platform, Architecture, ImageClass...)}.
+ * </p>
+ * <p>
+ * The words of each image's name, description and ID are held in a sorted token table pointing to posting lists of
+ * images, and the images of each platform, architecture, image class and owner are held in bit sets. A search
+ * intersects the bit sets of the requested facets with the union of the postings for each word of the keyword, so it
+ * never scans the catalog. Each word of the keyword matches any word in the image beginning with it, so "cent"
+ * finds "CentOS" but "entos" does not. This differs from
+ * {@link AbstractImageSupport#matches(MachineImage, String, Platform, Architecture, ImageClass...)}, which matches the
+ * keyword as a substring anywhere in the name, description or ID, and from the regular expression of
+ * {@link ImageFilterOptions#matchingRegex(String)}; characters other than letters and digits only separate words. The
+ * words of a keyword of several words must also begin consecutive words of the image in order, so "centos 6.4"
+ * finds "CentOS-6.4" but not "6.4 CentOS".
+ * </p>
+ * <p>
+ * The index is loaded on first search. Once it is older than {@link #getRefreshInterval()} milliseconds, the next
+ * search rebuilds it first unless {@link #start()} is rebuilding it in the background on that interval. Searches during
+ * a background rebuild are answered from the previous index. A failed rebuild keeps the previous index and is reported
+ * by {@link #getLastError()}.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class ImageCatalogIndex {
+    /**
+     * Provides an index over the public images listed by the specified image support. An {@link AbstractImageSupport}
+     * always yields the index it searches through; any other support gets a new index.
+     * @param support the image support for the region to be indexed
+     * @return an index that loads on first search and refreshes every 15 minutes
+     */
+    static public @Nonnull ImageCatalogIndex getInstance(@Nonnull MachineImageSupport support) {
+        if( support instanceof AbstractImageSupport ) {
+            return ((AbstractImageSupport)support).getImageCatalogIndex();
+        }
+        return new ImageCatalogIndex(support);
+    }
+
+    static private @Nonnull List<String> tokenize(@Nullable String text) {
+        List<String> tokens = new ArrayList<String>();
+
+        if( text == null ) {
+            return tokens;
+        }
+        text = text.toLowerCase(Locale.ENGLISH);
+        int start = -1;
+
+        for( int i=0; i<=text.length(); i++ ) {
+            boolean word = (i < text.length() && Character.isLetterOrDigit(text.charAt(i)));
+
+            if( word && start < 0 ) {
+                start = i;
+            }
+            else if( !word && start >= 0 ) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    static private class Catalog {
+        public final Map<Architecture,BitSet> architectures = new EnumMap<Architecture, BitSet>(Architecture.class);
+        public final Map<ImageClass,BitSet>   classes       = new EnumMap<ImageClass, BitSet>(ImageClass.class);
+        public final MachineImage[]           images;
+        public final Map<String,BitSet>       owners        = new HashMap<String, BitSet>();
+        public final Map<Platform,BitSet>     platforms     = new EnumMap<Platform, BitSet>(Platform.class);
+        public final int[][]                  postings;
+        public final long                     timestamp     = System.currentTimeMillis();
+        public final String[]                 tokens;
+        public final String[][]               words;
+
+        public Catalog(@Nonnull List<MachineImage> list) {
+            TreeMap<String,List<Integer>> index = new TreeMap<String, List<Integer>>();
+
+            images = list.toArray(new MachineImage[list.size()]);
+            words = new String[images.length][];
+            for( int i=0; i<images.length; i++ ) {
+                MachineImage image = images[i];
+                List<String> all = tokenize(image.getName() + "\n" + image.getDescription() + "\n" + image.getProviderMachineImageId());
+
+                words[i] = all.toArray(new String[all.size()]);
+                for( String token : all ) {
+                    List<Integer> ids = index.get(token);
+
+                    if( ids == null ) {
+                        ids = new ArrayList<Integer>();
+                        index.put(token, ids);
+                    }
+                    if( ids.isEmpty() || ids.get(ids.size()-1) != i ) {
+                        ids.add(i);
+                    }
+                }
+                set(platforms, image.getPlatform(), i);
+                set(architectures, image.getArchitecture(), i);
+                set(classes, image.getImageClass(), i);
+                set(owners, image.getProviderOwnerId(), i);
+            }
+            tokens = index.keySet().toArray(new String[index.size()]);
+            postings = new int[tokens.length][];
+            for( int i=0; i<tokens.length; i++ ) {
+                List<Integer> ids = index.get(tokens[i]);
+
+                postings[i] = new int[ids.size()];
+                for( int j=0; j<postings[i].length; j++ ) {
+                    postings[i][j] = ids.get(j);
+                }
+            }
+        }
+
+        static private <K> void set(@Nonnull Map<K,BitSet> facet, @Nullable K key, int i) {
+            if( key != null ) {
+                BitSet bits = facet.get(key);
+
+                if( bits == null ) {
+                    bits = new BitSet();
+                    facet.put(key, bits);
+                }
+                bits.set(i);
+            }
+        }
+
+        // true if the words begin consecutive words of the image, in order
+        public boolean hasPhrase(int image, @Nonnull List<String> phrase) {
+            String[] w = words[image];
+
+            for( int start=0; start + phrase.size() <= w.length; start++ ) {
+                int j = 0;
+
+                while( j < phrase.size() && w[start + j].startsWith(phrase.get(j)) ) {
+                    j++;
+                }
+                if( j == phrase.size() ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public @Nonnull BitSet prefixed(@Nonnull String prefix) {
+            BitSet bits = new BitSet(images.length);
+            int i = Arrays.binarySearch(tokens, prefix);
+
+            if( i < 0 ) {
+                i = -(i + 1);
+            }
+            for( ; i<tokens.length && tokens[i].startsWith(prefix); i++ ) {
+                for( int id : postings[i] ) {
+                    bits.set(id);
+                }
+            }
+            return bits;
+        }
+    }
+
+    private volatile Catalog                  catalog;
+    private volatile Throwable                lastError;
+    private volatile long                     refreshInterval = 15L * 60000L;
+    private volatile ScheduledExecutorService refresher;
+    private final MachineImageSupport         support;
+
+    ImageCatalogIndex(@Nonnull MachineImageSupport support) {
+        this.support = support;
+    }
+
+    private @Nonnull Catalog getCatalog() throws CloudException, InternalException {
+        Catalog c = catalog;
+
+        if( c == null || isStale(c) ) {
+            synchronized( this ) {
+                c = catalog;
+                if( c == null ) {
+                    refresh();
+                    c = catalog;
+                }
+                else if( isStale(c) ) {
+                    try {
+                        refresh();
+                        c = catalog;
+                    }
+                    catch( CloudException ignore ) {
+                        // recorded as the last error; answer from the previous index
+                    }
+                    catch( InternalException ignore ) {
+                        // recorded as the last error; answer from the previous index
+                    }
+                }
+            }
+        }
+        //noinspection ConstantConditions
+        return c;
+    }
+
+    private boolean isStale(@Nonnull Catalog c) {
+        return (refresher == null && System.currentTimeMillis() - c.timestamp >= refreshInterval);
+    }
+
+    /**
+     * @return the number of images in the index or 0 if it has not been loaded
+     */
+    public @Nonnegative int getImageCount() {
+        Catalog c = catalog;
+
+        return (c == null ? 0 : c.images.length);
+    }
+
+    /**
+     * @return the error that caused the most recent rebuild to fail or <code>null</code> if it succeeded
+     */
+    public @Nullable Throwable getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return the time the index was last rebuilt or -1 if it has not been loaded
+     */
+    public long getLastRefreshTimestamp() {
+        Catalog c = catalog;
+
+        return (c == null ? -1L : c.timestamp);
+    }
+
+    /**
+     * @return the time in milliseconds between background rebuilds
+     */
+    public @Nonnegative long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * @return true if the index is being rebuilt in the background
+     */
+    public boolean isRunning() {
+        return (refresher != null);
+    }
+
+    /**
+     * Rebuilds the index from the current public image catalog. Searches continue against the previous index until the
+     * rebuild completes.
+     * @throws CloudException an error occurred with the cloud provider listing the images
+     * @throws InternalException an error occurred within Dasein Cloud listing the images
+     */
+    public void refresh() throws CloudException, InternalException {
+        try {
+            List<MachineImage> images = new ArrayList<MachineImage>();
+
+            for( MachineImage image : support.searchPublicImages(ImageFilterOptions.getInstance()) ) {
+                images.add(image);
+            }
+            catalog = new Catalog(images);
+            lastError = null;
+        }
+        catch( CloudException e ) {
+            lastError = e;
+            throw e;
+        }
+        catch( InternalException e ) {
+            lastError = e;
+            throw e;
+        }
+        catch( RuntimeException e ) {
+            lastError = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Searches the index, loading it first if it has never been loaded.
+     * @param ownerId the account owning the images or <code>null</code> for any owner
+     * @param keyword words that must begin words of the image name, description or ID, or <code>null</code> for any image
+     * @param platform the platform to match as in {@link AbstractImageSupport#matches(MachineImage, String, Platform, Architecture, ImageClass...)} or <code>null</code> for any platform
+     * @param architecture the architecture to match or <code>null</code> for any architecture
+     * @param imageClasses the image classes to match or none for any class
+     * @return the matching images in catalog order
+     * @throws CloudException an error occurred with the cloud provider loading the index
+     * @throws InternalException an error occurred within Dasein Cloud loading the index
+     */
+    public @Nonnull List<MachineImage> search(@Nullable String ownerId, @Nullable String keyword, @Nullable Platform platform, @Nullable Architecture architecture, @Nullable ImageClass ... imageClasses) throws CloudException, InternalException {
+        Catalog c = getCatalog();
+        BitSet hits = new BitSet(c.images.length);
+
+        hits.set(0, c.images.length);
+        if( ownerId != null ) {
+            hits.and(facet(c.owners, ownerId));
+        }
+        if( architecture != null ) {
+            hits.and(facet(c.architectures, architecture));
+        }
+        if( imageClasses != null && imageClasses.length > 0 ) {
+            BitSet any = new BitSet(c.images.length);
+
+            for( ImageClass cls : imageClasses ) {
+                any.or(facet(c.classes, cls));
+            }
+            hits.and(any);
+        }
+        if( platform != null && !platform.equals(Platform.UNKNOWN) ) {
+            BitSet any = new BitSet(c.images.length);
+
+            for( Map.Entry<Platform,BitSet> entry : c.platforms.entrySet() ) {
+                if( AbstractImageSupport.matches(platform, entry.getKey()) ) {
+                    any.or(entry.getValue());
+                }
+            }
+            hits.and(any);
+        }
+        List<String> phrase = null;
+
+        if( keyword != null ) {
+            List<String> words = tokenize(keyword);
+
+            for( String word : words ) {
+                if( hits.isEmpty() ) {
+                    break;
+                }
+                hits.and(c.prefixed(word));
+            }
+            if( words.size() > 1 ) {
+                phrase = words;
+            }
+        }
+        List<MachineImage> matches = new ArrayList<MachineImage>(hits.cardinality());
+
+        for( int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i+1) ) {
+            if( phrase == null || c.hasPhrase(i, phrase) ) {
+                matches.add(c.images[i]);
+            }
+        }
+        return matches;
+    }
+
+    private @Nonnull <K> BitSet facet(@Nonnull Map<K,BitSet> facet, @Nonnull K key) {
+        BitSet bits = facet.get(key);
+
+        return (bits == null ? new BitSet() : bits);
+    }
+
+    /**
+     * Begins rebuilding the index in the background every {@link #getRefreshInterval()} milliseconds, starting right
+     * away. Calling this method on a running index has no effect.
+     */
+    public synchronized void start() {
+        if( refresher != null ) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("Image Catalog Index");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                }
+                catch( Throwable ignore ) {
+                    // recorded as the last error; the previous index remains in use
+                }
+            }
+        }, 0L, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops rebuilding the index in the background. The current index remains available for searching.
+     */
+    public synchronized void stop() {
+        if( refresher != null ) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * Sets the age at which the index is rebuilt. A running background refresh picks up the change the next time the
+     * index is started.
+     * @param millis the time in milliseconds between rebuilds
+     * @return this
+     */
+    public @Nonnull ImageCatalogIndex withRefreshInterval(@Nonnegative long millis) {
+        refreshInterval = Math.max(1L, millis);
+        return this;
+    }
+}
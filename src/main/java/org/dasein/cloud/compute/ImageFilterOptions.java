@@ -18,11 +18,15 @@
 
 package org.dasein.cloud.compute;
 
-import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.util.CompiledFilter;
+import org.dasein.cloud.util.TagMatcher;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Options for filtering machine images when querying the cloud provider. <b>Note:</b> How searching handles account numbers is
@@ -118,11 +122,79 @@ public class ImageFilterOptions {
     private String             regex;
     private Map<String,String> tags;
 
+    private CompiledFilter<MachineImage> compiled;
+
     private ImageFilterOptions(@Nullable ImageClass cls, boolean matchesAny) {
         imageClass = cls;
         this.matchesAny = matchesAny;
     }
 
+    /**
+     * Compiles these options into a filter that may be applied efficiently to a large number of images. The regular
+     * expression is compiled once and the criteria are ordered so the cheapest are tested first. The compiled filter
+     * reflects the criteria as of this call and is unaffected by later changes to these options.
+     * @return a compiled filter equivalent to {@link #matches(MachineImage)}
+     */
+    public @Nonnull CompiledFilter<MachineImage> compile() {
+        CompiledFilter.Builder<MachineImage> filter = CompiledFilter.getBuilder(matchesAny);
+
+        if( imageClass != null ) {
+            final ImageClass value = imageClass;
+
+            filter.withCriterion(CompiledFilter.COST_EQUALS, new CompiledFilter.Criterion<MachineImage>() {
+                public boolean matches(@Nonnull MachineImage image) {
+                    return value.equals(image.getImageClass());
+                }
+            });
+        }
+        if( architecture != null ) {
+            final Architecture value = architecture;
+
+            filter.withCriterion(CompiledFilter.COST_EQUALS, new CompiledFilter.Criterion<MachineImage>() {
+                public boolean matches(@Nonnull MachineImage image) {
+                    return value.equals(image.getArchitecture());
+                }
+            });
+        }
+        if( platform != null ) {
+            final Platform value = platform;
+
+            filter.withCriterion(CompiledFilter.COST_EQUALS, new CompiledFilter.Criterion<MachineImage>() {
+                public boolean matches(@Nonnull MachineImage image) {
+                    return value.equals(image.getPlatform());
+                }
+            });
+        }
+        if( accountNumber != null ) {
+            final String value = accountNumber;
+
+            filter.withCriterion(CompiledFilter.COST_EQUALS, new CompiledFilter.Criterion<MachineImage>() {
+                public boolean matches(@Nonnull MachineImage image) {
+                    return value.equals(image.getProviderOwnerId());
+                }
+            });
+        }
+        if( regex != null ) {
+            final Pattern pattern = CompiledFilter.compileRegex(regex);
+
+            filter.withCriterion(CompiledFilter.COST_REGEX, new CompiledFilter.Criterion<MachineImage>() {
+                public boolean matches(@Nonnull MachineImage image) {
+                    return CompiledFilter.matchesRegex(pattern, image.getName(), image.getDescription(), image.getTags());
+                }
+            });
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            final TagMatcher matcher = TagMatcher.getInstance(tags);
+
+            filter.withCriterion(CompiledFilter.COST_TAGS, new CompiledFilter.Criterion<MachineImage>() {
+                public boolean matches(@Nonnull MachineImage image) {
+                    return matcher.matches(image.getTags(), image.getName(), image.getDescription());
+                }
+            });
+        }
+        return filter.build();
+    }
+
     /**
      * See class documentation note for this class ({@link ImageFilterOptions}) for notes on the special handling
      * associated with an account number.
@@ -139,6 +211,33 @@ public class ImageFilterOptions {
         return architecture;
     }
 
+    /**
+     * @return the criteria present in these options
+     */
+    public @Nonnull Set<FilterCriterion> getCriteria() {
+        EnumSet<FilterCriterion> criteria = EnumSet.noneOf(FilterCriterion.class);
+
+        if( accountNumber != null ) {
+            criteria.add(FilterCriterion.ACCOUNT);
+        }
+        if( architecture != null ) {
+            criteria.add(FilterCriterion.ARCHITECTURE);
+        }
+        if( imageClass != null ) {
+            criteria.add(FilterCriterion.IMAGE_CLASS);
+        }
+        if( platform != null ) {
+            criteria.add(FilterCriterion.PLATFORM);
+        }
+        if( regex != null ) {
+            criteria.add(FilterCriterion.REGEX);
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            criteria.add(FilterCriterion.TAGS);
+        }
+        return criteria;
+    }
+
     /**
      * @return the number of criteria on which this filter is operating
      */
@@ -213,81 +312,19 @@ public class ImageFilterOptions {
 
     /**
      * Matches an image against the criteria in this set of filter options.
+     * The criteria are compiled on first use and recompiled only after they are changed through one of the
+     * setters of this class.
      * @param image the image to test
      * @return true if the image matches all criteria
      */
     public boolean matches(@Nonnull MachineImage image) {
-        if( imageClass != null ) {
-            if( !imageClass.equals(image.getImageClass()) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
-        }
-        if( architecture != null ) {
-            if( !architecture.equals(image.getArchitecture()) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
-        }
-        if( platform != null ) {
-            if( !platform.equals(image.getPlatform()) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
-        }
-        if( accountNumber != null ) {
-            if( !accountNumber.equals(image.getProviderOwnerId()) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
-        }
-        if( regex != null ) {
-            boolean matches = (image.getName().matches(regex) || image.getDescription().matches(regex));
+        CompiledFilter<MachineImage> filter = compiled;
 
-            if( !matches ) {
-                for( Map.Entry<String,String> tag : image.getTags().entrySet() ) {
-                    String value = tag.getValue();
-
-                    if( value != null && value.matches(regex) ) {
-                        matches = true;
-                        break;
-                    }
-                }
-            }
-            if( !matches && !matchesAny ) {
-                return false;
-            }
-            else if( matches && matchesAny ) {
-                return true;
-            }
-        }
-        if( tags != null && !tags.isEmpty() ) {
-            if( !CloudProvider.matchesTags(image.getTags(), image.getName(), image.getDescription(), tags) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
+        if( filter == null ) {
+            filter = compile();
+            compiled = filter;
         }
-        return !matchesAny;
+        return filter.matches(image);
     }
 
     /**
@@ -296,6 +333,7 @@ public class ImageFilterOptions {
      */
     public @Nonnull ImageFilterOptions matchingAll() {
         this.matchesAny = false;
+        compiled = null;
         return this;
     }
 
@@ -305,6 +343,7 @@ public class ImageFilterOptions {
      */
     public @Nonnull ImageFilterOptions matchingAny() {
         this.matchesAny = true;
+        compiled = null;
         return this;
     }
 
@@ -316,6 +355,7 @@ public class ImageFilterOptions {
      */
     public @Nonnull ImageFilterOptions matchingRegex(@Nonnull String regex) {
         this.regex = regex;
+        compiled = null;
         return this;
     }
 
@@ -326,9 +366,50 @@ public class ImageFilterOptions {
      */
     public @Nonnull ImageFilterOptions onPlatform(@Nonnull Platform platform) {
         this.platform = platform;
+        compiled = null;
         return this;
     }
 
+    /**
+     * Splits these options into the criteria the cloud provider can evaluate natively and the residual criteria to
+     * be evaluated locally.
+     * @param supported the criteria the cloud provider evaluates natively
+     * @return the options to push down to the cloud provider along with the residual filter
+     */
+    public @Nonnull FilterPushDown<ImageFilterOptions,MachineImage> pushDown(@Nonnull Set<FilterCriterion> supported) {
+        Set<FilterCriterion> present = getCriteria();
+        EnumSet<FilterCriterion> pushed = FilterPushDown.getPushable(present, supported, matchesAny);
+        EnumSet<FilterCriterion> residual = EnumSet.noneOf(FilterCriterion.class);
+
+        residual.addAll(present);
+        residual.removeAll(pushed);
+        return FilterPushDown.getInstance(pushed.isEmpty() ? null : subset(pushed), subset(residual).compile());
+    }
+
+    private @Nonnull ImageFilterOptions subset(@Nonnull Set<FilterCriterion> criteria) {
+        ImageFilterOptions options = new ImageFilterOptions(null, matchesAny);
+
+        if( criteria.contains(FilterCriterion.ACCOUNT) ) {
+            options.accountNumber = accountNumber;
+        }
+        if( criteria.contains(FilterCriterion.ARCHITECTURE) ) {
+            options.architecture = architecture;
+        }
+        if( criteria.contains(FilterCriterion.IMAGE_CLASS) ) {
+            options.imageClass = imageClass;
+        }
+        if( criteria.contains(FilterCriterion.PLATFORM) ) {
+            options.platform = platform;
+        }
+        if( criteria.contains(FilterCriterion.REGEX) ) {
+            options.regex = regex;
+        }
+        if( criteria.contains(FilterCriterion.TAGS) ) {
+            options.tags = tags;
+        }
+        return options;
+    }
+
     /**
      * Sets an account number to the options on which image filtering should be done.
      * @param accountNumber the account number to filter against
@@ -336,6 +417,7 @@ public class ImageFilterOptions {
      */
     public @Nonnull ImageFilterOptions withAccountNumber(@Nonnull String accountNumber) {
         this.accountNumber = accountNumber;
+        compiled = null;
         return this;
     }
 
@@ -346,6 +428,7 @@ public class ImageFilterOptions {
      */
     public @Nonnull ImageFilterOptions withArchitecture(@Nonnull Architecture architecture) {
         this.architecture = architecture;
+        compiled = null;
         return this;
     }
 
@@ -356,6 +439,7 @@ public class ImageFilterOptions {
      */
     public @Nonnull ImageFilterOptions withImageClass(@Nonnull ImageClass imageClass) {
         this.imageClass = imageClass;
+        compiled = null;
         return this;
     }
 
@@ -366,6 +450,7 @@ public class ImageFilterOptions {
      */
     public @Nonnull ImageFilterOptions withTags(@Nonnull Map<String, String> tags) {
         this.tags = tags;
+        compiled = null;
         return this;
     }
 
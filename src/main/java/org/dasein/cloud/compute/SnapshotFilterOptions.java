@@ -18,11 +18,15 @@
 
 package org.dasein.cloud.compute;
 
-import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.util.CompiledFilter;
+import org.dasein.cloud.util.TagMatcher;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Options for filtering snapshots when querying the cloud provider. <b>Note:</b> How searching handles account numbers is dependent on the nature of the search. <code>listXXX</code>
@@ -88,8 +92,62 @@ public class SnapshotFilterOptions {
     private String             regex;
     private Map<String,String> tags;
 
+    private CompiledForAccount compiled;
+
     private SnapshotFilterOptions() {}
 
+    static private final class CompiledForAccount {
+        private final String                   account;
+        private final CompiledFilter<Snapshot> filter;
+
+        private CompiledForAccount(@Nullable String account, @Nonnull CompiledFilter<Snapshot> filter) {
+            this.account = account;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * Compiles these options into a filter that may be applied efficiently to a large number of snapshots. The regular
+     * expression is compiled once and the criteria are ordered so the cheapest are tested first. The compiled filter
+     * reflects the criteria as of this call and is unaffected by later changes to these options.
+     * @param currentAccount <code>null</code> if in the context of a <code>searchXXX</code> method, or the
+     *                       account number for the current user if in a <code>listXXX</code> method.
+     * @return a compiled filter equivalent to {@link #matches(Snapshot, String)}
+     */
+    public @Nonnull CompiledFilter<Snapshot> compile(@Nullable String currentAccount) {
+        CompiledFilter.Builder<Snapshot> filter = CompiledFilter.getBuilder(matchesAny);
+
+        if( accountNumber != null || (currentAccount != null && !matchesAny) ) {
+            // with no account number, the current account is a requirement but never sufficient on its own
+            final String value = (accountNumber == null ? currentAccount : accountNumber);
+
+            filter.withCriterion(CompiledFilter.COST_EQUALS, new CompiledFilter.Criterion<Snapshot>() {
+                public boolean matches(@Nonnull Snapshot snapshot) {
+                    return value.equals(snapshot.getOwner());
+                }
+            });
+        }
+        if( regex != null ) {
+            final Pattern pattern = CompiledFilter.compileRegex(regex);
+
+            filter.withCriterion(CompiledFilter.COST_REGEX, new CompiledFilter.Criterion<Snapshot>() {
+                public boolean matches(@Nonnull Snapshot snapshot) {
+                    return CompiledFilter.matchesRegex(pattern, snapshot.getName(), snapshot.getDescription(), snapshot.getTags());
+                }
+            });
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            final TagMatcher matcher = TagMatcher.getInstance(tags);
+
+            filter.withCriterion(CompiledFilter.COST_TAGS, new CompiledFilter.Criterion<Snapshot>() {
+                public boolean matches(@Nonnull Snapshot snapshot) {
+                    return matcher.matches(snapshot.getTags(), snapshot.getName(), snapshot.getDescription());
+                }
+            });
+        }
+        return filter.build();
+    }
+
     /**
      * See class documentation note for this class ({@link SnapshotFilterOptions}) for notes on the special handling
      * associated with an account number.
@@ -99,6 +157,26 @@ public class SnapshotFilterOptions {
         return accountNumber;
     }
 
+    /**
+     * @param currentAccount <code>null</code> if in the context of a <code>searchXXX</code> method, or the
+     *                       account number for the current user if in a <code>listXXX</code> method.
+     * @return the criteria present in these options
+     */
+    public @Nonnull Set<FilterCriterion> getCriteria(@Nullable String currentAccount) {
+        EnumSet<FilterCriterion> criteria = EnumSet.noneOf(FilterCriterion.class);
+
+        if( accountNumber != null || (currentAccount != null && !matchesAny) ) {
+            criteria.add(FilterCriterion.ACCOUNT);
+        }
+        if( regex != null ) {
+            criteria.add(FilterCriterion.REGEX);
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            criteria.add(FilterCriterion.TAGS);
+        }
+        return criteria;
+    }
+
     /**
      * @return a regular expression to match against an image name, description, or tag values.
      */
@@ -132,60 +210,21 @@ public class SnapshotFilterOptions {
 
     /**
      * Compares a snapshot against these filter options to see if it matches.
+     * The criteria are compiled on first use and recompiled only after they are changed through one of the
+     * setters of this class.
      * @param snapshot the snapshot to be compared
      * @param currentAccount <code>null</code> if in the context of a <code>searchXXX</code> method, or the
      *                       account number for the current user if in a <code>listXXX</code> method.
      * @return <code>true</code> if the snapshot matches the filter criteria
      */
     public boolean matches(@Nonnull Snapshot snapshot, @Nullable String currentAccount) {
-        if( accountNumber == null ) {
-            if( currentAccount != null && !currentAccount.equals(snapshot.getOwner()) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-        }
-        else {
-            if( !accountNumber.equals(snapshot.getOwner()) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
-        }
-        if( regex != null ) {
-            boolean matches = (snapshot.getName().matches(regex) || snapshot.getDescription().matches(regex));
-
-            if( !matches ) {
-                for( Map.Entry<String,String> tag : snapshot.getTags().entrySet() ) {
-                    String value = tag.getValue();
+        CompiledForAccount c = compiled;
 
-                    if( value != null && value.matches(regex) ) {
-                        matches = true;
-                        break;
-                    }
-                }
-            }
-            if( !matches && !matchesAny ) {
-                return false;
-            }
-            else if( matches && matchesAny ) {
-                return true;
-            }
+        if( c == null || (c.account == null ? currentAccount != null : !c.account.equals(currentAccount)) ) {
+            c = new CompiledForAccount(currentAccount, compile(currentAccount));
+            compiled = c;
         }
-        if( tags != null && !tags.isEmpty() ) {
-            if( !CloudProvider.matchesTags(snapshot.getTags(), snapshot.getName(), snapshot.getDescription(), tags) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
-        }
-        return !matchesAny;
+        return c.filter.matches(snapshot);
     }
 
     /**
@@ -194,6 +233,7 @@ public class SnapshotFilterOptions {
      */
     public @Nonnull SnapshotFilterOptions matchingAll() {
         this.matchesAny = false;
+        compiled = null;
         return this;
     }
 
@@ -203,6 +243,7 @@ public class SnapshotFilterOptions {
      */
     public @Nonnull SnapshotFilterOptions matchingAny() {
         this.matchesAny = true;
+        compiled = null;
         return this;
     }
 
@@ -214,9 +255,44 @@ public class SnapshotFilterOptions {
      */
     public @Nonnull SnapshotFilterOptions matchingRegex(@Nonnull String regex) {
         this.regex = regex;
+        compiled = null;
         return this;
     }
 
+    /**
+     * Splits these options into the criteria the cloud provider can evaluate natively and the residual criteria to
+     * be evaluated locally.
+     * @param supported the criteria the cloud provider evaluates natively
+     * @param currentAccount <code>null</code> if in the context of a <code>searchXXX</code> method, or the
+     *                       account number for the current user if in a <code>listXXX</code> method.
+     * @return the options to push down to the cloud provider along with the residual filter
+     */
+    public @Nonnull FilterPushDown<SnapshotFilterOptions,Snapshot> pushDown(@Nonnull Set<FilterCriterion> supported, @Nullable String currentAccount) {
+        Set<FilterCriterion> present = getCriteria(currentAccount);
+        EnumSet<FilterCriterion> pushed = FilterPushDown.getPushable(present, supported, matchesAny);
+        EnumSet<FilterCriterion> residual = EnumSet.noneOf(FilterCriterion.class);
+
+        residual.addAll(present);
+        residual.removeAll(pushed);
+        return FilterPushDown.getInstance(pushed.isEmpty() ? null : subset(pushed, currentAccount), subset(residual, currentAccount).compile(null));
+    }
+
+    private @Nonnull SnapshotFilterOptions subset(@Nonnull Set<FilterCriterion> criteria, @Nullable String currentAccount) {
+        SnapshotFilterOptions options = new SnapshotFilterOptions();
+
+        options.matchesAny = matchesAny;
+        if( criteria.contains(FilterCriterion.ACCOUNT) ) {
+            options.accountNumber = (accountNumber == null ? currentAccount : accountNumber);
+        }
+        if( criteria.contains(FilterCriterion.REGEX) ) {
+            options.regex = regex;
+        }
+        if( criteria.contains(FilterCriterion.TAGS) ) {
+            options.tags = tags;
+        }
+        return options;
+    }
+
     /**
      * Sets an account number to the options on which snapshot filtering should be done.
      * @param accountNumber the account number to filter against
@@ -224,6 +300,7 @@ public class SnapshotFilterOptions {
      */
     public @Nonnull SnapshotFilterOptions withAccountNumber(@Nonnull String accountNumber) {
         this.accountNumber = accountNumber;
+        compiled = null;
         return this;
     }
 
@@ -234,6 +311,7 @@ public class SnapshotFilterOptions {
      */
     public @Nonnull SnapshotFilterOptions withTags(@Nonnull Map<String, String> tags) {
         this.tags = tags;
+        compiled = null;
         return this;
     }
 
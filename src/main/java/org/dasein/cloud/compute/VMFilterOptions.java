@@ -18,11 +18,16 @@
 
 package org.dasein.cloud.compute;
 
-import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.util.CompiledFilter;
+import org.dasein.cloud.util.TagMatcher;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Options for filtering virtual machines when querying the cloud provider. You may optionally filter on
@@ -80,11 +85,71 @@ public class VMFilterOptions {
     private boolean            matchesAny;
     private String             regex;
     private Map<String,String> tags;
+    private Set<VmState>       vmStates;
+
+    private CompiledFilter<VirtualMachine> compiled;
 
     private VMFilterOptions(boolean matchesAny) {
         this.matchesAny = matchesAny;
     }
 
+    /**
+     * Compiles these options into a filter that may be applied efficiently to a large number of VMs. The regular
+     * expression is compiled once and the criteria are ordered so the cheapest are tested first. The compiled filter
+     * reflects the criteria as of this call and is unaffected by later changes to these options.
+     * @return a compiled filter equivalent to {@link #matches(VirtualMachine)}
+     */
+    public @Nonnull CompiledFilter<VirtualMachine> compile() {
+        CompiledFilter.Builder<VirtualMachine> filter = CompiledFilter.getBuilder(matchesAny);
+
+        if( vmStates != null && !vmStates.isEmpty() ) {
+            final Set<VmState> states = EnumSet.copyOf(vmStates);
+
+            filter.withCriterion(CompiledFilter.COST_EQUALS, new CompiledFilter.Criterion<VirtualMachine>() {
+                public boolean matches(@Nonnull VirtualMachine vm) {
+                    return states.contains(vm.getCurrentState());
+                }
+            });
+        }
+        if( regex != null ) {
+            final Pattern pattern = CompiledFilter.compileRegex(regex);
+
+            filter.withCriterion(CompiledFilter.COST_REGEX, new CompiledFilter.Criterion<VirtualMachine>() {
+                public boolean matches(@Nonnull VirtualMachine vm) {
+                    return CompiledFilter.matchesRegex(pattern, vm.getName(), vm.getDescription(), vm.getTags());
+                }
+            });
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            final TagMatcher matcher = TagMatcher.getInstance(tags);
+
+            filter.withCriterion(CompiledFilter.COST_TAGS, new CompiledFilter.Criterion<VirtualMachine>() {
+                public boolean matches(@Nonnull VirtualMachine vm) {
+                    return matcher.matches(vm.getTags(), vm.getName(), vm.getDescription());
+                }
+            });
+        }
+        return filter.build();
+    }
+
+    /**
+     * @return the criteria present in these options
+     */
+    public @Nonnull Set<FilterCriterion> getCriteria() {
+        EnumSet<FilterCriterion> criteria = EnumSet.noneOf(FilterCriterion.class);
+
+        if( regex != null ) {
+            criteria.add(FilterCriterion.REGEX);
+        }
+        if( vmStates != null && !vmStates.isEmpty() ) {
+            criteria.add(FilterCriterion.STATE);
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            criteria.add(FilterCriterion.TAGS);
+        }
+        return criteria;
+    }
+
     /**
      * @return a regular expression to match against a VM name, description, or tag values.
      */
@@ -99,12 +164,19 @@ public class VMFilterOptions {
         return tags;
     }
 
+    /**
+     * @return the VM states, if any, on which filtering should be done (<code>null</code> means don't filter on state)
+     */
+    public @Nullable Set<VmState> getVmStates() {
+        return vmStates;
+    }
+
     /**
      * Indicates whether there are any criteria associated with these options.
      * @return <code>true</code> if this filter options object has any criteria associated with it
      */
     public boolean hasCriteria() {
-        return ((tags != null && !tags.isEmpty()) || regex != null);
+        return ((tags != null && !tags.isEmpty()) || regex != null || (vmStates != null && !vmStates.isEmpty()));
     }
 
     /**
@@ -118,41 +190,19 @@ public class VMFilterOptions {
 
     /**
      * Matches a virtual machine against the criteria in this set of filter options.
+     * The criteria are compiled on first use and recompiled only after they are changed through one of the
+     * setters of this class.
      * @param vm the virtual machine to test
      * @return true if the VM matches all criteria
      */
     public boolean matches(@Nonnull VirtualMachine vm) {
-        if( regex != null ) {
-            boolean matches = (vm.getName().matches(regex) ||vm.getDescription().matches(regex));
+        CompiledFilter<VirtualMachine> filter = compiled;
 
-            if( !matches ) {
-                for( Map.Entry<String,String> tag : vm.getTags().entrySet() ) {
-                    String value = tag.getValue();
-
-                    if( value != null && value.matches(regex) ) {
-                        matches = true;
-                        break;
-                    }
-                }
-            }
-            if( !matches && !matchesAny ) {
-                return false;
-            }
-            else if( matches && matchesAny ) {
-                return true;
-            }
-        }
-        if( tags != null && !tags.isEmpty() ) {
-            if( !CloudProvider.matchesTags(vm.getTags(), vm.getName(), vm.getDescription(), tags) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
+        if( filter == null ) {
+            filter = compile();
+            compiled = filter;
         }
-        return !matchesAny;
+        return filter.matches(vm);
     }
 
     /**
@@ -161,6 +211,7 @@ public class VMFilterOptions {
      */
     public @Nonnull VMFilterOptions matchingAll() {
         this.matchesAny = false;
+        compiled = null;
         return this;
     }
 
@@ -170,6 +221,7 @@ public class VMFilterOptions {
      */
     public @Nonnull VMFilterOptions matchingAny() {
         this.matchesAny = true;
+        compiled = null;
         return this;
     }
 
@@ -181,9 +233,41 @@ public class VMFilterOptions {
      */
     public @Nonnull VMFilterOptions matchingRegex(@Nonnull String regex) {
         this.regex = regex;
+        compiled = null;
         return this;
     }
 
+    /**
+     * Splits these options into the criteria the cloud provider can evaluate natively and the residual criteria to
+     * be evaluated locally.
+     * @param supported the criteria the cloud provider evaluates natively
+     * @return the options to push down to the cloud provider along with the residual filter
+     */
+    public @Nonnull FilterPushDown<VMFilterOptions,VirtualMachine> pushDown(@Nonnull Set<FilterCriterion> supported) {
+        Set<FilterCriterion> present = getCriteria();
+        EnumSet<FilterCriterion> pushed = FilterPushDown.getPushable(present, supported, matchesAny);
+        EnumSet<FilterCriterion> residual = EnumSet.noneOf(FilterCriterion.class);
+
+        residual.addAll(present);
+        residual.removeAll(pushed);
+        return FilterPushDown.getInstance(pushed.isEmpty() ? null : subset(pushed), subset(residual).compile());
+    }
+
+    private @Nonnull VMFilterOptions subset(@Nonnull Set<FilterCriterion> criteria) {
+        VMFilterOptions options = new VMFilterOptions(matchesAny);
+
+        if( criteria.contains(FilterCriterion.REGEX) ) {
+            options.regex = regex;
+        }
+        if( criteria.contains(FilterCriterion.STATE) ) {
+            options.vmStates = vmStates;
+        }
+        if( criteria.contains(FilterCriterion.TAGS) ) {
+            options.tags = tags;
+        }
+        return options;
+    }
+
     /**
      * Builds filtering options that will force filtering on the specified meta-data tags.
      * @param tags the meta-data tags on which to filter
@@ -191,6 +275,19 @@ public class VMFilterOptions {
      */
     public @Nonnull VMFilterOptions withTags(@Nonnull Map<String, String> tags) {
         this.tags = tags;
+        compiled = null;
+        return this;
+    }
+
+    /**
+     * Builds filtering options that will force filtering on VMs in any of the specified states.
+     * @param states the states on which to filter
+     * @return this
+     */
+    public @Nonnull VMFilterOptions withVmStates(@Nonnull VmState ... states) {
+        vmStates = EnumSet.noneOf(VmState.class);
+        Collections.addAll(vmStates, states);
+        compiled = null;
         return this;
     }
 
@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ResourceStatus;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks the progress of a fleet of virtual machines launched through
+ * {@link AbstractVMSupport#launchMany(VMLaunchOptions, int)}. Each member of the fleet is identified by its index
+ * within the batch and ends up either with a launched virtual machine or with the error that prevented its launch. A
+ * batch is complete once every member has one or the other; a partially failed batch still completes. Use
+ * {@link #waitForLaunch(long)} to wait for the launch calls themselves and {@link #waitForState(VmState, long)} to wait
+ * for the launched virtual machines to come up.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class VMLaunchBatch {
+    static private final long POLL_INTERVAL = 5000L;
+
+    private int                         completed;
+    private long                        endTime = -1L;
+    private final Throwable[]           errors;
+    private long                        pollInterval = POLL_INTERVAL;
+    private final long                  startTime;
+    private final VirtualMachineSupport support;
+    private final VirtualMachine[]      virtualMachines;
+
+    /**
+     * Constructs a batch tracking the launch of the specified number of virtual machines.
+     * @param support the virtual machine support used to check on the state of launched virtual machines
+     * @param count the number of virtual machines in the batch
+     * @throws InternalException the count is negative
+     */
+    public VMLaunchBatch(@Nonnull VirtualMachineSupport support, @Nonnegative int count) throws InternalException {
+        if( count < 0 ) {
+            throw new InternalException("A batch cannot have a negative number of virtual machines: " + count);
+        }
+        this.support = support;
+        this.errors = new Throwable[count];
+        this.virtualMachines = new VirtualMachine[count];
+        this.startTime = System.currentTimeMillis();
+        if( count == 0 ) {
+            endTime = startTime;
+        }
+    }
+
+    /**
+     * Records the failure of one member of this batch. Only the first outcome reported for a member is kept.
+     * @param index the index of the member within the batch
+     * @param error the error that prevented the launch
+     */
+    public synchronized void failed(@Nonnegative int index, @Nonnull Throwable error) {
+        if( virtualMachines[index] == null && errors[index] == null ) {
+            errors[index] = error;
+            completed();
+        }
+    }
+
+    /**
+     * Records the successful launch of one member of this batch. Only the first outcome reported for a member is kept.
+     * @param index the index of the member within the batch
+     * @param vm the launched virtual machine
+     */
+    public synchronized void launched(@Nonnegative int index, @Nonnull VirtualMachine vm) {
+        if( virtualMachines[index] == null && errors[index] == null ) {
+            virtualMachines[index] = vm;
+            completed();
+        }
+    }
+
+    private void completed() {
+        completed++;
+        if( completed >= virtualMachines.length ) {
+            endTime = System.currentTimeMillis();
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return the number of members of this batch whose launch has either succeeded or failed
+     */
+    public synchronized @Nonnegative int getCompletedCount() {
+        return completed;
+    }
+
+    /**
+     * @return the number of virtual machines this batch was asked to launch
+     */
+    public @Nonnegative int getCount() {
+        return virtualMachines.length;
+    }
+
+    /**
+     * @return the number of milliseconds the batch has been running or, if complete, took to complete
+     */
+    public synchronized @Nonnegative long getDuration() {
+        return ((endTime == -1L ? System.currentTimeMillis() : endTime) - startTime);
+    }
+
+    /**
+     * @param index the index of the member within the batch
+     * @return the error that prevented the launch of the member, if any
+     */
+    public synchronized @Nullable Throwable getError(@Nonnegative int index) {
+        return errors[index];
+    }
+
+    /**
+     * @return the errors for all failed members of this batch keyed by their index within the batch
+     */
+    public synchronized @Nonnull Map<Integer,Throwable> getErrors() {
+        TreeMap<Integer,Throwable> map = new TreeMap<Integer, Throwable>();
+
+        for( int i=0; i<errors.length; i++ ) {
+            if( errors[i] != null ) {
+                map.put(i, errors[i]);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return the number of members of this batch that failed to launch
+     */
+    public synchronized @Nonnegative int getFailureCount() {
+        int count = 0;
+
+        for( Throwable t : errors ) {
+            if( t != null ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the percentage of members of this batch whose launch has completed
+     */
+    public synchronized @Nonnegative double getPercentComplete() {
+        if( virtualMachines.length == 0 ) {
+            return 100.0;
+        }
+        return ((completed * 100.0) / virtualMachines.length);
+    }
+
+    /**
+     * @return the number of members of this batch that launched successfully
+     */
+    public synchronized @Nonnegative int getSuccessCount() {
+        return (completed - getFailureCount());
+    }
+
+    /**
+     * @param index the index of the member within the batch
+     * @return the virtual machine launched for the member, if it has launched
+     */
+    public synchronized @Nullable VirtualMachine getVirtualMachine(@Nonnegative int index) {
+        return virtualMachines[index];
+    }
+
+    /**
+     * @return the virtual machines launched so far in the order of their index within the batch
+     */
+    public synchronized @Nonnull List<VirtualMachine> getVirtualMachines() {
+        ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+        for( VirtualMachine vm : virtualMachines ) {
+            if( vm != null ) {
+                list.add(vm);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return true if every member of this batch has either launched or failed
+     */
+    public synchronized boolean isComplete() {
+        return (endTime > -1L);
+    }
+
+    /**
+     * @return true if the batch is complete and every member launched successfully
+     */
+    public synchronized boolean isSuccessful() {
+        return (isComplete() && getFailureCount() == 0);
+    }
+
+    /**
+     * Sets how often {@link #waitForState(VmState, long)} polls the cloud provider for the state of the batch.
+     * @param pollInterval the number of milliseconds between polls, at least 10
+     * @return this
+     */
+    public @Nonnull VMLaunchBatch withPollInterval(@Nonnegative long pollInterval) {
+        this.pollInterval = Math.max(10L, pollInterval);
+        return this;
+    }
+
+    /**
+     * Waits until every member of this batch has either launched or failed.
+     * @param timeoutInMillis the maximum number of milliseconds to wait, or 0 to wait indefinitely
+     * @return true if the batch completed within the timeout
+     * @throws InterruptedException the waiting thread was interrupted
+     */
+    public synchronized boolean waitForLaunch(@Nonnegative long timeoutInMillis) throws InterruptedException {
+        long timeout = (timeoutInMillis == 0L ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutInMillis);
+
+        while( !isComplete() ) {
+            long remaining = timeout - System.currentTimeMillis();
+
+            if( remaining <= 0L ) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every launched member of this batch has reached the specified state. Each poll makes a single call to
+     * {@link VirtualMachineSupport#listVirtualMachineStatus()} for the whole batch rather than one lookup per virtual
+     * machine. Virtual machines that terminate or disappear from the listing while waiting for any other state end
+     * the wait early.
+     * @param state the target state, typically {@link VmState#RUNNING}
+     * @param timeoutInMillis the maximum number of milliseconds to wait, or 0 to wait indefinitely
+     * @return true if the batch completed and all launched virtual machines reached the target state within the timeout
+     * @throws CloudException an error occurred with the cloud provider checking the state of the virtual machines
+     * @throws InternalException an error occurred within Dasein Cloud checking the state of the virtual machines
+     * @throws InterruptedException the waiting thread was interrupted
+     */
+    public boolean waitForState(@Nonnull VmState state, @Nonnegative long timeoutInMillis) throws CloudException, InternalException, InterruptedException {
+        long timeout = (timeoutInMillis == 0L ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutInMillis);
+
+        if( !waitForLaunch(timeoutInMillis) ) {
+            return false;
+        }
+        while( true ) {
+            HashMap<String,Object> states = null;
+            boolean done = true;
+
+            for( int i=0; i<virtualMachines.length; i++ ) {
+                VirtualMachine vm = getVirtualMachine(i);
+
+                if( vm == null || state.equals(vm.getCurrentState()) ) {
+                    continue;
+                }
+                if( states == null ) {
+                    states = new HashMap<String, Object>();
+                    for( ResourceStatus status : support.listVirtualMachineStatus() ) {
+                        states.put(status.getProviderResourceId(), status.getResourceStatus());
+                    }
+                }
+                Object current = states.get(vm.getProviderVirtualMachineId());
+
+                if( current == null || VmState.TERMINATED.equals(current) ) {
+                    if( !VmState.TERMINATED.equals(state) ) {
+                        return false;
+                    }
+                    if( current == null ) {
+                        continue;
+                    }
+                }
+                if( current instanceof VmState ) {
+                    vm.setCurrentState((VmState)current);
+                }
+                if( !state.equals(current) ) {
+                    done = false;
+                }
+            }
+            if( done ) {
+                return true;
+            }
+            long remaining = timeout - System.currentTimeMillis();
+
+            if( remaining <= 0L ) {
+                return false;
+            }
+            Thread.sleep(Math.min(remaining, pollInterval));
+        }
+    }
+}
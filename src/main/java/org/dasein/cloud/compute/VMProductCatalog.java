@@ -0,0 +1,392 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.util.CalendarWrapper;
+import org.dasein.util.uom.storage.Gigabyte;
+import org.dasein.util.uom.storage.Megabyte;
+import org.dasein.util.uom.storage.Storage;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, indexed view of the virtual machine products defined for a single provider and cloud in a
+ * <code>vmproducts.json</code> resource (see {@link AbstractVMSupport#getVMProductsResource()} for the format). The
+ * resource is parsed in a single streaming pass the first time a catalog is requested for a given resource, provider,
+ * and cloud, and the catalog is shared until it is older than the requested maximum age (one day by default), at which
+ * point the resource is parsed again. Product lookups by ID are a single hash lookup and product listings by
+ * architecture and region are precomputed. Because products are mutable, the catalog hands out copies of the products
+ * it holds so that changes made by one caller are never seen by another.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class VMProductCatalog {
+    static public final String DEFAULT_RESOURCE = "/org/dasein/cloud/std/vmproducts.json";
+
+    /**
+     * The default maximum age of a shared catalog before its resource is parsed again.
+     */
+    static public final long DEFAULT_MAX_AGE = CalendarWrapper.DAY;
+
+    static private final ConcurrentHashMap<String,VMProductCatalog> catalogs = new ConcurrentHashMap<String, VMProductCatalog>();
+
+    /**
+     * Provides the catalog of products for the specified provider and cloud in the specified resource, parsing the
+     * resource again if the shared catalog is more than {@link #DEFAULT_MAX_AGE} old. If the resource does not exist,
+     * the default products packaged with Dasein Cloud are used.
+     * @param resource the classpath resource holding the product definitions
+     * @param providerName the name of the provider whose products are sought
+     * @param cloudName the name of the cloud whose products are sought
+     * @return the matching catalog, which is empty if no products are defined for the provider and cloud
+     * @throws InternalException the resource could not be read or parsed
+     */
+    static public @Nonnull VMProductCatalog getInstance(@Nonnull String resource, @Nonnull String providerName, @Nonnull String cloudName) throws InternalException {
+        return getInstance(resource, providerName, cloudName, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Provides the catalog of products for the specified provider and cloud in the specified resource, parsing the
+     * resource again if the shared catalog is older than the specified age.
+     * @param resource the classpath resource holding the product definitions
+     * @param providerName the name of the provider whose products are sought
+     * @param cloudName the name of the cloud whose products are sought
+     * @param maxAgeInMillis the maximum age in milliseconds of a shared catalog that may be returned
+     * @return the matching catalog, which is empty if no products are defined for the provider and cloud
+     * @throws InternalException the resource could not be read or parsed
+     */
+    static public @Nonnull VMProductCatalog getInstance(@Nonnull String resource, @Nonnull String providerName, @Nonnull String cloudName, @Nonnegative long maxAgeInMillis) throws InternalException {
+        String key = resource + "#" + providerName.toLowerCase() + "#" + cloudName.toLowerCase();
+        VMProductCatalog catalog = catalogs.get(key);
+
+        if( catalog == null || (System.currentTimeMillis() - catalog.loadedAt) > maxAgeInMillis ) {
+            VMProductCatalog stale = catalog;
+
+            catalog = load(resource, providerName, cloudName);
+            if( stale == null ) {
+                VMProductCatalog existing = catalogs.putIfAbsent(key, catalog);
+
+                if( existing != null ) {
+                    catalog = existing;
+                }
+            }
+            else {
+                catalogs.replace(key, stale, catalog);
+            }
+        }
+        return catalog;
+    }
+
+    static @Nonnull VirtualMachineProduct copy(@Nonnull VirtualMachineProduct product) {
+        VirtualMachineProduct prd = new VirtualMachineProduct();
+
+        prd.setProviderProductId(product.getProviderProductId());
+        prd.setName(product.getName());
+        prd.setDescription(product.getDescription());
+        prd.setCpuCount(product.getCpuCount());
+        if( product.getRootVolumeSize() != null ) {
+            prd.setRootVolumeSize(product.getRootVolumeSize());
+        }
+        if( product.getRamSize() != null ) {
+            prd.setRamSize(product.getRamSize());
+        }
+        prd.setStandardHourlyRate(product.getStandardHourlyRate());
+        return prd;
+    }
+
+    static private @Nonnull VMProductCatalog load(@Nonnull String resource, @Nonnull String providerName, @Nonnull String cloudName) throws InternalException {
+        InputStream input = VMProductCatalog.class.getResourceAsStream(resource);
+
+        if( input == null ) {
+            input = VMProductCatalog.class.getResourceAsStream(DEFAULT_RESOURCE);
+        }
+        try {
+            if( input == null ) {
+                return new VMProductCatalog(null);
+            }
+            try {
+                JSONTokener tokener = new JSONTokener(new BufferedReader(new InputStreamReader(input, "utf-8")));
+                JSONObject selected = null;
+
+                if( tokener.nextClean() != '[' ) {
+                    throw tokener.syntaxError("The product resource must hold a JSON array");
+                }
+                // product sets are read one at a time so that only the selected set is ever held in memory
+                char c = tokener.nextClean();
+
+                if( c != ']' ) {
+                    tokener.back();
+                    while( true ) {
+                        Object value = tokener.nextValue();
+
+                        if( value instanceof JSONObject ) {
+                            JSONObject productSet = (JSONObject)value;
+
+                            if( productSet.has("cloud") && productSet.has("provider") && productSet.has("products") ) {
+                                String cloud = productSet.getString("cloud");
+                                String provider = productSet.getString("provider");
+
+                                if( selected == null || (provider.equals("default") && cloud.equals("default")) ) {
+                                    selected = productSet;
+                                }
+                                if( provider.equalsIgnoreCase(providerName) && cloud.equalsIgnoreCase(cloudName) ) {
+                                    selected = productSet;
+                                    break;
+                                }
+                            }
+                        }
+                        c = tokener.nextClean();
+                        if( c == ']' ) {
+                            break;
+                        }
+                        if( c != ',' ) {
+                            throw tokener.syntaxError("Expected a ',' or ']' between product sets");
+                        }
+                    }
+                }
+                return new VMProductCatalog(selected == null ? null : selected.getJSONArray("products"));
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        catch( JSONException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    static private @Nonnull Set<Architecture> toArchitectures(@Nonnull JSONObject json) throws JSONException {
+        EnumSet<Architecture> architectures = EnumSet.noneOf(Architecture.class);
+
+        if( json.has("architectures") ) {
+            JSONArray arr = json.getJSONArray("architectures");
+
+            for( int i=0; i<arr.length(); i++ ) {
+                String a = arr.getString(i);
+
+                for( Architecture architecture : Architecture.values() ) {
+                    if( architecture.name().equals(a) ) {
+                        architectures.add(architecture);
+                    }
+                }
+            }
+        }
+        return architectures;
+    }
+
+    static private @Nullable VirtualMachineProduct toProduct(@Nonnull JSONObject json) throws JSONException {
+        VirtualMachineProduct prd = new VirtualMachineProduct();
+
+        if( json.has("id") ) {
+            prd.setProviderProductId(json.getString("id"));
+        }
+        else {
+            return null;
+        }
+        if( json.has("name") ) {
+            prd.setName(json.getString("name"));
+        }
+        else {
+            prd.setName(prd.getProviderProductId());
+        }
+        if( json.has("description") ) {
+            prd.setDescription(json.getString("description"));
+        }
+        else {
+            prd.setDescription(prd.getName());
+        }
+        if( json.has("cpuCount") ) {
+            prd.setCpuCount(json.getInt("cpuCount"));
+        }
+        else {
+            prd.setCpuCount(1);
+        }
+        if( json.has("rootVolumeSizeInGb") ) {
+            prd.setRootVolumeSize(new Storage<Gigabyte>(json.getInt("rootVolumeSizeInGb"), Storage.GIGABYTE));
+        }
+        else {
+            prd.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
+        }
+        if( json.has("ramSizeInMb") ) {
+            prd.setRamSize(new Storage<Megabyte>(json.getInt("ramSizeInMb"), Storage.MEGABYTE));
+        }
+        else {
+            prd.setRamSize(new Storage<Megabyte>(512, Storage.MEGABYTE));
+        }
+        if( json.has("standardHourlyRates") ) {
+            JSONArray rates = json.getJSONArray("standardHourlyRates");
+
+            for( int i=0; i<rates.length(); i++ ) {
+                JSONObject rate = rates.getJSONObject(i);
+
+                if( rate.has("rate") ) {
+                    prd.setStandardHourlyRate((float)rate.getDouble("rate"));
+                }
+            }
+        }
+        return prd;
+    }
+
+    static private class Entry {
+        public final Set<Architecture>     architectures;
+        public final Set<String>           excludedRegions;
+        public final VirtualMachineProduct product;
+
+        public Entry(@Nonnull VirtualMachineProduct product, @Nonnull Set<Architecture> architectures, @Nonnull Set<String> excludedRegions) {
+            this.product = product;
+            this.architectures = architectures;
+            this.excludedRegions = excludedRegions;
+        }
+    }
+
+    private final Map<Architecture,List<VirtualMachineProduct>>             byArchitecture = new EnumMap<Architecture, List<VirtualMachineProduct>>(Architecture.class);
+    private final Map<String,Entry>                                         byId           = new HashMap<String, Entry>();
+    private final Map<Architecture,Map<String,List<VirtualMachineProduct>>> byRegion       = new EnumMap<Architecture, Map<String, List<VirtualMachineProduct>>>(Architecture.class);
+    private final long                                                      loadedAt       = System.currentTimeMillis();
+
+    private VMProductCatalog(@Nullable JSONArray products) throws JSONException {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        HashSet<String> excludedRegions = new HashSet<String>();
+
+        if( products != null ) {
+            for( int i=0; i<products.length(); i++ ) {
+                JSONObject json = products.getJSONObject(i);
+                VirtualMachineProduct prd = toProduct(json);
+
+                if( prd == null || byId.containsKey(prd.getProviderProductId()) ) {
+                    continue;
+                }
+                Set<Architecture> architectures = toArchitectures(json);
+                HashSet<String> regions = new HashSet<String>();
+
+                if( json.has("excludesRegions") ) {
+                    JSONArray arr = json.getJSONArray("excludesRegions");
+
+                    for( int j=0; j<arr.length(); j++ ) {
+                        regions.add(arr.getString(j));
+                    }
+                }
+                Entry entry = new Entry(prd, architectures, regions);
+
+                excludedRegions.addAll(regions);
+                entries.add(entry);
+                if( !architectures.isEmpty() ) {
+                    byId.put(prd.getProviderProductId(), entry);
+                }
+            }
+        }
+        for( Architecture architecture : Architecture.values() ) {
+            HashMap<String,List<VirtualMachineProduct>> regional = new HashMap<String, List<VirtualMachineProduct>>();
+            ArrayList<VirtualMachineProduct> all = new ArrayList<VirtualMachineProduct>();
+
+            for( Entry entry : entries ) {
+                if( entry.architectures.contains(architecture) ) {
+                    all.add(entry.product);
+                }
+            }
+            byArchitecture.put(architecture, Collections.unmodifiableList(all));
+            for( String region : excludedRegions ) {
+                ArrayList<VirtualMachineProduct> list = new ArrayList<VirtualMachineProduct>();
+
+                for( Entry entry : entries ) {
+                    if( entry.architectures.contains(architecture) && !entry.excludedRegions.contains(region) ) {
+                        list.add(entry.product);
+                    }
+                }
+                regional.put(region, Collections.unmodifiableList(list));
+            }
+            byRegion.put(architecture, regional);
+        }
+    }
+
+    /**
+     * Looks up a product by its ID.
+     * @param productId the ID of the product
+     * @param regionId the region in which the product is sought
+     * @return a copy of the matching product, or <code>null</code> if no such product exists or it is excluded from the region
+     */
+    public @Nullable VirtualMachineProduct getProduct(@Nonnull String productId, @Nullable String regionId) {
+        Entry entry = byId.get(productId);
+
+        if( entry == null || (regionId != null && entry.excludedRegions.contains(regionId)) ) {
+            return null;
+        }
+        return copy(entry.product);
+    }
+
+    /**
+     * @return the time at which the resource behind this catalog was parsed
+     */
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * @return true if the catalog defines no products
+     */
+    public boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    /**
+     * Lists the products supporting the specified architecture in the specified region.
+     * @param architecture the architecture the products must support
+     * @param regionId the region in which the products are sought
+     * @return copies of the matching products in the order in which they were defined
+     */
+    public @Nonnull List<VirtualMachineProduct> listProducts(@Nonnull Architecture architecture, @Nullable String regionId) {
+        List<VirtualMachineProduct> list = null;
+
+        if( regionId != null ) {
+            list = byRegion.get(architecture).get(regionId);
+        }
+        if( list == null ) {
+            list = byArchitecture.get(architecture);
+        }
+        ArrayList<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>(list.size());
+
+        for( VirtualMachineProduct prd : list ) {
+            products.add(copy(prd));
+        }
+        return products;
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Answers the question &quot;what is the cheapest product with at least <i>x</i> CPUs and <i>y</i> MB of RAM for
+ * architecture <i>z</i>?&quot; in logarithmic time over a fixed set of products. For each architecture and each
+ * distinct CPU count, the selector keeps the products having at least that many CPUs sorted by RAM with the cheapest
+ * product among each RAM suffix precomputed, so a query is two binary searches. Selectors are immutable and reflect the
+ * products for a single region; {@link AbstractVMSupport#getProductSelector(String)} maintains one per region. Like
+ * {@link VMProductCatalog}, a selector holds its own copies of the products and hands out copies of those.
+ * <p>
+ * Products with no hourly rate are treated as more expensive than any priced product. Ties in price go to the product
+ * with fewer CPUs, then less RAM, then the one listed first.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class VMProductSelector {
+    /**
+     * Builds a selector over the products for each architecture.
+     * @param products the products available, keyed by the architecture they support
+     * @return a selector over the specified products
+     */
+    static public @Nonnull VMProductSelector getInstance(@Nonnull Map<Architecture,? extends Iterable<VirtualMachineProduct>> products) {
+        return new VMProductSelector(null, products);
+    }
+
+    /**
+     * Builds a selector over the products for each architecture in the specified region.
+     * @param regionId the region in which the products are available
+     * @param products the products available, keyed by the architecture they support
+     * @return a selector over the specified products
+     */
+    static public @Nonnull VMProductSelector getInstance(@Nullable String regionId, @Nonnull Map<Architecture,? extends Iterable<VirtualMachineProduct>> products) {
+        return new VMProductSelector(regionId, products);
+    }
+
+    static private int getRamInMb(@Nonnull VirtualMachineProduct product) {
+        return (product.getRamSize() == null ? 0 : product.getRamSize().intValue());
+    }
+
+    static private float getRate(@Nonnull VirtualMachineProduct product) {
+        float rate = product.getStandardHourlyRate();
+
+        return (rate > 0f ? rate : Float.MAX_VALUE);
+    }
+
+    static private boolean isCheaper(@Nonnull VirtualMachineProduct candidate, @Nonnull VirtualMachineProduct current) {
+        float c = getRate(candidate), r = getRate(current);
+
+        if( c != r ) {
+            return (c < r);
+        }
+        if( candidate.getCpuCount() != current.getCpuCount() ) {
+            return (candidate.getCpuCount() < current.getCpuCount());
+        }
+        return (getRamInMb(candidate) < getRamInMb(current));
+    }
+
+    /**
+     * The products having at least a given number of CPUs, sorted by RAM, with the cheapest product from each
+     * position to the end of the list.
+     */
+    static private class RamIndex {
+        public final int[]                   ram;
+        public final VirtualMachineProduct[] cheapest;
+
+        public RamIndex(@Nonnull List<VirtualMachineProduct> products) {
+            ram = new int[products.size()];
+            cheapest = new VirtualMachineProduct[products.size()];
+            for( int i=products.size()-1; i>=0; i-- ) {
+                VirtualMachineProduct product = products.get(i);
+
+                ram[i] = getRamInMb(product);
+                // on a tie the earlier product wins, keeping the listing order among otherwise identical products
+                cheapest[i] = ((i == products.size()-1 || !isCheaper(cheapest[i+1], product)) ? product : cheapest[i+1]);
+            }
+        }
+
+        public @Nullable VirtualMachineProduct select(int minimumRamInMb) {
+            int idx = Arrays.binarySearch(ram, minimumRamInMb);
+
+            if( idx < 0 ) {
+                idx = -(idx + 1);
+            }
+            else {
+                while( idx > 0 && ram[idx-1] == minimumRamInMb ) {
+                    idx--;
+                }
+            }
+            return (idx < ram.length ? cheapest[idx] : null);
+        }
+    }
+
+    static private class ArchitectureIndex {
+        public final int[]      cpuCounts;
+        public final RamIndex[] indexes;
+
+        public ArchitectureIndex(@Nonnull Iterable<VirtualMachineProduct> products) {
+            ArrayList<VirtualMachineProduct> list = new ArrayList<VirtualMachineProduct>();
+            TreeSet<Integer> counts = new TreeSet<Integer>();
+
+            for( VirtualMachineProduct product : products ) {
+                list.add(VMProductCatalog.copy(product));
+                counts.add(product.getCpuCount());
+            }
+            // stable sort keeps the listing order among products with the same RAM
+            Collections.sort(list, new Comparator<VirtualMachineProduct>() {
+                public int compare(VirtualMachineProduct a, VirtualMachineProduct b) {
+                    int ra = getRamInMb(a), rb = getRamInMb(b);
+
+                    return (ra < rb ? -1 : (ra == rb ? 0 : 1));
+                }
+            });
+            cpuCounts = new int[counts.size()];
+            indexes = new RamIndex[counts.size()];
+
+            int i = 0;
+
+            for( Integer count : counts ) {
+                ArrayList<VirtualMachineProduct> eligible = new ArrayList<VirtualMachineProduct>();
+
+                for( VirtualMachineProduct product : list ) {
+                    if( product.getCpuCount() >= count ) {
+                        eligible.add(product);
+                    }
+                }
+                cpuCounts[i] = count;
+                indexes[i++] = new RamIndex(eligible);
+            }
+        }
+
+        public @Nullable VirtualMachineProduct select(int minimumCpuCount, int minimumRamInMb) {
+            int idx = Arrays.binarySearch(cpuCounts, minimumCpuCount);
+
+            if( idx < 0 ) {
+                idx = -(idx + 1);
+            }
+            return (idx < indexes.length ? indexes[idx].select(minimumRamInMb) : null);
+        }
+    }
+
+    private final Map<Architecture,ArchitectureIndex> indexes = new EnumMap<Architecture, ArchitectureIndex>(Architecture.class);
+    private final String                              regionId;
+
+    private VMProductSelector(@Nullable String regionId, @Nonnull Map<Architecture,? extends Iterable<VirtualMachineProduct>> products) {
+        this.regionId = regionId;
+        for( Map.Entry<Architecture,? extends Iterable<VirtualMachineProduct>> entry : products.entrySet() ) {
+            indexes.put(entry.getKey(), new ArchitectureIndex(entry.getValue()));
+        }
+    }
+
+    /**
+     * @return the region in which the products of this selector are available, if known
+     */
+    public @Nullable String getRegionId() {
+        return regionId;
+    }
+
+    /**
+     * Selects the cheapest product for the specified architecture that meets the specified minimums.
+     * @param architecture the architecture the product must support
+     * @param minimumCpuCount the minimum number of CPUs
+     * @param minimumRamInMb the minimum RAM in megabytes
+     * @return a copy of the cheapest qualifying product, or <code>null</code> if no product qualifies
+     */
+    public @Nullable VirtualMachineProduct select(@Nonnull Architecture architecture, @Nonnegative int minimumCpuCount, @Nonnegative int minimumRamInMb) {
+        ArchitectureIndex index = indexes.get(architecture);
+        VirtualMachineProduct product = (index == null ? null : index.select(minimumCpuCount, minimumRamInMb));
+
+        return (product == null ? null : VMProductCatalog.copy(product));
+    }
+
+    /**
+     * Selects the cheapest product for any architecture that meets the specified minimums.
+     * @param minimumCpuCount the minimum number of CPUs
+     * @param minimumRamInMb the minimum RAM in megabytes
+     * @return a copy of the cheapest qualifying product, or <code>null</code> if no product qualifies
+     */
+    public @Nullable VirtualMachineProduct select(@Nonnegative int minimumCpuCount, @Nonnegative int minimumRamInMb) {
+        VirtualMachineProduct best = null;
+
+        for( ArchitectureIndex index : indexes.values() ) {
+            VirtualMachineProduct product = index.select(minimumCpuCount, minimumRamInMb);
+
+            if( product != null && (best == null || isCheaper(product, best)) ) {
+                best = product;
+            }
+        }
+        return (best == null ? null : VMProductCatalog.copy(best));
+    }
+}
@@ -18,11 +18,15 @@
 
 package org.dasein.cloud.compute;
 
-import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.util.CompiledFilter;
+import org.dasein.cloud.util.TagMatcher;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Filtering options for filtering listings of volumes based on specific criteria. You can match any single criterion or
@@ -81,6 +85,8 @@ public class VolumeFilterOptions {
     private String             regex;
     private Map<String,String> tags;
 
+    private CompiledFilter<Volume> compiled;
+
     private VolumeFilterOptions(boolean matchesAny) {
         this.matchesAny = matchesAny;
     }
@@ -92,9 +98,49 @@ public class VolumeFilterOptions {
      */
     public @Nonnull VolumeFilterOptions attachedTo(@Nonnull String providerVMId) {
         this.attachedTo = providerVMId;
+        compiled = null;
         return this;
     }
 
+    /**
+     * Compiles these options into a filter that may be applied efficiently to a large number of volumes. The regular
+     * expression is compiled once and the criteria are ordered so the cheapest are tested first. The compiled filter
+     * reflects the criteria as of this call and is unaffected by later changes to these options.
+     * @return a compiled filter equivalent to {@link #matches(Volume)}
+     */
+    public @Nonnull CompiledFilter<Volume> compile() {
+        CompiledFilter.Builder<Volume> filter = CompiledFilter.getBuilder(matchesAny);
+
+        if( attachedTo != null ) {
+            final String value = attachedTo;
+
+            filter.withCriterion(CompiledFilter.COST_EQUALS, new CompiledFilter.Criterion<Volume>() {
+                public boolean matches(@Nonnull Volume volume) {
+                    return value.equals(volume.getProviderVirtualMachineId());
+                }
+            });
+        }
+        if( regex != null ) {
+            final Pattern pattern = CompiledFilter.compileRegex(regex);
+
+            filter.withCriterion(CompiledFilter.COST_REGEX, new CompiledFilter.Criterion<Volume>() {
+                public boolean matches(@Nonnull Volume volume) {
+                    return CompiledFilter.matchesRegex(pattern, volume.getName(), volume.getDescription(), volume.getTags());
+                }
+            });
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            final TagMatcher matcher = TagMatcher.getInstance(tags);
+
+            filter.withCriterion(CompiledFilter.COST_TAGS, new CompiledFilter.Criterion<Volume>() {
+                public boolean matches(@Nonnull Volume volume) {
+                    return matcher.matches(volume.getTags(), volume.getName(), volume.getDescription());
+                }
+            });
+        }
+        return filter.build();
+    }
+
     /**
      * @return the cloud provider ID of a virtual machine whose volumes you are seeking
      */
@@ -102,6 +148,24 @@ public class VolumeFilterOptions {
         return attachedTo;
     }
 
+    /**
+     * @return the criteria present in these options
+     */
+    public @Nonnull Set<FilterCriterion> getCriteria() {
+        EnumSet<FilterCriterion> criteria = EnumSet.noneOf(FilterCriterion.class);
+
+        if( attachedTo != null ) {
+            criteria.add(FilterCriterion.ATTACHED_TO);
+        }
+        if( regex != null ) {
+            criteria.add(FilterCriterion.REGEX);
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            criteria.add(FilterCriterion.TAGS);
+        }
+        return criteria;
+    }
+
     /**
      * @return a regular expression to match against a volume name, description, or tag values.
      */
@@ -136,51 +200,19 @@ public class VolumeFilterOptions {
 
     /**
      * Matches a volume against the criteria in this set of filter options.
+     * The criteria are compiled on first use and recompiled only after they are changed through one of the
+     * setters of this class.
      * @param volume the volume to test
      * @return true if the volume matches all criteria
      */
     public boolean matches(@Nonnull Volume volume) {
-        if( attachedTo != null ) {
-            if( attachedTo.equals(volume.getProviderVirtualMachineId()) ) {
-                if( matchesAny ) {
-                    return true;
-                }
-            }
-            else if( !matchesAny ) {
-                return false;
-            }
-        }
-        if( regex != null ) {
-            boolean matches = (volume.getName().matches(regex) || volume.getDescription().matches(regex));
+        CompiledFilter<Volume> filter = compiled;
 
-            if( !matches ) {
-                for( Map.Entry<String,String> tag : volume.getTags().entrySet() ) {
-                    String value = tag.getValue();
-
-                    if( value != null && value.matches(regex) ) {
-                        matches = true;
-                        break;
-                    }
-                }
-            }
-            if( !matches && !matchesAny ) {
-                return false;
-            }
-            else if( matches && matchesAny ) {
-                return true;
-            }
-        }
-        if( tags != null && !tags.isEmpty() ) {
-            if( !CloudProvider.matchesTags(volume.getTags(), volume.getName(), volume.getDescription(), tags) ) {
-                if( !matchesAny ) {
-                    return false;
-                }
-            }
-            else if( matchesAny ) {
-                return true;
-            }
+        if( filter == null ) {
+            filter = compile();
+            compiled = filter;
         }
-        return !matchesAny;
+        return filter.matches(volume);
     }
     /**
      * Indicates that the criteria associated with this filter must match all set criteria.
@@ -188,6 +220,7 @@ public class VolumeFilterOptions {
      */
     public @Nonnull VolumeFilterOptions matchingAll() {
         this.matchesAny = false;
+        compiled = null;
         return this;
     }
 
@@ -197,6 +230,7 @@ public class VolumeFilterOptions {
      */
     public @Nonnull VolumeFilterOptions matchingAny() {
         this.matchesAny = true;
+        compiled = null;
         return this;
     }
 
@@ -208,9 +242,41 @@ public class VolumeFilterOptions {
      */
     public @Nonnull VolumeFilterOptions matchingRegex(@Nonnull String regex) {
         this.regex = regex;
+        compiled = null;
         return this;
     }
 
+    /**
+     * Splits these options into the criteria the cloud provider can evaluate natively and the residual criteria to
+     * be evaluated locally.
+     * @param supported the criteria the cloud provider evaluates natively
+     * @return the options to push down to the cloud provider along with the residual filter
+     */
+    public @Nonnull FilterPushDown<VolumeFilterOptions,Volume> pushDown(@Nonnull Set<FilterCriterion> supported) {
+        Set<FilterCriterion> present = getCriteria();
+        EnumSet<FilterCriterion> pushed = FilterPushDown.getPushable(present, supported, matchesAny);
+        EnumSet<FilterCriterion> residual = EnumSet.noneOf(FilterCriterion.class);
+
+        residual.addAll(present);
+        residual.removeAll(pushed);
+        return FilterPushDown.getInstance(pushed.isEmpty() ? null : subset(pushed), subset(residual).compile());
+    }
+
+    private @Nonnull VolumeFilterOptions subset(@Nonnull Set<FilterCriterion> criteria) {
+        VolumeFilterOptions options = new VolumeFilterOptions(matchesAny);
+
+        if( criteria.contains(FilterCriterion.ATTACHED_TO) ) {
+            options.attachedTo = attachedTo;
+        }
+        if( criteria.contains(FilterCriterion.REGEX) ) {
+            options.regex = regex;
+        }
+        if( criteria.contains(FilterCriterion.TAGS) ) {
+            options.tags = tags;
+        }
+        return options;
+    }
+
     /**
      * Builds filtering options that will force filtering on the specified meta-data tags.
      * @param tags the meta-data tags on which to filter
@@ -218,6 +284,7 @@ public class VolumeFilterOptions {
      */
     public @Nonnull VolumeFilterOptions withTags(@Nonnull Map<String, String> tags) {
         this.tags = tags;
+        compiled = null;
         return this;
     }
 
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import org.dasein.util.uom.storage.Gigabyte;
+import org.dasein.util.uom.storage.Storage;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Selects volume products from a fixed set of products using indexes built once when the selector is constructed.
+ * The cheapest product overall and for each volume type are precomputed, and products are kept sorted by size so that
+ * the smallest product able to hold a volume of a given size is found by binary search. Products with no monthly cost
+ * are treated as more expensive than any priced product, and ties go to the product listed first. Selectors are
+ * immutable; {@link AbstractVolumeSupport#getVolumeProductSelector(String)} maintains one per region.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class VolumeProductSelector {
+    /**
+     * Builds a selector over the specified products.
+     * @param products the volume products available
+     * @return a selector over the specified products
+     */
+    static public @Nonnull VolumeProductSelector getInstance(@Nonnull Iterable<VolumeProduct> products) {
+        return new VolumeProductSelector(null, products);
+    }
+
+    /**
+     * Builds a selector over the specified products in the specified region.
+     * @param regionId the region in which the products are available
+     * @param products the volume products available
+     * @return a selector over the specified products
+     */
+    static public @Nonnull VolumeProductSelector getInstance(@Nullable String regionId, @Nonnull Iterable<VolumeProduct> products) {
+        return new VolumeProductSelector(regionId, products);
+    }
+
+    static private float getCost(@Nonnull VolumeProduct product) {
+        Float cost = product.getMonthlyGigabyteCost();
+
+        return (cost == null ? Float.MAX_VALUE : cost);
+    }
+
+    static private int getSizeInGb(@Nonnull VolumeProduct product) {
+        Storage<Gigabyte> size = product.getVolumeSize();
+
+        return (size == null ? 0 : size.intValue());
+    }
+
+    private final VolumeProduct[]               bySize;
+    private VolumeProduct                       cheapest;
+    private final Map<VolumeType,VolumeProduct> cheapestByType = new EnumMap<VolumeType, VolumeProduct>(VolumeType.class);
+    private final String                        regionId;
+    private final int[]                         sizes;
+
+    private VolumeProductSelector(@Nullable String regionId, @Nonnull Iterable<VolumeProduct> products) {
+        this.regionId = regionId;
+        ArrayList<VolumeProduct> list = new ArrayList<VolumeProduct>();
+
+        for( VolumeProduct product : products ) {
+            list.add(product);
+            if( cheapest == null || getCost(product) < getCost(cheapest) ) {
+                cheapest = product;
+            }
+            VolumeProduct c = cheapestByType.get(product.getType());
+
+            if( c == null || getCost(product) < getCost(c) ) {
+                cheapestByType.put(product.getType(), product);
+            }
+        }
+        // stable sort keeps the listing order among products of the same size
+        Collections.sort(list, new Comparator<VolumeProduct>() {
+            public int compare(VolumeProduct a, VolumeProduct b) {
+                int sa = getSizeInGb(a), sb = getSizeInGb(b);
+
+                return (sa < sb ? -1 : (sa == sb ? 0 : 1));
+            }
+        });
+        sizes = new int[list.size()];
+        bySize = list.toArray(new VolumeProduct[list.size()]);
+        for( int i=0; i<bySize.length; i++ ) {
+            sizes[i] = getSizeInGb(bySize[i]);
+        }
+    }
+
+    /**
+     * @return the cheapest product per gigabyte, or <code>null</code> if there are no products
+     */
+    public @Nullable VolumeProduct getCheapest() {
+        return cheapest;
+    }
+
+    /**
+     * @param type the type of volume sought
+     * @return the cheapest product per gigabyte of the specified type, or <code>null</code> if there is none
+     */
+    public @Nullable VolumeProduct getCheapest(@Nonnull VolumeType type) {
+        return cheapestByType.get(type);
+    }
+
+    /**
+     * @return the region in which the products of this selector are available, if known
+     */
+    public @Nullable String getRegionId() {
+        return regionId;
+    }
+
+    /**
+     * Finds the product with the smallest fixed size that can hold a volume of the specified size. This is the
+     * selection to make for clouds in which the volume size is determined by the product.
+     * @param minimumSizeInGb the size of the volume to be created
+     * @return the smallest qualifying product, or <code>null</code> if no product is large enough
+     */
+    public @Nullable VolumeProduct getSmallest(@Nonnegative int minimumSizeInGb) {
+        int idx = Arrays.binarySearch(sizes, minimumSizeInGb);
+
+        if( idx < 0 ) {
+            idx = -(idx + 1);
+        }
+        else {
+            while( idx > 0 && sizes[idx-1] == minimumSizeInGb ) {
+                idx--;
+            }
+        }
+        return (idx < bySize.length ? bySize[idx] : null);
+    }
+
+    /**
+     * @return true if there are no products in this selector
+     */
+    public boolean isEmpty() {
+        return (bySize.length == 0);
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.ResourceStatus;
+import org.dasein.cloud.identity.ServiceAction;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Basic implementation of DNS support methods to minimize the work in implementing support in a new cloud.
+ * @since 2013.04.2
+ * @version 2013.04.2
+ */
+public abstract class AbstractDNSSupport implements DNSSupport {
+    private CloudProvider provider;
+
+    public AbstractDNSSupport(@Nonnull CloudProvider provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public @Nonnull DNSRecord addDnsRecord(@Nonnull String providerDnsZoneId, @Nonnull DNSRecordType recordType, @Nonnull String name, @Nonnegative int ttl, @Nonnull String ... values) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Adding DNS records is not currently implemented for " + getProvider().getCloudName());
+    }
+
+    /**
+     * Applies many record changes to the specified zone with as few calls to the cloud as possible. Override this
+     * method for clouds that accept a change batch in one call; the default implementation does not support it,
+     * causing {@link DNSChangeSet} to fall back to {@link #deleteDnsRecords(DNSRecord...)} and concurrent calls to
+     * {@link #addDnsRecord(String, DNSRecordType, String, int, String...)}. Each upsert replaces all records in the
+     * zone having the same type and name. The changes must be applied completely or an exception thrown.
+     * @param providerDnsZoneId the zone being changed
+     * @param upserts the records to create or replace
+     * @param deletes the records to delete
+     * @throws CloudException an error occurred with the cloud provider applying the changes
+     * @throws InternalException an error occurred within Dasein Cloud applying the changes
+     */
+    protected void changeDnsRecords(@Nonnull String providerDnsZoneId, @Nonnull List<DNSRecord> upserts, @Nonnull List<DNSRecord> deletes) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Batch DNS changes are not currently implemented for " + getProvider().getCloudName());
+    }
+
+    @Override
+    public @Nonnull String createDnsZone(@Nonnull String domainName, @Nonnull String name, @Nonnull String description) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("DNS zone creation is not currently implemented for " + getProvider().getCloudName());
+    }
+
+    @Override
+    public void deleteDnsRecords(@Nonnull DNSRecord ... dnsRecords) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("DNS record removal is not currently implemented for " + getProvider().getCloudName());
+    }
+
+    @Override
+    public void deleteDnsZone(@Nonnull String providerDnsZoneId) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("DNS zone removal is not currently implemented for " + getProvider().getCloudName());
+    }
+
+    /**
+     * @return the current authentication context for any calls through this support object
+     * @throws CloudException no context was set
+     */
+    protected @Nonnull ProviderContext getContext() throws CloudException {
+        ProviderContext ctx = getProvider().getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was specified for this request");
+        }
+        return ctx;
+    }
+
+    @Override
+    public @Nullable DNSZone getDnsZone(@Nonnull String providerDnsZoneId) throws CloudException, InternalException {
+        for( DNSZone zone : listDnsZones() ) {
+            if( providerDnsZoneId.equals(zone.getProviderDnsZoneId()) ) {
+                return zone;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the provider object associated with any calls through this support object
+     */
+    protected final @Nonnull CloudProvider getProvider() {
+        return provider;
+    }
+
+    @Override
+    public @Nonnull Iterable<ResourceStatus> listDnsZoneStatus() throws CloudException, InternalException {
+        List<ResourceStatus> status = new ArrayList<ResourceStatus>();
+
+        for( DNSZone zone : listDnsZones() ) {
+            status.add(new ResourceStatus(zone.getProviderDnsZoneId(), true));
+        }
+        return status;
+    }
+
+    @Override
+    public @Nonnull String[] mapServiceAction(@Nonnull ServiceAction action) {
+        return new String[0];
+    }
+}
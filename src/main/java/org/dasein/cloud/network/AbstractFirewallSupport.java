@@ -34,6 +34,7 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * Basic implementation of firewall support methods to minimize the work in implementing support in a new cloud.
@@ -94,6 +95,22 @@ public abstract class AbstractFirewallSupport implements FirewallSupport {
         throw new OperationNotSupportedException("Authorization is not currently implemented for " + getProvider().getCloudName());
     }
 
+    /**
+     * Authorizes many rules in the specified firewall with as few calls to the cloud as possible. Override this method
+     * for clouds that can add several rules in one call; the default implementation does not support it, causing
+     * {@link FirewallReconciler} to fall back to concurrent calls to
+     * {@link #authorize(String, Direction, Permission, RuleTarget, Protocol, RuleTarget, int, int, int)}. The firewall
+     * ID of each rule is ignored in favor of <code>firewallId</code>.
+     * @param firewallId the firewall to which the rules are added
+     * @param rules the rules to authorize
+     * @return the provider rule IDs of the new rules, in the same order as the rules
+     * @throws CloudException an error occurred with the cloud provider authorizing the rules
+     * @throws InternalException an error occurred within Dasein Cloud authorizing the rules
+     */
+    protected @Nonnull List<String> authorizeAll(@Nonnull String firewallId, @Nonnull List<FirewallRule> rules) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Batch authorization is not currently implemented for " + getProvider().getCloudName());
+    }
+
     @Override
     @Deprecated
     public @Nonnull String create(@Nonnull String name, @Nonnull String description) throws InternalException, CloudException {
@@ -191,6 +208,19 @@ public abstract class AbstractFirewallSupport implements FirewallSupport {
         throw new OperationNotSupportedException("Revoke is not currently implemented in " + getProvider().getCloudName());
     }
 
+    /**
+     * Revokes many rules from the specified firewall with as few calls to the cloud as possible. Override this method
+     * for clouds that can remove several rules in one call; the default implementation does not support it, causing
+     * {@link FirewallReconciler} to fall back to concurrent calls to {@link #revoke(String)}.
+     * @param firewallId the firewall from which the rules are removed
+     * @param rules the current rules to revoke
+     * @throws CloudException an error occurred with the cloud provider revoking the rules
+     * @throws InternalException an error occurred within Dasein Cloud revoking the rules
+     */
+    protected void revokeAll(@Nonnull String firewallId, @Nonnull List<FirewallRule> rules) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Batch revocation is not currently implemented for " + getProvider().getCloudName());
+    }
+
     @Override
     public void revoke(@Nonnull String firewallId, @Nonnull String source, @Nonnull Protocol protocol, int beginPort, int endPort) throws CloudException, InternalException {
         revoke(firewallId, Direction.INGRESS, Permission.ALLOW, source, protocol,  RuleTarget.getGlobal(firewallId), beginPort, endPort);
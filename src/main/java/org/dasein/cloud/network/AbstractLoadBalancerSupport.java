@@ -26,12 +26,17 @@ import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.identity.ServiceAction;
+import org.dasein.cloud.util.BatchLoader;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 /**
  * Provides a basic implementation of load balancer support that you can extend and customize to support your cloud.
@@ -107,12 +112,39 @@ public abstract class AbstractLoadBalancerSupport<T extends CloudProvider> imple
 
     @Override
     public LoadBalancer getLoadBalancer(@Nonnull String loadBalancerId) throws CloudException, InternalException {
+        BatchLoader<LoadBalancer> loader = BatchLoader.getInstance(getProvider(), "loadBalancers", LoadBalancer.class);
+
+        return loader.load(getContext(), loadBalancerId, new BatchLoader.Fetcher<LoadBalancer>() {
+            public @Nonnull Map<String,LoadBalancer> fetch(@Nonnull Collection<String> ids) throws CloudException, InternalException {
+                return getLoadBalancers(ids);
+            }
+        });
+    }
+
+    /**
+     * Looks up many load balancers in a single call. Concurrent calls to {@link #getLoadBalancer(String)} are coalesced
+     * into calls to this method. The default implementation makes one pass through {@link #listLoadBalancers()}.
+     * Override it if the cloud can describe many load balancers by ID in one API call.
+     * @param ids the IDs of the load balancers to look up
+     * @return the load balancers found, keyed by ID
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     * @throws CloudException an error occurred within the cloud provider
+     */
+    protected @Nonnull Map<String,LoadBalancer> getLoadBalancers(@Nonnull Collection<String> ids) throws InternalException, CloudException {
+        HashSet<String> wanted = new HashSet<String>(ids);
+        HashMap<String,LoadBalancer> found = new HashMap<String, LoadBalancer>();
+
         for( LoadBalancer lb : listLoadBalancers() ) {
-            if( loadBalancerId.equals(lb.getProviderLoadBalancerId()) ) {
-                return lb;
+            String id = lb.getProviderLoadBalancerId();
+
+            if( wanted.contains(id) ) {
+                found.put(id, lb);
+                if( found.size() == wanted.size() ) {
+                    break;
+                }
             }
         }
-        return null;
+        return found;
     }
 
     @Override
@@ -122,13 +154,7 @@ public abstract class AbstractLoadBalancerSupport<T extends CloudProvider> imple
 
         for( LoadBalancerEndpoint endpoint : listEndpoints(loadBalancerId) ) {
             if( endpoint.getEndpointType().equals(LbEndpointType.VM) ) {
-                LoadBalancerServer server = new LoadBalancerServer();
-
-                server.setCurrentState(LoadBalancerServerState.valueOf(endpoint.getCurrentState().name()));
-                server.setCurrentStateDescription(endpoint.getStateDescription());
-                server.setCurrentStateReason(endpoint.getStateReason());
-                // TODO: the rest
-                servers.add(server);
+                servers.add(toServer(loadBalancerId, endpoint));
             }
         }
         return servers;
@@ -139,27 +165,8 @@ public abstract class AbstractLoadBalancerSupport<T extends CloudProvider> imple
     public @Nonnull Iterable<LoadBalancerServer> getLoadBalancerServerHealth(@Nonnull String loadBalancerId, @Nonnull String... serverIdsToCheck) throws CloudException, InternalException {
         ArrayList<LoadBalancerServer> servers = new ArrayList<LoadBalancerServer>();
 
-        for( LoadBalancerEndpoint endpoint : listEndpoints(loadBalancerId) ) {
-            if( endpoint.getEndpointType().equals(LbEndpointType.VM) ) {
-                boolean included = false;
-
-                for( String id : serverIdsToCheck ) {
-                    if( id.equals(endpoint.getEndpointValue()) ) {
-                        included = true;
-                        break;
-                    }
-                }
-                if( included ) {
-                    LoadBalancerServer server = new LoadBalancerServer();
-
-                    server.setCurrentState(LoadBalancerServerState.valueOf(endpoint.getCurrentState().name()));
-                    server.setCurrentStateDescription(endpoint.getStateDescription());
-                    server.setCurrentStateReason(endpoint.getStateReason());
-                    // TODO: the rest
-
-                    servers.add(server);
-                }
-            }
+        for( LoadBalancerEndpoint endpoint : listEndpoints(loadBalancerId, LbEndpointType.VM, serverIdsToCheck) ) {
+            servers.add(toServer(loadBalancerId, endpoint));
         }
         return servers;
     }
@@ -234,25 +241,20 @@ public abstract class AbstractLoadBalancerSupport<T extends CloudProvider> imple
     public @Nonnull Iterable<LoadBalancerEndpoint> listEndpoints(@Nonnull String forLoadBalancerId, @Nonnull LbEndpointType type, @Nonnull String ... endpoints) throws CloudException, InternalException {
         ArrayList<LoadBalancerEndpoint> matches = new ArrayList<LoadBalancerEndpoint>();
 
+        if( endpoints.length < 1 ) {
+            return matches;
+        }
+        HashSet<String> wanted = new HashSet<String>();
+
+        Collections.addAll(wanted, endpoints);
         for( LoadBalancerEndpoint endpoint : listEndpoints(forLoadBalancerId) ) {
-            if( endpoint.getEndpointType().equals(type) ) {
-                boolean included = false;
-
-                for( String value : endpoints ) {
-                    if( value.equals(endpoint.getEndpointValue()) ) {
-                        included = true;
-                        break;
-                    }
-                }
-                if( included ) {
-                    matches.add(endpoint);
-                }
+            if( endpoint.getEndpointType().equals(type) && wanted.contains(endpoint.getEndpointValue()) ) {
+                matches.add(endpoint);
             }
         }
         return matches;
     }
 
-
     @Override
     public @Nonnull Iterable<LbAlgorithm> listSupportedAlgorithms() throws CloudException, InternalException {
         return Collections.singletonList(LbAlgorithm.ROUND_ROBIN);
@@ -283,6 +285,20 @@ public abstract class AbstractLoadBalancerSupport<T extends CloudProvider> imple
         return new String[0];
     }
 
+    /**
+     * Applies every endpoint and data center change for a single load balancer using a native bulk registration call.
+     * {@link LoadBalancerEndpointBatch} calls this before falling back to the individual add and remove methods, so
+     * providers able to register and deregister many endpoints in one request should override it. The changes must be
+     * applied completely or an exception thrown.
+     * @param mutation the merged changes for one load balancer
+     * @throws OperationNotSupportedException the provider has no bulk registration call (the default)
+     * @throws CloudException an error occurred with the cloud provider applying the changes
+     * @throws InternalException an error occurred within the Dasein Cloud implementation
+     */
+    protected void modifyEndpoints(@Nonnull LoadBalancerEndpointBatch.Mutation mutation) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Batch endpoint changes are not currently implemented for " + getContext().getRegionId() + " of " + getProvider().getCloudName());
+    }
+
     @Override
     @Deprecated
     public void remove(@Nonnull String loadBalancerId) throws CloudException, InternalException {
@@ -341,4 +357,21 @@ public abstract class AbstractLoadBalancerSupport<T extends CloudProvider> imple
     public boolean supportsMultipleTrafficTypes() throws CloudException, InternalException {
         return false;
     }
+
+    /**
+     * Describes a VM endpoint in the form used by the deprecated server health methods.
+     * @param loadBalancerId the load balancer to which the endpoint belongs
+     * @param endpoint the VM endpoint
+     * @return a server object describing the endpoint's health
+     */
+    static @Nonnull LoadBalancerServer toServer(@Nonnull String loadBalancerId, @Nonnull LoadBalancerEndpoint endpoint) {
+        LoadBalancerServer server = new LoadBalancerServer();
+
+        server.setProviderLoadBalancerId(loadBalancerId);
+        server.setProviderServerId(endpoint.getEndpointValue());
+        server.setCurrentState(LoadBalancerServerState.valueOf(endpoint.getCurrentState().name()));
+        server.setCurrentStateDescription(endpoint.getStateDescription());
+        server.setCurrentStateReason(endpoint.getStateReason());
+        return server;
+    }
 }
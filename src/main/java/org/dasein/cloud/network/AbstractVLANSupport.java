@@ -26,9 +26,6 @@ import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.Tag;
-import org.dasein.cloud.compute.ComputeServices;
-import org.dasein.cloud.compute.VirtualMachine;
-import org.dasein.cloud.compute.VirtualMachineSupport;
 import org.dasein.cloud.identity.ServiceAction;
 
 import javax.annotation.Nonnull;
@@ -36,6 +33,7 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 
 /**
  * Provides baseline support for functionality that is common among implementations, in particular for deprecated methods.
@@ -330,57 +328,35 @@ public abstract class AbstractVLANSupport implements VLANSupport {
         return nics;
     }
 
+    /**
+     * Lists the resources in the specified VLAN. The firewall, IP pool, routing table, subnet and virtual machine
+     * listings are fetched concurrently in the background and the resources are streamed as they are found, so they
+     * appear in no particular order. A virtual machine belongs to the VLAN when its VLAN ID names one of the VLAN's
+     * subnets, as before, and also when its subnet ID names one of those subnets or its VLAN ID names the VLAN itself.
+     * Because the listings complete after this method returns, a failed listing is raised while iterating as a
+     * {@link org.dasein.cloud.util.StreamingException} whose cause is the underlying error.
+     * @param inVlanId the VLAN for whom you are seeking the resource list
+     * @return the resources associated with the specified VLAN
+     * @throws CloudException an error occurred in the cloud identifying the matching resources
+     * @throws InternalException a local error occurred constructing the cloud query
+     */
     @Override
     public @Nonnull Iterable<Networkable> listResources(@Nonnull String inVlanId) throws CloudException, InternalException {
-        ArrayList<Networkable> resources = new ArrayList<Networkable>();
-        NetworkServices network = provider.getNetworkServices();
-
-        if( network != null ) {
-            FirewallSupport fwSupport = network.getFirewallSupport();
-
-            if( fwSupport != null ) {
-                for( Firewall fw : fwSupport.list() ) {
-                    if( inVlanId.equals(fw.getProviderVlanId()) ) {
-                        resources.add(fw);
-                    }
-                }
-            }
-
-            IpAddressSupport ipSupport = network.getIpAddressSupport();
-
-            if( ipSupport != null ) {
-                for( IPVersion version : ipSupport.listSupportedIPVersions() ) {
-                    for( IpAddress addr : ipSupport.listIpPool(version, false) ) {
-                        if( inVlanId.equals(addr.getProviderVlanId()) ) {
-                            resources.add(addr);
-                        }
-                    }
-
-                }
-            }
-            for( RoutingTable table : listRoutingTables(inVlanId) ) {
-                resources.add(table);
-            }
-            ComputeServices compute = provider.getComputeServices();
-            VirtualMachineSupport vmSupport = compute == null ? null : compute.getVirtualMachineSupport();
-            Iterable<VirtualMachine> vms;
+        return new VLANResourceQuery(provider, this, Collections.singletonList(inVlanId)).start().get(inVlanId);
+    }
 
-            if( vmSupport == null ) {
-                vms = Collections.emptyList();
-            }
-            else {
-                vms = vmSupport.listVirtualMachines();
-            }
-            for( Subnet subnet : listSubnets(inVlanId) ) {
-                resources.add(subnet);
-                for( VirtualMachine vm : vms ) {
-                    if( subnet.getProviderSubnetId().equals(vm.getProviderVlanId()) ) {
-                        resources.add(vm);
-                    }
-                }
-            }
-        }
-        return resources;
+    /**
+     * Lists all resources associated with each of the specified VLANs. Listings that are not specific to a VLAN, such
+     * as firewalls, IP addresses and virtual machines, are fetched only once for the whole set, making this much
+     * cheaper than calling {@link #listResources(String)} for each VLAN. The resources of each VLAN are streamed as
+     * described for {@link #listResources(String)}.
+     * @param inVlanIds the VLANs for whom you are seeking the resource lists
+     * @return the resources associated with each VLAN, keyed by VLAN ID in the order the VLAN IDs were given
+     * @throws CloudException an error occurred in the cloud identifying the matching resources
+     * @throws InternalException a local error occurred constructing the cloud query
+     */
+    public @Nonnull Map<String,Iterable<Networkable>> listResources(@Nonnull Collection<String> inVlanIds) throws CloudException, InternalException {
+        return new VLANResourceQuery(provider, this, inVlanIds).start();
     }
 
     @Override
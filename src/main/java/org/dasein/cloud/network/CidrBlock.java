@@ -0,0 +1,513 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>
+ * An IPv4 or IPv6 CIDR block held in binary form. IPv4 addresses are kept as an <code>int</code> and IPv6 addresses
+ * as two <code>long</code> values, so containment and overlap tests are a few mask-and-compare operations rather
+ * than string manipulation. A single address is a block whose prefix covers the whole address (/32 or /128).
+ * </p>
+ * <p>
+ * Parsing is done by hand without regular expressions or name resolution. The address bits are kept as given, so a
+ * block like <code>10.1.2.3/8</code> prints as it was written; use {@link #getNetwork()} for the masked form.
+ * Instances are immutable.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public final class CidrBlock implements Comparable<CidrBlock> {
+    static private final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Constructs an IPv4 block.
+     * @param address the IPv4 address bits
+     * @param prefixLength the number of network bits, from 0 to 32
+     * @return the block
+     * @throws IllegalArgumentException the prefix length is out of range
+     */
+    static public @Nonnull CidrBlock getInstance(int address, @Nonnegative int prefixLength) {
+        if( prefixLength < 0 || prefixLength > 32 ) {
+            throw new IllegalArgumentException("Invalid IPv4 prefix length: " + prefixLength);
+        }
+        return new CidrBlock(IPVersion.IPV4, 0L, address & 0xFFFFFFFFL, prefixLength);
+    }
+
+    /**
+     * Constructs an IPv6 block.
+     * @param high the upper 64 bits of the IPv6 address
+     * @param low the lower 64 bits of the IPv6 address
+     * @param prefixLength the number of network bits, from 0 to 128
+     * @return the block
+     * @throws IllegalArgumentException the prefix length is out of range
+     */
+    static public @Nonnull CidrBlock getInstance(long high, long low, @Nonnegative int prefixLength) {
+        if( prefixLength < 0 || prefixLength > 128 ) {
+            throw new IllegalArgumentException("Invalid IPv6 prefix length: " + prefixLength);
+        }
+        return new CidrBlock(IPVersion.IPV6, high, low, prefixLength);
+    }
+
+    /**
+     * Parses an address (<code>10.2.3.4</code>, <code>2001:db8::1</code>) or a CIDR block (<code>10.0.0.0/8</code>,
+     * <code>2001:db8::/32</code>).
+     * @param value the value to parse
+     * @return the parsed block, or <code>null</code> if the value is not an address or CIDR block
+     */
+    static public @Nullable CidrBlock parse(@Nullable String value) {
+        if( value == null ) {
+            return null;
+        }
+        int len = value.length();
+        int slash = value.indexOf('/');
+        int end = (slash < 0 ? len : slash);
+        int prefix = -1;
+
+        if( end < 2 ) {
+            return null;
+        }
+        if( slash > -1 ) {
+            prefix = 0;
+            if( slash == len - 1 || len - slash > 4 ) {
+                return null;
+            }
+            for( int i=slash+1; i<len; i++ ) {
+                char c = value.charAt(i);
+
+                if( c < '0' || c > '9' ) {
+                    return null;
+                }
+                prefix = prefix*10 + (c - '0');
+            }
+        }
+        if( value.lastIndexOf(':', end - 1) < 0 ) {
+            long v4 = parseIPv4(value, 0, end);
+
+            if( v4 < 0 || prefix > 32 ) {
+                return null;
+            }
+            return new CidrBlock(IPVersion.IPV4, 0L, v4, prefix < 0 ? 32 : prefix);
+        }
+        long[] v6 = parseIPv6(value, end);
+
+        if( v6 == null || prefix > 128 ) {
+            return null;
+        }
+        return new CidrBlock(IPVersion.IPV6, v6[0], v6[1], prefix < 0 ? 128 : prefix);
+    }
+
+    static private int hex(char c) {
+        if( c >= '0' && c <= '9' ) {
+            return c - '0';
+        }
+        if( c >= 'a' && c <= 'f' ) {
+            return c - 'a' + 10;
+        }
+        if( c >= 'A' && c <= 'F' ) {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    static private long parseIPv4(@Nonnull String value, int start, int end) {
+        long address = 0L;
+        int octets = 0, octet = 0, digits = 0;
+
+        for( int i=start; i<end; i++ ) {
+            char c = value.charAt(i);
+
+            if( c >= '0' && c <= '9' ) {
+                octet = octet*10 + (c - '0');
+                if( ++digits > 3 || octet > 255 ) {
+                    return -1L;
+                }
+            }
+            else if( c == '.' && digits > 0 && octets < 3 ) {
+                address = (address << 8) | octet;
+                octets++;
+                octet = 0;
+                digits = 0;
+            }
+            else {
+                return -1L;
+            }
+        }
+        if( digits == 0 || octets != 3 ) {
+            return -1L;
+        }
+        return (address << 8) | octet;
+    }
+
+    static private @Nullable long[] parseIPv6(@Nonnull String value, int end) {
+        int[] groups = new int[8];
+        int count = 0, gap = -1, i = 0;
+
+        if( value.startsWith("::") ) {
+            gap = 0;
+            i = 2;
+        }
+        else if( value.charAt(0) == ':' ) {
+            return null;
+        }
+        while( i < end ) {
+            int j = i, group = 0;
+
+            while( j < end && hex(value.charAt(j)) > -1 ) {
+                group = (group << 4) | hex(value.charAt(j));
+                j++;
+            }
+            if( j < end && value.charAt(j) == '.' ) {
+                // trailing dotted IPv4 form, e.g. ::ffff:10.1.2.3
+                long v4 = parseIPv4(value, i, end);
+
+                if( v4 < 0 || count > 6 ) {
+                    return null;
+                }
+                groups[count++] = (int)(v4 >>> 16);
+                groups[count++] = (int)(v4 & 0xFFFF);
+                break;
+            }
+            if( j == i || j - i > 4 || count == 8 ) {
+                return null;
+            }
+            groups[count++] = group;
+            if( j == end ) {
+                break;
+            }
+            if( value.charAt(j) != ':' || ++j == end ) {
+                return null;
+            }
+            if( value.charAt(j) == ':' ) {
+                if( gap > -1 ) {
+                    return null;
+                }
+                gap = count;
+                j++;
+            }
+            i = j;
+        }
+        if( gap < 0 ? count != 8 : count > 7 ) {
+            return null;
+        }
+        long[] address = new long[2];
+        int tail = (gap < 0 ? 0 : count - gap);
+
+        for( int g=0; g<8; g++ ) {
+            int v;
+
+            if( gap < 0 || g < gap ) {
+                v = groups[g];
+            }
+            else if( g >= 8 - tail ) {
+                v = groups[gap + g - (8 - tail)];
+            }
+            else {
+                v = 0;
+            }
+            address[g >> 2] = (address[g >> 2] << 16) | v;
+        }
+        return address;
+    }
+
+    private final long      high;
+    private final long      low;
+    private final int       prefixLength;
+    private final IPVersion version;
+
+    private CidrBlock(@Nonnull IPVersion version, long high, long low, int prefixLength) {
+        this.version = version;
+        this.high = high;
+        this.low = low;
+        this.prefixLength = prefixLength;
+    }
+
+    @Override
+    public int compareTo(@Nonnull CidrBlock other) {
+        if( version != other.version ) {
+            return version.compareTo(other.version);
+        }
+        if( high != other.high ) {
+            return (high + Long.MIN_VALUE < other.high + Long.MIN_VALUE ? -1 : 1);
+        }
+        if( low != other.low ) {
+            return (low + Long.MIN_VALUE < other.low + Long.MIN_VALUE ? -1 : 1);
+        }
+        return (prefixLength < other.prefixLength ? -1 : (prefixLength == other.prefixLength ? 0 : 1));
+    }
+
+    /**
+     * Indicates whether every address in the specified block is also in this block.
+     * @param other the block to test
+     * @return true if this block contains the other block
+     */
+    public boolean contains(@Nonnull CidrBlock other) {
+        return (version == other.version && other.prefixLength >= prefixLength && sameNetwork(other, prefixLength));
+    }
+
+    /**
+     * Indicates whether the specified address falls within this block.
+     * @param address an IPv4 or IPv6 address literal
+     * @return true if the address parses and falls within this block
+     */
+    public boolean contains(@Nonnull String address) {
+        CidrBlock other = parse(address);
+
+        return (other != null && contains(other));
+    }
+
+    /**
+     * Indicates whether the specified IPv4 address falls within this block.
+     * @param address the IPv4 address bits
+     * @return true if this is an IPv4 block containing the address
+     */
+    public boolean contains(int address) {
+        return (version == IPVersion.IPV4 && (((int)low ^ address) & (int)mask(prefixLength, 32)) == 0);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object other) {
+        if( other == this ) {
+            return true;
+        }
+        if( !(other instanceof CidrBlock) ) {
+            return false;
+        }
+        CidrBlock b = (CidrBlock)other;
+
+        return (version == b.version && high == b.high && low == b.low && prefixLength == b.prefixLength);
+    }
+
+    /**
+     * Provides the address at the specified offset from the start of the network.
+     * @param index the offset of the address within the block
+     * @return a single-address block
+     * @throws IllegalArgumentException the index falls outside this block
+     */
+    public @Nonnull CidrBlock getAddress(@Nonnegative long index) {
+        if( index < 0 || index >= getAddressCount() ) {
+            throw new IllegalArgumentException("Index " + index + " is outside " + this);
+        }
+        CidrBlock network = getNetwork();
+
+        if( version == IPVersion.IPV4 ) {
+            return new CidrBlock(version, 0L, network.low + index, 32);
+        }
+        long l = network.low + index;
+        long h = network.high + (l + Long.MIN_VALUE < network.low + Long.MIN_VALUE ? 1L : 0L);
+
+        return new CidrBlock(version, h, l, 128);
+    }
+
+    /**
+     * @return the number of addresses in this block, or {@link Long#MAX_VALUE} for IPv6 blocks too large to count
+     */
+    public long getAddressCount() {
+        int hostBits = getMaxPrefixLength() - prefixLength;
+
+        return (hostBits > 62 ? Long.MAX_VALUE : 1L << hostBits);
+    }
+
+    /**
+     * @return the upper 64 bits of an IPv6 address (0 for IPv4)
+     */
+    public long getHighBits() {
+        return high;
+    }
+
+    /**
+     * @return the IPv4 address bits as given, or the lowest 32 bits of an IPv6 address
+     */
+    public int getIPv4Address() {
+        return (int)low;
+    }
+
+    /**
+     * @return the lower 64 bits of an IPv6 address, or the IPv4 address in the low 32 bits
+     */
+    public long getLowBits() {
+        return low;
+    }
+
+    /**
+     * @return the largest prefix length for this block's IP version (32 or 128)
+     */
+    public int getMaxPrefixLength() {
+        return (version == IPVersion.IPV4 ? 32 : 128);
+    }
+
+    /**
+     * @return this block with all host bits cleared
+     */
+    public @Nonnull CidrBlock getNetwork() {
+        if( version == IPVersion.IPV4 ) {
+            long l = low & mask(prefixLength, 32) & 0xFFFFFFFFL;
+
+            return (l == low ? this : new CidrBlock(version, 0L, l, prefixLength));
+        }
+        long h = high & mask(prefixLength, 64);
+        long l = low & mask(prefixLength - 64, 64);
+
+        return (h == high && l == low ? this : new CidrBlock(version, h, l, prefixLength));
+    }
+
+    /**
+     * @return the number of network bits in this block
+     */
+    public @Nonnegative int getPrefixLength() {
+        return prefixLength;
+    }
+
+    /**
+     * @return the IP version of this block
+     */
+    public @Nonnull IPVersion getVersion() {
+        return version;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = high * 31 + low;
+
+        return (int)(h ^ (h >>> 32)) * 31 + prefixLength;
+    }
+
+    /**
+     * Tests a single bit of the address, counting from the most significant bit.
+     * @param index the bit to test, from 0 up to {@link #getMaxPrefixLength()} - 1
+     * @return true if the bit is set
+     */
+    public boolean isBitSet(@Nonnegative int index) {
+        if( version == IPVersion.IPV4 ) {
+            return ((low >>> (31 - index)) & 1L) == 1L;
+        }
+        if( index < 64 ) {
+            return ((high >>> (63 - index)) & 1L) == 1L;
+        }
+        return ((low >>> (127 - index)) & 1L) == 1L;
+    }
+
+    /**
+     * @return true if this block identifies a single address
+     */
+    public boolean isHost() {
+        return (prefixLength == getMaxPrefixLength());
+    }
+
+    /**
+     * Indicates whether this block lies in the publicly routable address space. The private IPv4 ranges 10/8,
+     * 172.16/12 and 192.168/16, the IPv4 link-local range 169.254/16 and the IPv6 unique local range fc00::/7 are
+     * not public.
+     * @return true if this block is in the publicly addressable address space
+     */
+    public boolean isPublic() {
+        if( version == IPVersion.IPV4 ) {
+            int a = (int)low;
+
+            return !((a >>> 24) == 10 || (a >>> 20) == 0xAC1 || (a >>> 16) == 0xC0A8 || (a >>> 16) == 0xA9FE);
+        }
+        return ((high >>> 57) != 0x7E);
+    }
+
+    private long mask(int bits, int width) {
+        if( bits <= 0 ) {
+            return 0L;
+        }
+        if( bits >= width ) {
+            return (width == 64 ? -1L : (1L << width) - 1);
+        }
+        return (width == 64 ? -1L << (64 - bits) : ((1L << width) - 1) & (-1L << (width - bits)));
+    }
+
+    /**
+     * Indicates whether this block shares any address with the specified block.
+     * @param other the block to test
+     * @return true if either block contains the other
+     */
+    public boolean overlaps(@Nonnull CidrBlock other) {
+        return (version == other.version && sameNetwork(other, Math.min(prefixLength, other.prefixLength)));
+    }
+
+    private boolean sameNetwork(@Nonnull CidrBlock other, int bits) {
+        if( version == IPVersion.IPV4 ) {
+            return ((low ^ other.low) & mask(bits, 32)) == 0L;
+        }
+        return ((high ^ other.high) & mask(bits, 64)) == 0L && ((low ^ other.low) & mask(bits - 64, 64)) == 0L;
+    }
+
+    /**
+     * @return the address without the prefix length, e.g. <code>10.1.2.0</code> or <code>2001:db8::</code>
+     */
+    public @Nonnull String toAddressString() {
+        StringBuilder str = new StringBuilder(40);
+
+        if( version == IPVersion.IPV4 ) {
+            str.append((low >>> 24) & 255).append('.').append((low >>> 16) & 255).append('.').append((low >>> 8) & 255).append('.').append(low & 255);
+            return str.toString();
+        }
+        int[] groups = new int[8];
+        int bestStart = -1, bestLength = 1;
+
+        for( int g=0; g<8; g++ ) {
+            groups[g] = (int)(((g < 4 ? high : low) >>> (48 - 16*(g & 3))) & 0xFFFF);
+        }
+        for( int g=0; g<8; g++ ) {
+            int run = 0;
+
+            while( g + run < 8 && groups[g + run] == 0 ) {
+                run++;
+            }
+            if( run > bestLength ) {
+                bestStart = g;
+                bestLength = run;
+            }
+            g += run;
+        }
+        for( int g=0; g<8; g++ ) {
+            if( g == bestStart ) {
+                str.append("::");
+                g += bestLength - 1;
+                continue;
+            }
+            if( str.length() > 0 && str.charAt(str.length() - 1) != ':' ) {
+                str.append(':');
+            }
+            int v = groups[g];
+            boolean started = false;
+
+            for( int shift=12; shift>=0; shift-=4 ) {
+                int d = (v >>> shift) & 0xF;
+
+                if( started || d != 0 || shift == 0 ) {
+                    str.append(HEX[d]);
+                    started = true;
+                }
+            }
+        }
+        return str.toString();
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return toAddressString() + "/" + prefixLength;
+    }
+}
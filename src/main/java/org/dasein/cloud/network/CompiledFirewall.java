@@ -0,0 +1,663 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * A set of firewall rules compiled for fast evaluation of questions like &quot;is TCP/443 from 10.2.3.4 allowed into
+ * VM X?&quot;. Rules are split by direction and protocol. Within each split, rules with a CIDR on the remote side are
+ * indexed in a binary prefix trie, rules naming a remote firewall, VM or VLAN are indexed by ID, and port ranges are
+ * indexed in an interval tree. Addresses are compared as {@link CidrBlock} values. A query intersects the remote
+ * matches with the port matches and walks the survivors in precedence order, so its cost depends on the address
+ * length and the number of overlapping rules rather than the size of the rule set.
+ * </p>
+ * <p>
+ * Precedence follows {@link FirewallSupport#isZeroPrecedenceHighest()}. Rules without a precedence (-1) come last,
+ * and at equal precedence a DENY rule wins over an ALLOW rule. Traffic no rule matches is denied. Rules with
+ * {@link Protocol#ANY} apply to every protocol. Rules from several firewalls may be compiled together; each rule then
+ * applies only to traffic whose local side is protected by the rule's firewall (see
+ * {@link Traffic#withLocalFirewalls(String...)}).
+ * </p>
+ * <p>
+ * A compiled firewall is immutable and safe to share across threads. It does not track later changes to the rules.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class CompiledFirewall {
+    /**
+     * Compiles the current rules of the specified firewall.
+     * @param support the firewall support for the cloud holding the firewall
+     * @param firewallId the firewall whose rules are to be compiled
+     * @return the compiled rules
+     * @throws CloudException an error occurred with the cloud provider fetching the rules
+     * @throws InternalException an error occurred within Dasein Cloud fetching the rules
+     */
+    static public @Nonnull CompiledFirewall getInstance(@Nonnull FirewallSupport support, @Nonnull String firewallId) throws CloudException, InternalException {
+        return getInstance(support.getRules(firewallId), support.isZeroPrecedenceHighest());
+    }
+
+    /**
+     * Compiles the specified rules, which may come from any number of firewalls.
+     * @param rules the rules to compile
+     * @param zeroPrecedenceHighest true if a precedence of 0 is the highest precedence a rule can have
+     * @return the compiled rules
+     */
+    static public @Nonnull CompiledFirewall getInstance(@Nonnull Iterable<FirewallRule> rules, boolean zeroPrecedenceHighest) {
+        return new CompiledFirewall(rules, zeroPrecedenceHighest);
+    }
+
+    /**
+     * A network flow to evaluate against a compiled firewall. The remote side is the party outside the firewall: the
+     * source of ingress traffic or the destination of egress traffic. The local side is the resource protected by
+     * the firewall. Any local attribute left unset is not used to narrow the rules that apply.
+     */
+    static public class Traffic {
+        /**
+         * Describes traffic to or from the specified remote address.
+         * @param direction the direction of the traffic relative to the firewall
+         * @param protocol the protocol of the traffic
+         * @param remoteAddress the IPv4 or IPv6 address on the remote side
+         * @param port the port of the traffic, or -1 for protocols without ports
+         * @return a description of the traffic
+         */
+        static public @Nonnull Traffic getInstance(@Nonnull Direction direction, @Nonnull Protocol protocol, @Nonnull String remoteAddress, int port) {
+            Traffic t = new Traffic(direction, protocol, port);
+
+            t.remoteAddress = CidrBlock.parse(remoteAddress);
+            return t;
+        }
+
+        /**
+         * Describes traffic between the specified remote resource and the local side. Use the <code>withRemote</code>
+         * methods to identify the remote party.
+         * @param direction the direction of the traffic relative to the firewall
+         * @param protocol the protocol of the traffic
+         * @param port the port of the traffic, or -1 for protocols without ports
+         * @return a description of the traffic
+         */
+        static public @Nonnull Traffic getInstance(@Nonnull Direction direction, @Nonnull Protocol protocol, int port) {
+            return new Traffic(direction, protocol, port);
+        }
+
+        private final Direction   direction;
+        private CidrBlock         localAddress;
+        private Set<String>       localFirewalls;
+        private String            localVirtualMachineId;
+        private String            localVlanId;
+        private final int         port;
+        private final Protocol    protocol;
+        private CidrBlock         remoteAddress;
+        private Set<String>       remoteFirewalls;
+        private String            remoteVirtualMachineId;
+        private String            remoteVlanId;
+
+        private Traffic(@Nonnull Direction direction, @Nonnull Protocol protocol, int port) {
+            this.direction = direction;
+            this.protocol = protocol;
+            this.port = port;
+        }
+
+        public @Nonnull Direction getDirection() {
+            return direction;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public @Nonnull Protocol getProtocol() {
+            return protocol;
+        }
+
+        /**
+         * Identifies the local address of the traffic for rules whose local side is a CIDR.
+         * @param address the local IPv4 or IPv6 address
+         * @return this
+         */
+        public @Nonnull Traffic withLocalAddress(@Nonnull String address) {
+            localAddress = CidrBlock.parse(address);
+            return this;
+        }
+
+        /**
+         * Identifies the firewalls protecting the local side of the traffic. When set, only the rules of these
+         * firewalls apply.
+         * @param firewallIds the firewalls protecting the local resource
+         * @return this
+         */
+        public @Nonnull Traffic withLocalFirewalls(@Nonnull String ... firewallIds) {
+            localFirewalls = new HashSet<String>(Arrays.asList(firewallIds));
+            return this;
+        }
+
+        /**
+         * @param virtualMachineId the virtual machine on the local side of the traffic
+         * @return this
+         */
+        public @Nonnull Traffic withLocalVirtualMachine(@Nonnull String virtualMachineId) {
+            localVirtualMachineId = virtualMachineId;
+            return this;
+        }
+
+        /**
+         * @param vlanId the VLAN on the local side of the traffic
+         * @return this
+         */
+        public @Nonnull Traffic withLocalVlan(@Nonnull String vlanId) {
+            localVlanId = vlanId;
+            return this;
+        }
+
+        /**
+         * @param address the IPv4 or IPv6 address on the remote side of the traffic
+         * @return this
+         */
+        public @Nonnull Traffic withRemoteAddress(@Nonnull String address) {
+            remoteAddress = CidrBlock.parse(address);
+            return this;
+        }
+
+        /**
+         * Identifies the firewalls protecting the remote side of the traffic, matching rules whose remote side is a
+         * {@link RuleTargetType#GLOBAL} target for one of these firewalls.
+         * @param firewallIds the firewalls protecting the remote resource
+         * @return this
+         */
+        public @Nonnull Traffic withRemoteFirewalls(@Nonnull String ... firewallIds) {
+            remoteFirewalls = new HashSet<String>(Arrays.asList(firewallIds));
+            return this;
+        }
+
+        /**
+         * @param virtualMachineId the virtual machine on the remote side of the traffic
+         * @return this
+         */
+        public @Nonnull Traffic withRemoteVirtualMachine(@Nonnull String virtualMachineId) {
+            remoteVirtualMachineId = virtualMachineId;
+            return this;
+        }
+
+        /**
+         * @param vlanId the VLAN on the remote side of the traffic
+         * @return this
+         */
+        public @Nonnull Traffic withRemoteVlan(@Nonnull String vlanId) {
+            remoteVlanId = vlanId;
+            return this;
+        }
+    }
+
+    /**
+     * A binary trie over address bits. Each node holds the rules whose CIDR ends at that node, so the rules matching
+     * an address are those found along the path of its bits.
+     */
+    static private class PrefixTrie {
+        static private class Node {
+            public Node[] children = new Node[2];
+            public int[]  rules    = new int[0];
+        }
+
+        private final Node root = new Node();
+
+        public void add(@Nonnull CidrBlock prefix, int rule) {
+            Node node = root;
+
+            for( int i=0; i<prefix.getPrefixLength(); i++ ) {
+                int b = (prefix.isBitSet(i) ? 1 : 0);
+
+                if( node.children[b] == null ) {
+                    node.children[b] = new Node();
+                }
+                node = node.children[b];
+            }
+            node.rules = Arrays.copyOf(node.rules, node.rules.length + 1);
+            node.rules[node.rules.length - 1] = rule;
+        }
+
+        public void match(@Nonnull CidrBlock address, @Nonnull BitSet matches) {
+            Node node = root;
+            int i = 0;
+
+            while( node != null ) {
+                for( int rule : node.rules ) {
+                    matches.set(rule);
+                }
+                if( i == address.getPrefixLength() ) {
+                    return;
+                }
+                node = node.children[address.isBitSet(i++) ? 1 : 0];
+            }
+        }
+    }
+
+    /**
+     * A centered interval tree over port ranges.
+     */
+    static private class PortTree {
+        static @Nullable PortTree build(@Nonnull List<int[]> ranges) {
+            if( ranges.isEmpty() ) {
+                return null;
+            }
+            int[] points = new int[ranges.size() * 2];
+            int p = 0;
+
+            for( int[] range : ranges ) {
+                points[p++] = range[0];
+                points[p++] = range[1];
+            }
+            Arrays.sort(points);
+
+            int center = points[points.length/2];
+            List<int[]> left = new ArrayList<int[]>(), right = new ArrayList<int[]>(), here = new ArrayList<int[]>();
+
+            for( int[] range : ranges ) {
+                if( range[1] < center ) {
+                    left.add(range);
+                }
+                else if( range[0] > center ) {
+                    right.add(range);
+                }
+                else {
+                    here.add(range);
+                }
+            }
+            return new PortTree(center, here, build(left), build(right));
+        }
+
+        private final int      center;
+        private final int[][]  byEnd;
+        private final int[][]  byStart;
+        private final PortTree left;
+        private final PortTree right;
+
+        private PortTree(int center, @Nonnull List<int[]> here, @Nullable PortTree left, @Nullable PortTree right) {
+            this.center = center;
+            this.left = left;
+            this.right = right;
+            byStart = here.toArray(new int[here.size()][]);
+            byEnd = byStart.clone();
+            Arrays.sort(byStart, new Comparator<int[]>() {
+                public int compare(int[] a, int[] b) {
+                    return (a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1));
+                }
+            });
+            Arrays.sort(byEnd, new Comparator<int[]>() {
+                public int compare(int[] a, int[] b) {
+                    return (a[1] > b[1] ? -1 : (a[1] == b[1] ? 0 : 1));
+                }
+            });
+        }
+
+        public void match(int port, @Nonnull BitSet matches) {
+            PortTree node = this;
+
+            while( node != null ) {
+                if( port < node.center ) {
+                    for( int[] range : node.byStart ) {
+                        if( range[0] > port ) {
+                            break;
+                        }
+                        matches.set(range[2]);
+                    }
+                    node = node.left;
+                }
+                else if( port > node.center ) {
+                    for( int[] range : node.byEnd ) {
+                        if( range[1] < port ) {
+                            break;
+                        }
+                        matches.set(range[2]);
+                    }
+                    node = node.right;
+                }
+                else {
+                    for( int[] range : node.byStart ) {
+                        matches.set(range[2]);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The rules for one direction and protocol, indexed in precedence order.
+     */
+    static private class RuleIndex {
+        private final int[]              anywhere;
+        private final Map<String,int[]>  byFirewall;
+        private final Map<String,int[]>  byVirtualMachine;
+        private final Map<String,int[]>  byVlan;
+        private final CidrBlock[]        localPrefixes;
+        private final PortTree           ports;
+        private final BitSet             portless;
+        private final FirewallRule[]     rules;
+        private final PrefixTrie         v4 = new PrefixTrie();
+        private final PrefixTrie         v6 = new PrefixTrie();
+
+        RuleIndex(@Nonnull List<FirewallRule> sorted) {
+            Map<String,List<Integer>> firewalls = new HashMap<String, List<Integer>>();
+            Map<String,List<Integer>> vms = new HashMap<String, List<Integer>>();
+            Map<String,List<Integer>> vlans = new HashMap<String, List<Integer>>();
+            List<Integer> any = new ArrayList<Integer>();
+            List<int[]> ranges = new ArrayList<int[]>();
+
+            rules = sorted.toArray(new FirewallRule[sorted.size()]);
+            localPrefixes = new CidrBlock[rules.length];
+            portless = new BitSet(rules.length);
+            for( int i=0; i<rules.length; i++ ) {
+                FirewallRule rule = rules[i];
+                RuleTarget remote = getRemote(rule);
+
+                switch( remote.getRuleTargetType() ) {
+                    case CIDR:
+                        CidrBlock prefix = remote.getCidrBlock();
+
+                        if( prefix != null ) {
+                            (prefix.getVersion().equals(IPVersion.IPV4) ? v4 : v6).add(prefix, i);
+                        }
+                        break;
+                    case GLOBAL:
+                        if( remote.getProviderFirewallId() == null ) {
+                            any.add(i);
+                        }
+                        else {
+                            add(firewalls, remote.getProviderFirewallId(), i);
+                        }
+                        break;
+                    case VM:
+                        add(vms, remote.getProviderVirtualMachineId(), i);
+                        break;
+                    case VLAN:
+                        add(vlans, remote.getProviderVlanId(), i);
+                        break;
+                }
+                RuleTarget local = getLocal(rule);
+
+                if( local.getRuleTargetType().equals(RuleTargetType.CIDR) ) {
+                    localPrefixes[i] = local.getCidrBlock();
+                }
+                int start = rule.getStartPort(), end = rule.getEndPort();
+
+                if( start < 0 ) {
+                    portless.set(i);
+                }
+                else {
+                    ranges.add(new int[] { start, Math.max(start, end), i });
+                }
+            }
+            anywhere = toArray(any);
+            byFirewall = toArrays(firewalls);
+            byVirtualMachine = toArrays(vms);
+            byVlan = toArrays(vlans);
+            ports = PortTree.build(ranges);
+        }
+
+        private void add(@Nonnull Map<String,List<Integer>> map, @Nullable String key, int rule) {
+            if( key != null ) {
+                List<Integer> list = map.get(key);
+
+                if( list == null ) {
+                    list = new ArrayList<Integer>();
+                    map.put(key, list);
+                }
+                list.add(rule);
+            }
+        }
+
+        private boolean localMatches(int i, @Nonnull Traffic traffic) {
+            FirewallRule rule = rules[i];
+
+            if( traffic.localFirewalls != null && !traffic.localFirewalls.contains(rule.getFirewallId()) ) {
+                return false;
+            }
+            RuleTarget local = getLocal(rule);
+
+            switch( local.getRuleTargetType() ) {
+                case GLOBAL:
+                    String fw = local.getProviderFirewallId();
+
+                    return (fw == null || traffic.localFirewalls == null || traffic.localFirewalls.contains(fw));
+                case VM:
+                    return (traffic.localVirtualMachineId == null || traffic.localVirtualMachineId.equals(local.getProviderVirtualMachineId()));
+                case VLAN:
+                    return (traffic.localVlanId == null || traffic.localVlanId.equals(local.getProviderVlanId()));
+                case CIDR:
+                    return (traffic.localAddress == null || (localPrefixes[i] != null && localPrefixes[i].contains(traffic.localAddress)));
+            }
+            return false;
+        }
+
+        @Nullable FirewallRule match(@Nonnull Traffic traffic, @Nonnull BitSet candidates, @Nonnull BitSet portMatches) {
+            candidates.clear();
+            if( traffic.remoteAddress != null ) {
+                (traffic.remoteAddress.getVersion().equals(IPVersion.IPV4) ? v4 : v6).match(traffic.remoteAddress, candidates);
+            }
+            set(candidates, anywhere);
+            if( traffic.remoteFirewalls != null ) {
+                for( String fw : traffic.remoteFirewalls ) {
+                    set(candidates, byFirewall.get(fw));
+                }
+            }
+            if( traffic.remoteVirtualMachineId != null ) {
+                set(candidates, byVirtualMachine.get(traffic.remoteVirtualMachineId));
+            }
+            if( traffic.remoteVlanId != null ) {
+                set(candidates, byVlan.get(traffic.remoteVlanId));
+            }
+            if( traffic.port > -1 ) {
+                portMatches.clear();
+                portMatches.or(portless);
+                if( ports != null ) {
+                    ports.match(traffic.port, portMatches);
+                }
+                candidates.and(portMatches);
+            }
+            for( int i=candidates.nextSetBit(0); i>-1; i=candidates.nextSetBit(i+1) ) {
+                if( localMatches(i, traffic) ) {
+                    return rules[i];
+                }
+            }
+            return null;
+        }
+
+        private void set(@Nonnull BitSet bits, @Nullable int[] rules) {
+            if( rules != null ) {
+                for( int rule : rules ) {
+                    bits.set(rule);
+                }
+            }
+        }
+
+        private @Nonnull int[] toArray(@Nonnull List<Integer> list) {
+            int[] array = new int[list.size()];
+
+            for( int i=0; i<array.length; i++ ) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+
+        private @Nonnull Map<String,int[]> toArrays(@Nonnull Map<String,List<Integer>> map) {
+            if( map.isEmpty() ) {
+                return Collections.emptyMap();
+            }
+            Map<String,int[]> arrays = new HashMap<String, int[]>();
+
+            for( Map.Entry<String,List<Integer>> entry : map.entrySet() ) {
+                arrays.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            return arrays;
+        }
+    }
+
+    static private @Nonnull RuleTarget getLocal(@Nonnull FirewallRule rule) {
+        return (rule.getDirection().equals(Direction.INGRESS) ? rule.getDestinationEndpoint() : rule.getSourceEndpoint());
+    }
+
+    static private @Nonnull RuleTarget getRemote(@Nonnull FirewallRule rule) {
+        return (rule.getDirection().equals(Direction.INGRESS) ? rule.getSourceEndpoint() : rule.getDestinationEndpoint());
+    }
+
+    private final Map<Direction,Map<Protocol,RuleIndex>> indexes = new EnumMap<Direction, Map<Protocol, RuleIndex>>(Direction.class);
+    private final int                                    ruleCount;
+    private final boolean                                zeroPrecedenceHighest;
+
+    private CompiledFirewall(@Nonnull Iterable<FirewallRule> rules, final boolean zeroPrecedenceHighest) {
+        Map<Direction,Map<Protocol,List<FirewallRule>>> split = new EnumMap<Direction, Map<Protocol, List<FirewallRule>>>(Direction.class);
+        int count = 0;
+
+        for( Direction direction : Direction.values() ) {
+            Map<Protocol,List<FirewallRule>> byProtocol = new EnumMap<Protocol, List<FirewallRule>>(Protocol.class);
+
+            for( Protocol protocol : Protocol.values() ) {
+                byProtocol.put(protocol, new ArrayList<FirewallRule>());
+            }
+            split.put(direction, byProtocol);
+        }
+        for( FirewallRule rule : rules ) {
+            Map<Protocol,List<FirewallRule>> byProtocol = split.get(rule.getDirection());
+
+            if( rule.getProtocol().equals(Protocol.ANY) ) {
+                for( List<FirewallRule> list : byProtocol.values() ) {
+                    list.add(rule);
+                }
+            }
+            else {
+                byProtocol.get(rule.getProtocol()).add(rule);
+            }
+            count++;
+        }
+        Comparator<FirewallRule> precedence = new Comparator<FirewallRule>() {
+            public int compare(FirewallRule a, FirewallRule b) {
+                int pa = a.getPrecedence(), pb = b.getPrecedence();
+
+                if( pa != pb ) {
+                    if( pa < 0 ) {
+                        return 1;
+                    }
+                    if( pb < 0 ) {
+                        return -1;
+                    }
+                    return (zeroPrecedenceHighest ? (pa < pb ? -1 : 1) : (pa > pb ? -1 : 1));
+                }
+                if( !a.getPermission().equals(b.getPermission()) ) {
+                    return (a.getPermission().equals(Permission.DENY) ? -1 : 1);
+                }
+                return a.getProviderRuleId().compareTo(b.getProviderRuleId());
+            }
+        };
+
+        for( Map.Entry<Direction,Map<Protocol,List<FirewallRule>>> d : split.entrySet() ) {
+            Map<Protocol,RuleIndex> byProtocol = new EnumMap<Protocol, RuleIndex>(Protocol.class);
+
+            for( Map.Entry<Protocol,List<FirewallRule>> p : d.getValue().entrySet() ) {
+                Collections.sort(p.getValue(), precedence);
+                byProtocol.put(p.getKey(), new RuleIndex(p.getValue()));
+            }
+            indexes.put(d.getKey(), byProtocol);
+        }
+        this.ruleCount = count;
+        this.zeroPrecedenceHighest = zeroPrecedenceHighest;
+    }
+
+    /**
+     * @return the number of rules compiled into this firewall
+     */
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * Determines whether the specified traffic is allowed.
+     * @param traffic the traffic to evaluate
+     * @return true if the highest precedence matching rule allows the traffic
+     */
+    public boolean isAllowed(@Nonnull Traffic traffic) {
+        FirewallRule rule = match(traffic);
+
+        return (rule != null && rule.getPermission().equals(Permission.ALLOW));
+    }
+
+    /**
+     * Determines whether each of the specified flows is allowed.
+     * @param traffic the traffic to evaluate
+     * @return for each flow in order, true if the highest precedence matching rule allows it
+     */
+    public @Nonnull boolean[] isAllowed(@Nonnull List<Traffic> traffic) {
+        List<FirewallRule> rules = match(traffic);
+        boolean[] allowed = new boolean[rules.size()];
+
+        for( int i=0; i<allowed.length; i++ ) {
+            FirewallRule rule = rules.get(i);
+
+            allowed[i] = (rule != null && rule.getPermission().equals(Permission.ALLOW));
+        }
+        return allowed;
+    }
+
+    /**
+     * @return true if a precedence of 0 is the highest precedence a rule can have in this firewall
+     */
+    public boolean isZeroPrecedenceHighest() {
+        return zeroPrecedenceHighest;
+    }
+
+    /**
+     * Identifies the rule that decides the fate of the specified traffic.
+     * @param traffic the traffic to evaluate
+     * @return the highest precedence rule matching the traffic, or <code>null</code> if no rule matches
+     */
+    public @Nullable FirewallRule match(@Nonnull Traffic traffic) {
+        return indexes.get(traffic.direction).get(traffic.protocol).match(traffic, new BitSet(), new BitSet());
+    }
+
+    /**
+     * Identifies the rule that decides the fate of each of the specified flows.
+     * @param traffic the traffic to evaluate
+     * @return for each flow in order, the highest precedence matching rule or <code>null</code> if no rule matches
+     */
+    public @Nonnull List<FirewallRule> match(@Nonnull List<Traffic> traffic) {
+        List<FirewallRule> rules = new ArrayList<FirewallRule>(traffic.size());
+        BitSet candidates = new BitSet(), ports = new BitSet();
+
+        for( Traffic t : traffic ) {
+            rules.add(indexes.get(t.direction).get(t.protocol).match(t, candidates, ports));
+        }
+        return rules;
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Collects changes to DNS records and applies them together. An upsert creates the records of a given type and name
+ * with the specified TTL and values, replacing whatever records of that type and name the zone held before. A delete
+ * removes specific records. Changes are coalesced per zone by record type and name so that only the last change to
+ * each name is applied: an upsert replaces any earlier upsert or delete of the same name, and a delete replaces an
+ * earlier upsert.
+ * </p>
+ * <p>
+ * Zones are changed in parallel, at most {@link #getConcurrencyLimit()} calls at a time. The changes for each zone
+ * are first offered to {@link AbstractDNSSupport#changeDnsRecords(String, List, List)} so that providers accepting a
+ * change batch apply them in one call. Otherwise all deletes for the zone are made with one call to
+ * {@link DNSSupport#deleteDnsRecords(DNSRecord...)} and each upsert lists the current records of its name, deletes the
+ * ones that differ and adds the new record unless an identical one is already in place.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class DNSChangeSet {
+    /**
+     * @return an empty change set allowing up to eight concurrent calls
+     */
+    static public @Nonnull DNSChangeSet getInstance() {
+        return new DNSChangeSet();
+    }
+
+    static private boolean matches(@Nonnull DNSRecord current, @Nonnull DNSRecord desired) {
+        if( current.getTtl() != desired.getTtl() ) {
+            return false;
+        }
+        String[] a = (current.getValues() == null ? new String[0] : current.getValues().clone());
+        String[] b = desired.getValues().clone();
+
+        Arrays.sort(a);
+        Arrays.sort(b);
+        return Arrays.equals(a, b);
+    }
+
+    static private class Change {
+        public final List<DNSRecord> deletes;
+        public final DNSRecord       upsert;
+
+        public Change(@Nullable DNSRecord upsert, @Nullable List<DNSRecord> deletes) {
+            this.upsert = upsert;
+            this.deletes = deletes;
+        }
+    }
+
+    /**
+     * The outcome of applying a change set. A failure for one record does not stop the others; it is recorded here.
+     */
+    static public class Result {
+        private final List<DNSRecord>           applied  = new ArrayList<DNSRecord>();
+        private final Map<DNSRecord,Throwable>  failures = new IdentityHashMap<DNSRecord, Throwable>();
+
+        private Result() { }
+
+        synchronized void applied(@Nonnull List<DNSRecord> records) {
+            applied.addAll(records);
+        }
+
+        synchronized void failed(@Nonnull List<DNSRecord> records, @Nonnull Throwable error) {
+            for( DNSRecord record : records ) {
+                failures.put(record, error);
+            }
+        }
+
+        /**
+         * @return the upserted and deleted records whose changes were applied
+         */
+        public synchronized @Nonnull List<DNSRecord> getApplied() {
+            return new ArrayList<DNSRecord>(applied);
+        }
+
+        /**
+         * @return the upserted and deleted records whose changes failed, mapped to the error that stopped them
+         */
+        public synchronized @Nonnull Map<DNSRecord,Throwable> getFailures() {
+            return new IdentityHashMap<DNSRecord, Throwable>(failures);
+        }
+
+        /**
+         * @return true if every change was applied
+         */
+        public synchronized boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+    }
+
+    private final Map<String,Map<String,Change>> changes          = new LinkedHashMap<String, Map<String, Change>>();
+    private int                                  concurrencyLimit = 8;
+
+    private DNSChangeSet() { }
+
+    private @Nonnull Map<String,Change> getZone(@Nonnull String providerDnsZoneId) {
+        Map<String,Change> zone = changes.get(providerDnsZoneId);
+
+        if( zone == null ) {
+            zone = new LinkedHashMap<String, Change>();
+            changes.put(providerDnsZoneId, zone);
+        }
+        return zone;
+    }
+
+    /**
+     * Deletes specific records. Each record must identify the zone to which it belongs.
+     * @param records the records to delete
+     * @return this
+     * @throws InternalException a record does not identify its zone
+     */
+    public synchronized @Nonnull DNSChangeSet delete(@Nonnull DNSRecord ... records) throws InternalException {
+        for( DNSRecord record : records ) {
+            String zoneId = record.getProviderZoneId();
+
+            if( zoneId == null ) {
+                throw new InternalException("No zone was specified for " + record);
+            }
+            Map<String,Change> zone = getZone(zoneId);
+            String key = DNSRecordCache.toKey(zoneId, record.getType(), record.getName());
+            Change change = zone.get(key);
+
+            if( change == null || change.deletes == null ) {
+                change = new Change(null, new ArrayList<DNSRecord>());
+                zone.put(key, change);
+            }
+            change.deletes.add(record);
+        }
+        return this;
+    }
+
+    private void execute(@Nonnull List<Runnable> tasks) throws InternalException {
+        if( tasks.isEmpty() ) {
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(tasks.size());
+        ExecutorService service = Executors.newFixedThreadPool(Math.min(concurrencyLimit, tasks.size()), new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger(0);
+
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("DNS Change " + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            for( final Runnable task : tasks ) {
+                service.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        }
+                        finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            latch.await();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        finally {
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * Applies every change in this set through the specified DNS support. Failures are reported in the result rather
+     * than thrown.
+     * @param support the DNS support through which records are changed
+     * @return the outcome of each change
+     * @throws InternalException the calling thread was interrupted while waiting for the changes to complete
+     */
+    public @Nonnull Result execute(@Nonnull final DNSSupport support) throws InternalException {
+        final List<Runnable> upserts = new ArrayList<Runnable>();
+        final Result result = new Result();
+        List<Runnable> zones = new ArrayList<Runnable>();
+
+        synchronized( this ) {
+            for( Map.Entry<String,Map<String,Change>> entry : changes.entrySet() ) {
+                final String zoneId = entry.getKey();
+                final List<DNSRecord> toUpsert = new ArrayList<DNSRecord>();
+                final List<DNSRecord> toDelete = new ArrayList<DNSRecord>();
+
+                for( Change change : entry.getValue().values() ) {
+                    if( change.upsert != null ) {
+                        toUpsert.add(change.upsert);
+                    }
+                    else {
+                        toDelete.addAll(change.deletes);
+                    }
+                }
+                zones.add(new Runnable() {
+                    public void run() {
+                        if( support instanceof AbstractDNSSupport ) {
+                            List<DNSRecord> all = new ArrayList<DNSRecord>(toUpsert);
+
+                            all.addAll(toDelete);
+                            try {
+                                ((AbstractDNSSupport)support).changeDnsRecords(zoneId, toUpsert, toDelete);
+                                result.applied(all);
+                                return;
+                            }
+                            catch( OperationNotSupportedException ignore ) {
+                                // fall back to individual calls
+                            }
+                            catch( Throwable e ) {
+                                result.failed(all, e);
+                                return;
+                            }
+                        }
+                        if( !toDelete.isEmpty() ) {
+                            try {
+                                support.deleteDnsRecords(toDelete.toArray(new DNSRecord[toDelete.size()]));
+                                result.applied(toDelete);
+                            }
+                            catch( Throwable e ) {
+                                result.failed(toDelete, e);
+                            }
+                        }
+                        for( final DNSRecord record : toUpsert ) {
+                            synchronized( upserts ) {
+                                upserts.add(new Runnable() {
+                                    public void run() {
+                                        try {
+                                            upsert(support, record);
+                                            result.applied(Collections.singletonList(record));
+                                        }
+                                        catch( Throwable e ) {
+                                            result.failed(Collections.singletonList(record), e);
+                                        }
+                                    }
+                                });
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        execute(zones);
+        execute(upserts);
+        return result;
+    }
+
+    /**
+     * Applies every change in this set through the DNS support behind the specified cache and invalidates the cached
+     * results affected by the changes, whether or not they succeeded.
+     * @param cache the cache whose DNS support changes the records
+     * @return the outcome of each change
+     * @throws InternalException the calling thread was interrupted while waiting for the changes to complete
+     */
+    public @Nonnull Result execute(@Nonnull DNSRecordCache cache) throws InternalException {
+        try {
+            return execute(cache.getSupport());
+        }
+        finally {
+            synchronized( this ) {
+                for( Map<String,Change> zone : changes.values() ) {
+                    for( Change change : zone.values() ) {
+                        DNSRecord record = (change.upsert == null ? change.deletes.get(0) : change.upsert);
+
+                        cache.invalidate(record.getProviderZoneId(), record.getType(), record.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of coalesced changes in this set
+     */
+    public synchronized @Nonnegative int getChangeCount() {
+        int count = 0;
+
+        for( Map<String,Change> zone : changes.values() ) {
+            count += zone.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the maximum number of calls made to the cloud provider at once
+     */
+    public @Nonnegative int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    private void upsert(@Nonnull DNSSupport support, @Nonnull DNSRecord record) throws CloudException, InternalException {
+        List<DNSRecord> stale = new ArrayList<DNSRecord>();
+        boolean present = false;
+
+        for( DNSRecord current : support.listDnsRecords(record.getProviderZoneId(), record.getType(), record.getName()) ) {
+            if( !present && matches(current, record) ) {
+                present = true;
+            }
+            else {
+                stale.add(current);
+            }
+        }
+        if( !stale.isEmpty() ) {
+            support.deleteDnsRecords(stale.toArray(new DNSRecord[stale.size()]));
+        }
+        if( !present ) {
+            support.addDnsRecord(record.getProviderZoneId(), record.getType(), record.getName(), record.getTtl(), record.getValues());
+        }
+    }
+
+    /**
+     * Creates or replaces the records of the specified type and name.
+     * @param providerDnsZoneId the zone holding the records
+     * @param recordType the type of the records
+     * @param name the name of the records
+     * @param ttl the time-to-live of the records
+     * @param values the values of the records
+     * @return this
+     */
+    public synchronized @Nonnull DNSChangeSet upsert(@Nonnull String providerDnsZoneId, @Nonnull DNSRecordType recordType, @Nonnull String name, @Nonnegative int ttl, @Nonnull String ... values) {
+        DNSRecord record = new DNSRecord();
+
+        record.setProviderZoneId(providerDnsZoneId);
+        record.setType(recordType);
+        record.setName(name);
+        record.setTtl(ttl);
+        record.setValues(values.clone());
+        getZone(providerDnsZoneId).put(DNSRecordCache.toKey(providerDnsZoneId, recordType, name), new Change(record, null));
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of calls made to the cloud provider at once.
+     * @param concurrencyLimit the maximum number of concurrent calls
+     * @return this
+     */
+    public @Nonnull DNSChangeSet withConcurrencyLimit(@Nonnegative int concurrencyLimit) {
+        this.concurrencyLimit = Math.max(1, concurrencyLimit);
+        return this;
+    }
+}
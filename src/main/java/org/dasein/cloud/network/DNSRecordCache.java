@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A read-through cache in front of {@link DNSSupport#listDnsRecords(String, DNSRecordType, String)}. Results are
+ * cached by zone, record type and record name, and each result is kept for the lowest TTL among its records, capped at
+ * {@link #getMaximumTtl()}. Empty results are kept for {@link #getNegativeTtl()} and results containing a record
+ * with no TTL are not kept at all. Concurrent requests for the same key while it is being loaded wait for the single
+ * call to the cloud provider rather than making their own.
+ * </p>
+ * <p>
+ * Record names are compared without regard to case or a trailing dot. The records returned are shared among callers
+ * and must not be modified. Changes made through {@link DNSChangeSet#execute(DNSRecordCache)} invalidate the affected
+ * entries; changes made any other way should be followed by a call to {@link #invalidate(String, DNSRecordType, String)}.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class DNSRecordCache {
+    /**
+     * Constructs a cache in front of the specified DNS support.
+     * @param support the DNS support from which records are loaded
+     * @return a cache keeping results for at most one hour and empty results for 30 seconds
+     */
+    static public @Nonnull DNSRecordCache getInstance(@Nonnull DNSSupport support) {
+        return new DNSRecordCache(support);
+    }
+
+    /**
+     * Builds the key identifying records of a given type and name within a zone.
+     * @param providerDnsZoneId the zone holding the records
+     * @param type the type of the records or <code>null</code> for any type
+     * @param name the name of the records or <code>null</code> for any name
+     * @return the key for the records
+     */
+    static @Nonnull String toKey(@Nonnull String providerDnsZoneId, @Nullable DNSRecordType type, @Nullable String name) {
+        if( name != null ) {
+            name = name.toLowerCase(Locale.ENGLISH);
+            if( name.endsWith(".") ) {
+                name = name.substring(0, name.length()-1);
+            }
+        }
+        return (providerDnsZoneId + "\n" + (type == null ? "*" : type.name()) + "\n" + (name == null ? "*" : name));
+    }
+
+    static private class Entry {
+        public volatile long                      expires = Long.MAX_VALUE;
+        public final    FutureTask<List<DNSRecord>> loader;
+
+        public Entry(@Nonnull FutureTask<List<DNSRecord>> loader) {
+            this.loader = loader;
+        }
+    }
+
+    private final ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong                      hits    = new AtomicLong(0L);
+    private final AtomicLong                      misses  = new AtomicLong(0L);
+    private final DNSSupport                      support;
+
+    private int maximumTtl  = 3600;
+    private int negativeTtl = 30;
+
+    private DNSRecordCache(@Nonnull DNSSupport support) {
+        this.support = support;
+    }
+
+    /**
+     * Discards every cached result.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the number of results currently cached, including any that have expired but not yet been purged
+     */
+    public @Nonnegative int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public @Nonnegative long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the longest time in seconds a result is kept regardless of the TTL of its records
+     */
+    public @Nonnegative int getMaximumTtl() {
+        return maximumTtl;
+    }
+
+    /**
+     * @return the number of lookups that called the cloud provider
+     */
+    public @Nonnegative long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the time in seconds an empty result is kept
+     */
+    public @Nonnegative int getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * @return the DNS support from which records are loaded
+     */
+    public @Nonnull DNSSupport getSupport() {
+        return support;
+    }
+
+    /**
+     * Discards the cached results in the zone that may include records of the specified type and name, including
+     * results for any type or any name. Names are normalized as for lookups, and because clouds differ in whether they
+     * name records relative to the zone or fully qualified, a result cached under either form of the name is discarded.
+     * @param providerDnsZoneId the zone holding the records
+     * @param type the type of the records
+     * @param name the name of the records
+     */
+    public void invalidate(@Nonnull String providerDnsZoneId, @Nonnull DNSRecordType type, @Nonnull String name) {
+        String prefix = providerDnsZoneId + "\n";
+        String target = toKey(providerDnsZoneId, type, name);
+        String targetName = target.substring(target.lastIndexOf('\n') + 1);
+
+        for( String key : entries.keySet() ) {
+            if( key.startsWith(prefix) ) {
+                int split = key.lastIndexOf('\n');
+                String keyType = key.substring(prefix.length(), split);
+
+                if( (keyType.equals("*") || keyType.equals(type.name())) && isSameName(key.substring(split + 1), targetName) ) {
+                    entries.remove(key);
+                }
+            }
+        }
+    }
+
+    // either name may be relative to the zone while the other is fully qualified, so one extending the other by whole labels counts
+    static private boolean isSameName(@Nonnull String cached, @Nonnull String changed) {
+        return (cached.equals("*") || cached.equals(changed) || cached.startsWith(changed + ".") || changed.startsWith(cached + "."));
+    }
+
+    /**
+     * Discards every cached result for the specified zone.
+     * @param providerDnsZoneId the zone whose results should be discarded
+     */
+    public void invalidate(@Nonnull String providerDnsZoneId) {
+        String prefix = providerDnsZoneId + "\n";
+
+        for( String key : entries.keySet() ) {
+            if( key.startsWith(prefix) ) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Lists the matching DNS records, calling the cloud provider only if no unexpired result is cached.
+     * @param providerDnsZoneId the DNS zone for which the records are to be listed
+     * @param forType the record type you want listed
+     * @param name the name of the record to be listed
+     * @return all matching DNS records
+     * @throws CloudException an error occurred with the cloud provider loading the records
+     * @throws InternalException an error occurred within Dasein Cloud loading the records
+     */
+    public @Nonnull List<DNSRecord> listDnsRecords(@Nonnull final String providerDnsZoneId, @Nullable final DNSRecordType forType, @Nullable final String name) throws CloudException, InternalException {
+        String key = toKey(providerDnsZoneId, forType, name);
+
+        while( true ) {
+            Entry entry = entries.get(key);
+
+            if( entry != null && entry.expires > System.currentTimeMillis() ) {
+                hits.incrementAndGet();
+                return get(key, entry);
+            }
+            Entry loading = new Entry(new FutureTask<List<DNSRecord>>(new Callable<List<DNSRecord>>() {
+                public List<DNSRecord> call() throws Exception {
+                    List<DNSRecord> records = new ArrayList<DNSRecord>();
+
+                    for( DNSRecord record : support.listDnsRecords(providerDnsZoneId, forType, name) ) {
+                        records.add(record);
+                    }
+                    return Collections.unmodifiableList(records);
+                }
+            }));
+
+            if( entry == null ? entries.putIfAbsent(key, loading) == null : entries.replace(key, entry, loading) ) {
+                if( misses.incrementAndGet() % 1024 == 0 ) {
+                    purge();
+                }
+                loading.loader.run();
+                List<DNSRecord> records = get(key, loading);
+                long ttl = (records.isEmpty() ? negativeTtl : maximumTtl);
+
+                for( DNSRecord record : records ) {
+                    ttl = Math.min(ttl, record.getTtl());
+                }
+                if( ttl > 0 ) {
+                    loading.expires = System.currentTimeMillis() + ttl * 1000L;
+                }
+                else {
+                    entries.remove(key, loading);
+                }
+                return records;
+            }
+        }
+    }
+
+    private @Nonnull List<DNSRecord> get(@Nonnull String key, @Nonnull Entry entry) throws CloudException, InternalException {
+        try {
+            return entry.loader.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable t = e.getCause();
+
+            entries.remove(key, entry);
+            if( t instanceof CloudException ) {
+                throw (CloudException)t;
+            }
+            if( t instanceof InternalException ) {
+                throw (InternalException)t;
+            }
+            if( t instanceof RuntimeException ) {
+                throw (RuntimeException)t;
+            }
+            throw new InternalException(t);
+        }
+    }
+
+    /**
+     * Discards every expired result.
+     */
+    public void purge() {
+        long now = System.currentTimeMillis();
+
+        for( Map.Entry<String,Entry> entry : entries.entrySet() ) {
+            if( entry.getValue().expires <= now ) {
+                entries.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Sets the longest time a result is kept regardless of the TTL of its records.
+     * @param seconds the maximum time in seconds
+     * @return this
+     */
+    public @Nonnull DNSRecordCache withMaximumTtl(@Nonnegative int seconds) {
+        maximumTtl = Math.max(0, seconds);
+        return this;
+    }
+
+    /**
+     * Sets the time an empty result is kept. Zero disables caching of empty results.
+     * @param seconds the time in seconds
+     * @return this
+     */
+    public @Nonnull DNSRecordCache withNegativeTtl(@Nonnegative int seconds) {
+        negativeTtl = Math.max(0, seconds);
+        return this;
+    }
+}
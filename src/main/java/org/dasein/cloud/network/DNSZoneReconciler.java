@@ -0,0 +1,500 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>
+ * Brings the records of a DNS zone in line with a desired record set while making as few changes as possible. The
+ * desired records are hashed by type and name together with a fingerprint of their TTL and values. The current
+ * records are then streamed from {@link DNSSupport#listDnsRecords(String, DNSRecordType, String)} and probed against
+ * that index one at a time, so only the desired side is ever held in memory. Records matching a desired record exactly
+ * are left alone, desired records with no exact match are upserted and current records no longer wanted are deleted.
+ * </p>
+ * <p>
+ * No change is made until the listing of current records has been read to the end, since a provider may page through
+ * the zone lazily and deleting records beneath it could skip or repeat pages. Only the records to delete are kept from
+ * the listing; the changes are then applied through {@link DNSChangeSet} in batches of {@link #getBatchSize()}. A
+ * current record whose type and name are still wanted but whose TTL or values differ is not deleted separately; the
+ * upsert of the desired record replaces it.
+ * </p>
+ * <p>
+ * Record names and values are compared without regard to case or a trailing dot, except for the values of
+ * {@link DNSRecordType#TXT} and {@link DNSRecordType#SPF} records, which are compared exactly. Names are compared
+ * relative to the zone's domain name, so <code>www</code> matches <code>www.example.com.</code> and <code>@</code>
+ * matches <code>example.com.</code> in the zone for <code>example.com</code>. Desired records of the same type and
+ * name are merged into a single record holding all of their values; they must agree on the TTL.
+ * </p>
+ * <p>
+ * The zone's own {@link DNSRecordType#SOA} records and its {@link DNSRecordType#NS} records at the apex belong to the
+ * provider rather than to the desired record set, so they are never deleted unless the reconciler has been told to
+ * manage them through {@link #withManagedZoneRecords(boolean)}. Desired records of those kinds are still applied.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class DNSZoneReconciler {
+    /**
+     * Constructs a reconciler for zones managed by the specified DNS support.
+     * @param support the DNS support through which records are read and changed
+     * @return a reconciler applying changes in batches of 100 with up to eight concurrent calls
+     */
+    static public @Nonnull DNSZoneReconciler getInstance(@Nonnull DNSSupport support) {
+        return new DNSZoneReconciler(support);
+    }
+
+    /**
+     * Fingerprints the content of a record independent of its zone, name and value order.
+     * @param record the record to fingerprint
+     * @return a value equal for any two records of the same type with the same TTL and values
+     */
+    static public @Nonnull String getFingerprint(@Nonnull DNSRecord record) {
+        String[] values = (record.getValues() == null ? new String[0] : record.getValues().clone());
+        boolean exact = (DNSRecordType.TXT.equals(record.getType()) || DNSRecordType.SPF.equals(record.getType()));
+        StringBuilder str = new StringBuilder();
+
+        if( !exact ) {
+            for( int i=0; i<values.length; i++ ) {
+                values[i] = normalize(values[i]);
+            }
+        }
+        Arrays.sort(values);
+        str.append(record.getType()).append(' ').append(record.getTtl());
+        for( String value : values ) {
+            str.append(' ').append(value);
+        }
+        return str.toString();
+    }
+
+    static private @Nonnull String normalize(@Nonnull String value) {
+        value = value.toLowerCase(Locale.ENGLISH);
+        if( value.endsWith(".") ) {
+            value = value.substring(0, value.length()-1);
+        }
+        return value;
+    }
+
+    // names may be given relative to the zone or fully qualified; the apex is always "@"
+    static private @Nullable String toRelativeName(@Nullable String domain, @Nullable String name) {
+        if( name == null ) {
+            return null;
+        }
+        name = normalize(name);
+        if( name.equals("") || name.equals("@") || name.equals(domain) ) {
+            return "@";
+        }
+        if( domain != null && name.endsWith("." + domain) ) {
+            return name.substring(0, name.length() - domain.length() - 1);
+        }
+        return name;
+    }
+
+    static private class Desired {
+        public       String          fingerprint;
+        public       DNSRecord       record;
+        public       boolean         satisfied;
+        public       List<DNSRecord> stale;
+
+        public Desired(@Nonnull DNSRecord record) {
+            this.record = record;
+            this.fingerprint = getFingerprint(record);
+        }
+
+        public void merge(@Nonnull DNSRecord other) throws InternalException {
+            if( other.getTtl() != record.getTtl() ) {
+                throw new InternalException("Desired " + other.getType() + " records for " + other.getName() + " disagree on the TTL: " + record.getTtl() + " and " + other.getTtl());
+            }
+            LinkedHashSet<String> values = new LinkedHashSet<String>();
+            DNSRecord merged = new DNSRecord();
+
+            if( record.getValues() != null ) {
+                values.addAll(Arrays.asList(record.getValues()));
+            }
+            if( other.getValues() != null ) {
+                values.addAll(Arrays.asList(other.getValues()));
+            }
+            merged.setProviderZoneId(record.getProviderZoneId());
+            merged.setType(record.getType());
+            merged.setName(record.getName());
+            merged.setTtl(record.getTtl());
+            merged.setValues(values.toArray(new String[values.size()]));
+            record = merged;
+            fingerprint = getFingerprint(merged);
+        }
+    }
+
+    static private interface Sink {
+        public void delete(@Nonnull DNSRecord record) throws InternalException;
+        public void finish() throws InternalException;
+        public void unchanged(@Nonnull DNSRecord record);
+        public void upsert(@Nonnull DNSRecord record) throws InternalException;
+    }
+
+    /**
+     * The changes needed to reconcile a zone with a desired record set.
+     */
+    static public class Plan {
+        private final List<DNSRecord> toDelete  = new ArrayList<DNSRecord>();
+        private final List<DNSRecord> toUpsert  = new ArrayList<DNSRecord>();
+        private int                   unchanged = 0;
+
+        private Plan() { }
+
+        /**
+         * @return the current records to delete
+         */
+        public @Nonnull List<DNSRecord> getRecordsToDelete() {
+            return Collections.unmodifiableList(toDelete);
+        }
+
+        /**
+         * @return the desired records to create or to replace existing records of the same type and name
+         */
+        public @Nonnull List<DNSRecord> getRecordsToUpsert() {
+            return Collections.unmodifiableList(toUpsert);
+        }
+
+        /**
+         * @return the number of current records that are also desired
+         */
+        public int getUnchangedCount() {
+            return unchanged;
+        }
+
+        /**
+         * @return true if the zone already matches the desired record set
+         */
+        public boolean isEmpty() {
+            return (toDelete.isEmpty() && toUpsert.isEmpty());
+        }
+    }
+
+    /**
+     * The outcome of reconciling a zone. Failures of individual changes do not stop the reconciliation; they are
+     * recorded here.
+     */
+    static public class Result {
+        private int                            deleted   = 0;
+        private final Map<DNSRecord,Throwable> failures  = new IdentityHashMap<DNSRecord, Throwable>();
+        private int                            unchanged = 0;
+        private int                            upserted  = 0;
+
+        private Result() { }
+
+        private void add(@Nonnull DNSChangeSet.Result result, @Nonnull IdentityHashMap<DNSRecord,Boolean> deletes) {
+            for( DNSRecord record : result.getApplied() ) {
+                if( deletes.containsKey(record) ) {
+                    deleted++;
+                }
+                else {
+                    upserted++;
+                }
+            }
+            failures.putAll(result.getFailures());
+        }
+
+        /**
+         * @return the number of current records deleted
+         */
+        public int getDeletedCount() {
+            return deleted;
+        }
+
+        /**
+         * @return the records that could not be upserted or deleted, mapped to the error that prevented it
+         */
+        public @Nonnull Map<DNSRecord,Throwable> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return the number of current records that were already as desired
+         */
+        public int getUnchangedCount() {
+            return unchanged;
+        }
+
+        /**
+         * @return the number of desired records created or replaced
+         */
+        public int getUpsertedCount() {
+            return upserted;
+        }
+
+        /**
+         * @return true if every change was applied
+         */
+        public boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+    }
+
+    private int              batchSize         = 100;
+    private int              concurrencyLimit  = 8;
+    private boolean          manageZoneRecords = false;
+    private final DNSSupport support;
+
+    private DNSZoneReconciler(@Nonnull DNSSupport support) {
+        this.support = support;
+    }
+
+    private void diff(@Nonnull String zoneId, @Nonnull Iterable<DNSRecord> desired, @Nonnull Sink sink) throws CloudException, InternalException {
+        Map<String,Desired> index = new HashMap<String, Desired>();
+        String domain = getDomainName(zoneId);
+
+        for( DNSRecord record : desired ) {
+            String key = DNSRecordCache.toKey(zoneId, record.getType(), toRelativeName(domain, record.getName()));
+            Desired d = index.get(key);
+
+            if( d == null ) {
+                index.put(key, new Desired(record));
+            }
+            else {
+                d.merge(record);
+            }
+        }
+        List<Desired> conflicted = new ArrayList<Desired>();
+        List<DNSRecord> toDelete = new ArrayList<DNSRecord>();
+
+        for( DNSRecord record : support.listDnsRecords(zoneId, null, null) ) {
+            Desired d = index.get(DNSRecordCache.toKey(zoneId, record.getType(), toRelativeName(domain, record.getName())));
+
+            if( d == null ) {
+                if( !isZoneRecord(domain, record) ) {
+                    toDelete.add(record);
+                }
+            }
+            else if( !d.satisfied && d.fingerprint.equals(getFingerprint(record)) ) {
+                d.satisfied = true;
+                sink.unchanged(record);
+            }
+            else {
+                // hold until we know whether the desired record is already in place
+                if( d.stale == null ) {
+                    d.stale = new ArrayList<DNSRecord>();
+                    conflicted.add(d);
+                }
+                d.stale.add(record);
+            }
+        }
+        for( Desired d : conflicted ) {
+            if( d.satisfied ) {
+                for( DNSRecord record : d.stale ) {
+                    if( !isZoneRecord(domain, record) ) {
+                        toDelete.add(record);
+                    }
+                }
+            }
+        }
+        for( DNSRecord record : toDelete ) {
+            sink.delete(record);
+        }
+        for( Desired d : index.values() ) {
+            if( !d.satisfied ) {
+                DNSRecord record = d.record;
+
+                if( !zoneId.equals(record.getProviderZoneId()) ) {
+                    record = new DNSRecord();
+                    record.setProviderZoneId(zoneId);
+                    record.setType(d.record.getType());
+                    record.setName(d.record.getName());
+                    record.setTtl(d.record.getTtl());
+                    record.setValues(d.record.getValues() == null ? new String[0] : d.record.getValues());
+                }
+                sink.upsert(record);
+            }
+        }
+        sink.finish();
+    }
+
+    private @Nullable String getDomainName(@Nonnull String zoneId) throws CloudException, InternalException {
+        DNSZone zone;
+
+        try {
+            zone = support.getDnsZone(zoneId);
+        }
+        catch( OperationNotSupportedException e ) {
+            // without the domain name, only names given the same way in both record sets match
+            return null;
+        }
+        String domain = (zone == null ? null : zone.getDomainName());
+
+        return (domain == null ? null : normalize(domain));
+    }
+
+    /**
+     * @return the maximum number of changes applied together
+     */
+    public @Nonnegative int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the maximum number of calls made to the cloud provider at once
+     */
+    public @Nonnegative int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * @return true if the zone's SOA records and apex NS records may be deleted
+     */
+    public boolean isManagingZoneRecords() {
+        return manageZoneRecords;
+    }
+
+    private boolean isZoneRecord(@Nullable String domain, @Nonnull DNSRecord record) {
+        if( manageZoneRecords ) {
+            return false;
+        }
+        if( DNSRecordType.SOA.equals(record.getType()) ) {
+            return true;
+        }
+        return (DNSRecordType.NS.equals(record.getType()) && "@".equals(toRelativeName(domain, record.getName())));
+    }
+
+    /**
+     * Plans the changes needed to bring the specified zone in line with the desired records without applying them.
+     * @param providerDnsZoneId the zone to reconcile
+     * @param desired the records that should be in the zone
+     * @return the records to upsert and delete
+     * @throws CloudException an error occurred with the cloud provider listing the current records
+     * @throws InternalException an error occurred within Dasein Cloud listing the current records or desired records of the same type and name disagree on the TTL
+     */
+    public @Nonnull Plan plan(@Nonnull String providerDnsZoneId, @Nonnull Iterable<DNSRecord> desired) throws CloudException, InternalException {
+        final Plan plan = new Plan();
+
+        diff(providerDnsZoneId, desired, new Sink() {
+            public void delete(@Nonnull DNSRecord record) {
+                plan.toDelete.add(record);
+            }
+
+            public void finish() {
+                // nothing to apply
+            }
+
+            public void unchanged(@Nonnull DNSRecord record) {
+                plan.unchanged++;
+            }
+
+            public void upsert(@Nonnull DNSRecord record) {
+                plan.toUpsert.add(record);
+            }
+        });
+        return plan;
+    }
+
+    /**
+     * Brings the specified zone in line with the desired records. Failures to upsert or delete individual records are
+     * reported in the result rather than thrown.
+     * @param providerDnsZoneId the zone to reconcile
+     * @param desired the records that should be in the zone
+     * @return the outcome of the reconciliation
+     * @throws CloudException an error occurred with the cloud provider listing the current records
+     * @throws InternalException an error occurred within Dasein Cloud listing the current records, desired records of the same type and name disagree on the TTL or the reconciliation was interrupted
+     */
+    public @Nonnull Result reconcile(final @Nonnull String providerDnsZoneId, @Nonnull Iterable<DNSRecord> desired) throws CloudException, InternalException {
+        final Result result = new Result();
+
+        diff(providerDnsZoneId, desired, new Sink() {
+            private DNSChangeSet                        changes = DNSChangeSet.getInstance().withConcurrencyLimit(concurrencyLimit);
+            private IdentityHashMap<DNSRecord,Boolean>  deletes = new IdentityHashMap<DNSRecord, Boolean>();
+            private int                                 pending = 0;
+
+            public void delete(@Nonnull DNSRecord record) throws InternalException {
+                if( record.getProviderZoneId() == null ) {
+                    record.setProviderZoneId(providerDnsZoneId);
+                }
+                deletes.put(record, Boolean.TRUE);
+                changes.delete(record);
+                flush(false);
+            }
+
+            public void finish() throws InternalException {
+                flush(true);
+            }
+
+            public void unchanged(@Nonnull DNSRecord record) {
+                result.unchanged++;
+            }
+
+            public void upsert(@Nonnull DNSRecord record) throws InternalException {
+                changes.upsert(record.getProviderZoneId(), record.getType(), record.getName(), record.getTtl(), record.getValues());
+                flush(false);
+            }
+
+            private void flush(boolean force) throws InternalException {
+                if( (!force && ++pending >= batchSize) || (force && changes.getChangeCount() > 0) ) {
+                    result.add(changes.execute(support), deletes);
+                    changes = DNSChangeSet.getInstance().withConcurrencyLimit(concurrencyLimit);
+                    deletes = new IdentityHashMap<DNSRecord, Boolean>();
+                    pending = 0;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sets the maximum number of changes applied together.
+     * @param batchSize the maximum number of changes per batch
+     * @return this
+     */
+    public @Nonnull DNSZoneReconciler withBatchSize(@Nonnegative int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of calls made to the cloud provider at once.
+     * @param concurrencyLimit the maximum number of concurrent calls
+     * @return this
+     */
+    public @Nonnull DNSZoneReconciler withConcurrencyLimit(@Nonnegative int concurrencyLimit) {
+        this.concurrencyLimit = Math.max(1, concurrencyLimit);
+        return this;
+    }
+
+    /**
+     * Sets whether the zone's SOA records and apex NS records are reconciled like any other record. By default they
+     * are left in place even when the desired record set does not include them.
+     * @param manage true to delete such records when they are not desired
+     * @return this
+     */
+    public @Nonnull DNSZoneReconciler withManagedZoneRecords(boolean manage) {
+        this.manageZoneRecords = manage;
+        return this;
+    }
+}
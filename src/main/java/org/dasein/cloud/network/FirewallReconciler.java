@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Brings the rules of a firewall in line with a desired rule set. The current rules are fetched once and both sides
+ * are hashed by rule identity, so the difference is computed in a single pass over each side. Only the rules that are
+ * missing are authorized and only the rules that are not wanted are revoked.
+ * </p>
+ * <p>
+ * Changes are applied through the batch methods {@link AbstractFirewallSupport#authorizeAll(String, List)} and
+ * {@link AbstractFirewallSupport#revokeAll(String, List)} when the firewall support provides them. Otherwise each
+ * rule is authorized or revoked with its own call, at most {@link #getConcurrencyLimit()} at a time. New rules are
+ * authorized before unwanted rules are revoked so that traffic allowed by both the old and new rule sets is never
+ * interrupted.
+ * </p>
+ * <p>
+ * A rule's identity is its direction, permission, protocol, port range, source endpoint and destination endpoint.
+ * Precedence and provider rule IDs are not part of it, so a desired rule differing from a current rule only in
+ * precedence is considered already in place.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class FirewallReconciler {
+    /**
+     * Constructs a reconciler for firewalls managed by the specified firewall support.
+     * @param support the firewall support through which rules are read and changed
+     * @return a reconciler allowing up to four concurrent per-rule calls
+     */
+    static public @Nonnull FirewallReconciler getInstance(@Nonnull FirewallSupport support) {
+        return new FirewallReconciler(support);
+    }
+
+    /**
+     * Computes the changes needed to move from the current rules to the desired rules.
+     * @param current the rules currently in the firewall
+     * @param desired the rules that should be in the firewall
+     * @return the rules to authorize and the rules to revoke
+     */
+    static public @Nonnull Plan diff(@Nonnull Iterable<FirewallRule> current, @Nonnull Iterable<FirewallRule> desired) {
+        Map<String,FirewallRule> wanted = new LinkedHashMap<String, FirewallRule>();
+
+        for( FirewallRule rule : desired ) {
+            wanted.put(getIdentity(rule), rule);
+        }
+        List<FirewallRule> revoke = new ArrayList<FirewallRule>();
+        int unchanged = 0;
+
+        for( FirewallRule rule : current ) {
+            if( wanted.remove(getIdentity(rule)) == null ) {
+                revoke.add(rule);
+            }
+            else {
+                unchanged++;
+            }
+        }
+        return new Plan(new ArrayList<FirewallRule>(wanted.values()), revoke, unchanged);
+    }
+
+    /**
+     * Identifies a rule independent of the firewall holding it, its provider ID and its precedence.
+     * @param rule the rule to identify
+     * @return a key equal for any two rules governing the same traffic in the same way
+     */
+    static public @Nonnull String getIdentity(@Nonnull FirewallRule rule) {
+        return rule.getDirection() + ":" + rule.getPermission() + ":" + rule.getProtocol() + ":" + rule.getStartPort() + ":" + rule.getEndPort() + ":" + rule.getSourceEndpoint() + ":" + rule.getDestinationEndpoint();
+    }
+
+    /**
+     * The changes needed to reconcile a firewall with a desired rule set.
+     */
+    static public class Plan {
+        private final List<FirewallRule> toAuthorize;
+        private final List<FirewallRule> toRevoke;
+        private final int                unchanged;
+
+        private Plan(@Nonnull List<FirewallRule> toAuthorize, @Nonnull List<FirewallRule> toRevoke, int unchanged) {
+            this.toAuthorize = Collections.unmodifiableList(toAuthorize);
+            this.toRevoke = Collections.unmodifiableList(toRevoke);
+            this.unchanged = unchanged;
+        }
+
+        /**
+         * @return the desired rules missing from the firewall
+         */
+        public @Nonnull List<FirewallRule> getRulesToAuthorize() {
+            return toAuthorize;
+        }
+
+        /**
+         * @return the current rules that are not desired
+         */
+        public @Nonnull List<FirewallRule> getRulesToRevoke() {
+            return toRevoke;
+        }
+
+        /**
+         * @return the number of current rules that are also desired
+         */
+        public int getUnchangedCount() {
+            return unchanged;
+        }
+
+        /**
+         * @return true if the firewall already matches the desired rule set
+         */
+        public boolean isEmpty() {
+            return (toAuthorize.isEmpty() && toRevoke.isEmpty());
+        }
+    }
+
+    /**
+     * The outcome of reconciling a firewall. Failures of individual rules do not stop the reconciliation; they are
+     * recorded here.
+     */
+    static public class Result {
+        private final Map<FirewallRule,String>    authorized = new LinkedHashMap<FirewallRule, String>();
+        private final Map<FirewallRule,Throwable> failures   = new LinkedHashMap<FirewallRule, Throwable>();
+        private final Plan                        plan;
+        private final List<FirewallRule>          revoked    = new ArrayList<FirewallRule>();
+
+        private Result(@Nonnull Plan plan) {
+            this.plan = plan;
+        }
+
+        synchronized void authorized(@Nonnull FirewallRule rule, @Nonnull String ruleId) {
+            authorized.put(rule, ruleId);
+        }
+
+        synchronized void failed(@Nonnull FirewallRule rule, @Nonnull Throwable error) {
+            failures.put(rule, error);
+        }
+
+        synchronized void revoked(@Nonnull FirewallRule rule) {
+            revoked.add(rule);
+        }
+
+        /**
+         * @return the desired rules that were authorized, mapped to their new provider rule IDs
+         */
+        public synchronized @Nonnull Map<FirewallRule,String> getAuthorized() {
+            return new LinkedHashMap<FirewallRule, String>(authorized);
+        }
+
+        /**
+         * @return the rules that could not be authorized or revoked, mapped to the error that prevented it
+         */
+        public synchronized @Nonnull Map<FirewallRule,Throwable> getFailures() {
+            return new LinkedHashMap<FirewallRule, Throwable>(failures);
+        }
+
+        /**
+         * @return the plan that was applied
+         */
+        public @Nonnull Plan getPlan() {
+            return plan;
+        }
+
+        /**
+         * @return the unwanted rules that were revoked
+         */
+        public synchronized @Nonnull List<FirewallRule> getRevoked() {
+            return new ArrayList<FirewallRule>(revoked);
+        }
+
+        /**
+         * @return true if every change in the plan was applied
+         */
+        public synchronized boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+    }
+
+    private int                     concurrencyLimit = 4;
+    private final FirewallSupport   support;
+
+    private FirewallReconciler(@Nonnull FirewallSupport support) {
+        this.support = support;
+    }
+
+    private void apply(@Nonnull final String firewallId, @Nonnull List<FirewallRule> rules, final boolean authorize, @Nonnull final Result result) throws InterruptedException {
+        if( rules.isEmpty() ) {
+            return;
+        }
+        if( support instanceof AbstractFirewallSupport ) {
+            AbstractFirewallSupport s = (AbstractFirewallSupport)support;
+
+            try {
+                if( authorize ) {
+                    List<String> ids = s.authorizeAll(firewallId, rules);
+
+                    for( int i=0; i<rules.size(); i++ ) {
+                        if( i < ids.size() ) {
+                            result.authorized(rules.get(i), ids.get(i));
+                        }
+                        else {
+                            result.failed(rules.get(i), new CloudException("Only " + ids.size() + " of " + rules.size() + " rules were authorized"));
+                        }
+                    }
+                }
+                else {
+                    s.revokeAll(firewallId, rules);
+                    for( FirewallRule rule : rules ) {
+                        result.revoked(rule);
+                    }
+                }
+                return;
+            }
+            catch( OperationNotSupportedException ignore ) {
+                // fall back to individual calls
+            }
+            catch( Throwable e ) {
+                for( FirewallRule rule : rules ) {
+                    result.failed(rule, e);
+                }
+                return;
+            }
+        }
+        final CountDownLatch latch = new CountDownLatch(rules.size());
+        ExecutorService service = Executors.newFixedThreadPool(Math.min(concurrencyLimit, rules.size()), new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger(0);
+
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName((authorize ? "Authorize " : "Revoke ") + firewallId + " " + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            for( final FirewallRule rule : rules ) {
+                service.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            if( authorize ) {
+                                result.authorized(rule, support.authorize(firewallId, rule.getDirection(), rule.getPermission(), rule.getSourceEndpoint(), rule.getProtocol(), rule.getDestinationEndpoint(), rule.getStartPort(), rule.getEndPort(), rule.getPrecedence()));
+                            }
+                            else {
+                                support.revoke(rule.getProviderRuleId());
+                                result.revoked(rule);
+                            }
+                        }
+                        catch( Throwable e ) {
+                            result.failed(rule, e);
+                        }
+                        finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            latch.await();
+        }
+        finally {
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the maximum number of per-rule calls made at once when the firewall support has no batch methods
+     */
+    public @Nonnegative int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Plans the changes needed to bring the specified firewall in line with the desired rules without applying them.
+     * @param firewallId the firewall to reconcile
+     * @param desired the rules that should be in the firewall
+     * @return the rules to authorize and revoke
+     * @throws CloudException an error occurred with the cloud provider fetching the current rules
+     * @throws InternalException an error occurred within Dasein Cloud fetching the current rules
+     */
+    public @Nonnull Plan plan(@Nonnull String firewallId, @Nonnull Collection<FirewallRule> desired) throws CloudException, InternalException {
+        return diff(support.getRules(firewallId), desired);
+    }
+
+    /**
+     * Brings the specified firewall in line with the desired rules. Failures to authorize or revoke individual rules
+     * are reported in the result rather than thrown.
+     * @param firewallId the firewall to reconcile
+     * @param desired the rules that should be in the firewall
+     * @return the outcome of the reconciliation
+     * @throws CloudException an error occurred with the cloud provider fetching the current rules
+     * @throws InternalException an error occurred within Dasein Cloud fetching the current rules or the reconciliation was interrupted
+     */
+    public @Nonnull Result reconcile(@Nonnull String firewallId, @Nonnull Collection<FirewallRule> desired) throws CloudException, InternalException {
+        Result result = new Result(plan(firewallId, desired));
+
+        try {
+            apply(firewallId, result.getPlan().getRulesToAuthorize(), true, result);
+            apply(firewallId, result.getPlan().getRulesToRevoke(), false, result);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Sets the maximum number of per-rule calls made at once when the firewall support has no batch methods.
+     * @param concurrencyLimit the maximum number of concurrent calls
+     * @return this
+     */
+    public @Nonnull FirewallReconciler withConcurrencyLimit(@Nonnegative int concurrencyLimit) {
+        this.concurrencyLimit = Math.max(1, concurrencyLimit);
+        return this;
+    }
+}
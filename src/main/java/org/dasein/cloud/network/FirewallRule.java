@@ -38,29 +38,9 @@ import javax.annotation.Nullable;
 @SuppressWarnings("UnusedDeclaration")
 public class FirewallRule implements Comparable<FirewallRule> {
     static private @Nonnull RuleTarget toSourceDestination(@Nonnull String source) {
-        String[] parts = source.split("\\.");
+        CidrBlock cidr = CidrBlock.parse(source);
 
-        if( parts.length == 4 ) {
-            int idx = parts[3].indexOf("/");
-            boolean num = true;
-
-            if( idx > 0 ) {
-                parts[3] = parts[3].substring(0,idx);
-            }
-            for( String p : parts ) {
-                try {
-                    Integer.parseInt(p);
-                }
-                catch( NumberFormatException ignore ) {
-                    num = false;
-                    break;
-                }
-            }
-            if( num ) {
-                return RuleTarget.getCIDR(source);
-            }
-        }
-        return RuleTarget.getGlobal(source);
+        return (cidr == null ? RuleTarget.getGlobal(source) : RuleTarget.getCIDR(source));
     }
 
     /**
@@ -85,7 +65,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
         rule.protocol = protocol;
         rule.startPort = port;
         rule.precedence = 0;
-        rule.providerRuleId = (firewallRuleId == null ? getRuleId(rule.firewallId, rule.sourceEndpoint, rule.direction, rule.protocol, rule.permission, rule.destinationEndpoint, rule.startPort, rule.endPort): firewallRuleId);
+        rule.providerRuleId = firewallRuleId;
         return rule;
     }
 
@@ -112,7 +92,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
         rule.protocol = protocol;
         rule.startPort = port;
         rule.precedence = 0;
-        rule.providerRuleId = (firewallRuleId == null ? getRuleId(rule.firewallId, rule.sourceEndpoint, rule.direction, rule.protocol, rule.permission, rule.destinationEndpoint, rule.startPort, rule.endPort): firewallRuleId);
+        rule.providerRuleId = firewallRuleId;
         return rule;
     }
 
@@ -150,7 +130,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
         rule.protocol = protocol;
         rule.startPort = port;
         rule.precedence = 0;
-        rule.providerRuleId = (firewallRuleId == null ? getRuleId(rule.firewallId, rule.sourceEndpoint, rule.direction, rule.protocol, rule.permission, rule.destinationEndpoint, rule.startPort, rule.endPort): firewallRuleId);
+        rule.providerRuleId = firewallRuleId;
         return rule;
     }
 
@@ -189,7 +169,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
         rule.protocol = protocol;
         rule.precedence = 0;
         rule.startPort = startPort;
-        rule.providerRuleId = (firewallRuleId == null ? getRuleId(rule.firewallId, rule.sourceEndpoint, rule.direction, rule.protocol, rule.permission, rule.destinationEndpoint, rule.startPort, rule.endPort): firewallRuleId);
+        rule.providerRuleId = firewallRuleId;
         return rule;
     }
 
@@ -222,7 +202,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
         rule.protocol = protocol;
         rule.precedence = 0;
         rule.startPort = startPort;
-        rule.providerRuleId = (firewallRuleId == null ? getRuleId(rule.firewallId, rule.sourceEndpoint, rule.direction, rule.protocol, rule.permission, rule.destinationEndpoint, rule.startPort, rule.endPort): firewallRuleId);
+        rule.providerRuleId = firewallRuleId;
         return rule;
     }
 
@@ -408,7 +388,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
         }
         if( direction.equals(other.direction) ) {
             if( precedence == other.precedence ) {
-                return providerRuleId.compareTo(other.providerRuleId);
+                return getProviderRuleId().compareTo(other.getProviderRuleId());
             }
             if( precedence == -1 ) {
                 return 1;
@@ -436,6 +416,11 @@ public class FirewallRule implements Comparable<FirewallRule> {
         return getProviderRuleId().equals(((FirewallRule)other).getProviderRuleId());
     }
 
+    @Override
+    public int hashCode() {
+        return getProviderRuleId().hashCode();
+    }
+
     /**
      * The source IP address or range of addresses in CIDR format. IP addresses matching
      * this CIDR have positive access to any server protected by this firewall to the port
@@ -513,6 +498,10 @@ public class FirewallRule implements Comparable<FirewallRule> {
      * @return a unique ID that identifies this rule to the target cloud
      */
     public @Nonnull String getProviderRuleId() {
+        if( providerRuleId == null ) {
+            // computed on first use since many callers never need the synthesized ID
+            providerRuleId = getRuleId(firewallId, sourceEndpoint, direction, protocol, permission, destinationEndpoint, startPort, endPort);
+        }
         return providerRuleId;
     }
 
@@ -0,0 +1,414 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Changes the endpoints and data centers of many load balancers at once. Operations are recorded against a load
+ * balancer in any order and merged, so that each load balancer receives at most one call of each kind no matter how
+ * many operations were recorded for it. Adding an endpoint cancels an earlier removal of the same endpoint and vice
+ * versa.
+ * </p>
+ * <p>
+ * When executed, load balancers are changed in parallel, at most {@link #getConcurrencyLimit()} at a time. The
+ * changes for a single load balancer are first offered to
+ * {@link AbstractLoadBalancerSupport#modifyEndpoints(Mutation)} so providers with a native bulk registration call can
+ * apply them in one request. Otherwise they are applied in the order data centers added, VMs added, IP endpoints
+ * added, VMs removed, IP endpoints removed and data centers removed, so that new endpoints take traffic before old
+ * endpoints stop. The first failure for a load balancer stops its remaining changes but does not affect any other
+ * load balancer.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class LoadBalancerEndpointBatch {
+    /**
+     * @return an empty batch allowing up to eight load balancers to be changed at once
+     */
+    static public @Nonnull LoadBalancerEndpointBatch getInstance() {
+        return new LoadBalancerEndpointBatch();
+    }
+
+    /**
+     * The merged changes for a single load balancer.
+     */
+    static public class Mutation {
+        private final Set<String> dataCentersToAdd    = new LinkedHashSet<String>();
+        private final Set<String> dataCentersToRemove = new LinkedHashSet<String>();
+        private final Set<String> ipsToAdd            = new LinkedHashSet<String>();
+        private final Set<String> ipsToRemove         = new LinkedHashSet<String>();
+        private final String      loadBalancerId;
+        private final Set<String> serversToAdd        = new LinkedHashSet<String>();
+        private final Set<String> serversToRemove     = new LinkedHashSet<String>();
+
+        private Mutation(@Nonnull String loadBalancerId) {
+            this.loadBalancerId = loadBalancerId;
+        }
+
+        static private void move(@Nonnull Set<String> to, @Nonnull Set<String> from, @Nonnull String ... values) {
+            for( String value : values ) {
+                from.remove(value);
+                to.add(value);
+            }
+        }
+
+        static private @Nonnull String[] toArray(@Nonnull Set<String> values) {
+            return values.toArray(new String[values.size()]);
+        }
+
+        /**
+         * @return the data centers to add to the load balancer
+         */
+        public @Nonnull String[] getDataCentersToAdd() {
+            return toArray(dataCentersToAdd);
+        }
+
+        /**
+         * @return the data centers to remove from the load balancer
+         */
+        public @Nonnull String[] getDataCentersToRemove() {
+            return toArray(dataCentersToRemove);
+        }
+
+        /**
+         * @return the IP addresses to add as endpoints
+         */
+        public @Nonnull String[] getIPEndpointsToAdd() {
+            return toArray(ipsToAdd);
+        }
+
+        /**
+         * @return the IP addresses to remove as endpoints
+         */
+        public @Nonnull String[] getIPEndpointsToRemove() {
+            return toArray(ipsToRemove);
+        }
+
+        /**
+         * @return the load balancer being changed
+         */
+        public @Nonnull String getLoadBalancerId() {
+            return loadBalancerId;
+        }
+
+        /**
+         * @return the IDs of the VMs to add as endpoints
+         */
+        public @Nonnull String[] getServersToAdd() {
+            return toArray(serversToAdd);
+        }
+
+        /**
+         * @return the IDs of the VMs to remove as endpoints
+         */
+        public @Nonnull String[] getServersToRemove() {
+            return toArray(serversToRemove);
+        }
+
+        /**
+         * @return true if there is nothing to change
+         */
+        public boolean isEmpty() {
+            return (dataCentersToAdd.isEmpty() && dataCentersToRemove.isEmpty() && ipsToAdd.isEmpty() && ipsToRemove.isEmpty() && serversToAdd.isEmpty() && serversToRemove.isEmpty());
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return (loadBalancerId + " [+vm" + serversToAdd + " -vm" + serversToRemove + " +ip" + ipsToAdd + " -ip" + ipsToRemove + " +dc" + dataCentersToAdd + " -dc" + dataCentersToRemove + "]");
+        }
+    }
+
+    /**
+     * The outcome of executing a batch. A failure for one load balancer does not stop the others; it is recorded here.
+     */
+    static public class Result {
+        private final Map<String,Throwable> failures  = new LinkedHashMap<String, Throwable>();
+        private final List<String>          succeeded = new ArrayList<String>();
+
+        private Result() { }
+
+        synchronized void failed(@Nonnull String loadBalancerId, @Nonnull Throwable error) {
+            failures.put(loadBalancerId, error);
+        }
+
+        synchronized void succeeded(@Nonnull String loadBalancerId) {
+            succeeded.add(loadBalancerId);
+        }
+
+        /**
+         * @param loadBalancerId the load balancer in question
+         * @return the error that stopped the changes to the load balancer or <code>null</code> if it did not fail
+         */
+        public synchronized @Nullable Throwable getFailure(@Nonnull String loadBalancerId) {
+            return failures.get(loadBalancerId);
+        }
+
+        /**
+         * @return the load balancers whose changes failed, mapped to the error that stopped them
+         */
+        public synchronized @Nonnull Map<String,Throwable> getFailures() {
+            return new LinkedHashMap<String, Throwable>(failures);
+        }
+
+        /**
+         * @return the load balancers whose changes were all applied
+         */
+        public synchronized @Nonnull List<String> getSucceeded() {
+            return new ArrayList<String>(succeeded);
+        }
+
+        /**
+         * @return true if every change in the batch was applied
+         */
+        public synchronized boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+    }
+
+    private int                               concurrencyLimit = 8;
+    private final Map<String,Mutation>        mutations        = new LinkedHashMap<String, Mutation>();
+
+    private LoadBalancerEndpointBatch() { }
+
+    /**
+     * Adds data centers to a load balancer.
+     * @param toLoadBalancerId the load balancer to change
+     * @param dataCenterIds the data centers to add
+     * @return this
+     */
+    public synchronized @Nonnull LoadBalancerEndpointBatch addDataCenters(@Nonnull String toLoadBalancerId, @Nonnull String ... dataCenterIds) {
+        Mutation m = getMutation(toLoadBalancerId);
+
+        Mutation.move(m.dataCentersToAdd, m.dataCentersToRemove, dataCenterIds);
+        return this;
+    }
+
+    /**
+     * Adds IP endpoints to a load balancer.
+     * @param toLoadBalancerId the load balancer to change
+     * @param ipAddresses the IP addresses to add
+     * @return this
+     */
+    public synchronized @Nonnull LoadBalancerEndpointBatch addIPEndpoints(@Nonnull String toLoadBalancerId, @Nonnull String ... ipAddresses) {
+        Mutation m = getMutation(toLoadBalancerId);
+
+        Mutation.move(m.ipsToAdd, m.ipsToRemove, ipAddresses);
+        return this;
+    }
+
+    /**
+     * Adds VM endpoints to a load balancer.
+     * @param toLoadBalancerId the load balancer to change
+     * @param serverIds the IDs of the VMs to add
+     * @return this
+     */
+    public synchronized @Nonnull LoadBalancerEndpointBatch addServers(@Nonnull String toLoadBalancerId, @Nonnull String ... serverIds) {
+        Mutation m = getMutation(toLoadBalancerId);
+
+        Mutation.move(m.serversToAdd, m.serversToRemove, serverIds);
+        return this;
+    }
+
+    private void apply(@Nonnull LoadBalancerSupport support, @Nonnull Mutation m) throws Exception {
+        if( support instanceof AbstractLoadBalancerSupport ) {
+            try {
+                ((AbstractLoadBalancerSupport<?>)support).modifyEndpoints(m);
+                return;
+            }
+            catch( OperationNotSupportedException ignore ) {
+                // fall back to individual calls
+            }
+        }
+        if( !m.dataCentersToAdd.isEmpty() ) {
+            support.addDataCenters(m.loadBalancerId, m.getDataCentersToAdd());
+        }
+        if( !m.serversToAdd.isEmpty() ) {
+            support.addServers(m.loadBalancerId, m.getServersToAdd());
+        }
+        if( !m.ipsToAdd.isEmpty() ) {
+            support.addIPEndpoints(m.loadBalancerId, m.getIPEndpointsToAdd());
+        }
+        if( !m.serversToRemove.isEmpty() ) {
+            support.removeServers(m.loadBalancerId, m.getServersToRemove());
+        }
+        if( !m.ipsToRemove.isEmpty() ) {
+            support.removeIPEndpoints(m.loadBalancerId, m.getIPEndpointsToRemove());
+        }
+        if( !m.dataCentersToRemove.isEmpty() ) {
+            support.removeDataCenters(m.loadBalancerId, m.getDataCentersToRemove());
+        }
+    }
+
+    /**
+     * Applies every change in this batch through the specified load balancer support. Failures for individual load
+     * balancers are reported in the result rather than thrown.
+     * @param support the load balancer support through which changes are made
+     * @return the outcome for each load balancer
+     * @throws InternalException the calling thread was interrupted while waiting for the changes to complete
+     */
+    public @Nonnull Result execute(@Nonnull final LoadBalancerSupport support) throws InternalException {
+        final List<Mutation> work = new ArrayList<Mutation>();
+        final Result result = new Result();
+
+        for( Mutation m : getMutations() ) {
+            if( m.isEmpty() ) {
+                result.succeeded(m.loadBalancerId);
+            }
+            else {
+                work.add(m);
+            }
+        }
+        if( work.isEmpty() ) {
+            return result;
+        }
+        final CountDownLatch latch = new CountDownLatch(work.size());
+        ExecutorService service = Executors.newFixedThreadPool(Math.min(concurrencyLimit, work.size()), new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger(0);
+
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("LB Endpoint Batch " + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            for( final Mutation m : work ) {
+                service.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            apply(support, m);
+                            result.succeeded(m.loadBalancerId);
+                        }
+                        catch( Throwable e ) {
+                            result.failed(m.loadBalancerId, e);
+                        }
+                        finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            latch.await();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        finally {
+            service.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * @return the maximum number of load balancers changed at once
+     */
+    public @Nonnegative int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    private @Nonnull Mutation getMutation(@Nonnull String loadBalancerId) {
+        Mutation m = mutations.get(loadBalancerId);
+
+        if( m == null ) {
+            m = new Mutation(loadBalancerId);
+            mutations.put(loadBalancerId, m);
+        }
+        return m;
+    }
+
+    /**
+     * @return the merged changes for each load balancer in the order the load balancers were first mentioned
+     */
+    public synchronized @Nonnull Collection<Mutation> getMutations() {
+        return Collections.unmodifiableCollection(new ArrayList<Mutation>(mutations.values()));
+    }
+
+    /**
+     * Removes data centers from a load balancer.
+     * @param fromLoadBalancerId the load balancer to change
+     * @param dataCenterIds the data centers to remove
+     * @return this
+     */
+    public synchronized @Nonnull LoadBalancerEndpointBatch removeDataCenters(@Nonnull String fromLoadBalancerId, @Nonnull String ... dataCenterIds) {
+        Mutation m = getMutation(fromLoadBalancerId);
+
+        Mutation.move(m.dataCentersToRemove, m.dataCentersToAdd, dataCenterIds);
+        return this;
+    }
+
+    /**
+     * Removes IP endpoints from a load balancer.
+     * @param fromLoadBalancerId the load balancer to change
+     * @param ipAddresses the IP addresses to remove
+     * @return this
+     */
+    public synchronized @Nonnull LoadBalancerEndpointBatch removeIPEndpoints(@Nonnull String fromLoadBalancerId, @Nonnull String ... ipAddresses) {
+        Mutation m = getMutation(fromLoadBalancerId);
+
+        Mutation.move(m.ipsToRemove, m.ipsToAdd, ipAddresses);
+        return this;
+    }
+
+    /**
+     * Removes VM endpoints from a load balancer.
+     * @param fromLoadBalancerId the load balancer to change
+     * @param serverIds the IDs of the VMs to remove
+     * @return this
+     */
+    public synchronized @Nonnull LoadBalancerEndpointBatch removeServers(@Nonnull String fromLoadBalancerId, @Nonnull String ... serverIds) {
+        Mutation m = getMutation(fromLoadBalancerId);
+
+        Mutation.move(m.serversToRemove, m.serversToAdd, serverIds);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of load balancers changed at once.
+     * @param concurrencyLimit the maximum number of concurrent load balancers
+     * @return this
+     */
+    public @Nonnull LoadBalancerEndpointBatch withConcurrencyLimit(@Nonnegative int concurrencyLimit) {
+        this.concurrencyLimit = Math.max(1, concurrencyLimit);
+        return this;
+    }
+}
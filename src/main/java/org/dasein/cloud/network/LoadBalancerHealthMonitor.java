@@ -0,0 +1,554 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Tracks the health of the endpoints behind a set of load balancers. Each monitored load balancer is polled with
+ * {@link LoadBalancerSupport#listEndpoints(String)} on its own schedule, with at most {@link #getConcurrencyLimit()}
+ * polls in flight at once. The result of each poll is indexed by endpoint type and value and compared against the
+ * previous poll, and only the endpoints that appeared, disappeared or changed state are reported to listeners.
+ * </p>
+ * <p>
+ * The interval between polls of a load balancer adapts to what the polls find. A poll finding a change brings the
+ * interval back to the minimum. Each poll finding nothing new stretches the interval by half, and each failed poll
+ * doubles it, up to the maximum.
+ * </p>
+ * <p>
+ * Queries against the monitor are answered from the most recent snapshot without calling the cloud provider.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class LoadBalancerHealthMonitor {
+    static private final Logger logger = Logger.getLogger(LoadBalancerHealthMonitor.class);
+
+    /**
+     * Receives the changes found by a monitor. Listeners are called from polling threads while the load balancer being
+     * reported on is locked against further polls, so they should return quickly. An exception thrown by a listener is
+     * logged and does not keep other listeners from being called or the load balancer from being polled again.
+     */
+    static public interface HealthListener {
+        /**
+         * Called when a poll finds endpoints that appeared, disappeared or changed state.
+         * @param loadBalancerId the load balancer that was polled
+         * @param changes the changes found, never empty
+         */
+        public void endpointsChanged(@Nonnull String loadBalancerId, @Nonnull List<EndpointChange> changes);
+
+        /**
+         * Called when a poll fails. The previous snapshot for the load balancer is kept.
+         * @param loadBalancerId the load balancer that was polled
+         * @param cause the reason the poll failed
+         */
+        public void pollFailed(@Nonnull String loadBalancerId, @Nonnull Throwable cause);
+    }
+
+    /**
+     * A change in a single endpoint between two polls of a load balancer.
+     */
+    static public class EndpointChange {
+        private final LoadBalancerEndpoint endpoint;
+        private final String               loadBalancerId;
+        private final LbEndpointState      previousState;
+        private final LbEndpointState      currentState;
+
+        private EndpointChange(@Nonnull String loadBalancerId, @Nonnull LoadBalancerEndpoint endpoint, @Nullable LbEndpointState previousState, @Nullable LbEndpointState currentState) {
+            this.loadBalancerId = loadBalancerId;
+            this.endpoint = endpoint;
+            this.previousState = previousState;
+            this.currentState = currentState;
+        }
+
+        /**
+         * @return the state of the endpoint as of the latest poll or <code>null</code> if it is no longer present
+         */
+        public @Nullable LbEndpointState getCurrentState() {
+            return currentState;
+        }
+
+        /**
+         * @return the endpoint as of the latest poll, or as of the previous poll if it is no longer present
+         */
+        public @Nonnull LoadBalancerEndpoint getEndpoint() {
+            return endpoint;
+        }
+
+        /**
+         * @return the load balancer to which the endpoint belongs
+         */
+        public @Nonnull String getLoadBalancerId() {
+            return loadBalancerId;
+        }
+
+        /**
+         * @return the state of the endpoint as of the previous poll or <code>null</code> if it was not present
+         */
+        public @Nullable LbEndpointState getPreviousState() {
+            return previousState;
+        }
+
+        /**
+         * @return the current state expressed as a server state for clients of the deprecated server health API
+         */
+        public @Nullable LoadBalancerServerState getCurrentServerState() {
+            return (currentState == null ? null : LoadBalancerServerState.valueOf(currentState.name()));
+        }
+
+        /**
+         * @return the previous state expressed as a server state for clients of the deprecated server health API
+         */
+        public @Nullable LoadBalancerServerState getPreviousServerState() {
+            return (previousState == null ? null : LoadBalancerServerState.valueOf(previousState.name()));
+        }
+
+        /**
+         * @return true if the endpoint was not present in the previous poll
+         */
+        public boolean isAdded() {
+            return (previousState == null);
+        }
+
+        /**
+         * @return true if the endpoint is not present in the latest poll
+         */
+        public boolean isRemoved() {
+            return (currentState == null);
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return (loadBalancerId + "/" + endpoint + ": " + previousState + " -> " + currentState);
+        }
+    }
+
+    /**
+     * Constructs a monitor for load balancers managed by the specified load balancer support.
+     * @param support the load balancer support through which endpoints are listed
+     * @return a monitor with no load balancers, polling between every 5 seconds and every 2 minutes
+     */
+    static public @Nonnull LoadBalancerHealthMonitor getInstance(@Nonnull LoadBalancerSupport support) {
+        return new LoadBalancerHealthMonitor(support);
+    }
+
+    static private @Nonnull String toKey(@Nonnull LbEndpointType type, @Nonnull String value) {
+        return (type.name() + ":" + value);
+    }
+
+    static private class Snapshot {
+        public final Map<String,LoadBalancerEndpoint> endpoints;
+        public final long                             timestamp;
+
+        public Snapshot(@Nonnull Map<String,LoadBalancerEndpoint> endpoints, long timestamp) {
+            this.endpoints = endpoints;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private class Tracker implements Runnable {
+        public final    String   loadBalancerId;
+        public volatile long     interval = minimumInterval;
+        public volatile Snapshot snapshot;
+
+        public Tracker(@Nonnull String loadBalancerId) {
+            this.loadBalancerId = loadBalancerId;
+        }
+
+        public void run() {
+            if( trackers.get(loadBalancerId) != this ) {
+                return;
+            }
+            try {
+                poll(this);
+            }
+            finally {
+                schedule(this, interval);
+            }
+        }
+    }
+
+    private final CopyOnWriteArrayList<HealthListener> listeners = new CopyOnWriteArrayList<HealthListener>();
+    private final LoadBalancerSupport                  support;
+    private final ConcurrentHashMap<String,Tracker>    trackers  = new ConcurrentHashMap<String, Tracker>();
+
+    private          int                      concurrencyLimit = 8;
+    private          long                     maximumInterval  = 120000L;
+    private          long                     minimumInterval  = 5000L;
+    private volatile ScheduledExecutorService scheduler;
+
+    private LoadBalancerHealthMonitor(@Nonnull LoadBalancerSupport support) {
+        this.support = support;
+    }
+
+    /**
+     * @return the maximum number of load balancers polled at once
+     */
+    public @Nonnegative int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Provides the endpoints of a load balancer as of its latest successful poll.
+     * @param loadBalancerId the load balancer whose endpoints are sought
+     * @return the endpoints of the load balancer or <code>null</code> if it has not been successfully polled
+     */
+    public @Nullable Collection<LoadBalancerEndpoint> getEndpoints(@Nonnull String loadBalancerId) {
+        Snapshot snapshot = getSnapshot(loadBalancerId);
+
+        return (snapshot == null ? null : snapshot.endpoints.values());
+    }
+
+    /**
+     * Provides the specified endpoints of a load balancer as of its latest successful poll. Endpoints not present in
+     * the snapshot are left out of the results.
+     * @param loadBalancerId the load balancer whose endpoints are sought
+     * @param type the type of the endpoints sought
+     * @param endpoints the values identifying the endpoints sought
+     * @return the matching endpoints or <code>null</code> if the load balancer has not been successfully polled
+     */
+    public @Nullable List<LoadBalancerEndpoint> getEndpoints(@Nonnull String loadBalancerId, @Nonnull LbEndpointType type, @Nonnull String ... endpoints) {
+        Snapshot snapshot = getSnapshot(loadBalancerId);
+
+        if( snapshot == null ) {
+            return null;
+        }
+        List<LoadBalancerEndpoint> matches = new ArrayList<LoadBalancerEndpoint>();
+
+        for( String value : endpoints ) {
+            LoadBalancerEndpoint endpoint = snapshot.endpoints.get(toKey(type, value));
+
+            if( endpoint != null ) {
+                matches.add(endpoint);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Provides the time of the latest successful poll of a load balancer.
+     * @param loadBalancerId the load balancer in question
+     * @return the time of the latest successful poll or -1 if it has not been successfully polled
+     */
+    public long getLastPollTimestamp(@Nonnull String loadBalancerId) {
+        Snapshot snapshot = getSnapshot(loadBalancerId);
+
+        return (snapshot == null ? -1L : snapshot.timestamp);
+    }
+
+    /**
+     * Provides the time the monitor currently waits between polls of a load balancer.
+     * @param loadBalancerId the load balancer in question
+     * @return the current polling interval in milliseconds or -1 if the load balancer is not monitored
+     */
+    public long getPollingInterval(@Nonnull String loadBalancerId) {
+        Tracker tracker = trackers.get(loadBalancerId);
+
+        return (tracker == null ? -1L : tracker.interval);
+    }
+
+    /**
+     * @return the longest time in milliseconds the monitor waits between polls of a load balancer
+     */
+    public @Nonnegative long getMaximumInterval() {
+        return maximumInterval;
+    }
+
+    /**
+     * @return the shortest time in milliseconds the monitor waits between polls of a load balancer
+     */
+    public @Nonnegative long getMinimumInterval() {
+        return minimumInterval;
+    }
+
+    /**
+     * @return the load balancers currently being monitored
+     */
+    public @Nonnull Collection<String> getMonitoredLoadBalancerIds() {
+        return Collections.unmodifiableCollection(new ArrayList<String>(trackers.keySet()));
+    }
+
+    /**
+     * Provides the health of the specified VMs behind a load balancer as of its latest successful poll, in the form
+     * used by the deprecated {@link LoadBalancerSupport#getLoadBalancerServerHealth(String, String...)}.
+     * @param loadBalancerId the load balancer whose servers are sought
+     * @param serverIds the IDs of the VMs sought
+     * @return the health of the matching servers or <code>null</code> if the load balancer has not been successfully polled
+     */
+    public @Nullable List<LoadBalancerServer> getServerHealth(@Nonnull String loadBalancerId, @Nonnull String ... serverIds) {
+        List<LoadBalancerEndpoint> endpoints = getEndpoints(loadBalancerId, LbEndpointType.VM, serverIds);
+
+        if( endpoints == null ) {
+            return null;
+        }
+        List<LoadBalancerServer> servers = new ArrayList<LoadBalancerServer>();
+
+        for( LoadBalancerEndpoint endpoint : endpoints ) {
+            servers.add(AbstractLoadBalancerSupport.toServer(loadBalancerId, endpoint));
+        }
+        return servers;
+    }
+
+    private @Nullable Snapshot getSnapshot(@Nonnull String loadBalancerId) {
+        Tracker tracker = trackers.get(loadBalancerId);
+
+        return (tracker == null ? null : tracker.snapshot);
+    }
+
+    /**
+     * @return true if the monitor is polling in the background
+     */
+    public boolean isRunning() {
+        return (scheduler != null);
+    }
+
+    /**
+     * Adds load balancers to the set being monitored. If the monitor is running, they are polled right away.
+     * @param loadBalancerIds the load balancers to monitor
+     */
+    public void monitor(@Nonnull String ... loadBalancerIds) {
+        for( String id : loadBalancerIds ) {
+            Tracker tracker = new Tracker(id);
+
+            if( trackers.putIfAbsent(id, tracker) == null ) {
+                schedule(tracker, 0L);
+            }
+        }
+    }
+
+    /**
+     * Polls every monitored load balancer once, at most {@link #getConcurrencyLimit()} at a time, and waits for all
+     * of the polls to complete. Listeners are notified as with background polling.
+     * @return the changes found across all load balancers
+     * @throws InternalException the calling thread was interrupted while waiting
+     */
+    public @Nonnull List<EndpointChange> poll() throws InternalException {
+        final List<Tracker> targets = new ArrayList<Tracker>(trackers.values());
+        final List<EndpointChange> changes = Collections.synchronizedList(new ArrayList<EndpointChange>());
+
+        if( targets.isEmpty() ) {
+            return changes;
+        }
+        final CountDownLatch latch = new CountDownLatch(targets.size());
+        ExecutorService service = Executors.newFixedThreadPool(Math.min(concurrencyLimit, targets.size()), newThreadFactory());
+
+        try {
+            for( final Tracker tracker : targets ) {
+                service.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            changes.addAll(poll(tracker));
+                        }
+                        finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            latch.await();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        finally {
+            service.shutdownNow();
+        }
+        return new ArrayList<EndpointChange>(changes);
+    }
+
+    private @Nonnull List<EndpointChange> poll(@Nonnull Tracker tracker) {
+        String id = tracker.loadBalancerId;
+
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized( tracker ) {
+            Iterable<LoadBalancerEndpoint> current;
+
+            try {
+                current = support.listEndpoints(id);
+            }
+            catch( Throwable e ) {
+                tracker.interval = Math.min(maximumInterval, tracker.interval * 2);
+                for( HealthListener listener : listeners ) {
+                    try {
+                        listener.pollFailed(id, e);
+                    }
+                    catch( Throwable t ) {
+                        logger.warn("Health listener failed handling a poll failure for " + id + ": " + t.getMessage(), t);
+                    }
+                }
+                return Collections.emptyList();
+            }
+            Snapshot previous = tracker.snapshot;
+            Map<String,LoadBalancerEndpoint> before = (previous == null ? Collections.<String,LoadBalancerEndpoint>emptyMap() : new LinkedHashMap<String, LoadBalancerEndpoint>(previous.endpoints));
+            Map<String,LoadBalancerEndpoint> after = new LinkedHashMap<String, LoadBalancerEndpoint>();
+            List<EndpointChange> changes = new ArrayList<EndpointChange>();
+
+            for( LoadBalancerEndpoint endpoint : current ) {
+                String key = toKey(endpoint.getEndpointType(), endpoint.getEndpointValue());
+                LoadBalancerEndpoint old = (previous == null ? null : before.remove(key));
+
+                after.put(key, endpoint);
+                if( old == null ) {
+                    changes.add(new EndpointChange(id, endpoint, null, endpoint.getCurrentState()));
+                }
+                else if( !old.getCurrentState().equals(endpoint.getCurrentState()) ) {
+                    changes.add(new EndpointChange(id, endpoint, old.getCurrentState(), endpoint.getCurrentState()));
+                }
+            }
+            for( LoadBalancerEndpoint gone : before.values() ) {
+                changes.add(new EndpointChange(id, gone, gone.getCurrentState(), null));
+            }
+            tracker.snapshot = new Snapshot(Collections.unmodifiableMap(after), System.currentTimeMillis());
+            if( changes.isEmpty() ) {
+                tracker.interval = Math.min(maximumInterval, tracker.interval + tracker.interval/2);
+                return changes;
+            }
+            tracker.interval = minimumInterval;
+            changes = Collections.unmodifiableList(changes);
+            for( HealthListener listener : listeners ) {
+                try {
+                    listener.endpointsChanged(id, changes);
+                }
+                catch( Throwable t ) {
+                    logger.warn("Health listener failed handling changes to " + id + ": " + t.getMessage(), t);
+                }
+            }
+            return changes;
+        }
+    }
+
+    private @Nonnull ThreadFactory newThreadFactory() {
+        return new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger(0);
+
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("LB Health " + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private void schedule(@Nonnull Tracker tracker, long delay) {
+        ScheduledExecutorService s = scheduler;
+
+        if( s != null && trackers.get(tracker.loadBalancerId) == tracker ) {
+            try {
+                s.schedule(tracker, delay, TimeUnit.MILLISECONDS);
+            }
+            catch( RejectedExecutionException ignore ) {
+                // the monitor was stopped
+            }
+        }
+    }
+
+    /**
+     * Begins polling every monitored load balancer in the background. Load balancers added later are polled as soon
+     * as they are added. Calling this method on a running monitor has no effect.
+     */
+    public synchronized void start() {
+        if( scheduler != null ) {
+            return;
+        }
+        scheduler = Executors.newScheduledThreadPool(concurrencyLimit, newThreadFactory());
+        for( Tracker tracker : trackers.values() ) {
+            schedule(tracker, 0L);
+        }
+    }
+
+    /**
+     * Stops background polling. Snapshots are kept and may still be queried.
+     */
+    public synchronized void stop() {
+        ScheduledExecutorService s = scheduler;
+
+        scheduler = null;
+        if( s != null ) {
+            s.shutdownNow();
+        }
+    }
+
+    /**
+     * Removes a load balancer from the set being monitored and discards its snapshot.
+     * @param loadBalancerId the load balancer to stop monitoring
+     */
+    public void unmonitor(@Nonnull String loadBalancerId) {
+        trackers.remove(loadBalancerId);
+    }
+
+    /**
+     * Sets the maximum number of load balancers polled at once. Takes effect the next time the monitor is started.
+     * @param limit the maximum number of concurrent polls
+     * @return this
+     */
+    public @Nonnull LoadBalancerHealthMonitor withConcurrencyLimit(@Nonnegative int limit) {
+        concurrencyLimit = Math.max(1, limit);
+        return this;
+    }
+
+    /**
+     * Sets the range within which the interval between polls of a load balancer adapts.
+     * @param minimum the interval in milliseconds after a poll finding changes
+     * @param maximum the longest interval in milliseconds for load balancers that are stable or failing
+     * @return this
+     */
+    public @Nonnull LoadBalancerHealthMonitor withInterval(@Nonnegative long minimum, @Nonnegative long maximum) {
+        minimumInterval = Math.max(1L, minimum);
+        maximumInterval = Math.max(minimumInterval, maximum);
+        for( Tracker tracker : trackers.values() ) {
+            tracker.interval = minimumInterval;
+        }
+        return this;
+    }
+
+    /**
+     * Registers a listener for the changes found by this monitor.
+     * @param listener the listener to register
+     * @return this
+     */
+    public @Nonnull LoadBalancerHealthMonitor withListener(@Nonnull HealthListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+}
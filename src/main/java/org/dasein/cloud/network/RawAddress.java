@@ -29,8 +29,9 @@ import javax.annotation.Nullable;
  * @since 2013.02
  */
 public class RawAddress {
-    private String ipAddress;
-    private IPVersion version;
+    private transient CidrBlock block;
+    private String              ipAddress;
+    private IPVersion           version;
 
     @SuppressWarnings("UnusedDeclaration")
     private RawAddress() { }
@@ -41,13 +42,19 @@ public class RawAddress {
      */
     public RawAddress(@Nonnull String ipAddress) {
         this.ipAddress = ipAddress;
-        String[] tmp = ipAddress.split("\\.");
-
-        if( tmp.length == 4 ) {
-            version = IPVersion.IPV4;
+        block = CidrBlock.parse(ipAddress);
+        if( block != null ) {
+            version = block.getVersion();
         }
         else {
-            version = IPVersion.IPV6;
+            int dots = 0;
+
+            for( int i=0; i<ipAddress.length(); i++ ) {
+                if( ipAddress.charAt(i) == '.' ) {
+                    dots++;
+                }
+            }
+            version = (dots == 3 ? IPVersion.IPV4 : IPVersion.IPV6);
         }
     }
 
@@ -66,6 +73,16 @@ public class RawAddress {
         return other != null && (other == this || other.getClass().getName().equals(getClass().getName()) && ipAddress.equalsIgnoreCase(((RawAddress) other).ipAddress));
     }
 
+    /**
+     * @return this address in binary form, or <code>null</code> if the address string is not a valid IP address
+     */
+    public @Nullable CidrBlock getCidrBlock() {
+        if( block == null ) {
+            block = CidrBlock.parse(ipAddress);
+        }
+        return block;
+    }
+
     /**
      * @return the IP address string
      */
@@ -91,29 +108,15 @@ public class RawAddress {
      * @return true if this address is in the publicly addressable address space
      */
     public boolean isPublicIpAddress() {
-        if( getVersion().equals(IPVersion.IPV4) ) {
-            if( ipAddress.startsWith("10.") || ipAddress.startsWith("192.168") || ipAddress.startsWith("169.254") ) {
-                return false;
-            }
-            else if( ipAddress.startsWith("172.") ) {
-                String[] parts = ipAddress.split("\\.");
+        CidrBlock b = getCidrBlock();
 
-                if( parts.length != 4 ) {
-                    return true;
-                }
-                int x = Integer.parseInt(parts[1]);
-
-                if( x >= 16 && x <= 31 ) {
-                    return false;
-                }
-            }
+        if( b != null ) {
+            return b.isPublic();
         }
-        else {
-            if( ipAddress.startsWith("fd") || ipAddress.startsWith("fc00:")) {
-                return false;
-            }
+        if( getVersion().equals(IPVersion.IPV4) ) {
+            return !(ipAddress.startsWith("10.") || ipAddress.startsWith("192.168") || ipAddress.startsWith("169.254"));
         }
-        return true;
+        return !(ipAddress.startsWith("fd") || ipAddress.startsWith("fc00:"));
     }
 
     @Override
@@ -54,6 +54,17 @@ public class RuleTarget {
         return d;
     }
 
+    /**
+     * @param cidr the CIDR for the sub-destination
+     * @return a rule sub-destination reflecting the IPs that match the specified CIDR
+     */
+    static public @Nonnull RuleTarget getCIDR(@Nonnull CidrBlock cidr) {
+        RuleTarget d = getCIDR(cidr.toString());
+
+        d.cidrBlock = cidr;
+        return d;
+    }
+
     /**
      * @param virtualMachineId a virtual machine behind this firewall
      * @return a sub-destination for just the specified virtual machine
@@ -81,6 +92,7 @@ public class RuleTarget {
 
     private RuleTargetType  ruleTargetType;
     private String          cidr;
+    private transient CidrBlock cidrBlock;
     private String          providerFirewallId;
     private String          providerVirtualMachineId;
     private String          providerVlanId;
@@ -102,6 +114,17 @@ public class RuleTarget {
         return cidr;
     }
 
+    /**
+     * @return the CIDR behind the firewall for this destination in binary form, or <code>null</code> if this is not a
+     * valid CIDR target
+     */
+    public @Nullable CidrBlock getCidrBlock() {
+        if( cidrBlock == null ) {
+            cidrBlock = CidrBlock.parse(cidr);
+        }
+        return cidrBlock;
+    }
+
     /**
      * @return the unique ID of the provider firewall associated with resources for this target
      */
@@ -51,6 +51,7 @@ public class Subnet implements Networkable, Taggable {
     private AllocationPool[]   allocationPools;
     private int                availableIpAddresses;
     private String             cidr;
+    private transient CidrBlock cidrBlock;
     private SubnetState        currentState;
     private String             description;
     private RawAddress         gateway;
@@ -125,6 +126,16 @@ public class Subnet implements Networkable, Taggable {
         return cidr;
     }
 
+    /**
+     * @return the CIDR block associated with this subnet in binary form, or <code>null</code> if the subnet has no valid CIDR
+     */
+    public @Nullable CidrBlock getCidrBlock() {
+        if( cidrBlock == null ) {
+            cidrBlock = CidrBlock.parse(cidr);
+        }
+        return cidrBlock;
+    }
+
     /**
      * @return the current state for the subnet
      */
@@ -282,6 +293,7 @@ public class Subnet implements Networkable, Taggable {
      */
     public void setCidr(@Nonnull String cidr) {
         this.cidr = cidr;
+        this.cidrBlock = null;
     }
 
     /**
@@ -0,0 +1,422 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Tracks which addresses in a subnet are in use so that static addresses can be handed out without listing the
+ * subnet's IP pools and network interfaces for every allocation. Each allocation pool is held as a bitmap with one
+ * bit per address. The allocator is seeded once from the cloud's listings with {@link #seed(NetworkServices)} and
+ * then kept current by the {@link #claim()} and {@link #release(RawAddress)} calls of its users.
+ * </p>
+ * <p>
+ * Claims and releases are lock-free: a claim finds a clear bit and sets it with a compare-and-set on the word
+ * holding it, retrying on contention, so concurrent callers never receive the same address. Each pool remembers the
+ * word of its last claim so that successive claims do not rescan the full pools at the front of the bitmap.
+ * </p>
+ * <p>
+ * The allocator knows only about the addresses it has been told about. Addresses taken outside of it after seeding
+ * should be recorded with {@link #claim(RawAddress)}.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class SubnetAddressAllocator {
+    /**
+     * The largest number of addresses tracked in a single pool (a /8 in IPv4 terms).
+     */
+    static public final int MAX_POOL_SIZE = 1 << 24;
+
+    /**
+     * Constructs an allocator over the specified pools.
+     * @param pools the ranges of addresses that may be allocated
+     * @return an allocator with every address free
+     * @throws InternalException a pool is not a valid IPv4 or IPv6 range or is larger than {@link #MAX_POOL_SIZE}
+     */
+    static public @Nonnull SubnetAddressAllocator getInstance(@Nonnull AllocationPool ... pools) throws InternalException {
+        List<Pool> list = new ArrayList<Pool>();
+
+        for( AllocationPool p : pools ) {
+            CidrBlock start = p.getIpStart().getCidrBlock();
+            CidrBlock end = p.getIpEnd().getCidrBlock();
+
+            if( start == null || end == null || !start.getVersion().equals(end.getVersion()) ) {
+                throw new InternalException("Invalid allocation pool: " + p);
+            }
+            list.add(new Pool(start, offset(start, end) + 1));
+        }
+        return new SubnetAddressAllocator(null, list);
+    }
+
+    /**
+     * Constructs an allocator for the specified subnet. The subnet's allocation pools are used if it has any.
+     * Otherwise the whole CIDR block is used, less the network and broadcast addresses of IPv4 blocks larger than
+     * a /31. The subnet's gateway, if known, is claimed up front.
+     * @param subnet the subnet whose addresses are being allocated
+     * @return an allocator with every address but the gateway free
+     * @throws InternalException the subnet has neither allocation pools nor a valid CIDR, or a pool is too large
+     */
+    static public @Nonnull SubnetAddressAllocator getInstance(@Nonnull Subnet subnet) throws InternalException {
+        SubnetAddressAllocator allocator;
+        AllocationPool[] pools = subnet.getAllocationPools();
+
+        if( pools.length > 0 ) {
+            allocator = getInstance(pools);
+        }
+        else {
+            CidrBlock cidr = subnet.getCidrBlock();
+
+            if( cidr == null ) {
+                throw new InternalException("Subnet " + subnet.getProviderSubnetId() + " has no valid CIDR: " + subnet.getCidr());
+            }
+            long count = cidr.getAddressCount();
+            long first = 0;
+
+            if( cidr.getVersion().equals(IPVersion.IPV4) && cidr.getPrefixLength() < 31 ) {
+                first = 1;
+                count -= 2;
+            }
+            if( count > MAX_POOL_SIZE ) {
+                throw new InternalException("Subnet " + subnet.getProviderSubnetId() + " is too large to track: " + cidr);
+            }
+            List<Pool> list = new ArrayList<Pool>();
+
+            list.add(new Pool(cidr.getAddress(first), count));
+            allocator = new SubnetAddressAllocator(subnet.getProviderSubnetId(), list);
+        }
+        RawAddress gateway = subnet.getGateway();
+
+        if( gateway != null ) {
+            allocator.claim(gateway);
+        }
+        return allocator;
+    }
+
+    /**
+     * Computes the distance from one address to another, or -1 if the second lies before the first or more than
+     * {@link #MAX_POOL_SIZE} addresses after it.
+     */
+    static private long offset(@Nonnull CidrBlock from, @Nonnull CidrBlock to) {
+        if( !from.getVersion().equals(to.getVersion()) ) {
+            return -1L;
+        }
+        long low = to.getLowBits() - from.getLowBits();
+        long borrow = (to.getLowBits() + Long.MIN_VALUE < from.getLowBits() + Long.MIN_VALUE ? 1L : 0L);
+
+        if( to.getHighBits() - from.getHighBits() - borrow != 0L || low < 0L || low >= MAX_POOL_SIZE ) {
+            return -1L;
+        }
+        return low;
+    }
+
+    /**
+     * One contiguous range of addresses and its bitmap.
+     */
+    static private class Pool {
+        public final AtomicInteger   free;
+        public final AtomicInteger   hint = new AtomicInteger(0);
+        public final int             size;
+        public final CidrBlock       start;
+        public final AtomicLongArray words;
+
+        public Pool(@Nonnull CidrBlock start, long size) throws InternalException {
+            if( size < 1 || size > MAX_POOL_SIZE ) {
+                throw new InternalException("Invalid allocation pool size starting at " + start.toAddressString() + ": " + size);
+            }
+            this.start = start;
+            this.size = (int)size;
+            this.free = new AtomicInteger(this.size);
+            this.words = new AtomicLongArray((this.size + 63) >>> 6);
+            // mark the bits past the end of the pool as taken so they are never handed out
+            if( (this.size & 63) != 0 ) {
+                words.set(words.length() - 1, -1L << (this.size & 63));
+            }
+        }
+
+        public int claim() {
+            int count = words.length();
+            int first = hint.get();
+
+            for( int n=0; n<count; n++ ) {
+                int w = (first + n) % count;
+                long current = words.get(w);
+
+                while( current != -1L ) {
+                    long bit = Long.lowestOneBit(~current);
+
+                    if( words.compareAndSet(w, current, current | bit) ) {
+                        hint.set(w);
+                        free.decrementAndGet();
+                        return (w << 6) + Long.numberOfTrailingZeros(bit);
+                    }
+                    current = words.get(w);
+                }
+            }
+            return -1;
+        }
+
+        public boolean claim(int index) {
+            long bit = 1L << (index & 63);
+            int w = index >>> 6;
+
+            while( true ) {
+                long current = words.get(w);
+
+                if( (current & bit) != 0 ) {
+                    return false;
+                }
+                if( words.compareAndSet(w, current, current | bit) ) {
+                    free.decrementAndGet();
+                    return true;
+                }
+            }
+        }
+
+        public @Nonnull CidrBlock getAddress(int index) {
+            if( start.getVersion().equals(IPVersion.IPV4) ) {
+                return CidrBlock.getInstance(start.getIPv4Address() + index, 32);
+            }
+            long low = start.getLowBits() + index;
+            long carry = (low + Long.MIN_VALUE < start.getLowBits() + Long.MIN_VALUE ? 1L : 0L);
+
+            return CidrBlock.getInstance(start.getHighBits() + carry, low, 128);
+        }
+
+        public int indexOf(@Nonnull CidrBlock address) {
+            long offset = offset(start, address);
+
+            return (offset < 0 || offset >= size ? -1 : (int)offset);
+        }
+
+        public boolean isClaimed(int index) {
+            return (words.get(index >>> 6) & (1L << (index & 63))) != 0;
+        }
+
+        public boolean release(int index) {
+            long bit = 1L << (index & 63);
+            int w = index >>> 6;
+
+            while( true ) {
+                long current = words.get(w);
+
+                if( (current & bit) == 0 ) {
+                    return false;
+                }
+                if( words.compareAndSet(w, current, current & ~bit) ) {
+                    free.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final Pool[] pools;
+    private final String subnetId;
+
+    private SubnetAddressAllocator(@Nullable String subnetId, @Nonnull List<Pool> pools) {
+        this.subnetId = subnetId;
+        this.pools = pools.toArray(new Pool[pools.size()]);
+    }
+
+    /**
+     * Claims any free address.
+     * @return the claimed address, or <code>null</code> if every address is in use
+     */
+    public @Nullable RawAddress claim() {
+        for( Pool pool : pools ) {
+            if( pool.free.get() > 0 ) {
+                int index = pool.claim();
+
+                if( index > -1 ) {
+                    CidrBlock address = pool.getAddress(index);
+
+                    return new RawAddress(address.toAddressString(), address.getVersion());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Claims a specific address, such as one assigned outside of this allocator.
+     * @param address the address to claim
+     * @return true if the address was free and is now claimed, false if it was already claimed or is not in any pool
+     */
+    public boolean claim(@Nonnull RawAddress address) {
+        CidrBlock block = address.getCidrBlock();
+
+        if( block != null ) {
+            for( Pool pool : pools ) {
+                int index = pool.indexOf(block);
+
+                if( index > -1 ) {
+                    return pool.claim(index);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of addresses currently free
+     */
+    public @Nonnegative int getAvailableCount() {
+        int count = 0;
+
+        for( Pool pool : pools ) {
+            count += pool.free.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the total number of addresses managed by this allocator
+     */
+    public @Nonnegative int getCapacity() {
+        int count = 0;
+
+        for( Pool pool : pools ) {
+            count += pool.size;
+        }
+        return count;
+    }
+
+    /**
+     * @return the subnet this allocator was built for, or <code>null</code> if it was built from bare pools
+     */
+    public @Nullable String getSubnetId() {
+        return subnetId;
+    }
+
+    /**
+     * @param address the address to check
+     * @return true if the address is in one of the pools and is claimed
+     */
+    public boolean isClaimed(@Nonnull RawAddress address) {
+        CidrBlock block = address.getCidrBlock();
+
+        if( block != null ) {
+            for( Pool pool : pools ) {
+                int index = pool.indexOf(block);
+
+                if( index > -1 ) {
+                    return pool.isClaimed(index);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an address to the free space.
+     * @param address the address to release
+     * @return true if the address was claimed and is now free, false if it was already free or is not in any pool
+     */
+    public boolean release(@Nonnull RawAddress address) {
+        CidrBlock block = address.getCidrBlock();
+
+        if( block != null ) {
+            for( Pool pool : pools ) {
+                int index = pool.indexOf(block);
+
+                if( index > -1 ) {
+                    return pool.release(index);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Claims each of the specified addresses that falls within this allocator's pools.
+     * @param addresses the addresses known to be in use
+     * @return the number of addresses newly claimed
+     */
+    public int seed(@Nonnull Iterable<RawAddress> addresses) {
+        int count = 0;
+
+        for( RawAddress address : addresses ) {
+            if( claim(address) ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Claims every address the cloud reports as in use within this allocator's pools. Addresses come from the IP pools
+     * of each supported IP version, the deprecated private IP pool, and, for allocators built from a subnet, the
+     * network interfaces in that subnet. Listings the cloud does not support are skipped.
+     * @param network the network services of the cloud holding the subnet
+     * @return the number of addresses newly claimed
+     * @throws CloudException an error occurred with the cloud provider listing the addresses in use
+     * @throws InternalException an error occurred within Dasein Cloud listing the addresses in use
+     */
+    @SuppressWarnings("deprecation")
+    public int seed(@Nonnull NetworkServices network) throws CloudException, InternalException {
+        List<RawAddress> used = new ArrayList<RawAddress>();
+        IpAddressSupport ipSupport = network.getIpAddressSupport();
+
+        if( ipSupport != null ) {
+            for( IPVersion version : ipSupport.listSupportedIPVersions() ) {
+                addAll(used, ipSupport.listIpPool(version, false));
+            }
+            try {
+                addAll(used, ipSupport.listPrivateIpPool(false));
+            }
+            catch( OperationNotSupportedException ignore ) {
+                // no private pool in this cloud
+            }
+        }
+        VLANSupport vlanSupport = network.getVlanSupport();
+
+        if( vlanSupport != null && subnetId != null ) {
+            try {
+                for( NetworkInterface nic : vlanSupport.listNetworkInterfacesInSubnet(subnetId) ) {
+                    for( RawAddress address : nic.getIpAddresses() ) {
+                        used.add(address);
+                    }
+                }
+            }
+            catch( OperationNotSupportedException ignore ) {
+                // no network interfaces in this cloud
+            }
+        }
+        return seed(used);
+    }
+
+    private void addAll(@Nonnull Collection<RawAddress> used, @Nonnull Iterable<IpAddress> addresses) {
+        for( IpAddress address : addresses ) {
+            used.add(address.getRawAddress());
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.ComputeServices;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VirtualMachineSupport;
+import org.dasein.cloud.util.StreamingException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves the resources belonging to one or more VLANs as a single resource graph query. The firewall, IP pool and
+ * virtual machine listings are fetched once no matter how many VLANs are being resolved, and they are fetched
+ * concurrently with the per-VLAN subnet and routing table listings, at most {@link #PARALLELISM} at a time. Each
+ * VLAN's resources are streamed to the caller as the listings find them. Virtual machines are joined to their VLANs
+ * through a hash of subnet ID to VLAN ID while the virtual machine listing is still being paged in, so the join
+ * costs one pass over the virtual machines rather than one pass per subnet.
+ * <p>
+ * As in earlier releases, a virtual machine belongs to a VLAN when its VLAN ID names one of the VLAN's subnets. In
+ * addition, a virtual machine belongs to a VLAN when its subnet ID names one of the VLAN's subnets or when its VLAN
+ * ID names the VLAN itself, so that drivers reporting either field as the cloud defines it are matched as well.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+final class VLANResourceQuery {
+    /**
+     * The maximum number of listings fetched from the cloud at once for a single query.
+     */
+    static final int PARALLELISM = 8;
+
+    static private final ExecutorService fetcher = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r);
+
+            t.setName("VLAN Resource Fetch " + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * The resources found for one VLAN. Iteration returns resources as they are found, blocking until the next one
+     * arrives or the query ends, and may be repeated. A failed listing is raised from {@link Iterator#hasNext()} as
+     * a {@link StreamingException} once the resources found before the failure have been returned.
+     */
+    static private class ResourceStream implements Iterable<Networkable> {
+        private boolean                 ended     = false;
+        private Throwable               failure   = null;
+        private final List<Networkable> resources = new ArrayList<Networkable>();
+
+        synchronized void add(@Nonnull Networkable resource) {
+            resources.add(resource);
+            notifyAll();
+        }
+
+        synchronized void end(@Nullable Throwable failure) {
+            if( !ended ) {
+                this.failure = failure;
+                ended = true;
+                notifyAll();
+            }
+        }
+
+        private synchronized @Nullable Networkable get(int index) {
+            while( index >= resources.size() && !ended ) {
+                try {
+                    wait();
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new StreamingException(e);
+                }
+            }
+            if( index < resources.size() ) {
+                return resources.get(index);
+            }
+            if( failure instanceof RuntimeException ) {
+                throw (RuntimeException)failure;
+            }
+            if( failure != null ) {
+                throw new StreamingException(failure);
+            }
+            return null;
+        }
+
+        @Override
+        public @Nonnull Iterator<Networkable> iterator() {
+            return new Iterator<Networkable>() {
+                private int         index = 0;
+                private Networkable next  = null;
+
+                @Override
+                public boolean hasNext() {
+                    if( next == null ) {
+                        next = get(index);
+                    }
+                    return (next != null);
+                }
+
+                @Override
+                public @Nonnull Networkable next() {
+                    if( !hasNext() ) {
+                        throw new NoSuchElementException();
+                    }
+                    Networkable resource = next;
+
+                    next = null;
+                    index++;
+                    return resource;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("VLAN resource listings are read-only");
+                }
+            };
+        }
+    }
+
+    private final ConcurrentLinkedQueue<FutureTask<?>> pending   = new ConcurrentLinkedQueue<FutureTask<?>>();
+    private final CloudProvider                        provider;
+    private final AtomicInteger                        remaining = new AtomicInteger(0);
+    private final Map<String,ResourceStream>           streams   = new LinkedHashMap<String, ResourceStream>();
+    private final List<FutureTask<?>>                  tasks     = new ArrayList<FutureTask<?>>();
+    private final Set<String>                          vlanIds;
+    private final VLANSupport                          vlanSupport;
+
+    VLANResourceQuery(@Nonnull CloudProvider provider, @Nonnull VLANSupport vlanSupport, @Nonnull Collection<String> vlanIds) {
+        this.provider = provider;
+        this.vlanSupport = vlanSupport;
+        this.vlanIds = Collections.unmodifiableSet(new LinkedHashSet<String>(vlanIds));
+        for( String vlanId : this.vlanIds ) {
+            streams.put(vlanId, new ResourceStream());
+        }
+    }
+
+    /**
+     * Starts the query in the background.
+     * @return the streaming resources of each VLAN, in the order the VLAN IDs were given
+     * @throws CloudException an error occurred in the cloud determining which listings to fetch
+     * @throws InternalException a local error occurred determining which listings to fetch
+     */
+    @Nonnull Map<String,Iterable<Networkable>> start() throws CloudException, InternalException {
+        Map<String,Iterable<Networkable>> results = new LinkedHashMap<String, Iterable<Networkable>>();
+
+        results.putAll(streams);
+        NetworkServices network = provider.getNetworkServices();
+
+        if( network == null || vlanIds.isEmpty() ) {
+            end(null);
+            return results;
+        }
+        ComputeServices compute = provider.getComputeServices();
+        final VirtualMachineSupport vmSupport = (compute == null ? null : compute.getVirtualMachineSupport());
+        final FirewallSupport fwSupport = network.getFirewallSupport();
+        final IpAddressSupport ipSupport = network.getIpAddressSupport();
+        final Map<String,FutureTask<List<Subnet>>> subnets = new LinkedHashMap<String, FutureTask<List<Subnet>>>();
+
+        // the VM listing is usually the slowest, so it goes first
+        if( vmSupport != null ) {
+            submit(new Callable<Void>() {
+                public Void call() throws CloudException, InternalException {
+                    join(vmSupport, subnets);
+                    return null;
+                }
+            });
+        }
+        if( fwSupport != null ) {
+            submit(new Callable<Void>() {
+                public Void call() throws CloudException, InternalException {
+                    for( Firewall fw : fwSupport.list() ) {
+                        found(fw.getProviderVlanId(), fw);
+                    }
+                    return null;
+                }
+            });
+        }
+        if( ipSupport != null ) {
+            for( final IPVersion version : ipSupport.listSupportedIPVersions() ) {
+                submit(new Callable<Void>() {
+                    public Void call() throws CloudException, InternalException {
+                        for( IpAddress addr : ipSupport.listIpPool(version, false) ) {
+                            found(addr.getProviderVlanId(), addr);
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+        for( final String vlanId : vlanIds ) {
+            subnets.put(vlanId, submit(new Callable<List<Subnet>>() {
+                public List<Subnet> call() throws CloudException, InternalException {
+                    ArrayList<Subnet> list = new ArrayList<Subnet>();
+
+                    for( Subnet subnet : vlanSupport.listSubnets(vlanId) ) {
+                        list.add(subnet);
+                        found(vlanId, subnet);
+                    }
+                    return list;
+                }
+            }));
+            submit(new Callable<Void>() {
+                public Void call() throws CloudException, InternalException {
+                    for( RoutingTable table : vlanSupport.listRoutingTables(vlanId) ) {
+                        found(vlanId, table);
+                    }
+                    return null;
+                }
+            });
+        }
+        remaining.set(tasks.size());
+        for( int i=Math.min(PARALLELISM, tasks.size()); i>0; i-- ) {
+            fetcher.submit(new Runnable() {
+                public void run() {
+                    FutureTask<?> task;
+
+                    while( (task = pending.poll()) != null ) {
+                        task.run();
+                    }
+                }
+            });
+        }
+        return results;
+    }
+
+    private void end(@Nullable Throwable failure) {
+        for( ResourceStream stream : streams.values() ) {
+            stream.end(failure);
+        }
+    }
+
+    private void finished(@Nonnull FutureTask<?> task) {
+        Throwable failure = null;
+
+        try {
+            task.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        }
+        catch( ExecutionException e ) {
+            failure = e.getCause();
+        }
+        catch( RuntimeException ignore ) {
+            // cancelled because the query has already failed
+            return;
+        }
+        if( failure != null ) {
+            end(failure);
+            pending.clear();
+            for( FutureTask<?> t : tasks ) {
+                t.cancel(true);
+            }
+        }
+        else if( remaining.decrementAndGet() == 0 ) {
+            end(null);
+        }
+    }
+
+    private void found(@Nullable String vlanId, @Nonnull Networkable resource) {
+        ResourceStream stream = (vlanId == null ? null : streams.get(vlanId));
+
+        if( stream != null ) {
+            stream.add(resource);
+        }
+    }
+
+    private <T> T get(@Nonnull FutureTask<T> task) throws CloudException, InternalException {
+        try {
+            return task.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            if( cause instanceof RuntimeException ) {
+                throw (RuntimeException)cause;
+            }
+            throw new InternalException(cause);
+        }
+    }
+
+    private void join(@Nonnull VirtualMachineSupport vmSupport, @Nonnull Map<String,FutureTask<List<Subnet>>> subnets) throws CloudException, InternalException {
+        try {
+            Iterator<VirtualMachine> vms = vmSupport.listVirtualMachines().iterator();
+            // fetching the first page of VMs overlaps with the subnet listings the join waits on
+            boolean more = vms.hasNext();
+            // build side of the join: subnet ID -> VLAN ID
+            Map<String,String> subnetVlans = new HashMap<String, String>();
+
+            for( Map.Entry<String,FutureTask<List<Subnet>>> entry : subnets.entrySet() ) {
+                FutureTask<List<Subnet>> task = entry.getValue();
+
+                // run the listing here if no worker has picked it up yet; this does nothing otherwise
+                task.run();
+                for( Subnet subnet : get(task) ) {
+                    subnetVlans.put(subnet.getProviderSubnetId(), entry.getKey());
+                }
+            }
+            // probe side: one pass over the VMs
+            while( more ) {
+                VirtualMachine vm = vms.next();
+                String direct = vm.getProviderVlanId();
+                String bySubnet = lookup(subnetVlans, direct);
+
+                if( bySubnet == null ) {
+                    bySubnet = lookup(subnetVlans, vm.getProviderSubnetId());
+                }
+                found(bySubnet, vm);
+                if( direct != null && !direct.equals(bySubnet) ) {
+                    found(direct, vm);
+                }
+                more = vms.hasNext();
+            }
+        }
+        catch( StreamingException e ) {
+            throw e.rethrowCause();
+        }
+    }
+
+    private @Nullable String lookup(@Nonnull Map<String,String> subnetVlans, @Nullable String subnetId) {
+        return (subnetId == null ? null : subnetVlans.get(subnetId));
+    }
+
+    private @Nonnull <T> FutureTask<T> submit(@Nonnull Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<T>(callable) {
+            @Override
+            protected void done() {
+                finished(this);
+            }
+        };
+
+        tasks.add(task);
+        pending.add(task);
+        return task;
+    }
+}
@@ -19,17 +19,28 @@
 package org.dasein.cloud.storage;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 import org.apache.commons.codec.binary.Base64;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
 import org.dasein.util.Retry;
 import org.dasein.util.uom.storage.*;
 
@@ -37,6 +48,16 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 public abstract class AbstractBlobStoreSupport implements BlobStoreSupport {
+    /**
+     * The metadata key marking the compression applied to an object's content.
+     */
+    static public final String META_CONTENT_ENCODING  = "dasein-content-encoding";
+
+    /**
+     * The metadata key marking an object as a reference to the content-addressed object holding its content.
+     */
+    static public final String META_CONTENT_REFERENCE = "dasein-content-reference";
+
     private byte[] computeMD5Hash(InputStream is) throws NoSuchAlgorithmException, IOException {
         BufferedInputStream bis = new BufferedInputStream(is);
         
@@ -104,6 +125,8 @@ public abstract class AbstractBlobStoreSupport implements BlobStoreSupport {
     }
     
     protected void copy(@Nonnull InputStream input, @Nonnull OutputStream output, @Nullable FileTransfer xfer) throws IOException {
+        TransferGovernor governor = TransferGovernor.getInstance();
+
         try {
             byte[] bytes = new byte[10240];
             long total = 0L;
@@ -114,6 +137,13 @@ public abstract class AbstractBlobStoreSupport implements BlobStoreSupport {
             }
             while( (count = input.read(bytes, 0, 10240)) != -1 ) {
                 if( count > 0 ) {
+                    try {
+                        governor.acquire(xfer, count);
+                    }
+                    catch( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for transfer bandwidth");
+                    }
                     output.write(bytes, 0, count);
                     total = total + count;
                     if( xfer != null ) {
@@ -151,19 +181,47 @@ public abstract class AbstractBlobStoreSupport implements BlobStoreSupport {
         }
     }
     
+    private void drain(@Nonnull InputStream input, @Nonnull OutputStream output) throws IOException {
+        try {
+            byte[] bytes = new byte[10240];
+            int count;
+
+            while( (count = input.read(bytes, 0, 10240)) != -1 ) {
+                output.write(bytes, 0, count);
+            }
+            output.flush();
+        }
+        finally {
+            input.close();
+            output.close();
+        }
+    }
+
     @Override
     public FileTransfer download(final @Nullable String bucketName, final @Nonnull String objectName, final @Nonnull File diskFile) throws CloudException, InternalException {
         final FileTransfer transfer = new FileTransfer();
+        Map<String,String> metadata = getMetadata(bucketName, objectName);
+        String reference = metadata.get(META_CONTENT_REFERENCE);
+        final String sourceObject;
 
-        Storage<org.dasein.util.uom.storage.Byte> bytes = getObjectSize(bucketName, objectName);
+        if( reference != null ) {
+            sourceObject = reference;
+            metadata = getMetadata(bucketName, sourceObject);
+        }
+        else {
+            sourceObject = objectName;
+        }
+        final BlobCompression compression = BlobCompression.fromContentEncoding(metadata.get(META_CONTENT_ENCODING));
+        Storage<org.dasein.util.uom.storage.Byte> bytes = getObjectSize(bucketName, sourceObject);
 
         if( bytes == null ) {
             throw new CloudException("File does not exist");
         }
-        transfer.setBytesToTransfer(bytes.getQuantity().intValue());
+        transfer.setBytesToTransfer(bytes.getQuantity().longValue());
         if( transfer.getBytesToTransfer() == -1L ) {
             throw new CloudException("No such file: " + ((bucketName == null ? "/" : "/" + bucketName) + "/" + objectName));
         }
+        TransferGovernor.getInstance().register(transfer);
         Thread t = new Thread() {
             public void run() {
                 Callable<Object> operation = new Callable<Object>() {
@@ -171,7 +229,12 @@ public abstract class AbstractBlobStoreSupport implements BlobStoreSupport {
                         boolean success = false;
                         
                         try {
-                            get(bucketName, objectName, diskFile, transfer);
+                            if( compression.equals(BlobCompression.NONE) ) {
+                                get(bucketName, sourceObject, diskFile, transfer);
+                            }
+                            else {
+                                getDecompressed(bucketName, sourceObject, compression, diskFile, transfer);
+                            }
                             success = true;
                             return null;
                         }
@@ -199,6 +262,9 @@ public abstract class AbstractBlobStoreSupport implements BlobStoreSupport {
                     t.printStackTrace();
                     transfer.complete(t);
                 }
+                finally {
+                    TransferGovernor.getInstance().unregister(transfer);
+                }
             }
         };
         
@@ -207,20 +273,295 @@ public abstract class AbstractBlobStoreSupport implements BlobStoreSupport {
         return transfer;
     }
 
+    /**
+     * Wraps a stream so that every read is charged against the bandwidth limits of the specified transfer and of the
+     * {@link TransferGovernor} and reported as progress on the transfer. Implementations that move content to or from
+     * the provider without going through {@link #copy(InputStream, OutputStream, FileTransfer)} should read through
+     * this stream so that their transfers are governed.
+     * @param input the stream of content being transferred
+     * @param transfer the transfer moving the content, if it is being tracked
+     * @return a stream that reads the content under the bandwidth limits
+     */
+    protected @Nonnull InputStream govern(@Nonnull InputStream input, @Nullable FileTransfer transfer) {
+        return new GovernedInputStream(input, transfer);
+    }
+
     protected abstract void get(@Nullable String bucket, @Nonnull String object, @Nonnull File toFile, @Nullable FileTransfer transfer) throws InternalException, CloudException;
-        
-        
+
+    private void getDecompressed(@Nullable String bucket, @Nonnull String object, @Nonnull BlobCompression compression, @Nonnull File toFile, @Nullable FileTransfer transfer) throws InternalException, CloudException {
+        InputStream input;
+
+        try {
+            input = govern(getStream(bucket, object), transfer);
+        }
+        catch( OperationNotSupportedException e ) {
+            throw new OperationNotSupportedException("Downloading " + compression + " compressed objects requires streaming downloads, which are not supported by " + getClass().getName());
+        }
+        try {
+            // the compressed bytes were charged as they arrived, so the decompressed bytes are not charged again
+            drain(compression.decompress(input), new FileOutputStream(toFile));
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
     protected @Nonnull String getChecksum(@Nonnull InputStream input) throws NoSuchAlgorithmException, IOException {
         return toBase64(computeMD5Hash(input));
     }
-    
+
+    /**
+     * Provides the metadata stored with the specified object. Implementations that can store metadata with objects
+     * should override this method so that compressed and content-addressed objects are downloaded transparently.
+     * @param bucket the bucket containing the object
+     * @param object the name of the object
+     * @return the metadata for the object, empty if the object has none or the provider does not support metadata
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws CloudException an error occurred with the cloud provider
+     */
+    protected @Nonnull Map<String,String> getMetadata(@Nullable String bucket, @Nonnull String object) throws InternalException, CloudException {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Opens a stream onto the raw content of the specified object. Implementations that support streaming uploads
+     * should override this method as well so that compressed objects can be downloaded.
+     * @param bucket the bucket containing the object
+     * @param object the name of the object
+     * @return a stream of the object content
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws OperationNotSupportedException this implementation does not support streaming downloads
+     */
+    protected @Nonnull InputStream getStream(@Nullable String bucket, @Nonnull String object) throws InternalException, CloudException {
+        throw new OperationNotSupportedException("Streaming downloads are not supported by " + getClass().getName());
+    }
+
     protected abstract void put(@Nullable String bucket, @Nonnull String objectName, @Nonnull File file) throws InternalException, CloudException;
         
     protected abstract void put(@Nullable String bucketName, @Nonnull String objectName, @Nonnull String content) throws InternalException, CloudException;
 
+    /**
+     * Uploads a file as part of the specified transfer. The default implementation streams the file through
+     * {@link #put(String, String, InputStream, Map, FileTransfer)}, which charges the content against the bandwidth
+     * limits as it moves. Implementations without streaming uploads fall back to {@link #put(String, String, File)},
+     * which is not governed; they should override this method to move the content through
+     * {@link #copy(InputStream, OutputStream, FileTransfer)} or read it through
+     * {@link #govern(InputStream, FileTransfer)}.
+     * @param bucket the bucket into which the object is placed
+     * @param objectName the name of the object
+     * @param file the file to upload
+     * @param transfer the transfer tracking the upload, if it is being tracked
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws CloudException an error occurred with the cloud provider
+     */
+    protected void put(@Nullable String bucket, @Nonnull String objectName, @Nonnull File file, @Nullable FileTransfer transfer) throws InternalException, CloudException {
+        try {
+            put(bucket, objectName, new FileInputStream(file), new HashMap<String, String>(), transfer);
+        }
+        catch( FileNotFoundException e ) {
+            throw new InternalException(e);
+        }
+        catch( OperationNotSupportedException e ) {
+            // no streaming support, so the upload cannot be shaped
+            put(bucket, objectName, file);
+            if( transfer != null ) {
+                transfer.setBytesTransferred(file.length());
+            }
+        }
+    }
+
+    /**
+     * Streams the specified content into an object along with the specified metadata. Implementations supporting
+     * streaming uploads with metadata should override this method to enable compressed and content-addressed uploads.
+     * The content should be charged against the bandwidth limits of the transfer as it streams, either by moving it
+     * through {@link #copy(InputStream, OutputStream, FileTransfer)} or by reading it through
+     * {@link #govern(InputStream, FileTransfer)}.
+     * @param bucket the bucket into which the object is placed
+     * @param objectName the name of the object
+     * @param content the content of the object, which the implementation must close
+     * @param metadata the metadata to store with the object
+     * @param transfer the transfer tracking the upload, if it is being tracked
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws OperationNotSupportedException this implementation does not support streaming uploads
+     */
+    protected void put(@Nullable String bucket, @Nonnull String objectName, @Nonnull InputStream content, @Nonnull Map<String,String> metadata, @Nullable FileTransfer transfer) throws InternalException, CloudException {
+        try {
+            content.close();
+        }
+        catch( IOException ignore ) {
+            // ignore
+        }
+        throw new OperationNotSupportedException("Streaming uploads are not supported by " + getClass().getName());
+    }
+
+    private @Nonnull String sha256(@Nonnull File file) throws InternalException {
+        try {
+            InputStream input = new FileInputStream(file);
+
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                byte[] buffer = new byte[16384];
+                StringBuilder str = new StringBuilder();
+                int count;
+
+                while( (count = input.read(buffer, 0, buffer.length)) != -1 ) {
+                    digest.update(buffer, 0, count);
+                }
+                for( byte b : digest.digest() ) {
+                    str.append(Character.forDigit((b >> 4) & 0xf, 16));
+                    str.append(Character.forDigit(b & 0xf, 16));
+                }
+                return str.toString();
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new InternalException(e);
+        }
+    }
+
     private @Nonnull String toBase64(@Nonnull byte[] data) {
         byte[] b64 = Base64.encodeBase64(data);
         
         return new String(b64);
     }
+
+    /**
+     * Uploads a file according to the specified options, optionally compressing the content as it streams to the
+     * provider and/or storing it under a name derived from its hash. Compressed objects are marked with the
+     * {@link #META_CONTENT_ENCODING} metadata value and content-addressed objects are referenced from the requested
+     * object name through the {@link #META_CONTENT_REFERENCE} metadata value so that {@link #download(String, String, File)}
+     * handles both transparently. Neither mode writes temporary files, so downloading compressed objects requires an
+     * implementation of {@link #getStream(String, String)}. This method is not part of {@link BlobStoreSupport} so
+     * that existing implementations of that interface are not broken; callers reach it through this class.
+     * @param sourceFile the file to upload
+     * @param bucket the bucket into which the file is uploaded
+     * @param objectName the name under which the content should be found
+     * @param options the options governing the upload
+     * @return the object actually holding the content, which is the content-addressed object if content addressing is enabled
+     * @throws CloudException an error occurred with the cloud provider
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws OperationNotSupportedException the options require streaming uploads and this implementation does not support them
+     */
+    public @Nonnull Blob upload(@Nonnull File sourceFile, @Nullable String bucket, @Nonnull String objectName, @Nonnull BlobUploadOptions options) throws CloudException, InternalException {
+        TransferGovernor governor = TransferGovernor.getInstance();
+        BlobCompression compression = options.getCompression();
+        FileTransfer transfer = new FileTransfer();
+        String target = objectName;
+
+        if( options.isContentAddressed() ) {
+            String encoding = compression.getContentEncoding();
+
+            target = options.getContentPrefix() + sha256(sourceFile) + (encoding == null ? "" : "." + encoding);
+        }
+        if( compression.equals(BlobCompression.NONE) ) {
+            transfer.setBytesToTransfer(sourceFile.length());
+        }
+        governor.register(transfer);
+        try {
+            if( !options.isContentAddressed() || getObjectSize(bucket, target) == null ) {
+                if( compression.equals(BlobCompression.NONE) ) {
+                    put(bucket, target, sourceFile, transfer);
+                }
+                else {
+                    Map<String,String> metadata = new HashMap<String, String>();
+
+                    metadata.put(META_CONTENT_ENCODING, compression.getContentEncoding());
+                    try {
+                        put(bucket, target, compression.compress(new FileInputStream(sourceFile)), metadata, transfer);
+                    }
+                    catch( FileNotFoundException e ) {
+                        throw new InternalException(e);
+                    }
+                }
+            }
+            if( !target.equals(objectName) ) {
+                Map<String,String> metadata = new HashMap<String, String>();
+
+                metadata.put(META_CONTENT_REFERENCE, target);
+                try {
+                    put(bucket, objectName, new ByteArrayInputStream(target.getBytes("utf-8")), metadata, null);
+                }
+                catch( UnsupportedEncodingException e ) {
+                    throw new InternalException(e);
+                }
+            }
+            Blob blob = getObject(bucket, target);
+
+            if( blob == null ) {
+                throw new CloudException("Upload of " + objectName + " did not result in an object");
+            }
+            transfer.completeWithResult(blob);
+            return blob;
+        }
+        catch( CloudException e ) {
+            transfer.complete(e);
+            throw e;
+        }
+        catch( InternalException e ) {
+            transfer.complete(e);
+            throw e;
+        }
+        catch( RuntimeException e ) {
+            transfer.complete(e);
+            throw e;
+        }
+        finally {
+            governor.unregister(transfer);
+        }
+    }
+
+    static private class GovernedInputStream extends FilterInputStream {
+        private long               total = 0L;
+        private final FileTransfer transfer;
+
+        public GovernedInputStream(@Nonnull InputStream input, @Nullable FileTransfer transfer) {
+            super(input);
+            this.transfer = transfer;
+            if( transfer != null ) {
+                transfer.setBytesTransferred(0L);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if( b > -1 ) {
+                progress(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+
+            if( count > 0 ) {
+                progress(count);
+            }
+            return count;
+        }
+
+        private void progress(int count) throws IOException {
+            try {
+                TransferGovernor.getInstance().acquire(transfer, count);
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for transfer bandwidth");
+            }
+            total += count;
+            if( transfer != null ) {
+                transfer.setBytesTransferred(total);
+            }
+        }
+    }
 }
@@ -55,8 +55,27 @@ public class Blob implements Comparable<Blob> {
         return blob;
     }
 
+    /**
+     * Constructs an object reference that carries the checksum of its content as reported by the cloud provider.
+     * @param providerRegionId the region in which the object is stored
+     * @param location the URL or other location at which the object may be found
+     * @param bucketName the bucket containing the object, if any
+     * @param objectName the name of the object
+     * @param creationTimestamp the time at which the object was created or last written
+     * @param size the size of the object
+     * @param checksum the base64-encoded MD5 hash of the object content, if known
+     * @return an object reference
+     */
+    static public @Nonnull Blob getInstance(@Nonnull String providerRegionId, @Nonnull String location, @Nullable String bucketName, @Nonnull String objectName, @Nonnegative long creationTimestamp, @Nonnull Storage<?> size, @Nullable String checksum) {
+        Blob blob = getInstance(providerRegionId, location, bucketName, objectName, creationTimestamp, size);
+
+        blob.checksum = checksum;
+        return blob;
+    }
+
     private long                                      creationTimestamp;
     private String                                    bucketName;
+    private String                                    checksum;
     private String                                    location;
     private String                                    objectName;
     private String                                    providerRegionId;
@@ -111,6 +130,13 @@ public class Blob implements Comparable<Blob> {
         return bucketName;
     }
 
+    /**
+     * @return the base64-encoded MD5 hash of the object content, or <code>null</code> if the provider did not report one
+     */
+    public @Nullable String getChecksum() {
+        return checksum;
+    }
+
     public boolean isContainer() {
         return (objectName == null);
     }
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression schemes that may be applied to objects as they are streamed into a blob store. The scheme used for
+ * an object is recorded in its metadata so that downloads transparently decompress the content.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public enum BlobCompression {
+    /**
+     * The content is stored exactly as provided.
+     */
+    NONE(null),
+    /**
+     * The content is stored in the gzip format (RFC 1952).
+     */
+    GZIP("gzip"),
+    /**
+     * The content is stored in the zlib deflate format (RFC 1950).
+     */
+    DEFLATE("deflate");
+
+    /**
+     * Maps a content encoding recorded in object metadata back to its compression scheme.
+     * @param encoding the content encoding
+     * @return the matching compression scheme, {@link #NONE} if the encoding is <code>null</code> or unknown
+     */
+    static public @Nonnull BlobCompression fromContentEncoding(@Nullable String encoding) {
+        if( encoding != null ) {
+            for( BlobCompression c : values() ) {
+                if( encoding.equalsIgnoreCase(c.contentEncoding) ) {
+                    return c;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    private final String contentEncoding;
+
+    private BlobCompression(@Nullable String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Wraps an uncompressed stream so that reading from the result yields the content compressed with this scheme.
+     * @param source the uncompressed content
+     * @return a stream of the compressed content
+     */
+    public @Nonnull InputStream compress(@Nonnull InputStream source) {
+        switch( this ) {
+            case GZIP: return new GzipCompressingInputStream(source);
+            case DEFLATE: return new DeflaterInputStream(source);
+            default: return source;
+        }
+    }
+
+    /**
+     * Wraps a stream compressed with this scheme so that reading from the result yields the uncompressed content.
+     * @param source the compressed content
+     * @return a stream of the uncompressed content
+     * @throws IOException the compressed content could not be read
+     */
+    public @Nonnull InputStream decompress(@Nonnull InputStream source) throws IOException {
+        switch( this ) {
+            case GZIP: return new GZIPInputStream(source);
+            case DEFLATE: return new InflaterInputStream(source);
+            default: return source;
+        }
+    }
+
+    /**
+     * @return the HTTP-style content encoding for this scheme, <code>null</code> for {@link #NONE}
+     */
+    public @Nullable String getContentEncoding() {
+        return contentEncoding;
+    }
+}
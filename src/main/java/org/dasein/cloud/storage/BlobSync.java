@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.util.uom.storage.Storage;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mirrors a local directory tree into a bucket, transferring only the differences. Local files are compared to the
+ * bucket listing by size and checksum. Checksums of local files are cached in an optional manifest file so that files
+ * whose size and modification time have not changed since the last run are not rehashed. For providers that do not
+ * report checksums in their listings, the manifest also remembers what was last uploaded for each file. Uploads and
+ * deletes are performed in parallel.
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ *     SyncResult result = BlobSync.getInstance(blobStore).withManifest(new File(dir, ".dasein-sync")).withParallelism(16).sync(dir, "artifacts");
+ * </pre>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class BlobSync {
+    /**
+     * Constructs a sync engine that operates against the specified blob store.
+     * @param support the blob store into which directories will be synchronized
+     * @return a sync engine with default settings
+     */
+    static public @Nonnull BlobSync getInstance(@Nonnull BlobStoreSupport support) {
+        return new BlobSync(support);
+    }
+
+    private boolean          deleteExtraneous = true;
+    private File             manifestFile;
+    private int              parallelism = 8;
+    private BlobStoreSupport support;
+
+    private BlobSync(@Nonnull BlobStoreSupport support) {
+        this.support = support;
+    }
+
+    /**
+     * @return the number of uploads and deletes that may run concurrently
+     */
+    public @Nonnegative int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return true if objects in the bucket with no local counterpart are removed
+     */
+    public boolean isDeleteExtraneous() {
+        return deleteExtraneous;
+    }
+
+    /**
+     * Indicates whether objects in the bucket that have no local counterpart should be removed.
+     * @param deleteExtraneous true to remove remote objects no longer present locally
+     * @return this
+     */
+    public @Nonnull BlobSync deletingExtraneous(boolean deleteExtraneous) {
+        this.deleteExtraneous = deleteExtraneous;
+        return this;
+    }
+
+    /**
+     * Specifies the file in which local checksums are cached between runs. The manifest is not itself synchronized if
+     * it lives in the directory being synchronized.
+     * @param manifestFile the manifest file
+     * @return this
+     */
+    public @Nonnull BlobSync withManifest(@Nullable File manifestFile) {
+        this.manifestFile = manifestFile;
+        return this;
+    }
+
+    /**
+     * Specifies the number of uploads and deletes that may run concurrently.
+     * @param parallelism the maximum number of concurrent operations
+     * @return this
+     */
+    public @Nonnull BlobSync withParallelism(@Nonnegative int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Synchronizes the contents of the specified directory into the specified bucket, creating the bucket if needed.
+     * @param directory the local directory to mirror
+     * @param bucket the target bucket, or <code>null</code> to sync into the root if the provider allows root objects;
+     * a root sync compares against root-level objects only and leaves every bucket alone
+     * @return the result of the sync, including any per-file failures
+     * @throws CloudException an error occurred with the cloud provider listing or creating the bucket
+     * @throws InternalException an error occurred within Dasein Cloud while preparing the sync
+     */
+    public @Nonnull SyncResult sync(@Nonnull File directory, @Nullable String bucket) throws CloudException, InternalException {
+        if( !directory.isDirectory() ) {
+            throw new InternalException("Not a directory: " + directory);
+        }
+        if( bucket == null ) {
+            if( !support.allowsRootObjects() ) {
+                throw new CloudException("Cannot place objects in the root");
+            }
+        }
+        else if( !support.exists(bucket) ) {
+            support.createBucket(bucket, false);
+        }
+        SyncResult result = new SyncResult();
+        SyncManifest manifest = new SyncManifest(manifestFile);
+        TreeMap<String,File> local = new TreeMap<String, File>();
+        Map<String,Blob> remote = new HashMap<String, Blob>();
+
+        manifest.load();
+        scan(directory, "", local);
+        list(bucket, bucket, remote);
+
+        ExecutorService service = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("Blob Sync " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        boolean success = false;
+
+        try {
+            for( Map.Entry<String,File> entry : local.entrySet() ) {
+                service.execute(new Upload(entry.getKey(), entry.getValue(), bucket, remote.remove(entry.getKey()), manifest, result));
+            }
+            if( deleteExtraneous ) {
+                for( Map.Entry<String,Blob> entry : remote.entrySet() ) {
+                    service.execute(new Delete(entry.getKey(), entry.getValue(), manifest, result));
+                }
+            }
+            // every task records its own failure in the result, so all that is left is to wait for them
+            service.shutdown();
+            try {
+                while( !service.awaitTermination(1L, TimeUnit.MINUTES) ) {
+                    // keep waiting
+                }
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+            manifest.save();
+            success = true;
+        }
+        finally {
+            service.shutdownNow();
+            if( !success ) {
+                try {
+                    manifest.save();
+                }
+                catch( Throwable ignore ) {
+                    // the original failure is the one worth reporting
+                }
+            }
+            result.complete();
+        }
+        return result;
+    }
+
+    private void list(@Nullable String root, @Nullable String bucket, @Nonnull Map<String,Blob> remote) throws CloudException, InternalException {
+        for( Blob blob : support.list(bucket) ) {
+            if( blob.isContainer() ) {
+                String name = blob.getBucketName();
+
+                // only buckets nested in the target belong to the sync; a root sync never descends into any bucket
+                if( root != null && name != null && name.startsWith(root + "/") ) {
+                    list(root, name, remote);
+                }
+            }
+            else {
+                String name = blob.getObjectName();
+                String path = (name == null ? null : relativePath(root, blob.getBucketName(), name));
+
+                if( path != null ) {
+                    remote.put(path, blob);
+                }
+            }
+        }
+    }
+
+    private @Nullable String relativePath(@Nullable String root, @Nullable String bucket, @Nonnull String objectName) {
+        if( bucket == null || bucket.equals(root) ) {
+            return objectName;
+        }
+        if( root != null && bucket.startsWith(root + "/") ) {
+            return bucket.substring(root.length() + 1) + "/" + objectName;
+        }
+        // an object outside the target is not part of the sync, so it is never compared or deleted
+        return null;
+    }
+
+    private void scan(@Nonnull File directory, @Nonnull String prefix, @Nonnull Map<String,File> local) {
+        File[] files = directory.listFiles();
+
+        if( files == null ) {
+            return;
+        }
+        for( File file : files ) {
+            if( manifestFile != null && (file.equals(manifestFile) || file.getPath().equals(manifestFile.getPath() + ".tmp")) ) {
+                continue;
+            }
+            if( file.isDirectory() ) {
+                scan(file, prefix + file.getName() + "/", local);
+            }
+            else if( file.isFile() ) {
+                local.put(prefix + file.getName(), file);
+            }
+        }
+    }
+
+    private class Delete implements Runnable {
+        private final Blob         blob;
+        private final SyncManifest manifest;
+        private final String       path;
+        private final SyncResult   result;
+
+        Delete(@Nonnull String path, @Nonnull Blob blob, @Nonnull SyncManifest manifest, @Nonnull SyncResult result) {
+            this.path = path;
+            this.blob = blob;
+            this.manifest = manifest;
+            this.result = result;
+        }
+
+        public void run() {
+            String name = blob.getObjectName();
+
+            try {
+                if( name != null ) {
+                    support.removeObject(blob.getBucketName(), name);
+                    manifest.remove(path);
+                    result.deleted();
+                }
+            }
+            catch( Throwable t ) {
+                result.failed(path, t);
+            }
+        }
+    }
+
+    private class Upload implements Runnable {
+        private final String       bucket;
+        private final File         file;
+        private final SyncManifest manifest;
+        private final String       path;
+        private final Blob         remote;
+        private final SyncResult   result;
+
+        Upload(@Nonnull String path, @Nonnull File file, @Nullable String bucket, @Nullable Blob remote, @Nonnull SyncManifest manifest, @Nonnull SyncResult result) {
+            this.path = path;
+            this.file = file;
+            this.bucket = bucket;
+            this.remote = remote;
+            this.manifest = manifest;
+            this.result = result;
+        }
+
+        private boolean isCurrent(@Nonnull String checksum) {
+            if( remote == null ) {
+                return false;
+            }
+            Storage<org.dasein.util.uom.storage.Byte> size = remote.getSize();
+
+            if( size != null && size.longValue() != file.length() ) {
+                return false;
+            }
+            String remoteChecksum = remote.getChecksum();
+
+            if( remoteChecksum != null ) {
+                return remoteChecksum.equals(checksum);
+            }
+            SyncManifest.Entry entry = manifest.get(path);
+
+            return (entry != null && checksum.equals(entry.remoteChecksum) && entry.remoteTimestamp == remote.getCreationTimestamp());
+        }
+
+        public void run() {
+            try {
+                String checksum = manifest.checksum(path, file);
+
+                if( isCurrent(checksum) ) {
+                    result.unchanged();
+                }
+                else {
+                    upload(checksum);
+                }
+            }
+            catch( Throwable t ) {
+                result.failed(path, t);
+            }
+        }
+
+        private void upload(@Nonnull String checksum) throws CloudException, InternalException {
+            long length = file.length();
+            Blob blob = support.upload(file, bucket, path);
+
+            manifest.recordUpload(path, checksum, blob);
+            result.uploaded(length);
+        }
+    }
+}
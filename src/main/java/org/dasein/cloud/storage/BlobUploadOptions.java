@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Options that alter how {@link AbstractBlobStoreSupport#upload(java.io.File, String, String, BlobUploadOptions)}
+ * places content into a blob store. By default, content is uploaded exactly as a plain upload would.
+ * <p>
+ * With compression enabled, the content is compressed as it streams to the provider and the object is marked so that
+ * {@link BlobStoreSupport#download(String, String, java.io.File)} decompresses it transparently. With content
+ * addressing enabled, the content is stored under a name derived from its SHA-256 hash and the upload is skipped
+ * entirely if an object with that hash already exists. The requested object name then becomes a small reference
+ * to the content-addressed object, which downloads also resolve transparently.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class BlobUploadOptions {
+    /**
+     * The default prefix under which content-addressed objects are stored.
+     */
+    static public final String DEFAULT_CONTENT_PREFIX = "sha256/";
+
+    /**
+     * @return options for a plain upload
+     */
+    static public @Nonnull BlobUploadOptions getInstance() {
+        return new BlobUploadOptions();
+    }
+
+    /**
+     * @param compression the compression scheme to apply to the content
+     * @return options for a compressed upload
+     */
+    static public @Nonnull BlobUploadOptions getInstance(@Nonnull BlobCompression compression) {
+        BlobUploadOptions options = new BlobUploadOptions();
+
+        options.compression = compression;
+        return options;
+    }
+
+    private BlobCompression compression = BlobCompression.NONE;
+    private boolean         contentAddressed;
+    private String          contentPrefix = DEFAULT_CONTENT_PREFIX;
+
+    private BlobUploadOptions() { }
+
+    /**
+     * @return the compression scheme applied to the content
+     */
+    public @Nonnull BlobCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the prefix under which content-addressed objects are stored
+     */
+    public @Nonnull String getContentPrefix() {
+        return contentPrefix;
+    }
+
+    /**
+     * @return true if content is stored under a name derived from its hash
+     */
+    public boolean isContentAddressed() {
+        return contentAddressed;
+    }
+
+    /**
+     * Indicates that content should be stored under a name derived from its hash with the default prefix.
+     * @return this
+     */
+    public @Nonnull BlobUploadOptions contentAddressed() {
+        return contentAddressed(DEFAULT_CONTENT_PREFIX);
+    }
+
+    /**
+     * Indicates that content should be stored under a name derived from its hash.
+     * @param prefix the prefix under which content-addressed objects are stored
+     * @return this
+     */
+    public @Nonnull BlobUploadOptions contentAddressed(@Nonnull String prefix) {
+        this.contentAddressed = true;
+        this.contentPrefix = prefix;
+        return this;
+    }
+
+    /**
+     * Specifies the compression scheme applied to the content as it is uploaded.
+     * @param compression the compression scheme
+     * @return this
+     */
+    public @Nonnull BlobUploadOptions withCompression(@Nonnull BlobCompression compression) {
+        this.compression = compression;
+        return this;
+    }
+}
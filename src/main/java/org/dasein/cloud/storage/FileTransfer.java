@@ -20,12 +20,60 @@ package org.dasein.cloud.storage;
 
 import org.dasein.cloud.AsynchronousTask;
 
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the progress of a single upload or download. Progress notifications to threads waiting on the task are
+ * coalesced so that a transfer copying data in small chunks does not wake its listeners for every chunk. By default,
+ * listeners are notified at most every {@link #DEFAULT_PROGRESS_INTERVAL} milliseconds and always on completion.
+ * In addition to the average rate over the life of the transfer, a transfer tracks an exponentially weighted moving
+ * average of its recent throughput from which it estimates the time remaining.
+ */
 public class FileTransfer extends AsynchronousTask<Object> {
-	private long             bytesToTransfer;
-	private long             bytesTransferred;
-	
-	public FileTransfer() { } 
-	
+	/**
+	 * The default minimum number of milliseconds between progress notifications.
+	 */
+	static public final long DEFAULT_PROGRESS_INTERVAL = 250L;
+
+	static private final double EWMA_WEIGHT     = 0.3d;
+	static private final long   SAMPLE_INTERVAL = 250000000L;
+
+	private volatile long    bytesToTransfer;
+	private volatile long    bytesTransferred;
+	private volatile double  currentRate = -1d;
+	private long             lastNotifyBytes;
+	private long             lastNotifyTime;
+	private long             lastSampleBytes;
+	private long             lastSampleTime;
+	private TokenBucket      bandwidth;
+	private volatile long    progressIntervalInBytes = 0L;
+	private volatile long    progressIntervalInMillis = DEFAULT_PROGRESS_INTERVAL;
+
+	public FileTransfer() {
+		lastSampleTime = System.nanoTime();
+	}
+
+	@Override
+	public void complete(@Nullable Throwable withError) {
+		notifyProgress(bytesTransferred);
+		super.complete(withError);
+	}
+
+	@Override
+	public void completeWithResult(@Nullable Object result) {
+		notifyProgress(bytesTransferred);
+		super.completeWithResult(result);
+	}
+
+	/**
+	 * Provides the per-transfer bandwidth shaper, if any, for this transfer.
+	 * @return the token bucket limiting this transfer or <code>null</code> if this transfer has no individual limit
+	 */
+	public synchronized @Nullable TokenBucket getBandwidth() {
+		return bandwidth;
+	}
+
 	public long getBytesToTransfer() {
 		return bytesToTransfer;
 	}
@@ -38,16 +86,179 @@ public class FileTransfer extends AsynchronousTask<Object> {
 		return bytesTransferred;
 	}
 
+	/**
+	 * Records the total number of bytes transferred so far. Waiting threads are notified only when the coalescing
+	 * thresholds set through {@link #setProgressIntervalInMillis(long)} and {@link #setProgressIntervalInBytes(long)}
+	 * have been crossed, when the transfer reaches its expected size, or when the count is reset (as on a retry).
+	 * @param bytesTransferred the total bytes transferred
+	 */
 	public void setBytesTransferred(long bytesTransferred) {
+		long previous = this.bytesTransferred;
+
 		this.bytesTransferred = bytesTransferred;
-		setPercentComplete(((double)bytesTransferred)/((double)bytesToTransfer));
+		sample(previous, bytesTransferred);
+		if( shouldNotify(bytesTransferred) ) {
+			notifyProgress(bytesTransferred);
+		}
+	}
+
+	/**
+	 * Provides the recent throughput of this transfer as an exponentially weighted moving average. Until enough data
+	 * has been transferred to establish a sample, this value is the average rate over the life of the transfer.
+	 * @return the recent transfer rate in bytes per second
+	 */
+	public @Nonnegative double getCurrentRateInBytesPerSecond() {
+		double rate = currentRate;
+
+		if( rate < 0d ) {
+			long duration = getDuration();
+
+			if( duration < 1L ) {
+				return 0d;
+			}
+			return ((double)bytesTransferred * 1000d)/((double)duration);
+		}
+		return rate;
+	}
+
+	/**
+	 * Estimates the time remaining for this transfer based on the recent transfer rate.
+	 * @return the estimated number of milliseconds until this transfer is complete, 0 if it is complete, or -1 if no estimate is possible
+	 */
+	public long getEstimatedTimeRemaining() {
+		if( isComplete() ) {
+			return 0L;
+		}
+		long remaining = bytesToTransfer - bytesTransferred;
+
+		if( bytesToTransfer < 1L || remaining < 0L ) {
+			return -1L;
+		}
+		double rate = getCurrentRateInBytesPerSecond();
+
+		if( rate <= 0d ) {
+			return -1L;
+		}
+		return (long)(((double)remaining * 1000d)/rate);
+	}
+
+	/**
+	 * @return the maximum bandwidth in bytes per second allowed for this transfer alone, zero or less if unlimited
+	 */
+	public long getMaxBytesPerSecond() {
+		TokenBucket b = getBandwidth();
+
+		return (b == null ? 0L : b.getBytesPerSecond());
+	}
+
+	/**
+	 * Limits the bandwidth of this transfer independent of any global limit set on the {@link TransferGovernor}.
+	 * @param maxBytesPerSecond the maximum bandwidth in bytes per second, zero or less to remove the limit
+	 */
+	public synchronized void setMaxBytesPerSecond(long maxBytesPerSecond) {
+		if( maxBytesPerSecond <= 0L ) {
+			bandwidth = null;
+		}
+		else if( bandwidth == null ) {
+			bandwidth = new TokenBucket(maxBytesPerSecond);
+		}
+		else {
+			bandwidth.setBytesPerSecond(maxBytesPerSecond);
+		}
+	}
+
+	/**
+	 * @return the number of bytes that must be transferred before waiting threads are notified of progress, 0 if not byte-based
+	 */
+	public long getProgressIntervalInBytes() {
+		return progressIntervalInBytes;
+	}
+
+	/**
+	 * Sets the number of bytes that must be transferred between progress notifications.
+	 * @param progressIntervalInBytes the notification interval in bytes, zero or less to disable byte-based notification
+	 */
+	public void setProgressIntervalInBytes(long progressIntervalInBytes) {
+		this.progressIntervalInBytes = progressIntervalInBytes;
+	}
+
+	/**
+	 * @return the minimum number of milliseconds between progress notifications, 0 if not time-based
+	 */
+	public long getProgressIntervalInMillis() {
+		return progressIntervalInMillis;
+	}
+
+	/**
+	 * Sets the minimum time between progress notifications. If both this value and the byte interval are disabled,
+	 * every update results in a notification.
+	 * @param progressIntervalInMillis the notification interval in milliseconds, zero or less to disable time-based notification
+	 */
+	public void setProgressIntervalInMillis(long progressIntervalInMillis) {
+		this.progressIntervalInMillis = progressIntervalInMillis;
 	}
 
 	public Throwable getTransferError() {
 		return getTaskError();
 	}
-	
+
+	/**
+	 * @return the average transfer rate over the life of this transfer in kilobytes per second
+	 */
 	public double getTransferRateInKilobytesPerSecond() {
-		return ((double)getBytesTransferred())/((double)getDuration());
+		long duration = getDuration();
+
+		if( duration < 1L ) {
+			return 0d;
+		}
+		return (((double)getBytesTransferred())/1024d)/(((double)duration)/1000d);
+	}
+
+	private void notifyProgress(long bytes) {
+		long total = bytesToTransfer;
+
+		synchronized( this ) {
+			lastNotifyBytes = bytes;
+			lastNotifyTime = System.currentTimeMillis();
+		}
+		if( total > 0L ) {
+			setPercentComplete(((double)bytes)/((double)total));
+		}
+	}
+
+	private synchronized void sample(long previous, long bytes) {
+		long now = System.nanoTime();
+
+		if( bytes < previous ) {
+			lastSampleBytes = bytes;
+			lastSampleTime = now;
+			currentRate = -1d;
+			return;
+		}
+		long elapsed = now - lastSampleTime;
+
+		if( elapsed >= SAMPLE_INTERVAL ) {
+			double rate = ((double)(bytes - lastSampleBytes) * 1000000000d)/((double)elapsed);
+
+			currentRate = (currentRate < 0d ? rate : (EWMA_WEIGHT * rate) + ((1d - EWMA_WEIGHT) * currentRate));
+			lastSampleBytes = bytes;
+			lastSampleTime = now;
+		}
+	}
+
+	private synchronized boolean shouldNotify(long bytes) {
+		long byteInterval = progressIntervalInBytes;
+		long timeInterval = progressIntervalInMillis;
+
+		if( bytes < lastNotifyBytes || bytes == 0L || (bytesToTransfer > 0L && bytes >= bytesToTransfer) ) {
+			return true;
+		}
+		if( byteInterval <= 0L && timeInterval <= 0L ) {
+			return true;
+		}
+		if( byteInterval > 0L && (bytes - lastNotifyBytes) >= byteInterval ) {
+			return true;
+		}
+		return (timeInterval > 0L && (System.currentTimeMillis() - lastNotifyTime) >= timeInterval);
 	}
 }
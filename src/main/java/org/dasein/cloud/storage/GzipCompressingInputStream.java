@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+/**
+ * Produces a gzip stream from an uncompressed source as it is read. Unlike {@link java.util.zip.GZIPOutputStream},
+ * this class pulls from its source, so compressed content can be handed directly to an upload that consumes an
+ * input stream without buffering it in memory, in a temporary file, or through a second thread.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+class GzipCompressingInputStream extends InputStream {
+    static private final byte[] HEADER = { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+
+    private final DeflaterInputStream body;
+    private final CRC32               crc = new CRC32();
+    private final Deflater            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private int                       position = 0;
+    private int                       stage = 0;
+    private byte[]                    trailer;
+
+    GzipCompressingInputStream(@Nonnull InputStream source) {
+        body = new DeflaterInputStream(new CheckedInputStream(source, crc), deflater);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (stage > 2 ? 0 : 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            body.close();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int count;
+
+        while( (count = read(b, 0, 1)) == 0 ) {
+            // DeflaterInputStream may produce nothing while it consumes input
+        }
+        return (count < 0 ? -1 : (b[0] & 0xff));
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        if( len == 0 ) {
+            return 0;
+        }
+        while( true ) {
+            switch( stage ) {
+                case 0:
+                    if( position < HEADER.length ) {
+                        int count = Math.min(len, HEADER.length - position);
+
+                        System.arraycopy(HEADER, position, b, off, count);
+                        position += count;
+                        return count;
+                    }
+                    stage = 1;
+                    break;
+                case 1:
+                    int count = body.read(b, off, len);
+
+                    if( count > -1 ) {
+                        return count;
+                    }
+                    trailer = buildTrailer();
+                    position = 0;
+                    stage = 2;
+                    break;
+                case 2:
+                    if( position < trailer.length ) {
+                        int n = Math.min(len, trailer.length - position);
+
+                        System.arraycopy(trailer, position, b, off, n);
+                        position += n;
+                        return n;
+                    }
+                    stage = 3;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    private @Nonnull byte[] buildTrailer() {
+        long checksum = crc.getValue();
+        long size = deflater.getBytesRead();
+        byte[] t = new byte[8];
+
+        for( int i=0; i<4; i++ ) {
+            t[i] = (byte)((checksum >> (8*i)) & 0xff);
+            t[i+4] = (byte)((size >> (8*i)) & 0xff);
+        }
+        return t;
+    }
+}
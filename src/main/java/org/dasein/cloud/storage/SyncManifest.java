@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import org.apache.commons.codec.binary.Base64;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A locally cached record of the files in a synchronized directory tree. For each file, the manifest remembers the
+ * size and modification time at which its checksum was last computed so that unchanged files are not rehashed, as well
+ * as the checksum and timestamp of the object last uploaded for it so that remote objects can be recognized as current
+ * even when the provider does not report checksums in its listings.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+class SyncManifest {
+    static class Entry {
+        public long   size;
+        public long   lastModified;
+        public String checksum;
+        public long   remoteTimestamp = -1L;
+        public String remoteChecksum;
+    }
+
+    static private final String NONE = "-";
+
+    private final Map<String,Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final File              file;
+
+    SyncManifest(@Nullable File file) {
+        this.file = file;
+    }
+
+    /**
+     * Provides the checksum of the specified local file, computing it only if the file has changed in size or
+     * modification time since the checksum was last recorded.
+     * @param path the path of the file relative to the synchronized root
+     * @param local the local file
+     * @return the base64-encoded MD5 hash of the file
+     * @throws InternalException an error occurred reading the file
+     */
+    @Nonnull String checksum(@Nonnull String path, @Nonnull File local) throws InternalException {
+        long size = local.length();
+        long modified = local.lastModified();
+        Entry entry = entries.get(path);
+
+        if( entry != null && entry.size == size && entry.lastModified == modified && entry.checksum != null ) {
+            return entry.checksum;
+        }
+        String checksum = hash(local);
+        Entry update = new Entry();
+
+        update.size = size;
+        update.lastModified = modified;
+        update.checksum = checksum;
+        if( entry != null ) {
+            update.remoteTimestamp = entry.remoteTimestamp;
+            update.remoteChecksum = entry.remoteChecksum;
+        }
+        entries.put(path, update);
+        return checksum;
+    }
+
+    @Nullable Entry get(@Nonnull String path) {
+        return entries.get(path);
+    }
+
+    private @Nonnull String hash(@Nonnull File local) throws InternalException {
+        try {
+            InputStream input = new FileInputStream(local);
+
+            try {
+                MessageDigest digest = MessageDigest.getInstance("MD5");
+                byte[] buffer = new byte[16384];
+                int count;
+
+                while( (count = input.read(buffer, 0, buffer.length)) != -1 ) {
+                    digest.update(buffer, 0, count);
+                }
+                return new String(Base64.encodeBase64(digest.digest()));
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Loads the manifest from disk. A missing or unreadable manifest simply results in an empty manifest.
+     */
+    void load() {
+        if( file == null || !file.exists() ) {
+            return;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+
+            try {
+                String line;
+
+                while( (line = reader.readLine()) != null ) {
+                    String[] parts = line.split("\t", 6);
+
+                    if( parts.length != 6 ) {
+                        continue;
+                    }
+                    Entry entry = new Entry();
+
+                    try {
+                        entry.size = Long.parseLong(parts[0]);
+                        entry.lastModified = Long.parseLong(parts[1]);
+                        entry.remoteTimestamp = Long.parseLong(parts[2]);
+                    }
+                    catch( NumberFormatException e ) {
+                        continue;
+                    }
+                    entry.checksum = (NONE.equals(parts[3]) ? null : parts[3]);
+                    entry.remoteChecksum = (NONE.equals(parts[4]) ? null : parts[4]);
+                    entries.put(parts[5], entry);
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch( IOException e ) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Records that the specified file was uploaded with the specified checksum.
+     * @param path the path of the file relative to the synchronized root
+     * @param checksum the checksum of the uploaded content
+     * @param uploaded the object that resulted from the upload
+     */
+    void recordUpload(@Nonnull String path, @Nonnull String checksum, @Nonnull Blob uploaded) {
+        Entry entry = entries.get(path);
+        Entry update = new Entry();
+
+        if( entry != null ) {
+            update.size = entry.size;
+            update.lastModified = entry.lastModified;
+            update.checksum = entry.checksum;
+        }
+        update.remoteTimestamp = uploaded.getCreationTimestamp();
+        update.remoteChecksum = checksum;
+        entries.put(path, update);
+    }
+
+    void remove(@Nonnull String path) {
+        entries.remove(path);
+    }
+
+    /**
+     * Writes the manifest back to disk, replacing the previous version only once the new version is fully written.
+     * @throws InternalException an error occurred writing the manifest
+     */
+    void save() throws InternalException {
+        if( file == null ) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "utf-8"));
+
+            try {
+                for( Map.Entry<String,Entry> e : entries.entrySet() ) {
+                    Entry entry = e.getValue();
+
+                    writer.write(String.valueOf(entry.size));
+                    writer.write('\t');
+                    writer.write(String.valueOf(entry.lastModified));
+                    writer.write('\t');
+                    writer.write(String.valueOf(entry.remoteTimestamp));
+                    writer.write('\t');
+                    writer.write(entry.checksum == null ? NONE : entry.checksum);
+                    writer.write('\t');
+                    writer.write(entry.remoteChecksum == null ? NONE : entry.remoteChecksum);
+                    writer.write('\t');
+                    writer.write(e.getKey());
+                    writer.newLine();
+                }
+            }
+            finally {
+                writer.close();
+            }
+            if( file.exists() && !file.delete() ) {
+                throw new InternalException("Unable to replace sync manifest " + file);
+            }
+            if( !tmp.renameTo(file) ) {
+                throw new InternalException("Unable to write sync manifest " + file);
+            }
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+}
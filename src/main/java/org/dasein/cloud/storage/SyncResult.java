@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The outcome of a directory-to-bucket synchronization performed by {@link BlobSync}. Failures of individual files
+ * do not abort a sync; they are reported here keyed by the path of the file relative to the synchronized root.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class SyncResult {
+    private final AtomicLong           bytesUploaded = new AtomicLong(0L);
+    private final AtomicInteger        deleted       = new AtomicInteger(0);
+    private long                       endTime       = -1L;
+    private final Map<String,Throwable> failures     = new TreeMap<String, Throwable>();
+    private final long                 startTime;
+    private final AtomicInteger        unchanged     = new AtomicInteger(0);
+    private final AtomicInteger        uploaded      = new AtomicInteger(0);
+
+    SyncResult() {
+        startTime = System.currentTimeMillis();
+    }
+
+    void complete() {
+        endTime = System.currentTimeMillis();
+    }
+
+    void deleted() {
+        deleted.incrementAndGet();
+    }
+
+    void failed(@Nonnull String path, @Nonnull Throwable t) {
+        synchronized( failures ) {
+            failures.put(path, t);
+        }
+    }
+
+    void unchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void uploaded(@Nonnegative long bytes) {
+        uploaded.incrementAndGet();
+        bytesUploaded.addAndGet(bytes);
+    }
+
+    /**
+     * @return the total number of bytes uploaded during the sync
+     */
+    public @Nonnegative long getBytesUploaded() {
+        return bytesUploaded.get();
+    }
+
+    /**
+     * @return the number of remote objects removed because they no longer exist locally
+     */
+    public @Nonnegative int getDeleted() {
+        return deleted.get();
+    }
+
+    /**
+     * @return the time in milliseconds the sync took, or has taken so far
+     */
+    public @Nonnegative long getDuration() {
+        return ((endTime < 0L ? System.currentTimeMillis() : endTime) - startTime);
+    }
+
+    /**
+     * @return the errors encountered, keyed by the path of the file or object relative to the synchronized root
+     */
+    public @Nonnull Map<String,Throwable> getFailures() {
+        synchronized( failures ) {
+            return Collections.unmodifiableMap(new TreeMap<String, Throwable>(failures));
+        }
+    }
+
+    /**
+     * @return the number of files skipped because the remote copy was already current
+     */
+    public @Nonnegative int getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return the number of files uploaded
+     */
+    public @Nonnegative int getUploaded() {
+        return uploaded.get();
+    }
+
+    /**
+     * @return true if every difference was applied without error
+     */
+    public boolean isSuccessful() {
+        synchronized( failures ) {
+            return failures.isEmpty();
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return ("[uploaded=" + getUploaded() + ",deleted=" + getDeleted() + ",unchanged=" + getUnchanged() + ",failed=" + getFailures().size() + ",bytes=" + getBytesUploaded() + ",duration=" + getDuration() + "ms]");
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * A simple token bucket for shaping the bandwidth of data transfers. The bucket refills at the configured rate
+ * and holds at most one second's worth of tokens. Callers may run the bucket into debt with a single large
+ * request, in which case they (and subsequent callers) wait until the debt has been repaid. A rate of zero or less
+ * means the bucket is unlimited and never blocks.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class TokenBucket {
+    private long   bytesPerSecond;
+    private double tokens;
+    private long   lastRefill;
+
+    /**
+     * Constructs a token bucket that allows the specified number of bytes per second.
+     * @param bytesPerSecond the maximum sustained rate, zero or less for no limit
+     */
+    public TokenBucket(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = Math.max(0L, bytesPerSecond);
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Blocks the calling thread until the specified number of bytes may be transferred under this bucket's rate.
+     * @param bytes the number of bytes about to be transferred
+     * @throws InterruptedException the calling thread was interrupted while waiting for bandwidth
+     */
+    public void acquire(@Nonnegative int bytes) throws InterruptedException {
+        long wait = reserve(bytes);
+
+        if( wait > 0L ) {
+            Thread.sleep(wait/1000000L, (int)(wait%1000000L));
+        }
+    }
+
+    /**
+     * @return the maximum sustained rate of this bucket in bytes per second, zero or less meaning unlimited
+     */
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return true if this bucket enforces a rate limit
+     */
+    public synchronized boolean isLimited() {
+        return (bytesPerSecond > 0L);
+    }
+
+    private void refill(long now) {
+        if( bytesPerSecond > 0L ) {
+            double added = ((double)(now - lastRefill) * bytesPerSecond)/1000000000d;
+
+            tokens = Math.min((double)bytesPerSecond, tokens + added);
+        }
+        lastRefill = now;
+    }
+
+    /**
+     * Takes the specified number of tokens from the bucket without blocking.
+     * @param bytes the number of bytes about to be transferred
+     * @return the number of nanoseconds the caller should wait before transferring the bytes
+     */
+    public synchronized long reserve(@Nonnegative int bytes) {
+        if( bytesPerSecond <= 0L ) {
+            return 0L;
+        }
+        refill(System.nanoTime());
+        tokens -= bytes;
+        if( tokens >= 0d ) {
+            return 0L;
+        }
+        return (long)((-tokens * 1000000000d)/bytesPerSecond);
+    }
+
+    /**
+     * Changes the rate of this bucket. Any accumulated tokens are capped to the new rate.
+     * @param bytesPerSecond the new maximum sustained rate, zero or less for no limit
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        refill(System.nanoTime());
+        this.bytesPerSecond = bytesPerSecond;
+        if( bytesPerSecond > 0L ) {
+            tokens = Math.min(tokens, (double)bytesPerSecond);
+        }
+        else {
+            tokens = 0d;
+        }
+    }
+}
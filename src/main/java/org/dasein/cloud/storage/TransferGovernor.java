@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shapes the bandwidth used by all file transfers in this JVM and exposes metrics on the transfers currently in
+ * progress. Each chunk of data moved through {@link AbstractBlobStoreSupport} is charged first against the limit of
+ * its own {@link FileTransfer} (if any) and then against the global limit. Schedulers of bulk transfers can use
+ * {@link #getAvailableBandwidth()} and {@link #getAggregateRateInBytesPerSecond()} to decide when to start more work.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public final class TransferGovernor {
+    static private final TransferGovernor instance = new TransferGovernor();
+
+    /**
+     * @return the governor shared by all transfers in this JVM
+     */
+    static public @Nonnull TransferGovernor getInstance() {
+        return instance;
+    }
+
+    private final Set<FileTransfer> active = Collections.newSetFromMap(new ConcurrentHashMap<FileTransfer, Boolean>());
+    private volatile long           defaultTransferLimit = 0L;
+    private final TokenBucket       global = new TokenBucket(0L);
+    private final AtomicLong        totalBytes = new AtomicLong(0L);
+    private final AtomicLong        totalTransfers = new AtomicLong(0L);
+
+    private TransferGovernor() { }
+
+    /**
+     * Blocks until the specified number of bytes may be transferred under both the per-transfer limit of the
+     * specified transfer and the global limit.
+     * @param transfer the transfer moving the data, if it is being tracked
+     * @param bytes the number of bytes about to be transferred
+     * @throws InterruptedException the calling thread was interrupted while waiting for bandwidth
+     */
+    public void acquire(@Nullable FileTransfer transfer, @Nonnegative int bytes) throws InterruptedException {
+        if( transfer != null ) {
+            TokenBucket b = transfer.getBandwidth();
+
+            if( b != null ) {
+                b.acquire(bytes);
+            }
+        }
+        global.acquire(bytes);
+        totalBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return the number of transfers currently registered with this governor
+     */
+    public @Nonnegative int getActiveTransferCount() {
+        return active.size();
+    }
+
+    /**
+     * @return the sum of the recent throughput of all active transfers in bytes per second
+     */
+    public @Nonnegative double getAggregateRateInBytesPerSecond() {
+        double rate = 0d;
+
+        for( FileTransfer transfer : active ) {
+            rate += transfer.getCurrentRateInBytesPerSecond();
+        }
+        return rate;
+    }
+
+    /**
+     * Indicates how much bandwidth is unused under the global limit based on the recent throughput of active transfers.
+     * @return the unused bandwidth in bytes per second or -1 if there is no global limit
+     */
+    public long getAvailableBandwidth() {
+        long limit = global.getBytesPerSecond();
+
+        if( limit <= 0L ) {
+            return -1L;
+        }
+        return Math.max(0L, limit - (long)getAggregateRateInBytesPerSecond());
+    }
+
+    /**
+     * @return the per-transfer limit in bytes per second applied to registered transfers that have no limit of their own
+     */
+    public long getDefaultTransferLimit() {
+        return defaultTransferLimit;
+    }
+
+    /**
+     * Sets a limit applied to each newly registered transfer that does not already have its own limit.
+     * @param bytesPerSecond the default per-transfer limit in bytes per second, zero or less for no limit
+     */
+    public void setDefaultTransferLimit(long bytesPerSecond) {
+        defaultTransferLimit = bytesPerSecond;
+    }
+
+    /**
+     * @return the global limit in bytes per second across all transfers, zero or less if unlimited
+     */
+    public long getGlobalBandwidthLimit() {
+        return global.getBytesPerSecond();
+    }
+
+    /**
+     * Sets the limit shared by all transfers in this JVM.
+     * @param bytesPerSecond the global limit in bytes per second, zero or less for no limit
+     */
+    public void setGlobalBandwidthLimit(long bytesPerSecond) {
+        global.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * @return the total number of bytes that have passed through this governor
+     */
+    public @Nonnegative long getTotalBytesTransferred() {
+        return totalBytes.get();
+    }
+
+    /**
+     * @return the total number of transfers ever registered with this governor
+     */
+    public @Nonnegative long getTotalTransfers() {
+        return totalTransfers.get();
+    }
+
+    /**
+     * @return a snapshot of the transfers currently in progress
+     */
+    public @Nonnull Iterable<FileTransfer> listActiveTransfers() {
+        List<FileTransfer> list = new ArrayList<FileTransfer>();
+
+        for( FileTransfer transfer : active ) {
+            if( !transfer.isComplete() ) {
+                list.add(transfer);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Starts tracking the specified transfer and applies the default per-transfer limit if it has none.
+     * @param transfer the transfer being started
+     */
+    public void register(@Nonnull FileTransfer transfer) {
+        long limit = defaultTransferLimit;
+
+        if( limit > 0L && transfer.getBandwidth() == null ) {
+            transfer.setMaxBytesPerSecond(limit);
+        }
+        if( active.add(transfer) ) {
+            totalTransfers.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops tracking the specified transfer.
+     * @param transfer the transfer that is no longer moving data
+     */
+    public void unregister(@Nonnull FileTransfer transfer) {
+        active.remove(transfer);
+    }
+}
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A tool for tracing the load your Dasein Cloud usage is placing on a cloud provider. This class is used by
@@ -60,7 +61,7 @@ public class  APITrace {
         public CloudOperation(@Nonnull String name) { this.name = name; }
     }
 
-    static private final HashMap<String,Long>            apiCount       = new HashMap<String, Long>();
+    static private final HashMap<String,AtomicLong>      apiCount       = new HashMap<String, AtomicLong>();
     static private final HashMap<String,Long>            operationApis  = new HashMap<String, Long>();
     static private final HashMap<String,Long>            operationCount = new HashMap<String, Long>();
     static private final HashMap<String,CloudOperation>  operationTrace = new HashMap<String, CloudOperation>();
@@ -86,9 +87,13 @@ public class  APITrace {
         if( logger.isDebugEnabled() ) {
             try {
                 ProviderContext ctx = provider.getContext();
-                String accountNumber = getAccountNumber( ctx );
 
-                operationName = provider.getProviderName().replaceAll(DELIMITER_REGEX, "_") + DELIMITER + provider.getCloudName().replaceAll(DELIMITER_REGEX, "_") + DELIMITER + accountNumber.replaceAll(DELIMITER_REGEX, "_") + DELIMITER + operationName;
+                if( ctx == null ) {
+                    operationName = provider.getProviderName().replaceAll(DELIMITER_REGEX, "_") + DELIMITER + provider.getCloudName().replaceAll(DELIMITER_REGEX, "_") + DELIMITER + getAccountNumber(null) + DELIMITER + operationName;
+                }
+                else {
+                    operationName = ctx.getKey().getTracePrefix(provider.getProviderName(), provider.getCloudName()) + operationName;
+                }
                 long thread = Thread.currentThread().getId();
                 CloudOperation operation = new CloudOperation(operationName);
                 CloudOperation current = operations.get(thread);
@@ -166,8 +171,8 @@ public class  APITrace {
         long count = 0L;
 
         synchronized( apiCount ) {
-            for( Map.Entry<String,Long> api : apiCount.entrySet() ) {
-                count += api.getValue();
+            for( Map.Entry<String,AtomicLong> api : apiCount.entrySet() ) {
+                count += api.getValue().get();
             }
         }
         return count;
@@ -194,9 +199,9 @@ public class  APITrace {
         long count = 0L;
 
         synchronized( apiCount ) {
-            for( Map.Entry<String,Long> api : apiCount.entrySet() ) {
+            for( Map.Entry<String,AtomicLong> api : apiCount.entrySet() ) {
                 if( api.getKey().startsWith(prefix) && api.getKey().endsWith(apiCall)) {
-                    count += api.getValue();
+                    count += api.getValue().get();
                 }
             }
         }
@@ -207,9 +212,9 @@ public class  APITrace {
         long count = 0L;
 
         synchronized( apiCount ) {
-            for( Map.Entry<String,Long> api : apiCount.entrySet() ) {
+            for( Map.Entry<String,AtomicLong> api : apiCount.entrySet() ) {
                 if( api.getKey().startsWith(prefix) ) {
-                    count += api.getValue();
+                    count += api.getValue().get();
                 }
             }
         }
@@ -585,8 +590,14 @@ public class  APITrace {
     static public void trace(@Nonnull CloudProvider provider,  @Nonnull String apiCall) {
         if( logger.isInfoEnabled() ) {
             ProviderContext ctx = provider.getContext();
-            String accountNumber = getAccountNumber( ctx );
-            String callName = provider.getProviderName().replaceAll(DELIMITER_REGEX, "_") + DELIMITER + provider.getCloudName().replaceAll(DELIMITER_REGEX, "_") + DELIMITER + accountNumber.replaceAll(DELIMITER_REGEX, "_") + DELIMITER + apiCall;
+            String callName;
+
+            if( ctx == null ) {
+                callName = provider.getProviderName().replaceAll(DELIMITER_REGEX, "_") + DELIMITER + provider.getCloudName().replaceAll(DELIMITER_REGEX, "_") + DELIMITER + getAccountNumber(null) + DELIMITER + apiCall;
+            }
+            else {
+                callName = ctx.getKey().getCallName(provider.getProviderName(), provider.getCloudName(), apiCall);
+            }
 
             try {
                 CloudOperation current = null;
@@ -603,11 +614,13 @@ public class  APITrace {
                     }
                 }
                 synchronized( apiCount ) {
-                    if( apiCount.containsKey(callName) ) {
-                        apiCount.put(callName, apiCount.get(callName) + 1);
+                    AtomicLong count = apiCount.get(callName);
+
+                    if( count == null ) {
+                        apiCount.put(callName, new AtomicLong(1L));
                     }
                     else {
-                        apiCount.put(callName, 1L);
+                        count.incrementAndGet();
                     }
                 }
                 if( logger.isTraceEnabled() ) {
@@ -0,0 +1,298 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.ContextKey;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces point lookups made at about the same time by many threads into a single batched call to the cloud
+ * provider. A lookup made while no fetch is in progress for its context is fetched at once, so an uncontended lookup
+ * never waits. Lookups arriving while a fetch is in progress gather in a batch that is fetched with one call as soon as
+ * that fetch finishes, the batch is full or the batching window runs out, whichever comes first. Each waiting caller
+ * gets its own result. Lookups for different contexts never share a batch. Loaders, along with their window and batch
+ * size, belong to a single provider instance.
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ *     public VirtualMachine getVirtualMachine(String vmId) throws CloudException, InternalException {
+ *         BatchLoader&lt;VirtualMachine&gt; loader = BatchLoader.getInstance(provider, "vms", VirtualMachine.class);
+ *
+ *         return loader.load(provider.getContext(), vmId, new BatchLoader.Fetcher&lt;VirtualMachine&gt;() {
+ *             public Map&lt;String,VirtualMachine&gt; fetch(Collection&lt;String&gt; ids) throws CloudException, InternalException {
+ *                 // describe all of the IDs in one API call
+ *             }
+ *         });
+ *     }
+ * </pre>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ * @param <T> the type of resource being loaded
+ */
+public final class BatchLoader<T> {
+    static private final WeakHashMap<CloudProvider,HashMap<String,BatchLoader<?>>> loaders = new WeakHashMap<CloudProvider, HashMap<String, BatchLoader<?>>>();
+
+    /**
+     * Fetches many resources in one call to the cloud provider.
+     * @param <T> the type of resource being fetched
+     */
+    static public interface Fetcher<T> {
+        /**
+         * Fetches the resources with the specified IDs.
+         * @param ids the IDs of the resources to fetch
+         * @return the resources found, keyed by ID; IDs for resources that do not exist are left out
+         * @throws CloudException an error occurred with the cloud provider
+         * @throws InternalException an error occurred within the Dasein Cloud implementation
+         */
+        public @Nonnull Map<String,T> fetch(@Nonnull Collection<String> ids) throws CloudException, InternalException;
+    }
+
+    /**
+     * Provides access to the loader for resources under the specified name. Each provider instance has its own loaders,
+     * so settings made on a loader affect only lookups made through that provider.
+     * @param provider the cloud provider object governing the loader
+     * @param name the name of the loader
+     * @param typeClass the type of resource being loaded
+     * @param <X> the type of resource being loaded
+     * @return a loader coalescing lookups of the named resources
+     */
+    static public @Nonnull <X> BatchLoader<X> getInstance(@Nonnull CloudProvider provider, @Nonnull String name, @Nonnull Class<X> typeClass) {
+        synchronized( loaders ) {
+            HashMap<String,BatchLoader<?>> named = loaders.get(provider);
+
+            if( named == null ) {
+                named = new HashMap<String, BatchLoader<?>>();
+                loaders.put(provider, named);
+            }
+            // the name alone identifies the loader, so the caller vouches for its type
+            @SuppressWarnings("unchecked") BatchLoader<X> loader = (BatchLoader<X>)named.get(name);
+
+            if( loader == null ) {
+                loader = new BatchLoader<X>();
+                named.put(name, loader);
+            }
+            return loader;
+        }
+    }
+
+    private class Batch {
+        public boolean                     closed  = false;
+        public boolean                     done    = false;
+        public Throwable                   error   = null;
+        public final LinkedHashSet<String> ids     = new LinkedHashSet<String>();
+        public Map<String,T>               results = null;
+    }
+
+    private final AtomicLong                  fetches      = new AtomicLong(0L);
+    private final HashMap<ContextKey,Integer> inFlight     = new HashMap<ContextKey, Integer>();
+    private final AtomicLong                  loads        = new AtomicLong(0L);
+    private volatile int                      maxBatchSize = 100;
+    private final HashMap<ContextKey,Batch>   open         = new HashMap<ContextKey, Batch>();
+    private volatile long                     window       = 2L;
+
+    private BatchLoader() { }
+
+    private @Nullable T await(@Nonnull Batch batch, @Nonnull String id) throws CloudException, InternalException {
+        synchronized( batch ) {
+            while( !batch.done ) {
+                try {
+                    batch.wait();
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalException(e);
+                }
+            }
+        }
+        if( batch.error != null ) {
+            if( batch.error instanceof CloudException ) {
+                throw (CloudException)batch.error;
+            }
+            if( batch.error instanceof InternalException ) {
+                throw (InternalException)batch.error;
+            }
+            throw new InternalException(batch.error);
+        }
+        return (batch.results == null ? null : batch.results.get(id));
+    }
+
+    // must be called holding the lock on open, with the batch already closed
+    private void dispatching(@Nonnull ContextKey key) {
+        Integer count = inFlight.get(key);
+
+        inFlight.put(key, count == null ? 1 : count + 1);
+    }
+
+    private void fetch(@Nonnull ContextKey key, @Nonnull Batch batch, @Nonnull Fetcher<T> fetcher) {
+        Map<String,T> results = null;
+        Throwable error = null;
+
+        fetches.incrementAndGet();
+        try {
+            results = fetcher.fetch(new ArrayList<String>(batch.ids));
+        }
+        catch( Throwable t ) {
+            error = t;
+        }
+        finally {
+            synchronized( open ) {
+                Integer count = inFlight.get(key);
+
+                if( count == null || count <= 1 ) {
+                    inFlight.remove(key);
+                    // a batch gathering behind this fetch need not wait out its window
+                    open.notifyAll();
+                }
+                else {
+                    inFlight.put(key, count - 1);
+                }
+            }
+        }
+        synchronized( batch ) {
+            batch.results = results;
+            batch.error = error;
+            batch.done = true;
+            batch.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of batched fetches made by this loader
+     */
+    public @Nonnegative long getFetchCount() {
+        return fetches.get();
+    }
+
+    /**
+     * @return the number of lookups served by this loader
+     */
+    public @Nonnegative long getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * @return the maximum number of IDs fetched in a single batch
+     */
+    public @Nonnegative int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return the longest time in milliseconds a batch gathering behind a fetch in progress waits for other lookups
+     */
+    public @Nonnegative long getWindow() {
+        return window;
+    }
+
+    /**
+     * Looks up the resource with the specified ID, joining any batch already gathering lookups for the same context.
+     * With no batch gathering and no fetch in progress for the context, the resource is fetched at once.
+     * The fetcher is used only if this call ends up leading the batch, so every caller must supply a fetcher that
+     * behaves identically for the context.
+     * @param ctx the context in which the lookup is made
+     * @param id the ID of the resource to look up
+     * @param fetcher the means of fetching a batch of resources in one call
+     * @return the matching resource, or <code>null</code> if no such resource exists
+     * @throws CloudException an error occurred with the cloud provider fetching the batch
+     * @throws InternalException an error occurred within the Dasein Cloud implementation fetching the batch
+     */
+    public @Nullable T load(@Nonnull ProviderContext ctx, @Nonnull String id, @Nonnull Fetcher<T> fetcher) throws CloudException, InternalException {
+        ContextKey key = ctx.getKey();
+        boolean leader = false;
+        Batch batch;
+
+        loads.incrementAndGet();
+        synchronized( open ) {
+            batch = open.get(key);
+            if( batch == null ) {
+                batch = new Batch();
+                open.put(key, batch);
+                leader = true;
+            }
+            batch.ids.add(id);
+            if( batch.ids.size() >= maxBatchSize ) {
+                open.remove(key);
+                batch.closed = true;
+                open.notifyAll();
+            }
+        }
+        if( leader ) {
+            synchronized( open ) {
+                long until = System.currentTimeMillis() + window;
+                long remaining;
+
+                // company is worth waiting for only while an earlier fetch holds up this context
+                while( !batch.closed && inFlight.containsKey(key) && (remaining = until - System.currentTimeMillis()) > 0L ) {
+                    try {
+                        open.wait(remaining);
+                    }
+                    catch( InterruptedException e ) {
+                        // stop waiting for company, but still serve the callers who joined
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if( !batch.closed ) {
+                    open.remove(key);
+                    batch.closed = true;
+                }
+                dispatching(key);
+            }
+            fetch(key, batch, fetcher);
+        }
+        return await(batch, id);
+    }
+
+    /**
+     * Sets the maximum number of IDs fetched in a single batch. A batch that fills is fetched without waiting out the
+     * rest of its window.
+     * @param maxBatchSize the maximum batch size
+     * @return this
+     */
+    public @Nonnull BatchLoader<T> withMaxBatchSize(@Nonnegative int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        return this;
+    }
+
+    /**
+     * Sets the longest time in milliseconds a batch gathering behind a fetch in progress waits for other lookups to
+     * join it. Lookups made with no fetch in progress never wait.
+     * @param window the batching window in milliseconds
+     * @return this
+     */
+    public @Nonnull BatchLoader<T> withWindow(@Nonnegative long window) {
+        this.window = window;
+        return this;
+    }
+}
@@ -30,7 +30,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.ref.SoftReference;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implements efficient caching of non-changing resources so that you can minimize the number of API calls being made
@@ -65,7 +65,7 @@ public final class Cache<T> {
 
     static private class CacheEntry<T> {
         public long lastCacheClear;
-        public SoftReference<Iterable<T>> items;
+        public volatile SoftReference<Iterable<T>> items;
         public @Nonnull String toString() { return ((items == null) ? "--> empty <--" : items.toString()); }
     }
 
@@ -109,23 +109,14 @@ public final class Cache<T> {
         return c;
     }
 
-    private HashMap<String,CacheEntry<T>>                         cloudCache;
-    private HashMap<String,Map<String,CacheEntry<T>>>             cloudAccountCache;
-    private HashMap<String,Map<String,CacheEntry<T>>>             regionCache;
-    private HashMap<String,Map<String,Map<String,CacheEntry<T>>>> regionAccountCache;
+    private final ConcurrentHashMap<Object,CacheEntry<T>> entries = new ConcurrentHashMap<Object, CacheEntry<T>>();
+    private final CacheLevel                              level;
 
     private TimePeriod<Millisecond> cacheTimeout;
     private long                    cacheStart;
 
-    private Cache() { }
-
     private Cache(CacheLevel level, TimePeriod<?> timeout) {
-        switch( level ) {
-            case CLOUD: cloudCache = new HashMap<String, CacheEntry<T>>(); break;
-            case CLOUD_ACCOUNT: cloudAccountCache = new HashMap<String, Map<String, CacheEntry<T>>>(); break;
-            case REGION: regionCache = new HashMap<String, Map<String, CacheEntry<T>>>(); break;
-            case REGION_ACCOUNT: regionAccountCache = new HashMap<String, Map<String, Map<String, CacheEntry<T>>>>(); break;
-        }
+        this.level = level;
         cacheTimeout = (TimePeriod<Millisecond>)timeout.convertTo(TimePeriod.MILLISECOND);
         cacheStart = System.currentTimeMillis();
     }
@@ -135,18 +126,7 @@ public final class Cache<T> {
      */
     public void clear() {
         synchronized( this ) {
-            if( cloudCache != null ) {
-                cloudCache.clear();
-            }
-            else if( cloudAccountCache != null ) {
-                cloudAccountCache.clear();
-            }
-            else if( regionCache != null ) {
-                regionCache.clear();
-            }
-            else if( regionAccountCache != null ) {
-                regionAccountCache.clear();
-            }
+            entries.clear();
             cacheStart = System.currentTimeMillis();
         }
     }
@@ -165,45 +145,18 @@ public final class Cache<T> {
                 return null;
             }
         }
-        CacheEntry<T> entry = null;
-        String endpoint = ctx.getEndpoint();
-
-        if( cloudCache != null ) {
-            entry = cloudCache.get(endpoint);
-        }
-        else if( regionCache != null ) {
-            Map<String,CacheEntry<T>> map = regionCache.get(endpoint);
-
-            if( map != null ) {
-                entry = map.get(ctx.getRegionId());
-            }
-        }
-        else if( cloudAccountCache != null ) {
-            Map<String,CacheEntry<T>> map = cloudAccountCache.get(endpoint);
-
-            if( map != null ) {
-                entry = map.get(ctx.getAccountNumber());
-            }
-        }
-        else if( regionAccountCache != null ) {
-            Map<String,Map<String,CacheEntry<T>>> map = regionAccountCache.get(endpoint);
+        CacheEntry<T> entry = entries.get(ctx.getKey().getScope(level));
 
-            if( map != null ) {
-                Map<String,CacheEntry<T>> rmap = map.get(ctx.getRegionId());
-
-                if( rmap != null ) {
-                    entry = rmap.get(ctx.getAccountNumber());
-                }
-            }
-        }
         if( entry == null ) {
             return null;
         }
-        if( entry.lastCacheClear + cacheTimeout.longValue() < System.currentTimeMillis() ) {
+        SoftReference<Iterable<T>> items = entry.items;
+
+        if( items == null || entry.lastCacheClear + cacheTimeout.longValue() < System.currentTimeMillis() ) {
             entry.items = null;
             return null;
         }
-        return entry.items.get();
+        return items.get();
     }
 
     /**
@@ -213,46 +166,9 @@ public final class Cache<T> {
      */
     public void put(@Nonnull ProviderContext ctx, @Nonnull Iterable<T> list) {
         CacheEntry<T> entry = new CacheEntry<T>();
-        String endpoint = ctx.getEndpoint();
 
         entry.items = new SoftReference<Iterable<T>>(list);
         entry.lastCacheClear = System.currentTimeMillis();
-        if( cloudCache != null ) {
-            cloudCache.put(endpoint, entry);
-        }
-        else if( regionCache != null ) {
-            Map<String,CacheEntry<T>> map = regionCache.get(endpoint);
-
-            if( map == null ) {
-                map = new HashMap<String, CacheEntry<T>>();
-                regionCache.put(endpoint, map);
-            }
-            map.put(ctx.getRegionId(), entry);
-        }
-        else if( cloudAccountCache != null ) {
-            Map<String,CacheEntry<T>> map = cloudAccountCache.get(endpoint);
-
-            if( map == null ) {
-                map = new HashMap<String, CacheEntry<T>>();
-                cloudAccountCache.put(endpoint, map);
-            }
-            map.put(ctx.getAccountNumber(), entry);
-        }
-        else if( regionAccountCache != null ) {
-            Map<String,Map<String,CacheEntry<T>>> map = regionAccountCache.get(endpoint);
-
-            if( map == null ) {
-                map = new HashMap<String, Map<String, CacheEntry<T>>>();
-                regionAccountCache.put(endpoint, map);
-            }
-
-            Map<String,CacheEntry<T>> rmap = map.get(ctx.getRegionId());
-
-            if( rmap == null ) {
-                rmap = new HashMap<String, CacheEntry<T>>();
-                map.put(ctx.getRegionId(), rmap);
-            }
-            rmap.put(ctx.getAccountNumber(), entry);
-        }
+        entries.put(ctx.getKey().getScope(level), entry);
     }
 }
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * A filter compiled from one of the Dasein Cloud filter options classes (such as
+ * {@link org.dasein.cloud.compute.VMFilterOptions}) for repeated evaluation against large numbers of resources.
+ * Regular expressions are compiled once, tag criteria are lower-cased once, and criteria are evaluated in order of
+ * increasing cost so that cheap, selective tests such as ID and enum comparisons short-circuit the expensive regular
+ * expression and tag tests. Because criteria are either all required or any sufficient, the evaluation order never
+ * changes the result.
+ * <p>
+ * A compiled filter is immutable once built and may be shared across threads. It reflects the criteria of its options
+ * at the time it was compiled.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public final class CompiledFilter<T> {
+    /**
+     * Relative cost of an equality test against an ID or enum value.
+     */
+    static public final int COST_EQUALS = 1;
+
+    /**
+     * Relative cost of testing compiled tag criteria.
+     */
+    static public final int COST_TAGS   = 4;
+
+    /**
+     * Relative cost of testing a regular expression against a name, description, and tag values.
+     */
+    static public final int COST_REGEX  = 16;
+
+    /**
+     * A single compiled criterion of a filter.
+     * @param <T> the type of resource being filtered
+     */
+    static public interface Criterion<T> {
+        /**
+         * @param item the resource to test
+         * @return true if the resource satisfies this criterion
+         */
+        public boolean matches(@Nonnull T item);
+    }
+
+    /**
+     * Collects the criteria of a filter while it is being compiled. Criteria are kept sorted by cost, with criteria of
+     * equal cost evaluated in the order in which they were added.
+     * @param <T> the type of resource being filtered
+     */
+    static public final class Builder<T> {
+        private final ArrayList<Criterion<T>> criteria = new ArrayList<Criterion<T>>();
+        private final ArrayList<Integer>      costs    = new ArrayList<Integer>();
+        private final boolean                 matchesAny;
+
+        private Builder(boolean matchesAny) {
+            this.matchesAny = matchesAny;
+        }
+
+        /**
+         * @return an immutable filter with the criteria added so far
+         */
+        public @Nonnull CompiledFilter<T> build() {
+            return new CompiledFilter<T>(matchesAny, criteria);
+        }
+
+        /**
+         * Adds a criterion to the filter being built.
+         * @param cost the relative cost of evaluating the criterion
+         * @param criterion the criterion
+         * @return this
+         */
+        public @Nonnull Builder<T> withCriterion(@Nonnegative int cost, @Nonnull Criterion<T> criterion) {
+            int idx = costs.size();
+
+            while( idx > 0 && costs.get(idx-1) > cost ) {
+                idx--;
+            }
+            costs.add(idx, cost);
+            criteria.add(idx, criterion);
+            return this;
+        }
+    }
+
+    /**
+     * Constructs a builder for a filter.
+     * @param matchesAny true if a resource need satisfy only one criterion, false if it must satisfy all of them
+     * @param <T> the type of resource being filtered
+     * @return a builder with no criteria
+     */
+    static public @Nonnull <T> Builder<T> getBuilder(boolean matchesAny) {
+        return new Builder<T>(matchesAny);
+    }
+
+    /**
+     * Constructs a filter with no criteria.
+     * @param matchesAny true if a resource need satisfy only one criterion, false if it must satisfy all of them
+     * @param <T> the type of resource being filtered
+     * @return a filter that matches everything if <code>matchesAny</code> is false and nothing if it is true
+     */
+    static public @Nonnull <T> CompiledFilter<T> getInstance(boolean matchesAny) {
+        return new CompiledFilter<T>(matchesAny, new ArrayList<Criterion<T>>());
+    }
+
+    /**
+     * Compiles a regular expression that may be used with {@link #matchesRegex(Pattern, String, String, Map)}.
+     * @param regex the regular expression, if any
+     * @return the compiled pattern or <code>null</code> if no expression was provided
+     */
+    static public @Nullable Pattern compileRegex(@Nullable String regex) {
+        return (regex == null ? null : Pattern.compile(regex));
+    }
+
+    /**
+     * Tests a resource name, description, and tag values against a compiled regular expression with the same
+     * semantics as applying {@link String#matches(String)} to each.
+     * @param pattern the compiled expression
+     * @param name the resource name
+     * @param description the resource description
+     * @param tags the resource tags
+     * @return true if the name, description, or any tag value matches the expression
+     */
+    static public boolean matchesRegex(@Nonnull Pattern pattern, @Nullable String name, @Nullable String description, @Nullable Map<String,String> tags) {
+        if( name != null && pattern.matcher(name).matches() ) {
+            return true;
+        }
+        if( description != null && pattern.matcher(description).matches() ) {
+            return true;
+        }
+        if( tags != null ) {
+            for( String value : tags.values() ) {
+                if( value != null && pattern.matcher(value).matches() ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private final ArrayList<Criterion<T>> criteria;
+    private final boolean                 matchesAny;
+
+    private CompiledFilter(boolean matchesAny, @Nonnull ArrayList<Criterion<T>> criteria) {
+        this.matchesAny = matchesAny;
+        this.criteria = new ArrayList<Criterion<T>>(criteria);
+    }
+
+    /**
+     * Provides a lazy view of the items in the specified listing that pass this filter. Items are tested as the view
+     * is iterated, so a streaming listing such as a {@link PagedIterable} is never copied into memory.
+     * @param items the listing to filter
+     * @return a lazy view of the matching items
+     */
+    public @Nonnull Iterable<T> filter(final @Nonnull Iterable<T> items) {
+        return new Iterable<T>() {
+            public @Nonnull Iterator<T> iterator() {
+                final Iterator<T> it = items.iterator();
+
+                return new Iterator<T>() {
+                    private T       item;
+                    private boolean loaded;
+
+                    public boolean hasNext() {
+                        while( !loaded && it.hasNext() ) {
+                            T candidate = it.next();
+
+                            if( matches(candidate) ) {
+                                item = candidate;
+                                loaded = true;
+                            }
+                        }
+                        return loaded;
+                    }
+
+                    public T next() {
+                        if( !hasNext() ) {
+                            throw new NoSuchElementException();
+                        }
+                        T t = item;
+
+                        item = null;
+                        loaded = false;
+                        return t;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Filtered listings are read-only");
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return the number of criteria in this filter
+     */
+    public @Nonnegative int getCriteriaCount() {
+        return criteria.size();
+    }
+
+    /**
+     * @return true if this filter has any criteria
+     */
+    public boolean hasCriteria() {
+        return !criteria.isEmpty();
+    }
+
+    /**
+     * @return true if a resource need satisfy only one criterion
+     */
+    public boolean isMatchesAny() {
+        return matchesAny;
+    }
+
+    /**
+     * Tests the specified resource against this filter. A filter requiring all criteria matches everything if it has
+     * no criteria; a filter requiring any criterion matches nothing if it has no criteria.
+     * @param item the resource to test
+     * @return true if the resource passes the filter
+     */
+    public boolean matches(@Nonnull T item) {
+        for( Criterion<T> c : criteria ) {
+            if( c.matches(item) ) {
+                if( matchesAny ) {
+                    return true;
+                }
+            }
+            else if( !matchesAny ) {
+                return false;
+            }
+        }
+        return !matchesAny;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A single result from a fan-out query, tagged with the context from which it came. A result carries either an item
+ * returned by the query or the error that ended the query for that context.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ * @param <T> the type of item returned by the query
+ */
+public class ContextResult<T> {
+    /**
+     * Constructs a result marking the failure of a query in the specified context.
+     * @param context the context in which the query failed
+     * @param error the cause of the failure
+     * @param <T> the type of item returned by the query
+     * @return a result representing the failure
+     */
+    static public @Nonnull <T> ContextResult<T> getErrorInstance(@Nonnull ProviderContext context, @Nonnull Throwable error) {
+        return new ContextResult<T>(context, null, error);
+    }
+
+    /**
+     * Constructs a result holding an item returned by a query in the specified context.
+     * @param context the context in which the query ran
+     * @param item the item returned by the query
+     * @param <T> the type of item returned by the query
+     * @return a result holding the item
+     */
+    static public @Nonnull <T> ContextResult<T> getInstance(@Nonnull ProviderContext context, @Nonnull T item) {
+        return new ContextResult<T>(context, item, null);
+    }
+
+    private ProviderContext context;
+    private Throwable       error;
+    private T               item;
+
+    private ContextResult(@Nonnull ProviderContext context, @Nullable T item, @Nullable Throwable error) {
+        this.context = context;
+        this.item = item;
+        this.error = error;
+    }
+
+    /**
+     * @return the context in which the query ran
+     */
+    public @Nonnull ProviderContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return the error that ended the query in this context, or <code>null</code> if this result holds an item
+     */
+    public @Nullable Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return the item returned by the query, or <code>null</code> if this result represents an error
+     */
+    public @Nullable T getItem() {
+        return item;
+    }
+
+    /**
+     * @return true if this result represents the failure of the query in its context
+     */
+    public boolean isError() {
+        return (error != null);
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return (context.getAccountNumber() + "/" + context.getRegionId() + ": " + (error == null ? item : error));
+    }
+}
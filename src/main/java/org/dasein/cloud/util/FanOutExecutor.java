@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.CloudProviderPool;
+import org.dasein.cloud.ContextKey;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.ProviderFactory;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a query across many provider contexts in parallel, such as listing the virtual machines in every region of
+ * every account under management. Queries against the same cloud provider are limited to a configurable number of
+ * concurrent calls so that a large fan-out stays within the API rate limits of each cloud, while queries against
+ * different providers proceed independently. Each query borrows a connected provider from a {@link CloudProviderPool}
+ * and hands it back when done, so contexts sharing a {@link ContextKey} reuse providers across queries.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class FanOutExecutor {
+    /**
+     * A query to run in each context.
+     * @param <T> the type of item returned by the query
+     */
+    static public interface Query<T> {
+        /**
+         * Runs the query against a connected provider.
+         * @param provider the provider connected to the context being queried
+         * @return the items returned by the query
+         * @throws CloudException an error occurred with the cloud provider
+         * @throws InternalException an error occurred within the Dasein Cloud implementation
+         */
+        public @Nonnull Iterable<T> query(@Nonnull CloudProvider provider) throws CloudException, InternalException;
+    }
+
+    /**
+     * Constructs an executor creating providers of the specified class.
+     * @param providerClass the class of provider to connect to each context
+     * @param maxThreads the maximum number of queries in progress at once across all providers
+     * @return a new executor
+     */
+    static public @Nonnull FanOutExecutor getInstance(@Nonnull Class<? extends CloudProvider> providerClass, @Nonnegative int maxThreads) {
+        return new FanOutExecutor(CloudProviderPool.getInstance(providerClass), true, maxThreads);
+    }
+
+    /**
+     * Constructs an executor creating providers through the specified factory.
+     * @param factory the factory for the provider to connect to each context
+     * @param maxThreads the maximum number of queries in progress at once across all providers
+     * @return a new executor
+     */
+    static public @Nonnull FanOutExecutor getInstance(@Nonnull ProviderFactory factory, @Nonnegative int maxThreads) {
+        return new FanOutExecutor(CloudProviderPool.getInstance(factory), true, maxThreads);
+    }
+
+    /**
+     * Constructs an executor borrowing providers from the specified pool. The pool remains open when the executor
+     * is closed, so it may be shared with other consumers.
+     * @param pool the pool from which providers are borrowed for each context
+     * @param maxThreads the maximum number of queries in progress at once across all providers
+     * @return a new executor
+     */
+    static public @Nonnull FanOutExecutor getInstance(@Nonnull CloudProviderPool pool, @Nonnegative int maxThreads) {
+        return new FanOutExecutor(pool, false, maxThreads);
+    }
+
+    static private class Lane {
+        public final LinkedList<ContextQuery<?>> pending = new LinkedList<ContextQuery<?>>();
+        public int                               running = 0;
+    }
+
+    private class ContextQuery<T> implements Runnable {
+        private final ProviderContext  context;
+        private final String           laneKey;
+        private final Query<T>         query;
+        private final FanOutResults<T> results;
+
+        public ContextQuery(@Nonnull ProviderContext context, @Nonnull Query<T> query, @Nonnull FanOutResults<T> results) {
+            this.context = context;
+            this.laneKey = getLaneKey(context);
+            this.query = query;
+            this.results = results;
+        }
+
+        public void reject() {
+            results.offer(ContextResult.<T>getErrorInstance(context, new InternalException("The fan-out executor was closed")));
+            results.contextDone(false);
+        }
+
+        public void run() {
+            try {
+                results.contextDone(FanOutExecutor.this.run(context, query, results));
+            }
+            finally {
+                finished(laneKey);
+            }
+        }
+    }
+
+    private int                             bufferSize   = 1000;
+    private int                             defaultLimit = 10;
+    private final HashMap<String,Lane>      lanes        = new HashMap<String, Lane>();
+    private final HashMap<String,Integer>   limits       = new HashMap<String, Integer>();
+    private final CloudProviderPool         pool;
+    private final boolean                   ownsPool;
+    private final ExecutorService           service;
+
+    private FanOutExecutor(@Nonnull CloudProviderPool pool, boolean ownsPool, @Nonnegative int maxThreads) {
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.service = Executors.newFixedThreadPool(Math.max(1, maxThreads), new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger(0);
+
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("Fan-out Query " + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Stops the threads of this executor and, unless the executor was given a shared pool, closes the pool of
+     * providers it connected. Queries in progress are allowed to finish. Queries waiting on a concurrency limit, and
+     * any executed afterwards, fail with an error result.
+     */
+    public void close() {
+        service.shutdown();
+        if( ownsPool ) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Runs the specified query in each of the specified contexts. This method returns immediately and results
+     * stream back through the returned object as they arrive.
+     * @param contexts the contexts in which the query should run
+     * @param query the query to run
+     * @param <T> the type of item returned by the query
+     * @return the streaming results of the query, tagged by context
+     */
+    public @Nonnull <T> FanOutResults<T> execute(@Nonnull Iterable<ProviderContext> contexts, final @Nonnull Query<T> query) {
+        ArrayList<ProviderContext> targets = new ArrayList<ProviderContext>();
+
+        for( ProviderContext ctx : contexts ) {
+            targets.add(ctx);
+        }
+        FanOutResults<T> results = new FanOutResults<T>(targets.size(), bufferSize);
+        List<ContextQuery<?>> rejected = new ArrayList<ContextQuery<?>>();
+
+        synchronized( lanes ) {
+            for( ProviderContext ctx : targets ) {
+                ContextQuery<T> task = new ContextQuery<T>(ctx, query, results);
+
+                getLane(task.laneKey).pending.add(task);
+            }
+            for( String key : new ArrayList<String>(lanes.keySet()) ) {
+                dispatch(key, rejected);
+            }
+        }
+        reject(rejected);
+        return results;
+    }
+
+    // must be called while holding the lock on lanes; rejected tasks are returned so they may be failed outside the lock
+    private void dispatch(@Nonnull String key, @Nonnull List<ContextQuery<?>> rejected) {
+        Lane lane = lanes.get(key);
+        int limit = getConcurrencyLimit(key);
+
+        while( lane.running < limit && !lane.pending.isEmpty() ) {
+            ContextQuery<?> task = lane.pending.removeFirst();
+
+            try {
+                service.execute(task);
+                lane.running++;
+            }
+            catch( RejectedExecutionException e ) {
+                rejected.add(task);
+            }
+        }
+        if( lane.running < 1 ) {
+            lanes.remove(key);
+        }
+    }
+
+    private void finished(@Nonnull String key) {
+        List<ContextQuery<?>> rejected = new ArrayList<ContextQuery<?>>();
+
+        synchronized( lanes ) {
+            Lane lane = lanes.get(key);
+
+            if( lane != null ) {
+                lane.running--;
+                dispatch(key, rejected);
+            }
+        }
+        reject(rejected);
+    }
+
+    /**
+     * @return the maximum number of results buffered for each execution before producers wait for the consumer
+     */
+    public @Nonnegative int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Provides the maximum number of concurrent queries against the specified cloud provider.
+     * @param providerName the name of the cloud provider as it appears in {@link ProviderContext#getProviderName()}
+     * @return the maximum number of concurrent queries against the provider
+     */
+    public @Nonnegative int getConcurrencyLimit(@Nonnull String providerName) {
+        synchronized( limits ) {
+            Integer limit = limits.get(providerName);
+
+            return (limit == null ? defaultLimit : limit);
+        }
+    }
+
+    private @Nonnull Lane getLane(@Nonnull String key) {
+        Lane lane = lanes.get(key);
+
+        if( lane == null ) {
+            lane = new Lane();
+            lanes.put(key, lane);
+        }
+        return lane;
+    }
+
+    private @Nonnull String getLaneKey(@Nonnull ProviderContext ctx) {
+        String name = ctx.getProviderName();
+
+        return (name == null ? "" : name);
+    }
+
+    /**
+     * @return the pool from which this executor borrows a provider for each query
+     */
+    public @Nonnull CloudProviderPool getPool() {
+        return pool;
+    }
+
+    private void reject(@Nonnull List<ContextQuery<?>> rejected) {
+        for( ContextQuery<?> task : rejected ) {
+            task.reject();
+        }
+    }
+
+    private <T> boolean run(@Nonnull ProviderContext ctx, @Nonnull Query<T> query, @Nonnull FanOutResults<T> results) {
+        if( results.isCancelled() ) {
+            return true;
+        }
+        try {
+            CloudProvider provider = pool.borrowProvider(ctx);
+
+            try {
+                for( T item : query.query(provider) ) {
+                    if( !results.offer(ContextResult.getInstance(ctx, item)) ) {
+                        break;
+                    }
+                }
+            }
+            finally {
+                pool.returnProvider(provider);
+            }
+            return true;
+        }
+        catch( Throwable t ) {
+            if( t instanceof StreamingException && t.getCause() != null ) {
+                t = t.getCause();
+            }
+            results.offer(ContextResult.<T>getErrorInstance(ctx, t));
+            return false;
+        }
+    }
+
+    /**
+     * Sets the maximum number of results buffered for each execution before producers wait for the consumer.
+     * @param bufferSize the buffer size
+     * @return this
+     */
+    public @Nonnull FanOutExecutor withBufferSize(@Nonnegative int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent queries against any cloud provider without its own limit.
+     * @param limit the maximum number of concurrent queries per provider
+     * @return this
+     */
+    public @Nonnull FanOutExecutor withConcurrencyLimit(@Nonnegative int limit) {
+        synchronized( limits ) {
+            defaultLimit = Math.max(1, limit);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of concurrent queries against the specified cloud provider.
+     * @param providerName the name of the cloud provider as it appears in {@link ProviderContext#getProviderName()}
+     * @param limit the maximum number of concurrent queries against the provider
+     * @return this
+     */
+    public @Nonnull FanOutExecutor withConcurrencyLimit(@Nonnull String providerName, @Nonnegative int limit) {
+        synchronized( limits ) {
+            limits.put(providerName, Math.max(1, limit));
+        }
+        return this;
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The streaming results of a query fanned out across many contexts by {@link FanOutExecutor}. Results become
+ * available for iteration as soon as any context produces them, in no particular order across contexts. The
+ * results may be iterated only once. Iteration blocks until the next result arrives or every context has finished.
+ * Producers block when the buffer is full, so a consumer that stops iterating early should call {@link #cancel()}.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ * @param <T> the type of item returned by the query
+ */
+public class FanOutResults<T> implements Iterable<ContextResult<T>> {
+    static private final ContextResult<Object> END = ContextResult.getErrorInstance(new ProviderContext(), new NoSuchElementException());
+
+    private final BlockingQueue<ContextResult<T>> buffer;
+    private volatile boolean                     cancelled = false;
+    private final AtomicInteger                  completed = new AtomicInteger(0);
+    private final int                            contextCount;
+    private final AtomicInteger                  failed    = new AtomicInteger(0);
+    private boolean                              iterated  = false;
+
+    FanOutResults(@Nonnegative int contextCount, @Nonnegative int bufferSize) {
+        this.contextCount = contextCount;
+        this.buffer = new LinkedBlockingQueue<ContextResult<T>>(Math.max(1, bufferSize));
+        if( contextCount < 1 ) {
+            end();
+        }
+    }
+
+    /**
+     * Stops delivering results. Contexts not yet queried are skipped and queries in progress stop at their next
+     * result. Any buffered results are discarded.
+     */
+    public void cancel() {
+        cancelled = true;
+        buffer.clear();
+    }
+
+    /**
+     * Marks the query in one context as finished.
+     * @param successful true if the query completed without error
+     */
+    void contextDone(boolean successful) {
+        if( !successful ) {
+            failed.incrementAndGet();
+        }
+        if( completed.incrementAndGet() == contextCount ) {
+            end();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void end() {
+        // the end marker must get through even if the buffer is full, so wait for room unless cancelled
+        while( !cancelled ) {
+            try {
+                if( buffer.offer((ContextResult<T>)END, 1, TimeUnit.SECONDS) ) {
+                    return;
+                }
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of contexts whose queries have finished, successfully or not
+     */
+    public @Nonnegative int getCompletedContextCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of contexts across which the query is fanned out
+     */
+    public @Nonnegative int getContextCount() {
+        return contextCount;
+    }
+
+    /**
+     * @return the number of contexts whose queries ended in error
+     */
+    public @Nonnegative int getFailedContextCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return true if these results were cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if the query has finished in every context
+     */
+    public boolean isComplete() {
+        return (completed.get() >= contextCount);
+    }
+
+    @Override
+    public synchronized @Nonnull Iterator<ContextResult<T>> iterator() {
+        if( iterated ) {
+            throw new IllegalStateException("Fan-out results may only be iterated once");
+        }
+        iterated = true;
+        return new Iterator<ContextResult<T>>() {
+            private ContextResult<T> next  = null;
+            private boolean          ended = false;
+
+            @Override
+            public boolean hasNext() {
+                if( next != null ) {
+                    return true;
+                }
+                while( !ended && !cancelled ) {
+                    try {
+                        ContextResult<T> r = buffer.poll(1, TimeUnit.SECONDS);
+
+                        if( r == END ) {
+                            ended = true;
+                        }
+                        else if( r != null ) {
+                            next = r;
+                            return true;
+                        }
+                    }
+                    catch( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                        throw new StreamingException(e);
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public @Nonnull ContextResult<T> next() {
+                if( !hasNext() ) {
+                    throw new NoSuchElementException();
+                }
+                ContextResult<T> r = next;
+
+                next = null;
+                return r;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Fan-out results are read-only");
+            }
+        };
+    }
+
+    /**
+     * Places a result in the buffer, waiting for room if necessary.
+     * @param result the result to deliver
+     * @return false if the results were cancelled and the producer should stop
+     */
+    boolean offer(@Nonnull ContextResult<T> result) {
+        while( !cancelled ) {
+            try {
+                if( buffer.offer(result, 1, TimeUnit.SECONDS) ) {
+                    return true;
+                }
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+}
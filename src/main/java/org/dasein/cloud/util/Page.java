@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single page of results from a paginated cloud listing along with the token needed to fetch the next page.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ * @param <T> the type of resource listed
+ */
+public class Page<T> {
+    /**
+     * Constructs a page of results.
+     * @param items the items on this page
+     * @param nextPageToken the token identifying the next page, or <code>null</code> if this is the last page
+     * @param <T> the type of resource listed
+     * @return a page of results
+     */
+    static public @Nonnull <T> Page<T> getInstance(@Nonnull Collection<T> items, @Nullable String nextPageToken) {
+        return new Page<T>(Collections.unmodifiableList(new ArrayList<T>(items)), nextPageToken);
+    }
+
+    private final List<T> items;
+    private final String  nextPageToken;
+
+    private Page(@Nonnull List<T> items, @Nullable String nextPageToken) {
+        this.items = items;
+        this.nextPageToken = nextPageToken;
+    }
+
+    /**
+     * @return the items on this page
+     */
+    public @Nonnull List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the token identifying the next page, or <code>null</code> if this is the last page
+     */
+    public @Nullable String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    /**
+     * @return true if this is the last page of the listing
+     */
+    public boolean isLast() {
+        return (nextPageToken == null);
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A lazy listing of cloud resources that fetches pages from the cloud provider only as they are consumed rather than
+ * building the entire listing in memory before returning. Implementations provide {@link #fetchPage(String)}; callers
+ * simply iterate. While the items of one page are being consumed, the next page is fetched in the background so that
+ * the network round trip overlaps with the caller's processing. Prefetching runs on an executor supplied through
+ * {@link #withExecutor(ExecutorService)} or, by default, on a pool of at most {@link #MAX_SHARED_PREFETCH_THREADS}
+ * daemon threads shared by all listings. Nothing is fetched until {@link #iterator()} is called, and each iterator is
+ * an independent pass over the listing.
+ * </p>
+ * <p>
+ * A caller that stops early should call {@link PagedIterator#cancel()} so that no further pages are fetched. Failures
+ * fetching a page are raised from {@link Iterator#hasNext()} as a {@link StreamingException}.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ * @param <T> the type of resource listed
+ */
+public abstract class PagedIterable<T> implements Iterable<T> {
+    /**
+     * The maximum number of threads in the shared pool used for prefetching when no executor has been supplied.
+     */
+    static public final int MAX_SHARED_PREFETCH_THREADS = 8;
+
+    static private ExecutorService sharedPrefetcher;
+
+    static private synchronized @Nonnull ExecutorService getSharedPrefetcher() {
+        if( sharedPrefetcher == null ) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_SHARED_PREFETCH_THREADS, MAX_SHARED_PREFETCH_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread t = new Thread(r);
+
+                    t.setName("Page Prefetch " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+            pool.allowCoreThreadTimeOut(true);
+            sharedPrefetcher = pool;
+        }
+        return sharedPrefetcher;
+    }
+
+    private ExecutorService executor;
+    private boolean         prefetch = true;
+
+    /**
+     * Fetches a single page of the listing.
+     * @param pageToken the token from the previous page identifying the page to fetch, or <code>null</code> for the first page
+     * @return the requested page
+     * @throws CloudException an error occurred with the cloud provider fetching the page
+     * @throws InternalException an error occurred within Dasein Cloud fetching the page
+     */
+    protected abstract @Nonnull Page<T> fetchPage(@Nullable String pageToken) throws CloudException, InternalException;
+
+    /**
+     * @return the executor on which pages are prefetched, which is a small pool shared by all listings unless an
+     * executor has been supplied through {@link #withExecutor(ExecutorService)}
+     */
+    public @Nonnull ExecutorService getExecutor() {
+        ExecutorService e = executor;
+
+        return (e == null ? getSharedPrefetcher() : e);
+    }
+
+    /**
+     * @return true if the next page is fetched in the background while the current page is consumed
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    @Override
+    public @Nonnull PagedIterator<T> iterator() {
+        return new PagedIterator<T>(this);
+    }
+
+    /**
+     * Sets the executor on which pages are prefetched. The executor is not shut down by this listing.
+     * @param executor the executor to use, or <code>null</code> to use the shared prefetch pool
+     * @return this
+     */
+    public @Nonnull PagedIterable<T> withExecutor(@Nullable ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Indicates whether the next page should be fetched in the background while the current page is consumed.
+     * @param prefetch true to fetch ahead, false to fetch each page only when it is needed
+     * @return this
+     */
+    public @Nonnull PagedIterable<T> withPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * An iterator over a {@link PagedIterable} that holds at most the current page and the page being prefetched.
+     * @param <T> the type of resource listed
+     */
+    static public class PagedIterator<T> implements Iterator<T> {
+        private boolean                cancelled;
+        private Iterator<T>            current;
+        private Future<Page<T>>        next;
+        private String                 nextPageToken;
+        private final PagedIterable<T> source;
+        private boolean                started;
+
+        private PagedIterator(@Nonnull PagedIterable<T> source) {
+            this.source = source;
+        }
+
+        /**
+         * Stops this iteration. No further pages are fetched, any page being prefetched is abandoned, and
+         * {@link #hasNext()} returns <code>false</code> from then on.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            current = null;
+            if( next != null ) {
+                next.cancel(true);
+                next = null;
+            }
+        }
+
+        private @Nonnull Page<T> fetch(@Nullable String pageToken) throws CloudException, InternalException {
+            try {
+                if( next != null ) {
+                    return next.get();
+                }
+                return source.fetchPage(pageToken);
+            }
+            catch( ExecutionException e ) {
+                Throwable cause = e.getCause();
+
+                if( cause instanceof CloudException ) {
+                    throw (CloudException)cause;
+                }
+                if( cause instanceof InternalException ) {
+                    throw (InternalException)cause;
+                }
+                throw new InternalException(cause);
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+            finally {
+                next = null;
+            }
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            while( !cancelled ) {
+                if( current != null && current.hasNext() ) {
+                    return true;
+                }
+                if( started && nextPageToken == null ) {
+                    return false;
+                }
+                Page<T> page;
+
+                try {
+                    page = fetch(nextPageToken);
+                }
+                catch( CloudException e ) {
+                    throw new StreamingException(e);
+                }
+                catch( InternalException e ) {
+                    throw new StreamingException(e);
+                }
+                started = true;
+                current = page.getItems().iterator();
+                nextPageToken = page.getNextPageToken();
+                if( nextPageToken != null && source.isPrefetch() ) {
+                    final String token = nextPageToken;
+
+                    next = source.getExecutor().submit(new Callable<Page<T>>() {
+                        public Page<T> call() throws CloudException, InternalException {
+                            return source.fetchPage(token);
+                        }
+                    });
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if this iteration has been cancelled
+         */
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public synchronized T next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Listings are read-only");
+        }
+    }
+}
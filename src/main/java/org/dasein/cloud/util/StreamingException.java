@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Raised while iterating over a {@link PagedIterable} when fetching a page from the cloud provider fails. Because
+ * {@link java.util.Iterator} methods cannot throw checked exceptions, the underlying
+ * {@link org.dasein.cloud.CloudException} or {@link org.dasein.cloud.InternalException} is available as the cause.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class StreamingException extends RuntimeException {
+    private static final long serialVersionUID = -2377036532470162470L;
+
+    /**
+     * Constructs a streaming exception caused by the failure of a page fetch.
+     * @param cause the underlying exception
+     */
+    public StreamingException(@Nonnull Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * Throws the checked exception behind this failure so that code iterating a {@link PagedIterable} on behalf of
+     * a method that declares the checked exceptions raises them as such. Call it as
+     * <code>throw e.rethrowCause();</code> so that the compiler knows the catch block does not complete.
+     * @return this exception if its cause is neither a {@link CloudException} nor an {@link InternalException}
+     * @throws CloudException the cloud provider failed to fetch a page
+     * @throws InternalException an error occurred within Dasein Cloud fetching a page
+     */
+    public @Nonnull StreamingException rethrowCause() throws CloudException, InternalException {
+        Throwable cause = getCause();
+
+        if( cause instanceof CloudException ) {
+            throw (CloudException)cause;
+        }
+        if( cause instanceof InternalException ) {
+            throw (InternalException)cause;
+        }
+        return this;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * A precompiled form of the tag criteria accepted by {@link org.dasein.cloud.CloudProvider#matchesTags(java.util.Map, String, String, java.util.Map)}.
+ * The values to match are lower-cased once when the matcher is built rather than once per resource tested, and the
+ * resource name and description are lower-cased at most once per test. The matching rules are otherwise identical:
+ * the special keys <code>Name</code> and <code>Description</code> match case-insensitively against the resource name
+ * or description (or a tag of that name), and all other keys require a tag whose value contains the lower-cased value.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public final class TagMatcher {
+    static private final int NAME        = 1;
+    static private final int DESCRIPTION = 2;
+    static private final int TAG         = 3;
+
+    /**
+     * Compiles the specified tag criteria.
+     * @param valuesToMatch the tag criteria, keyed by tag name
+     * @return a matcher for the criteria
+     */
+    static public @Nonnull TagMatcher getInstance(@Nullable Map<String,String> valuesToMatch) {
+        return new TagMatcher(valuesToMatch);
+    }
+
+    private final String[] keys;
+    private final int[]    kinds;
+    private final String[] values;
+
+    private TagMatcher(@Nullable Map<String,String> valuesToMatch) {
+        int size = (valuesToMatch == null ? 0 : valuesToMatch.size());
+
+        keys = new String[size];
+        kinds = new int[size];
+        values = new String[size];
+        if( valuesToMatch != null ) {
+            int i = 0;
+
+            for( Map.Entry<String,String> entry : valuesToMatch.entrySet() ) {
+                String key = entry.getKey();
+                String value = entry.getValue();
+
+                keys[i] = key;
+                values[i] = (value == null ? null : value.toLowerCase());
+                kinds[i] = ("Name".equals(key) ? NAME : ("Description".equals(key) ? DESCRIPTION : TAG));
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @return true if this matcher has no criteria and thus matches everything
+     */
+    public boolean isEmpty() {
+        return (keys.length == 0);
+    }
+
+    /**
+     * @return the number of tag criteria in this matcher
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Tests a resource against the compiled criteria.
+     * @param currentValues the tags on the resource
+     * @param name the name of the resource
+     * @param description the description of the resource
+     * @return true if the resource matches all criteria
+     */
+    public boolean matches(@Nonnull Map<String,?> currentValues, @Nullable String name, @Nullable String description) {
+        String lowerName = null, lowerDescription = null;
+
+        for( int i=0; i<keys.length; i++ ) {
+            String v = values[i];
+            Object t = currentValues.get(keys[i]);
+
+            switch( kinds[i] ) {
+                case NAME:
+                    if( v == null ) {
+                        return false;
+                    }
+                    if( lowerName == null ) {
+                        lowerName = (name == null ? "" : name.toLowerCase());
+                    }
+                    if( !lowerName.contains(v) && (t == null || !t.toString().toLowerCase().contains(v)) ) {
+                        return false;
+                    }
+                    break;
+                case DESCRIPTION:
+                    if( v == null ) {
+                        return false;
+                    }
+                    if( lowerDescription == null ) {
+                        lowerDescription = (description == null ? "" : description.toLowerCase());
+                    }
+                    if( !lowerDescription.contains(v) && (t == null || !t.toString().toLowerCase().contains(v)) ) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if( t == null && v == null ) {
+                        continue;
+                    }
+                    if( t == null || v == null || !t.toString().contains(v) ) {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud;
+
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+
+public class CloudProviderPoolTestCase extends TestCase {
+    static public class NamedCloud extends AbstractCloud {
+        private final String name;
+
+        public NamedCloud() {
+            this("Named");
+        }
+
+        public NamedCloud(@Nonnull String name) {
+            this.name = name;
+        }
+
+        @Override
+        public @Nonnull String getCloudName() {
+            return name;
+        }
+
+        @Override
+        public @Nonnull String getProviderName() {
+            return name;
+        }
+    }
+
+    static public class UnnamedCloud extends NamedCloud {
+        public UnnamedCloud(@Nonnull String name) {
+            super(name);
+        }
+    }
+
+    private int               created = 0;
+    private CloudProviderPool pool;
+
+    @Before
+    public void setUp() {
+        pool = CloudProviderPool.getInstance(new ProviderFactory() {
+            public @Nonnull CloudProvider newProvider(@Nonnull ProviderContext context) {
+                created++;
+                return new AbstractCloud() {
+                    @Override
+                    public @Nonnull String getCloudName() {
+                        return "Test";
+                    }
+
+                    @Override
+                    public @Nonnull String getProviderName() {
+                        return "Test";
+                    }
+                };
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    private @Nonnull ProviderContext getContext(@Nonnull String account, @Nonnull String secret) {
+        ProviderContext ctx = new ProviderContext(account, "region");
+
+        ctx.setAccessKeys("public".getBytes(), secret.getBytes());
+        return ctx;
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        CloudProvider first = pool.borrowProvider(getContext("1", "secret"));
+
+        pool.returnProvider(first);
+        assertEquals("Provider was not idle", 1, pool.getIdleCount());
+        CloudProvider second = pool.borrowProvider(getContext("1", "secret"));
+
+        assertSame("Provider was not reused", first, second);
+        assertTrue("Reused provider is not connected", second.isConnected());
+        assertEquals("Provider was not counted as active", 1, pool.getActiveCount());
+        assertEquals("Too many providers were created", 1, created);
+    }
+
+    @Test
+    public void testContextIdentity() throws Exception {
+        CloudProvider first = pool.borrowProvider(getContext("1", "secret"));
+
+        pool.returnProvider(first);
+        assertNotSame("Provider was shared across credentials", first, pool.borrowProvider(getContext("1", "other")));
+        assertNotSame("Provider was shared across accounts", first, pool.borrowProvider(getContext("2", "secret")));
+        assertSame("Provider was not reused", first, pool.borrowProvider(getContext("1", "secret")));
+    }
+
+    @Test
+    public void testCallerCredentialsUntouched() throws Exception {
+        ProviderContext ctx = getContext("1", "secret");
+        CloudProvider provider = pool.borrowProvider(ctx);
+
+        pool.returnProvider(provider);
+        pool.withIdleTimeout(0L).evictIdle();
+        assertFalse("Evicted provider is still connected", provider.isConnected());
+        assertEquals("Caller credentials were cleared", "secret", new String(ctx.getAccessPrivate()));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        pool.withIdleTimeout(100L);
+        pool.returnProvider(pool.borrowProvider(getContext("1", "secret")));
+        Thread.sleep(1500L);
+        assertEquals("Idle provider was not evicted", 0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testReleaseWakesClose() throws Exception {
+        CloudProvider provider = pool.borrowProvider(getContext("1", "secret"));
+        long start;
+
+        provider.hold();
+        provider.close();
+        assertTrue("Held provider was closed", provider.isConnected());
+        start = System.currentTimeMillis();
+        provider.release();
+        while( provider.isConnected() && System.currentTimeMillis() - start < 5000L ) {
+            Thread.sleep(10L);
+        }
+        assertFalse("Provider did not close on release", provider.isConnected());
+        assertTrue("Close waited on a polling interval", System.currentTimeMillis() - start < 500L);
+    }
+
+    @Test
+    public void testProviderClassConstruction() throws Exception {
+        CloudProviderPool byClass = CloudProviderPool.getInstance(NamedCloud.class);
+
+        try {
+            CloudProvider provider = byClass.borrowProvider(getContext("1", "secret"));
+
+            assertTrue("The provider was not connected", provider.isConnected());
+            assertEquals("The provider was not built with its default constructor", "Named", provider.getCloudName());
+            byClass.returnProvider(provider);
+        }
+        finally {
+            byClass.close();
+        }
+        byClass = CloudProviderPool.getInstance(UnnamedCloud.class);
+        try {
+            byClass.borrowProvider(getContext("1", "secret"));
+            fail("A provider class without a default constructor was instantiated");
+        }
+        catch( InternalException expected ) {
+            // expected
+        }
+        finally {
+            byClass.close();
+        }
+    }
+}
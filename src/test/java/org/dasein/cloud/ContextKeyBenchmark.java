@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud;
+
+import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call cost of the cache and API trace lookups made on every cloud API call. Run with the JMH
+ * <code>-prof gc</code> option to confirm that neither lookup allocates once a context has been seen. After
+ * <code>mvn test-compile</code>, run {@link #main(String...)} or <code>org.openjdk.jmh.Main ContextKeyBenchmark</code>
+ * with the test classpath.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextKeyBenchmark {
+    static public void main(String ... args) throws Exception {
+        new Runner(new OptionsBuilder().include(ContextKeyBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private Cache<String> cache;
+    private CloudProvider provider;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ProviderContext ctx = new ProviderContext("1234.5678", "us-east-1");
+
+        ctx.setEndpoint("https://cloud.example.com");
+        ctx.setAccessKeys("public".getBytes(), "private".getBytes());
+        provider = new AbstractCloud() {
+            @Override
+            public @Nonnull String getCloudName() {
+                return "Example.Cloud";
+            }
+
+            @Override
+            public @Nonnull String getProviderName() {
+                return "Example";
+            }
+        };
+        provider.connect(ctx);
+        cache = Cache.getInstance(provider, "benchmark", String.class, CacheLevel.REGION_ACCOUNT);
+        cache.put(ctx, Collections.singletonList("item"));
+    }
+
+    @Benchmark
+    public Object cacheGet() {
+        //noinspection ConstantConditions
+        return cache.get(provider.getContext());
+    }
+
+    @Benchmark
+    public void trace() {
+        APITrace.trace(provider, "DescribeInstances");
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+public class ContextKeyTestCase extends TestCase {
+    static private abstract class Mutation {
+        public final boolean identity;
+        public final String  name;
+
+        public Mutation(@Nonnull String name, boolean identity) {
+            this.identity = identity;
+            this.name = name;
+        }
+
+        public abstract void apply(@Nonnull ProviderContext ctx);
+    }
+
+    private @Nonnull ProviderContext getContext(@Nullable String endpoint, @Nonnull String regionId, @Nonnull String accountNumber) {
+        ProviderContext ctx = new ProviderContext(accountNumber, regionId);
+
+        ctx.setEndpoint(endpoint);
+        ctx.setProviderName("Provider");
+        ctx.setCloudName("Cloud");
+        ctx.setAccessKeys("public".getBytes(), "private".getBytes());
+        return ctx;
+    }
+
+    private @Nonnull List<Mutation> getMutations() {
+        List<Mutation> mutations = new ArrayList<Mutation>();
+        final Properties props = new Properties();
+
+        props.setProperty("name", "value");
+        mutations.add(new Mutation("setAccessKeys", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setAccessKeys("p2".getBytes(), "s2".getBytes()); } });
+        mutations.add(new Mutation("setAccessPrivate", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setAccessPrivate("s2".getBytes()); } });
+        mutations.add(new Mutation("setAccessPublic", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setAccessPublic("p2".getBytes()); } });
+        mutations.add(new Mutation("setAccountNumber", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setAccountNumber("other"); } });
+        mutations.add(new Mutation("setCloudName", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setCloudName("Other Cloud"); } });
+        mutations.add(new Mutation("setCustomProperties", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setCustomProperties(props); } });
+        mutations.add(new Mutation("setEffectiveAccountNumber", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setEffectiveAccountNumber("effective"); } });
+        mutations.add(new Mutation("setEndpoint", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setEndpoint("https://other"); } });
+        mutations.add(new Mutation("setProviderName", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setProviderName("Other Provider"); } });
+        mutations.add(new Mutation("setRegionId", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setRegionId("other-region"); } });
+        mutations.add(new Mutation("setStorage", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStorage("Storage"); } });
+        mutations.add(new Mutation("setStorageAccountNumber", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStorageAccountNumber("storage"); } });
+        mutations.add(new Mutation("setStorageCustomProperties", false) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStorageCustomProperties(props); } });
+        mutations.add(new Mutation("setStorageEndpoint", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStorageEndpoint("https://storage"); } });
+        mutations.add(new Mutation("setStorageKeys", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStorageKeys("sp".getBytes(), "ss".getBytes()); } });
+        mutations.add(new Mutation("setStoragePrivate", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStoragePrivate("ss".getBytes()); } });
+        mutations.add(new Mutation("setStoragePublic", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStoragePublic("sp".getBytes()); } });
+        mutations.add(new Mutation("setStorageX509Cert", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStorageX509Cert("sc".getBytes()); } });
+        mutations.add(new Mutation("setStorageX509Key", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setStorageX509Key("sk".getBytes()); } });
+        mutations.add(new Mutation("setX509Cert", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setX509Cert("c".getBytes()); } });
+        mutations.add(new Mutation("setX509Key", true) { public void apply(@Nonnull ProviderContext ctx) { ctx.setX509Key("k".getBytes()); } });
+        return mutations;
+    }
+
+    @Test
+    public void testKeyReusedUntilChanged() {
+        ProviderContext ctx = getContext("https://cloud", "region", "account");
+        ContextKey key = ctx.getKey();
+
+        assertSame("The key was rebuilt without a change", key, ctx.getKey());
+        assertEquals("Equal contexts produced unequal keys", key, getContext("https://cloud", "region", "account").getKey());
+        assertEquals("Equal keys produced unequal hashes", key.hashCode(), getContext("https://cloud", "region", "account").getKey().hashCode());
+        assertEquals("A copy produced an unequal key", key, ctx.copy().getKey());
+    }
+
+    @Test
+    public void testEverySetterInvalidatesKey() {
+        for( Mutation mutation : getMutations() ) {
+            ProviderContext ctx = getContext("https://cloud", "region", "account");
+            ContextKey before = ctx.getKey();
+
+            mutation.apply(ctx);
+
+            ContextKey after = ctx.getKey();
+
+            assertNotSame(mutation.name + " did not invalidate the key", before, after);
+            if( mutation.identity ) {
+                assertFalse(mutation.name + " did not change the identity of the context", before.equals(after));
+            }
+            else {
+                assertEquals(mutation.name + " changed the identity of the context", before, after);
+            }
+        }
+    }
+
+    @Test
+    public void testClearInvalidatesKey() {
+        ProviderContext ctx = getContext("https://cloud", "region", "account");
+        ContextKey before = ctx.getKey();
+
+        ctx.clear();
+        assertFalse("Clearing the credentials did not change the key", before.equals(ctx.getKey()));
+    }
+
+    // the tuple under which the nested endpoint/region/account maps of the original cache stored an entry
+    private @Nonnull List<String> getNestedPath(@Nonnull ProviderContext ctx, @Nonnull CacheLevel level) {
+        List<String> path = new ArrayList<String>();
+
+        path.add(ctx.getEndpoint());
+        if( level.equals(CacheLevel.REGION) || level.equals(CacheLevel.REGION_ACCOUNT) ) {
+            path.add(ctx.getRegionId());
+        }
+        if( level.equals(CacheLevel.CLOUD_ACCOUNT) || level.equals(CacheLevel.REGION_ACCOUNT) ) {
+            path.add(ctx.getAccountNumber());
+        }
+        return path;
+    }
+
+    @Test
+    public void testScopesMatchNestedCacheKeys() {
+        List<ProviderContext> contexts = new ArrayList<ProviderContext>();
+
+        for( String endpoint : new String[] { null, "https://a", "https://b" } ) {
+            for( String region : new String[] { "r1", "r2" } ) {
+                for( String account : new String[] { "a1", "a2" } ) {
+                    ProviderContext ctx = getContext(endpoint, region, account);
+
+                    contexts.add(ctx);
+
+                    ProviderContext other = getContext(endpoint, region, account);
+
+                    // neither credentials nor names were part of the nested cache keys
+                    other.setAccessKeys("p2".getBytes(), "s2".getBytes());
+                    other.setProviderName("Other Provider");
+                    contexts.add(other);
+                }
+            }
+        }
+        for( CacheLevel level : CacheLevel.values() ) {
+            for( ProviderContext a : contexts ) {
+                for( ProviderContext b : contexts ) {
+                    boolean nested = getNestedPath(a, level).equals(getNestedPath(b, level));
+                    Object sa = a.getKey().getScope(level);
+                    Object sb = b.getKey().getScope(level);
+
+                    assertEquals("Scope equality differs from the nested keys at " + level + " for " + a.getKey() + " and " + b.getKey(), nested, sa.equals(sb));
+                    if( nested ) {
+                        assertEquals("Equal scopes have different hashes at " + level, sa.hashCode(), sb.hashCode());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCacheSharesEntriesByScope() {
+        CloudProvider provider = new LatencyCloudProvider("Scoped", 0L, 0, new LatencyCloudProvider.Probe());
+        Cache<String> cache = Cache.getInstance(provider, "contextKeyTest", String.class, CacheLevel.REGION);
+
+        cache.clear();
+        cache.put(getContext("https://a", "r1", "a1"), Collections.singletonList("r1"));
+        assertNotNull("Another account in the same region missed the entry", cache.get(getContext("https://a", "r1", "a2")));
+        assertNull("Another region hit the entry", cache.get(getContext("https://a", "r2", "a1")));
+        assertNull("Another endpoint hit the entry", cache.get(getContext("https://b", "r1", "a1")));
+        cache.clear();
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+public class AbstractSnapshotSupportTestCase extends TestCase {
+    static private class ListedSnapshotSupport extends AbstractSnapshotSupport {
+        public Set<FilterCriterion> nativeCriteria = EnumSet.noneOf(FilterCriterion.class);
+
+        public ListedSnapshotSupport() {
+            super(new LatencyCloudProvider("Listed", 0L, 0, new LatencyCloudProvider.Probe()));
+            getProvider().connect(new ProviderContext("account", "region"));
+        }
+
+        @Override
+        protected @Nonnull Set<FilterCriterion> getNativeFilterCriteria() {
+            return nativeCriteria;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForSnapshot(@Nonnull Locale locale) {
+            return "snapshot";
+        }
+
+        @Override
+        public boolean isSubscribed() throws InternalException, CloudException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull Iterable<Snapshot> listSnapshots() throws InternalException, CloudException {
+            List<Snapshot> snapshots = new ArrayList<Snapshot>();
+
+            for( int i=0; i<12; i++ ) {
+                Snapshot snapshot = new Snapshot();
+
+                snapshot.setProviderSnapshotId("snap-" + i);
+                snapshot.setName((i % 2 == 0 ? "daily-" : "weekly-") + i);
+                snapshot.setDescription("Snapshot " + i);
+                snapshot.setOwner(i % 3 == 0 ? "other" : "account");
+                snapshot.setRegionId("region");
+                snapshot.setCurrentState(SnapshotState.AVAILABLE);
+                if( i % 4 == 0 ) {
+                    snapshot.setTag("env", "prod");
+                }
+                snapshots.add(snapshot);
+            }
+            return snapshots;
+        }
+    }
+
+    private void assertListingMatches(@Nonnull ListedSnapshotSupport support, @Nonnull SnapshotFilterOptions options, @Nonnull String description) throws Exception {
+        ArrayList<String> expected = new ArrayList<String>();
+        ArrayList<String> actual = new ArrayList<String>();
+
+        for( Snapshot snapshot : support.listSnapshots() ) {
+            if( options.matches(snapshot, "account") ) {
+                expected.add(snapshot.getProviderSnapshotId());
+            }
+        }
+        for( Snapshot snapshot : support.listSnapshots(options) ) {
+            actual.add(snapshot.getProviderSnapshotId());
+        }
+        assertEquals("The filtered listing disagrees with matches() for " + description, expected, actual);
+    }
+
+    @Test
+    public void testFilteredListingAgreesWithMatches() throws Exception {
+        List<Set<FilterCriterion>> supported = new ArrayList<Set<FilterCriterion>>();
+        HashMap<String,String> tags = new HashMap<String, String>();
+
+        tags.put("env", "prod");
+        supported.add(EnumSet.noneOf(FilterCriterion.class));
+        supported.add(EnumSet.of(FilterCriterion.ACCOUNT));
+        supported.add(EnumSet.of(FilterCriterion.ACCOUNT, FilterCriterion.REGEX));
+        supported.add(EnumSet.allOf(FilterCriterion.class));
+        for( Set<FilterCriterion> criteria : supported ) {
+            ListedSnapshotSupport support = new ListedSnapshotSupport();
+
+            support.nativeCriteria = criteria;
+            for( boolean matchesAny : new boolean[] { false, true } ) {
+                String mode = (matchesAny ? "any" : "all") + " with native " + criteria;
+
+                assertListingMatches(support, SnapshotFilterOptions.getInstance(matchesAny), "no criteria matching " + mode);
+                assertListingMatches(support, SnapshotFilterOptions.getInstance(matchesAny, "daily-.*"), "a regex matching " + mode);
+                assertListingMatches(support, SnapshotFilterOptions.getInstance(matchesAny).withAccountNumber("other"), "an account matching " + mode);
+                assertListingMatches(support, SnapshotFilterOptions.getInstance(matchesAny, "weekly-.*").withAccountNumber("account"), "a regex and account matching " + mode);
+                assertListingMatches(support, SnapshotFilterOptions.getInstance(matchesAny, "weekly-.*").withTags(tags).withAccountNumber("other"), "all criteria matching " + mode);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchingAnyWithoutCriteriaListsNothing() throws Exception {
+        ListedSnapshotSupport support = new ListedSnapshotSupport();
+
+        assertFalse("Options matching any of no criteria should list nothing", support.listSnapshots(SnapshotFilterOptions.getInstance(true)).iterator().hasNext());
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.dasein.cloud.util.Page;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AbstractVMSupportTestCase extends TestCase {
+    static private class PagedVMSupport extends AbstractVMSupport {
+        public final AtomicInteger pages = new AtomicInteger(0);
+
+        public int                  failAtPage     = -1;
+        public Set<FilterCriterion> nativeCriteria = EnumSet.noneOf(FilterCriterion.class);
+
+        private final int pageCount;
+        private final int pageSize;
+
+        public PagedVMSupport(int pageCount, int pageSize) {
+            super(new LatencyCloudProvider("Paged", 0L, 0, new LatencyCloudProvider.Probe()));
+            getProvider().connect(new ProviderContext("account", "region"));
+            this.pageCount = pageCount;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        protected @Nonnull Set<FilterCriterion> getNativeFilterCriteria() {
+            return nativeCriteria;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForServer(@Nonnull Locale locale) {
+            return "server";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+            throw new CloudException("Launching is not supported");
+        }
+
+        @Override
+        protected @Nonnull Page<VirtualMachine> listVirtualMachinePage(@Nullable String pageToken) throws InternalException, CloudException {
+            int page = (pageToken == null ? 0 : Integer.parseInt(pageToken));
+            ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+
+            pages.incrementAndGet();
+            if( page == failAtPage ) {
+                throw new CloudException("Page " + page + " failed");
+            }
+            for( int i=0; i<pageSize; i++ ) {
+                VirtualMachine vm = new VirtualMachine();
+                int n = page * pageSize + i;
+
+                vm.setProviderVirtualMachineId("i-" + n);
+                vm.setName((n % 2 == 0 ? "web-" : "db-") + n);
+                vm.setDescription("vm " + n);
+                vm.setCurrentState(n % 3 == 0 ? VmState.STOPPED : VmState.RUNNING);
+                if( n % 4 == 0 ) {
+                    vm.setTag("env", "prod");
+                }
+                vms.add(vm);
+            }
+            return Page.getInstance(vms, page + 1 < pageCount ? String.valueOf(page + 1) : null);
+        }
+
+        @Override
+        public void terminate(@Nonnull String vmId) throws InternalException, CloudException {
+            throw new CloudException("Termination is not supported");
+        }
+    }
+
+    @Test
+    public void testDefaultListingStreamsPages() throws Exception {
+        PagedVMSupport support = new PagedVMSupport(10, 5);
+        Iterator<VirtualMachine> it = support.listVirtualMachines().iterator();
+
+        assertEquals("No page should be fetched before iteration", 0, support.pages.get());
+        assertEquals("i-0", it.next().getProviderVirtualMachineId());
+        assertTrue("Only the first page and at most one prefetched page should be fetched", support.pages.get() <= 2);
+
+        int count = 1;
+
+        while( it.hasNext() ) {
+            it.next();
+            count++;
+        }
+        assertEquals("Every virtual machine should be listed", 50, count);
+    }
+
+    @Test
+    public void testFilteredListingStreamsPages() throws Exception {
+        PagedVMSupport support = new PagedVMSupport(10, 5);
+        Iterator<VirtualMachine> it = support.listVirtualMachines(VMFilterOptions.getInstance("web-.*")).iterator();
+
+        assertEquals("web-0", it.next().getName());
+        assertTrue("The filtered listing should not read ahead of the consumer", support.pages.get() <= 2);
+    }
+
+    private void assertListingMatches(@Nonnull PagedVMSupport support, @Nonnull VMFilterOptions options, @Nonnull String description) throws Exception {
+        ArrayList<String> expected = new ArrayList<String>();
+        ArrayList<String> actual = new ArrayList<String>();
+
+        for( VirtualMachine vm : support.listVirtualMachines() ) {
+            if( options.matches(vm) ) {
+                expected.add(vm.getProviderVirtualMachineId());
+            }
+        }
+        for( VirtualMachine vm : support.listVirtualMachines(options) ) {
+            actual.add(vm.getProviderVirtualMachineId());
+        }
+        assertEquals("The filtered listing disagrees with matches() for " + description, expected, actual);
+    }
+
+    @Test
+    public void testFilteredListingAgreesWithMatches() throws Exception {
+        List<Set<FilterCriterion>> supported = new ArrayList<Set<FilterCriterion>>();
+        HashMap<String,String> tags = new HashMap<String, String>();
+
+        tags.put("env", "prod");
+        supported.add(EnumSet.noneOf(FilterCriterion.class));
+        supported.add(EnumSet.of(FilterCriterion.STATE));
+        supported.add(EnumSet.of(FilterCriterion.STATE, FilterCriterion.REGEX));
+        supported.add(EnumSet.allOf(FilterCriterion.class));
+        for( Set<FilterCriterion> criteria : supported ) {
+            PagedVMSupport support = new PagedVMSupport(4, 6);
+
+            support.nativeCriteria = criteria;
+            for( boolean matchesAny : new boolean[] { false, true } ) {
+                String mode = (matchesAny ? "any" : "all") + " with native " + criteria;
+
+                assertListingMatches(support, VMFilterOptions.getInstance(matchesAny), "no criteria matching " + mode);
+                assertListingMatches(support, VMFilterOptions.getInstance(matchesAny, "web-.*"), "a regex matching " + mode);
+                assertListingMatches(support, VMFilterOptions.getInstance(matchesAny).withVmStates(VmState.STOPPED), "a state matching " + mode);
+                assertListingMatches(support, VMFilterOptions.getInstance(matchesAny, "db-.*").withVmStates(VmState.STOPPED), "a regex and state matching " + mode);
+                assertListingMatches(support, VMFilterOptions.getInstance(matchesAny, "db-.*").withTags(tags).withVmStates(VmState.RUNNING), "all criteria matching " + mode);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchingAnyWithoutCriteriaListsNothing() throws Exception {
+        PagedVMSupport support = new PagedVMSupport(2, 5);
+
+        assertFalse("Options matching any of no criteria should list nothing", support.listVirtualMachines(VMFilterOptions.getInstance(true)).iterator().hasNext());
+        assertTrue("Options matching all of no criteria should list everything", support.listVirtualMachines(VMFilterOptions.getInstance(false)).iterator().hasNext());
+    }
+
+    @Test
+    public void testPageFailuresRaisedAsCheckedExceptions() throws Exception {
+        PagedVMSupport support = new PagedVMSupport(3, 5);
+
+        support.failAtPage = 1;
+        try {
+            support.listVirtualMachineStatus();
+            fail("A failed page should fail the status listing");
+        }
+        catch( CloudException expected ) {
+            assertEquals("The original error should be raised", "Page 1 failed", expected.getMessage());
+        }
+        try {
+            support.getVirtualMachine("i-12");
+            fail("A failed page should fail the lookup");
+        }
+        catch( CloudException expected ) {
+            assertEquals("The original error should be raised", "Page 1 failed", expected.getMessage());
+        }
+        assertNotNull("VMs before the failed page should still be found", support.getVirtualMachine("i-3"));
+    }
+}
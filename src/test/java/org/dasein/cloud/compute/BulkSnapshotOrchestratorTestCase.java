@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ResourceStatus;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkSnapshotOrchestratorTestCase extends TestCase {
+    static private class SlowSnapshotSupport extends AbstractSnapshotSupport {
+        public final AtomicInteger               accountActive;
+        public final AtomicInteger               accountPeak;
+        public final AtomicInteger               active   = new AtomicInteger(0);
+        public final AtomicInteger               calls    = new AtomicInteger(0);
+        public final AtomicInteger               peak     = new AtomicInteger(0);
+        public final Map<String,AtomicInteger>   pending  = new ConcurrentHashMap<String, AtomicInteger>();
+        public final AtomicInteger               polls    = new AtomicInteger(0);
+        public final AtomicInteger               regionActive;
+        public final AtomicInteger               regionPeak;
+        public final int                         throttleEvery;
+
+        public SlowSnapshotSupport(@Nonnull AtomicInteger accountActive, @Nonnull AtomicInteger accountPeak, int throttleEvery) {
+            this(accountActive, accountPeak, new AtomicInteger(0), new AtomicInteger(0), throttleEvery);
+        }
+
+        public SlowSnapshotSupport(@Nonnull AtomicInteger accountActive, @Nonnull AtomicInteger accountPeak, @Nonnull AtomicInteger regionActive, @Nonnull AtomicInteger regionPeak, int throttleEvery) {
+            super(new LatencyCloudProvider("Snapshots", 0L, 0, new LatencyCloudProvider.Probe()));
+            this.accountActive = accountActive;
+            this.accountPeak = accountPeak;
+            this.regionActive = regionActive;
+            this.regionPeak = regionPeak;
+            this.throttleEvery = throttleEvery;
+        }
+
+        @Override
+        public String createSnapshot(@Nonnull SnapshotCreateOptions options) throws CloudException, InternalException {
+            int call = calls.incrementAndGet();
+
+            if( "vol-bad".equals(options.getVolumeId()) ) {
+                throw new CloudException("No such volume: vol-bad");
+            }
+            raise(active, peak);
+            raise(accountActive, accountPeak);
+            raise(regionActive, regionPeak);
+            try {
+                Thread.sleep(5L);
+                if( throttleEvery > 0 && call % throttleEvery == 0 ) {
+                    throw new CloudException(CloudErrorType.THROTTLING, 400, "RequestLimitExceeded", "Request limit exceeded");
+                }
+                String id = "snap-" + options.getVolumeId();
+
+                if( !"vol-lost".equals(options.getVolumeId()) ) {
+                    pending.put(id, new AtomicInteger(0));
+                }
+                return id;
+            }
+            catch( InterruptedException e ) {
+                throw new InternalException(e);
+            }
+            finally {
+                regionActive.decrementAndGet();
+                accountActive.decrementAndGet();
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForSnapshot(@Nonnull Locale locale) {
+            return "snapshot";
+        }
+
+        @Override
+        public boolean isSubscribed() throws InternalException, CloudException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull Iterable<ResourceStatus> listSnapshotStatus() throws InternalException, CloudException {
+            List<ResourceStatus> status = new ArrayList<ResourceStatus>();
+
+            polls.incrementAndGet();
+            for( Map.Entry<String,AtomicInteger> entry : pending.entrySet() ) {
+                // every snapshot is seen pending once before it becomes available
+                status.add(new ResourceStatus(entry.getKey(), entry.getValue().getAndIncrement() > 0 ? SnapshotState.AVAILABLE : SnapshotState.PENDING));
+            }
+            return status;
+        }
+
+        @Override
+        public @Nonnull Iterable<Snapshot> listSnapshots() throws InternalException, CloudException {
+            return new ArrayList<Snapshot>();
+        }
+
+        private void raise(@Nonnull AtomicInteger counter, @Nonnull AtomicInteger max) {
+            int current = counter.incrementAndGet();
+            int m;
+
+            while( current > (m = max.get()) && !max.compareAndSet(m, current) ) {
+                // retry
+            }
+        }
+    }
+
+    private @Nonnull SnapshotCreateOptions[] getOptions(@Nonnull String prefix, int count) {
+        SnapshotCreateOptions[] options = new SnapshotCreateOptions[count];
+
+        for( int i=0; i<count; i++ ) {
+            options[i] = SnapshotCreateOptions.getInstanceForCreate(prefix + "-" + i, "backup " + i, "Backup of " + prefix + "-" + i);
+        }
+        return options;
+    }
+
+    @Test
+    public void testConcurrencyLimits() throws Exception {
+        BulkSnapshotOrchestrator orchestrator = BulkSnapshotOrchestrator.getInstance().withAccountConcurrencyLimit(3).withRegionConcurrencyLimit(2).withPollInterval(20L).withBackoff(5L, 20L);
+        AtomicInteger[] accountActive = { new AtomicInteger(0), new AtomicInteger(0) };
+        AtomicInteger[] accountPeak = { new AtomicInteger(0), new AtomicInteger(0) };
+        AtomicInteger[] regionActive = { new AtomicInteger(0), new AtomicInteger(0), new AtomicInteger(0) };
+        AtomicInteger[] regionPeak = { new AtomicInteger(0), new AtomicInteger(0), new AtomicInteger(0) };
+        List<SlowSnapshotSupport> supports = new ArrayList<SlowSnapshotSupport>();
+
+        try {
+            for( int a=0; a<2; a++ ) {
+                for( int r=0; r<3; r++ ) {
+                    SlowSnapshotSupport support = new SlowSnapshotSupport(accountActive[a], accountPeak[a], regionActive[r], regionPeak[r], 0);
+
+                    supports.add(support);
+                    orchestrator.submit(support, "account-" + a, "region-" + r, getOptions("vol-" + a + "-" + r, 20));
+                }
+            }
+            assertTrue("Snapshots did not complete", orchestrator.awaitCompletion(30, TimeUnit.SECONDS));
+            for( BulkSnapshotOrchestrator.Job job : orchestrator.getJobs() ) {
+                assertEquals("Job did not complete: " + job, BulkSnapshotOrchestrator.Status.COMPLETE, job.getStatus());
+                assertEquals("Wrong snapshot ID", "snap-" + job.getOptions().getVolumeId(), job.getSnapshotId());
+            }
+            assertEquals("Wrong number of jobs", 120, orchestrator.getJobs().size());
+            for( SlowSnapshotSupport support : supports ) {
+                assertTrue("Region limit exceeded: " + support.peak.get(), support.peak.get() <= 2);
+                assertEquals("Wrong number of create calls", 20, support.calls.get());
+            }
+            for( AtomicInteger peak : accountPeak ) {
+                assertTrue("Account limit exceeded: " + peak.get(), peak.get() <= 3);
+                assertTrue("Account requests were not parallel: " + peak.get(), peak.get() > 1);
+            }
+            for( AtomicInteger peak : regionPeak ) {
+                assertTrue("Region limit exceeded across accounts: " + peak.get(), peak.get() <= 2);
+            }
+        }
+        finally {
+            orchestrator.shutdown();
+        }
+    }
+
+    @Test
+    public void testThrottlingRetry() throws Exception {
+        BulkSnapshotOrchestrator orchestrator = BulkSnapshotOrchestrator.getInstance().withPollInterval(20L).withBackoff(5L, 20L).withMaxRetries(10);
+        SlowSnapshotSupport support = new SlowSnapshotSupport(new AtomicInteger(0), new AtomicInteger(0), 3);
+
+        try {
+            List<BulkSnapshotOrchestrator.Job> jobs = orchestrator.submit(support, "account", "region", getOptions("vol", 30));
+
+            assertTrue("Snapshots did not complete", orchestrator.awaitCompletion(30, TimeUnit.SECONDS));
+            int attempts = 0;
+
+            for( BulkSnapshotOrchestrator.Job job : jobs ) {
+                assertEquals("Job did not complete: " + job, BulkSnapshotOrchestrator.Status.COMPLETE, job.getStatus());
+                attempts += job.getAttempts();
+            }
+            assertEquals("Attempts do not match create calls", support.calls.get(), attempts);
+            assertTrue("No requests were retried", attempts > 30);
+        }
+        finally {
+            orchestrator.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+        BulkSnapshotOrchestrator orchestrator = BulkSnapshotOrchestrator.getInstance().withPollInterval(20L).withBackoff(1L, 1L).withMaxRetries(2);
+        SlowSnapshotSupport throttled = new SlowSnapshotSupport(new AtomicInteger(0), new AtomicInteger(0), 1);
+        SlowSnapshotSupport support = new SlowSnapshotSupport(new AtomicInteger(0), new AtomicInteger(0), 0);
+
+        try {
+            BulkSnapshotOrchestrator.Job always = orchestrator.submit(throttled, "account", "region-1", getOptions("vol", 1)).get(0);
+            BulkSnapshotOrchestrator.Job bad = orchestrator.submit(support, "account", "region-2", SnapshotCreateOptions.getInstanceForCreate("vol-bad", "bad", "bad")).get(0);
+
+            assertTrue("Snapshots did not finish", orchestrator.awaitCompletion(30, TimeUnit.SECONDS));
+            assertEquals("Throttled job should fail", BulkSnapshotOrchestrator.Status.FAILED, always.getStatus());
+            assertEquals("Throttled job should be retried twice", 3, always.getAttempts());
+            assertEquals("Throttled job has the wrong error", CloudErrorType.THROTTLING, ((CloudException)always.getError()).getErrorType());
+            assertEquals("Bad job should fail", BulkSnapshotOrchestrator.Status.FAILED, bad.getStatus());
+            assertEquals("Bad job should not be retried", 1, bad.getAttempts());
+            assertEquals("Nothing is outstanding", 0, orchestrator.getOutstandingCount());
+        }
+        finally {
+            orchestrator.shutdown();
+        }
+    }
+
+    @Test
+    public void testSinglePollPerInterval() throws Exception {
+        BulkSnapshotOrchestrator orchestrator = BulkSnapshotOrchestrator.getInstance().withPollInterval(50L);
+        SlowSnapshotSupport support = new SlowSnapshotSupport(new AtomicInteger(0), new AtomicInteger(0), 0);
+
+        try {
+            long start = System.currentTimeMillis();
+
+            orchestrator.submit(support, "account", "region", getOptions("vol", 100));
+            assertTrue("Snapshots did not complete", orchestrator.awaitCompletion(30, TimeUnit.SECONDS));
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertTrue("Status polled per snapshot: " + support.polls.get(), support.polls.get() <= elapsed/50L + 1);
+            assertTrue("Status was never polled", support.polls.get() >= 2);
+        }
+        finally {
+            orchestrator.shutdown();
+        }
+    }
+
+    @Test
+    public void testMissingSnapshotTimesOut() throws Exception {
+        BulkSnapshotOrchestrator orchestrator = BulkSnapshotOrchestrator.getInstance().withPollInterval(20L).withMissingTimeout(100L);
+        SlowSnapshotSupport support = new SlowSnapshotSupport(new AtomicInteger(0), new AtomicInteger(0), 0);
+
+        try {
+            BulkSnapshotOrchestrator.Job found = orchestrator.submit(support, "account", "region", getOptions("vol", 1)).get(0);
+            BulkSnapshotOrchestrator.Job lost = orchestrator.submit(support, "account", "region", SnapshotCreateOptions.getInstanceForCreate("vol-lost", "lost", "lost")).get(0);
+
+            assertTrue("Snapshots did not finish", orchestrator.awaitCompletion(5, TimeUnit.SECONDS));
+            assertEquals("Reported job should complete", BulkSnapshotOrchestrator.Status.COMPLETE, found.getStatus());
+            assertEquals("Unreported job should fail", BulkSnapshotOrchestrator.Status.FAILED, lost.getStatus());
+            assertNotNull("Unreported job has no error", lost.getError());
+        }
+        finally {
+            orchestrator.shutdown();
+        }
+    }
+
+    @Test
+    public void testHistoryBounded() throws Exception {
+        BulkSnapshotOrchestrator orchestrator = BulkSnapshotOrchestrator.getInstance().withPollInterval(20L).withHistoryLimit(10);
+        SlowSnapshotSupport support = new SlowSnapshotSupport(new AtomicInteger(0), new AtomicInteger(0), 0);
+
+        try {
+            orchestrator.submit(support, "account", "region", getOptions("vol", 30));
+            assertTrue("Outstanding jobs must all be reported", orchestrator.getJobs().size() > 10);
+            assertTrue("Snapshots did not complete", orchestrator.awaitCompletion(30, TimeUnit.SECONDS));
+            assertEquals("Finished jobs not bounded", 10, orchestrator.getJobs().size());
+            for( BulkSnapshotOrchestrator.Job job : orchestrator.getJobs() ) {
+                assertTrue("Unfinished job: " + job, job.getStatus().isFinished());
+            }
+        }
+        finally {
+            orchestrator.shutdown();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import org.dasein.cloud.util.CompiledFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filtering a large VM listing by testing each VM against {@link VMFilterOptions#matches(VirtualMachine)},
+ * which recompiles the criteria on every call as the filter options always have, against compiling the options once
+ * with {@link VMFilterOptions#compile()}. After <code>mvn test-compile</code>, run {@link #main(String...)} or
+ * <code>org.openjdk.jmh.Main FilterBenchmark</code> with the test classpath.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    static public void main(String ... args) throws Exception {
+        new Runner(new OptionsBuilder().include(FilterBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Param({ "10000" })
+    public int vms;
+
+    @Param({ "true", "false" })
+    public boolean matchesAny;
+
+    private VMFilterOptions      options;
+    private List<VirtualMachine> listing;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String,String> tags = new HashMap<String, String>();
+
+        tags.put("Name", "WEB");
+        tags.put("env", "prod");
+        options = VMFilterOptions.getInstance(matchesAny, "web-[0-9]+-prod").withTags(tags);
+        listing = new ArrayList<VirtualMachine>();
+        for( int i=0; i<vms; i++ ) {
+            VirtualMachine vm = new VirtualMachine();
+
+            vm.setProviderVirtualMachineId("i-" + i);
+            vm.setName((i % 3 == 0 ? "web-" : "db-") + i + (i % 2 == 0 ? "-prod" : "-dev"));
+            vm.setDescription("Benchmark VM " + i);
+            vm.setTag("env", (i % 2 == 0 ? "prod" : "dev"));
+            vm.setTag("owner", "team-" + (i % 10));
+            listing.add(vm);
+        }
+    }
+
+    @Benchmark
+    public int matchEach() {
+        int count = 0;
+
+        for( VirtualMachine vm : listing ) {
+            if( options.matches(vm) ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int compileOnce() {
+        CompiledFilter<VirtualMachine> filter = options.compile();
+        int count = 0;
+
+        for( VirtualMachine vm : listing ) {
+            if( filter.matches(vm) ) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,432 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * The legacy* methods below are the matches() bodies of the filter options classes as they stood before the filters
+ * were compiled, and serve as the reference the compiled filters must agree with.
+ */
+public class FilterOptionsTestCase extends TestCase {
+    static private final String[] ACCOUNTS  = { "1001", "1002", "1003" };
+    static private final String[] NAMES     = { "web-01", "Web-02", "db-master", "DB-replica", "cache" };
+    static private final String[] REGEXES   = { "web.*", ".*-0[12]", "db-.*", "prod", "[a-z]+" };
+    static private final String[] TAG_KEYS  = { "Name", "Description", "env", "role" };
+    static private final String[] TAG_VALUES = { "prod", "Prod", "dev", "web", "DB", "master" };
+    static private final String[] VM_IDS    = { "i-1", "i-2", "i-3" };
+
+    static private final int ITERATIONS = 5000;
+
+    static private boolean legacyMatchesTags(@Nonnull Map<String,?> currentValues, @Nonnull String name, @Nonnull String description, @Nullable Map<String,String> valuesToMatch) {
+        if( valuesToMatch != null && !valuesToMatch.isEmpty() ) {
+            name = name.toLowerCase();
+            description = description.toLowerCase();
+            for( Map.Entry<String,String> entry : valuesToMatch.entrySet() ) {
+                String v = (entry.getValue() == null ? null : entry.getValue().toLowerCase());
+                Object t = currentValues.get(entry.getKey());
+
+                if( entry.getKey().equals("Name") ) {
+                    if( v != null ) {
+                        if( name.contains(v) || (t != null && t.toString().toLowerCase().contains(v)) ) {
+                            continue;
+                        }
+                    }
+                    return false;
+                }
+                if( entry.getKey().equals("Description") ) {
+                    if( v != null ) {
+                        if( description.contains(v) || (t != null && t.toString().toLowerCase().contains(v)) ) {
+                            continue;
+                        }
+                    }
+                    return false;
+                }
+                if( t == null && v == null ) {
+                    continue;
+                }
+                if( t == null ) {
+                    return false;
+                }
+                if( v == null ) {
+                    return false;
+                }
+                if( !t.toString().contains(v) ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static private boolean legacyMatchesRegex(@Nonnull String regex, @Nonnull String name, @Nonnull String description, @Nonnull Map<String,String> tags) {
+        if( name.matches(regex) || description.matches(regex) ) {
+            return true;
+        }
+        for( Map.Entry<String,String> tag : tags.entrySet() ) {
+            String value = tag.getValue();
+
+            if( value != null && value.matches(regex) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static private boolean legacyMatches(@Nonnull VMFilterOptions options, @Nonnull VirtualMachine vm) {
+        boolean matchesAny = options.isMatchesAny();
+        String regex = options.getRegex();
+        Map<String,String> tags = options.getTags();
+
+        if( regex != null ) {
+            boolean matches = legacyMatchesRegex(regex, vm.getName(), vm.getDescription(), vm.getTags());
+
+            if( !matches && !matchesAny ) {
+                return false;
+            }
+            else if( matches && matchesAny ) {
+                return true;
+            }
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            if( !legacyMatchesTags(vm.getTags(), vm.getName(), vm.getDescription(), tags) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        return !matchesAny;
+    }
+
+    static private boolean legacyMatches(@Nonnull ImageFilterOptions options, @Nonnull MachineImage image) {
+        boolean matchesAny = options.isMatchesAny();
+        String regex = options.getRegex();
+        Map<String,String> tags = options.getTags();
+
+        if( options.getImageClass() != null ) {
+            if( !options.getImageClass().equals(image.getImageClass()) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        if( options.getArchitecture() != null ) {
+            if( !options.getArchitecture().equals(image.getArchitecture()) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        if( options.getPlatform() != null ) {
+            if( !options.getPlatform().equals(image.getPlatform()) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        if( options.getAccountNumber() != null ) {
+            if( !options.getAccountNumber().equals(image.getProviderOwnerId()) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        if( regex != null ) {
+            boolean matches = legacyMatchesRegex(regex, image.getName(), image.getDescription(), image.getTags());
+
+            if( !matches && !matchesAny ) {
+                return false;
+            }
+            else if( matches && matchesAny ) {
+                return true;
+            }
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            if( !legacyMatchesTags(image.getTags(), image.getName(), image.getDescription(), tags) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        return !matchesAny;
+    }
+
+    static private boolean legacyMatches(@Nonnull VolumeFilterOptions options, @Nonnull Volume volume) {
+        boolean matchesAny = options.isMatchesAny();
+        String regex = options.getRegex();
+        Map<String,String> tags = options.getTags();
+
+        if( options.getAttachedTo() != null ) {
+            if( options.getAttachedTo().equals(volume.getProviderVirtualMachineId()) ) {
+                if( matchesAny ) {
+                    return true;
+                }
+            }
+            else if( !matchesAny ) {
+                return false;
+            }
+        }
+        if( regex != null ) {
+            boolean matches = legacyMatchesRegex(regex, volume.getName(), volume.getDescription(), volume.getTags());
+
+            if( !matches && !matchesAny ) {
+                return false;
+            }
+            else if( matches && matchesAny ) {
+                return true;
+            }
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            if( !legacyMatchesTags(volume.getTags(), volume.getName(), volume.getDescription(), tags) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        return !matchesAny;
+    }
+
+    static private boolean legacyMatches(@Nonnull SnapshotFilterOptions options, @Nonnull Snapshot snapshot, @Nullable String currentAccount) {
+        boolean matchesAny = options.isMatchesAny();
+        String accountNumber = options.getAccountNumber();
+        String regex = options.getRegex();
+        Map<String,String> tags = options.getTags();
+
+        if( accountNumber == null ) {
+            if( currentAccount != null && !currentAccount.equals(snapshot.getOwner()) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+        }
+        else {
+            if( !accountNumber.equals(snapshot.getOwner()) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        if( regex != null ) {
+            boolean matches = legacyMatchesRegex(regex, snapshot.getName(), snapshot.getDescription(), snapshot.getTags());
+
+            if( !matches && !matchesAny ) {
+                return false;
+            }
+            else if( matches && matchesAny ) {
+                return true;
+            }
+        }
+        if( tags != null && !tags.isEmpty() ) {
+            if( !legacyMatchesTags(snapshot.getTags(), snapshot.getName(), snapshot.getDescription(), tags) ) {
+                if( !matchesAny ) {
+                    return false;
+                }
+            }
+            else if( matchesAny ) {
+                return true;
+            }
+        }
+        return !matchesAny;
+    }
+
+    private final Random random = new Random(20130402L);
+
+    private @Nonnull <T> T pick(@Nonnull T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private @Nullable String maybe(@Nonnull String[] values) {
+        return (random.nextInt(3) == 0 ? null : pick(values));
+    }
+
+    private @Nonnull Map<String,String> randomTags(int max) {
+        HashMap<String,String> tags = new HashMap<String, String>();
+        int count = random.nextInt(max + 1);
+
+        for( int i=0; i<count; i++ ) {
+            tags.put(pick(TAG_KEYS), pick(TAG_VALUES));
+        }
+        return tags;
+    }
+
+    @Test
+    public void testVMFilterMatchesLegacy() {
+        for( int i=0; i<ITERATIONS; i++ ) {
+            VMFilterOptions options = VMFilterOptions.getInstance(random.nextBoolean());
+            String regex = maybe(REGEXES);
+            VirtualMachine vm = new VirtualMachine();
+
+            if( regex != null ) {
+                options.matchingRegex(regex);
+            }
+            if( random.nextBoolean() ) {
+                options.withTags(randomTags(2));
+            }
+            vm.setName(pick(NAMES));
+            vm.setDescription(pick(NAMES) + " " + pick(TAG_VALUES));
+            vm.getTags().putAll(randomTags(3));
+            assertEquals("Compiled VM filter disagrees with the legacy filter for " + options.getRegex() + " " + options.getTags() + " on " + vm.getName() + " " + vm.getTags(), legacyMatches(options, vm), options.matches(vm));
+        }
+    }
+
+    @Test
+    public void testImageFilterMatchesLegacy() {
+        for( int i=0; i<ITERATIONS; i++ ) {
+            ImageFilterOptions options = ImageFilterOptions.getInstance(random.nextBoolean());
+            String regex = maybe(REGEXES);
+            String account = maybe(ACCOUNTS);
+
+            if( regex != null ) {
+                options.matchingRegex(regex);
+            }
+            if( account != null ) {
+                options.withAccountNumber(account);
+            }
+            if( random.nextBoolean() ) {
+                options.withImageClass(pick(ImageClass.values()));
+            }
+            if( random.nextBoolean() ) {
+                options.withArchitecture(pick(Architecture.values()));
+            }
+            if( random.nextBoolean() ) {
+                options.onPlatform(random.nextBoolean() ? Platform.UBUNTU : Platform.WINDOWS);
+            }
+            if( random.nextBoolean() ) {
+                options.withTags(randomTags(2));
+            }
+            MachineImage image = MachineImage.getImageInstance(pick(ACCOUNTS), "region", "ami-" + i, pick(ImageClass.values()), MachineImageState.ACTIVE, pick(NAMES), pick(NAMES) + " " + pick(TAG_VALUES), pick(Architecture.values()), random.nextBoolean() ? Platform.UBUNTU : Platform.WINDOWS);
+
+            image.getTags().putAll(randomTags(3));
+            assertEquals("Compiled image filter disagrees with the legacy filter for " + options + " on " + image, legacyMatches(options, image), options.matches(image));
+        }
+    }
+
+    @Test
+    public void testVolumeFilterMatchesLegacy() {
+        for( int i=0; i<ITERATIONS; i++ ) {
+            VolumeFilterOptions options = VolumeFilterOptions.getInstance(random.nextBoolean());
+            String regex = maybe(REGEXES);
+            String vmId = maybe(VM_IDS);
+            Volume volume = new Volume();
+
+            if( regex != null ) {
+                options.matchingRegex(regex);
+            }
+            if( vmId != null ) {
+                options.attachedTo(vmId);
+            }
+            if( random.nextBoolean() ) {
+                options.withTags(randomTags(2));
+            }
+            volume.setName(pick(NAMES));
+            volume.setDescription(pick(NAMES) + " " + pick(TAG_VALUES));
+            volume.setProviderVirtualMachineId(maybe(VM_IDS));
+            volume.getTags().putAll(randomTags(3));
+            assertEquals("Compiled volume filter disagrees with the legacy filter for " + options + " on " + volume.getName() + " " + volume.getTags(), legacyMatches(options, volume), options.matches(volume));
+        }
+    }
+
+    @Test
+    public void testSnapshotFilterMatchesLegacy() {
+        for( int i=0; i<ITERATIONS; i++ ) {
+            SnapshotFilterOptions options = SnapshotFilterOptions.getInstance(random.nextBoolean());
+            String regex = maybe(REGEXES);
+            String account = maybe(ACCOUNTS);
+            String currentAccount = maybe(ACCOUNTS);
+            Snapshot snapshot = new Snapshot();
+
+            if( regex != null ) {
+                options.matchingRegex(regex);
+            }
+            if( account != null ) {
+                options.withAccountNumber(account);
+            }
+            if( random.nextBoolean() ) {
+                options.withTags(randomTags(2));
+            }
+            snapshot.setName(pick(NAMES));
+            snapshot.setDescription(pick(NAMES) + " " + pick(TAG_VALUES));
+            snapshot.setOwner(pick(ACCOUNTS));
+            snapshot.getTags().putAll(randomTags(3));
+            assertEquals("Compiled snapshot filter disagrees with the legacy filter for " + options.getAccountNumber() + " " + options.getRegex() + " " + options.getTags() + " in " + currentAccount + " on " + snapshot.getName() + " " + snapshot.getTags(), legacyMatches(options, snapshot, currentAccount), options.matches(snapshot, currentAccount));
+        }
+    }
+
+    @Test
+    public void testSettersInvalidateCompiledFilter() {
+        VirtualMachine vm = new VirtualMachine();
+        VMFilterOptions options = VMFilterOptions.getInstance("web.*");
+
+        vm.setName("db-master");
+        vm.setDescription("database");
+        vm.setCurrentState(VmState.RUNNING);
+        assertFalse("The VM should not match the initial expression", options.matches(vm));
+        options.matchingRegex("db-.*");
+        assertTrue("The VM should match after the expression changed", options.matches(vm));
+        options.withVmStates(VmState.STOPPED);
+        assertFalse("The VM should not match after a state criterion was added", options.matches(vm));
+        options.matchingAny();
+        assertTrue("The VM should match any criterion after switching to matching any", options.matches(vm));
+    }
+
+    @Test
+    public void testSnapshotFilterRecompilesForAccount() {
+        SnapshotFilterOptions options = SnapshotFilterOptions.getInstance();
+        Snapshot snapshot = new Snapshot();
+
+        snapshot.setName("nightly");
+        snapshot.setDescription("nightly backup");
+        snapshot.setOwner("1001");
+        assertTrue("The snapshot should match its owner's account", options.matches(snapshot, "1001"));
+        assertFalse("The snapshot should not match a different account", options.matches(snapshot, "1002"));
+        assertTrue("The snapshot should match any account in a search", options.matches(snapshot, null));
+        assertTrue("The snapshot should match its owner's account again", options.matches(snapshot, "1001"));
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ImageCatalogIndexTestCase extends TestCase {
+    static private final String[] DISTROS = { "Ubuntu", "CentOS", "Debian", "Windows Server", "FreeBSD" };
+    static private final Platform[] PLATFORMS = { Platform.UBUNTU, Platform.CENT_OS, Platform.DEBIAN, Platform.WINDOWS, Platform.FREE_BSD };
+
+    static private class CatalogImageSupport extends AbstractImageSupport {
+        public final AtomicInteger      calls  = new AtomicInteger(0);
+        public final List<MachineImage> images = new ArrayList<MachineImage>();
+
+        public CatalogImageSupport() {
+            super(new LatencyCloudProvider("Images", 0L, 0, new LatencyCloudProvider.Probe()));
+        }
+
+        @Override
+        public MachineImage getImage(@Nonnull String providerImageId) throws CloudException, InternalException {
+            return null;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForImage(@Nonnull Locale locale, @Nonnull ImageClass cls) {
+            return "image";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull Iterable<MachineImage> listImages(@Nonnull ImageFilterOptions options) throws CloudException, InternalException {
+            return new ArrayList<MachineImage>();
+        }
+
+        @Override
+        public void remove(@Nonnull String providerImageId, boolean checkState) throws CloudException, InternalException {
+            throw new CloudException("Public images cannot be removed");
+        }
+
+        @Override
+        public @Nonnull Iterable<MachineImage> searchPublicImages(@Nonnull ImageFilterOptions options) throws CloudException, InternalException {
+            calls.incrementAndGet();
+            return new ArrayList<MachineImage>(images);
+        }
+    }
+
+    private @Nonnull CatalogImageSupport getSupport(int count) {
+        CatalogImageSupport support = new CatalogImageSupport();
+        Random random = new Random(7L);
+
+        for( int i=0; i<count; i++ ) {
+            int d = random.nextInt(DISTROS.length);
+            Architecture architecture = (random.nextBoolean() ? Architecture.I64 : Architecture.I32);
+            ImageClass cls = (i % 10 == 0 ? ImageClass.KERNEL : ImageClass.MACHINE);
+            String name = DISTROS[d] + " " + (10 + random.nextInt(5)) + "." + random.nextInt(10) + " " + architecture;
+
+            support.images.add(MachineImage.getImageInstance("owner-" + (i % 3), "region", "img-" + i, cls, MachineImageState.ACTIVE, name, "Public " + name + " image", architecture, PLATFORMS[d]));
+        }
+        return support;
+    }
+
+    @Test
+    public void testMatchesLinearScan() throws Exception {
+        CatalogImageSupport support = getSupport(20000);
+        ImageCatalogIndex index = ImageCatalogIndex.getInstance(support);
+        String[] keywords = { null, "ubuntu", "ubuntu 12", "windows server", "cent", "img-1234", "nothing" };
+        Platform[] platforms = { null, Platform.UBUNTU, Platform.UNIX, Platform.WINDOWS };
+        Architecture[] architectures = { null, Architecture.I64 };
+
+        assertEquals("Wrong number of images", 20000, index.search(null, null, null, null).size());
+        for( String keyword : keywords ) {
+            for( Platform platform : platforms ) {
+                for( Architecture architecture : architectures ) {
+                    List<MachineImage> expected = new ArrayList<MachineImage>();
+
+                    for( MachineImage image : support.images ) {
+                        if( support.matches(image, keyword, platform, architecture, ImageClass.MACHINE) && "owner-1".equals(image.getProviderOwnerId()) ) {
+                            expected.add(image);
+                        }
+                    }
+                    long start = System.nanoTime();
+                    List<MachineImage> actual = index.search("owner-1", keyword, platform, architecture, ImageClass.MACHINE);
+                    long millis = (System.nanoTime() - start) / 1000000L;
+
+                    assertEquals("Wrong results for " + keyword + "/" + platform + "/" + architecture, expected, actual);
+                    assertTrue("Search took " + millis + "ms", millis < 500L);
+                }
+            }
+        }
+        assertEquals("Catalog listed more than once", 1, support.calls.get());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        CatalogImageSupport support = getSupport(10);
+        ImageCatalogIndex index = ImageCatalogIndex.getInstance(support).withRefreshInterval(50L);
+
+        index.start();
+        try {
+            long until = System.currentTimeMillis() + 5000L;
+
+            while( index.getImageCount() == 0 && System.currentTimeMillis() < until ) {
+                Thread.sleep(10L);
+            }
+            assertEquals("Index not loaded in background", 10, index.getImageCount());
+            support.images.add(MachineImage.getImageInstance("owner-9", "region", "img-new", ImageClass.MACHINE, MachineImageState.ACTIVE, "Gentoo", "Fresh image", Architecture.I64, Platform.UNKNOWN));
+            while( index.getImageCount() == 10 && System.currentTimeMillis() < until ) {
+                Thread.sleep(10L);
+            }
+            assertEquals("New image not found", 1, index.search(null, "gentoo", null, null).size());
+        }
+        finally {
+            index.stop();
+        }
+        assertFalse("Index still refreshing", index.isRunning());
+    }
+
+    @Test
+    public void testCatalogSearchedThroughIndex() throws Exception {
+        CatalogImageSupport support = getSupport(1000);
+
+        assertSame("Support should hold a single index", support.getImageCatalogIndex(), ImageCatalogIndex.getInstance(support));
+        assertTrue("Catalog search should find a word prefix", support.searchPublicImageCatalog("cent", null, null).iterator().hasNext());
+        assertFalse("Catalog search should not find the middle of a word", support.searchPublicImageCatalog("entos", null, null).iterator().hasNext());
+        assertEquals("Catalog listed more than once", 1, support.calls.get());
+        support.searchPublicImages("entos", null, null, ImageClass.MACHINE);
+        assertEquals("Public search should list the cloud", 2, support.calls.get());
+    }
+
+    @Test
+    public void testPhraseMatchesOverWords() throws Exception {
+        CatalogImageSupport support = getSupport(0);
+
+        support.images.add(MachineImage.getImageInstance("owner-0", "region", "img-0", ImageClass.MACHINE, MachineImageState.ACTIVE, "CentOS-6.4 x86_64", "Minimal install", Architecture.I64, Platform.CENT_OS));
+        support.images.add(MachineImage.getImageInstance("owner-0", "region", "img-1", ImageClass.MACHINE, MachineImageState.ACTIVE, "6.4 CentOS", "Reversed", Architecture.I64, Platform.CENT_OS));
+
+        ImageCatalogIndex index = support.getImageCatalogIndex();
+        List<MachineImage> found = index.search(null, "centos 6.4", null, null);
+
+        assertEquals("Phrase should match across punctuation", 1, found.size());
+        assertEquals("Wrong image for phrase", "img-0", found.get(0).getProviderMachineImageId());
+        assertEquals("Phrase words should match as prefixes", 1, index.search(null, "cent 6", null, null).size());
+        assertEquals("Reversed phrase should match only in order", "img-1", index.search(null, "6.4 centos", null, null).get(0).getProviderMachineImageId());
+        assertEquals("Words apart should not match as a phrase", 0, index.search(null, "centos x86", null, null).size());
+    }
+
+    @Test
+    public void testStaleIndexRebuiltOnSearch() throws Exception {
+        CatalogImageSupport support = getSupport(10);
+        ImageCatalogIndex index = ImageCatalogIndex.getInstance(support).withRefreshInterval(20L);
+
+        assertEquals("Wrong number of images", 10, index.search(null, null, null, null).size());
+        support.images.add(MachineImage.getImageInstance("owner-9", "region", "img-new", ImageClass.MACHINE, MachineImageState.ACTIVE, "Gentoo", "Fresh image", Architecture.I64, Platform.UNKNOWN));
+        assertEquals("Fresh index rebuilt", 0, index.search(null, "gentoo", null, null).size());
+        Thread.sleep(50L);
+        assertEquals("Stale index not rebuilt", 1, index.search(null, "gentoo", null, null).size());
+        assertEquals("Wrong number of listings", 2, support.calls.get());
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.Requirement;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.dasein.util.uom.storage.Gigabyte;
+import org.dasein.util.uom.storage.Megabyte;
+import org.dasein.util.uom.storage.Storage;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProductSelectorTestCase extends TestCase {
+    static private class RegionalVMSupport extends AbstractVMSupport {
+        public final AtomicInteger listings = new AtomicInteger(0);
+        public boolean             regional = true;
+
+        public RegionalVMSupport() {
+            super(new LatencyCloudProvider("Regional", 0L, 0, new LatencyCloudProvider.Probe()));
+            getProvider().connect(new ProviderContext("selector-account", "region-a"));
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForServer(@Nonnull Locale locale) {
+            return "server";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+            throw new CloudException("Launching is not supported");
+        }
+
+        @Override
+        public @Nonnull Iterable<Architecture> listSupportedArchitectures() throws InternalException, CloudException {
+            return Collections.singletonList(Architecture.I64);
+        }
+
+        @Override
+        protected @Nonnull Iterable<VirtualMachineProduct> listProducts(@Nonnull Architecture architecture, @Nonnull String regionId) throws InternalException, CloudException {
+            if( !regional ) {
+                return super.listProducts(architecture, regionId);
+            }
+            ArrayList<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
+
+            listings.incrementAndGet();
+            products.add(newProduct(regionId + ".small", 1, 1024, 0.10f));
+            products.add(newProduct(regionId + ".large", 4, 8192, 0.40f));
+            return products;
+        }
+
+        @Override
+        public void terminate(@Nonnull String vmId) throws InternalException, CloudException {
+            throw new CloudException("Termination is not supported");
+        }
+    }
+
+    static private class RegionalVolumeSupport extends AbstractVolumeSupport {
+        public final AtomicInteger listings = new AtomicInteger(0);
+
+        public String createdProductId;
+
+        public RegionalVolumeSupport() {
+            super(new LatencyCloudProvider("RegionalVolumes", 0L, 0, new LatencyCloudProvider.Probe()));
+            getProvider().connect(new ProviderContext("selector-account", "region-a"));
+        }
+
+        @Override
+        public @Nonnull String createVolume(@Nonnull VolumeCreateOptions options) throws InternalException, CloudException {
+            createdProductId = options.getVolumeProductId();
+            return "vol-1";
+        }
+
+        @Override
+        public @Nonnull Storage<Gigabyte> getMinimumVolumeSize() throws InternalException, CloudException {
+            return new Storage<Gigabyte>(1, Storage.GIGABYTE);
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForVolume(@Nonnull Locale locale) {
+            return "volume";
+        }
+
+        @Override
+        public @Nonnull Requirement getVolumeProductRequirement() throws InternalException, CloudException {
+            return Requirement.REQUIRED;
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull Iterable<String> listPossibleDeviceIds(@Nonnull Platform platform) throws InternalException, CloudException {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public @Nonnull Iterable<Volume> listVolumes() throws InternalException, CloudException {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public @Nonnull Iterable<VolumeProduct> listVolumeProducts() throws InternalException, CloudException {
+            return listVolumeProducts("unknown");
+        }
+
+        @Override
+        protected @Nonnull Iterable<VolumeProduct> listVolumeProducts(@Nonnull String regionId) throws InternalException, CloudException {
+            ArrayList<VolumeProduct> products = new ArrayList<VolumeProduct>();
+
+            listings.incrementAndGet();
+            products.add(getVolumeProduct(regionId + ".standard", 100, 0.10f));
+            products.add(getVolumeProduct(regionId + ".big", 1000, 0.05f));
+            return products;
+        }
+
+        @Override
+        public void remove(@Nonnull String volumeId) throws InternalException, CloudException {
+            throw new CloudException("Removal is not supported");
+        }
+    }
+
+    static private @Nonnull VirtualMachineProduct newProduct(@Nonnull String id, int cpuCount, int ramInMb, float rate) {
+        VirtualMachineProduct product = new VirtualMachineProduct();
+
+        product.setProviderProductId(id);
+        product.setName(id);
+        product.setCpuCount(cpuCount);
+        product.setRamSize(new Storage<Megabyte>(ramInMb, Storage.MEGABYTE));
+        product.setStandardHourlyRate(rate);
+        return product;
+    }
+
+    static private @Nonnull VolumeProduct getVolumeProduct(@Nonnull String id, int sizeInGb, @Nullable Float cost) {
+        return VolumeProduct.getInstance(id, id, id, VolumeType.HDD, new Storage<Gigabyte>(sizeInGb, Storage.GIGABYTE), "USD", 0, 0, cost, null);
+    }
+
+    static private float rate(@Nonnull VirtualMachineProduct product) {
+        return (product.getStandardHourlyRate() > 0f ? product.getStandardHourlyRate() : Float.MAX_VALUE);
+    }
+
+    static private boolean cheaper(@Nonnull VirtualMachineProduct a, @Nonnull VirtualMachineProduct b) {
+        if( rate(a) != rate(b) ) {
+            return rate(a) < rate(b);
+        }
+        if( a.getCpuCount() != b.getCpuCount() ) {
+            return a.getCpuCount() < b.getCpuCount();
+        }
+        return a.getRamSize().intValue() < b.getRamSize().intValue();
+    }
+
+    @Test
+    public void testVMSelectionMatchesScan() {
+        Random random = new Random(33L);
+
+        for( int round=0; round<50; round++ ) {
+            List<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
+            int count = 1 + random.nextInt(30);
+
+            for( int i=0; i<count; i++ ) {
+                float rate = (random.nextInt(5) == 0 ? 0f : (1 + random.nextInt(20)) / 100f);
+
+                products.add(newProduct("p" + i, 1 << random.nextInt(4), 512 * (1 + random.nextInt(16)), rate));
+            }
+            EnumMap<Architecture,List<VirtualMachineProduct>> map = new EnumMap<Architecture, List<VirtualMachineProduct>>(Architecture.class);
+
+            map.put(Architecture.I64, products);
+            VMProductSelector selector = VMProductSelector.getInstance("region", map);
+
+            for( int q=0; q<50; q++ ) {
+                int cpu = random.nextInt(10);
+                int ram = random.nextInt(9000);
+                VirtualMachineProduct expected = null;
+
+                for( VirtualMachineProduct product : products ) {
+                    if( product.getCpuCount() >= cpu && product.getRamSize().intValue() >= ram && (expected == null || cheaper(product, expected)) ) {
+                        expected = product;
+                    }
+                }
+                VirtualMachineProduct selected = selector.select(Architecture.I64, cpu, ram);
+
+                assertEquals("Wrong product for " + cpu + " CPUs and " + ram + " MB", (expected == null ? null : expected.getProviderProductId()), (selected == null ? null : selected.getProviderProductId()));
+            }
+            assertNull("No products were given for 32-bit", selector.select(Architecture.I32, 0, 0));
+        }
+    }
+
+    @Test
+    public void testVMSelectorHandsOutCopies() {
+        List<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
+        EnumMap<Architecture,List<VirtualMachineProduct>> map = new EnumMap<Architecture, List<VirtualMachineProduct>>(Architecture.class);
+
+        products.add(newProduct("small", 1, 512, 0.05f));
+        map.put(Architecture.I64, products);
+        VMProductSelector selector = VMProductSelector.getInstance("region", map);
+
+        products.get(0).setName("changed");
+        VirtualMachineProduct first = selector.select(Architecture.I64, 1, 512);
+
+        assertNotNull("The small product should be selected", first);
+        assertFalse("A change to a source product leaked into the selector", "changed".equals(first.getName()));
+        first.setCpuCount(64);
+        first.setName("changed");
+
+        VirtualMachineProduct second = selector.select(1, 512);
+
+        assertNotSame("Each selection should return a distinct product", first, second);
+        assertEquals("A change to a selected product leaked into the selector", 1, second.getCpuCount());
+        assertFalse("A change to a selected product leaked into the selector", "changed".equals(second.getName()));
+    }
+
+    @Test
+    public void testVolumeSelectionMatchesScan() {
+        Random random = new Random(330L);
+        List<VolumeProduct> products = new ArrayList<VolumeProduct>();
+
+        for( int i=0; i<40; i++ ) {
+            products.add(getVolumeProduct("v" + i, 10 * (1 + random.nextInt(100)), random.nextInt(4) == 0 ? null : (1 + random.nextInt(50)) / 100f));
+        }
+        VolumeProductSelector selector = VolumeProductSelector.getInstance("region", products);
+        VolumeProduct cheapest = null;
+
+        for( VolumeProduct product : products ) {
+            Float cost = product.getMonthlyGigabyteCost();
+
+            if( cost != null && (cheapest == null || cost < cheapest.getMonthlyGigabyteCost()) ) {
+                cheapest = product;
+            }
+        }
+        assertSame("Wrong cheapest volume product", cheapest, selector.getCheapest());
+        for( int q=0; q<100; q++ ) {
+            int size = random.nextInt(1100);
+            VolumeProduct expected = null;
+
+            for( VolumeProduct product : products ) {
+                int s = product.getVolumeSize().intValue();
+
+                if( s >= size && (expected == null || s < expected.getVolumeSize().intValue()) ) {
+                    expected = product;
+                }
+            }
+            assertSame("Wrong smallest volume product for " + size + " GB", expected, selector.getSmallest(size));
+        }
+    }
+
+    @Test
+    public void testVMSelectorForAnyRegion() throws Exception {
+        RegionalVMSupport support = new RegionalVMSupport();
+
+        support.clearProductSelectors();
+        VMProductSelector current = support.getProductSelector();
+        VMProductSelector other = support.getProductSelector("region-b");
+
+        assertEquals("The current selector should be for the context region", "region-a", current.getRegionId());
+        assertEquals("region-a.small", current.select(Architecture.I64, 1, 512).getProviderProductId());
+        assertEquals("region-b.large", other.select(Architecture.I64, 2, 512).getProviderProductId());
+        assertSame("The selector for a region should be cached", other, support.getProductSelector("region-b"));
+        assertSame("The selector for the current region should be cached", current, support.getProductSelector("region-a"));
+        assertEquals("Each region should be listed once", 2, support.listings.get());
+        support.clearProductSelectors();
+        assertNotSame("Clearing the selectors should force a rebuild", other, support.getProductSelector("region-b"));
+        assertEquals("The cleared region should be listed again", 3, support.listings.get());
+    }
+
+    @Test
+    public void testVolumeSelectorForAnyRegion() throws Exception {
+        RegionalVolumeSupport support = new RegionalVolumeSupport();
+
+        support.clearVolumeProductSelectors();
+        VolumeProductSelector other = support.getVolumeProductSelector("region-b");
+
+        assertEquals("region-b.big", other.getCheapest().getProviderProductId());
+        assertEquals("region-b.standard", other.getSmallest(50).getProviderProductId());
+        assertSame("The selector for a region should be cached", other, support.getVolumeProductSelector("region-b"));
+        assertEquals("region-a.big", support.getVolumeProductSelector().getCheapest().getProviderProductId());
+        assertEquals("Each region should be listed once", 2, support.listings.get());
+        support.clearVolumeProductSelectors();
+        assertNotSame("Clearing the selectors should force a rebuild", other, support.getVolumeProductSelector("region-b"));
+    }
+
+    @Test
+    public void testVolumeCreateWithoutRegion() throws Exception {
+        RegionalVolumeSupport support = new RegionalVolumeSupport();
+
+        support.getProvider().connect(new ProviderContext());
+        assertEquals("The volume should have been created", "vol-1", support.create(null, 50, "zone"));
+        assertEquals("The cheapest product should be chosen without a region", "unknown.big", support.createdProductId);
+    }
+
+    @Test
+    public void testOtherRegionUnsupportedByDefault() throws Exception {
+        RegionalVMSupport support = new RegionalVMSupport();
+
+        support.regional = false;
+        support.clearProductSelectors();
+        assertNotNull("The default products should serve the current region", support.getProductSelector().select(Architecture.I64, 1, 512));
+        try {
+            support.getProductSelector("region-z");
+            fail("A support that cannot list other regions should say so");
+        }
+        catch( OperationNotSupportedException expected ) {
+            // expected
+        }
+    }
+}
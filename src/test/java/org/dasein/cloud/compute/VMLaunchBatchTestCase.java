@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VMLaunchBatchTestCase extends TestCase {
+    static private class FleetVMSupport extends AbstractVMSupport {
+        public final Map<String,VirtualMachine> fleet          = new TreeMap<String, VirtualMachine>();
+        public final AtomicInteger              listings       = new AtomicInteger(0);
+        public final AtomicInteger              lookups        = new AtomicInteger(0);
+        public final AtomicInteger              productLookups = new AtomicInteger(0);
+        public final AtomicInteger              resolved       = new AtomicInteger(0);
+        public final AtomicInteger              sequence       = new AtomicInteger(0);
+
+        public int     failEvery    = 0;
+        public boolean multiple     = false;
+        public int     pollsToStart = 2;
+
+        public FleetVMSupport() {
+            super(new LatencyCloudProvider("Fleet", 0L, 0, new LatencyCloudProvider.Probe()));
+        }
+
+        @Override
+        public @Nullable VirtualMachineProduct getProduct(@Nonnull String productId) throws InternalException, CloudException {
+            VirtualMachineProduct product = new VirtualMachineProduct();
+
+            productLookups.incrementAndGet();
+            product.setProviderProductId(productId);
+            return product;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForServer(@Nonnull Locale locale) {
+            return "server";
+        }
+
+        @Override
+        public VirtualMachine getVirtualMachine(@Nonnull String vmId) throws InternalException, CloudException {
+            lookups.incrementAndGet();
+            synchronized( fleet ) {
+                return fleet.get(vmId);
+            }
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+            int n = sequence.incrementAndGet();
+
+            if( failEvery > 0 && n % failEvery == 0 ) {
+                throw new CloudException("Launch " + n + " failed");
+            }
+            VirtualMachine vm = new VirtualMachine();
+
+            vm.setProviderVirtualMachineId("i-" + n);
+            vm.setName(withLaunchOptions.getFriendlyName() + "-" + n);
+            vm.setDescription(withLaunchOptions.getDescription());
+            vm.setCurrentState(VmState.PENDING);
+            synchronized( fleet ) {
+                VirtualMachine copy = new VirtualMachine();
+
+                copy.setProviderVirtualMachineId(vm.getProviderVirtualMachineId());
+                copy.setName(vm.getName());
+                copy.setDescription(vm.getDescription());
+                copy.setCurrentState(VmState.PENDING);
+                fleet.put(vm.getProviderVirtualMachineId(), copy);
+            }
+            return vm;
+        }
+
+        @Override
+        protected @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions, @Nonnull VirtualMachineProduct product, @Nullable MachineImage image) throws CloudException, InternalException {
+            if( !product.getProviderProductId().equals(withLaunchOptions.getStandardProductId()) ) {
+                throw new InternalException("Launched with the wrong product: " + product.getProviderProductId());
+            }
+            resolved.incrementAndGet();
+            return launch(withLaunchOptions);
+        }
+
+        @Override
+        protected @Nonnull Iterable<VirtualMachine> launchMultiple(@Nonnull VMLaunchOptions withLaunchOptions, @Nonnegative int count) throws CloudException, InternalException {
+            if( !multiple ) {
+                return super.launchMultiple(withLaunchOptions, count);
+            }
+            ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+
+            for( int i=0; i<count-1; i++ ) {
+                vms.add(launch(withLaunchOptions));
+            }
+            return vms;
+        }
+
+        @Override
+        public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
+            int polls = listings.incrementAndGet();
+
+            synchronized( fleet ) {
+                if( polls >= pollsToStart ) {
+                    for( VirtualMachine vm : fleet.values() ) {
+                        if( VmState.PENDING.equals(vm.getCurrentState()) ) {
+                            vm.setCurrentState(VmState.RUNNING);
+                        }
+                    }
+                }
+                return new ArrayList<VirtualMachine>(fleet.values());
+            }
+        }
+
+        @Override
+        public void terminate(@Nonnull String vmId) throws InternalException, CloudException {
+            synchronized( fleet ) {
+                fleet.remove(vmId);
+            }
+        }
+    }
+
+    private @Nonnull VMLaunchOptions getOptions() {
+        return VMLaunchOptions.getInstance("m1.small", "ami-1", "fleet", "Fleet member");
+    }
+
+    @Test
+    public void testNegativeCountRejected() throws Exception {
+        FleetVMSupport support = new FleetVMSupport();
+
+        try {
+            support.launchMany(getOptions(), -1);
+            fail("A negative count should be rejected by launchMany");
+        }
+        catch( InternalException expected ) {
+            // expected
+        }
+        try {
+            new VMLaunchBatch(support, -5);
+            fail("A negative count should be rejected by the batch");
+        }
+        catch( InternalException expected ) {
+            // expected
+        }
+        assertEquals("No launches should have been attempted", 0, support.sequence.get());
+    }
+
+    @Test
+    public void testEmptyBatchIsComplete() throws Exception {
+        VMLaunchBatch batch = new FleetVMSupport().launchMany(getOptions(), 0);
+
+        assertTrue("An empty batch should be complete immediately", batch.isComplete());
+        assertTrue("An empty batch should be successful", batch.isSuccessful());
+        assertEquals("An empty batch should be 100% complete", 100.0, batch.getPercentComplete());
+    }
+
+    @Test
+    public void testPartialFailureCompletes() throws Exception {
+        FleetVMSupport support = new FleetVMSupport();
+
+        support.failEvery = 4;
+        VMLaunchBatch batch = support.launchMany(getOptions(), 12);
+
+        assertTrue("The batch did not complete in time", batch.waitForLaunch(10000L));
+        assertEquals("Every fourth launch should have failed", 3, batch.getFailureCount());
+        assertEquals("The remaining launches should have succeeded", 9, batch.getSuccessCount());
+        assertEquals("Failures should be reported per member", 3, batch.getErrors().size());
+        assertEquals("Launched VMs should be reported", 9, batch.getVirtualMachines().size());
+        assertFalse("A partially failed batch is not successful", batch.isSuccessful());
+    }
+
+    @Test
+    public void testFleetResolvesProductOnce() throws Exception {
+        FleetVMSupport support = new FleetVMSupport();
+        VMLaunchBatch batch = support.launchMany(getOptions(), 8);
+
+        assertTrue("The batch did not complete in time", batch.waitForLaunch(10000L));
+        assertTrue("The batch should have succeeded", batch.isSuccessful());
+        assertEquals("The product should be looked up once for the whole fleet", 1, support.productLookups.get());
+        assertEquals("Every member should be launched with the resolved product", 8, support.resolved.get());
+    }
+
+    @Test
+    public void testShortNativeLaunchFailsRemainder() throws Exception {
+        FleetVMSupport support = new FleetVMSupport();
+
+        support.multiple = true;
+        VMLaunchBatch batch = support.launchMany(getOptions(), 5);
+
+        assertTrue("The batch did not complete in time", batch.waitForLaunch(10000L));
+        assertEquals("The native launch returned one VM short", 4, batch.getSuccessCount());
+        assertNotNull("The last member should be reported as failed", batch.getError(4));
+    }
+
+    @Test
+    public void testWaitForStatePollsOncePerInterval() throws Exception {
+        FleetVMSupport support = new FleetVMSupport();
+
+        support.pollsToStart = 3;
+        VMLaunchBatch batch = support.launchMany(getOptions(), 20).withPollInterval(10L);
+
+        assertTrue("The fleet did not reach the running state", batch.waitForState(VmState.RUNNING, 10000L));
+        assertEquals("Each poll should make exactly one listing call", 3, support.listings.get());
+        assertEquals("No per-VM lookups should be made", 0, support.lookups.get());
+        for( VirtualMachine vm : batch.getVirtualMachines() ) {
+            assertEquals("The batch should report the polled state of " + vm.getProviderVirtualMachineId(), VmState.RUNNING, vm.getCurrentState());
+        }
+    }
+
+    @Test
+    public void testWaitForStateEndsWhenVMDisappears() throws Exception {
+        FleetVMSupport support = new FleetVMSupport();
+
+        support.pollsToStart = Integer.MAX_VALUE;
+        VMLaunchBatch batch = support.launchMany(getOptions(), 3).withPollInterval(10L);
+
+        assertTrue("The batch did not complete in time", batch.waitForLaunch(10000L));
+        support.terminate(batch.getVirtualMachine(1).getProviderVirtualMachineId());
+        assertFalse("A missing VM should end the wait", batch.waitForState(VmState.RUNNING, 10000L));
+        assertEquals("The wait should end on the first poll", 1, support.listings.get());
+    }
+}
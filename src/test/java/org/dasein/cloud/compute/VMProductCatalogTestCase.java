@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.compute;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class VMProductCatalogTestCase extends TestCase {
+    static private final String RESOURCE = "/org/dasein/cloud/test/missing-vmproducts.json";
+
+    static private class CatalogVMSupport extends AbstractVMSupport {
+        private final boolean authoritative;
+        private final boolean custom;
+
+        public CatalogVMSupport(boolean authoritative, boolean custom) {
+            super(new LatencyCloudProvider("Catalog", 0L, 0, new LatencyCloudProvider.Probe()));
+            getProvider().connect(new ProviderContext("account", "region"));
+            this.authoritative = authoritative;
+            this.custom = custom;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForServer(@Nonnull Locale locale) {
+            return "server";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        protected boolean isProductCatalogAuthoritative() {
+            return authoritative;
+        }
+
+        @Override
+        public @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+            throw new CloudException("Launching is not supported");
+        }
+
+        @Override
+        public @Nonnull Iterable<VirtualMachineProduct> listProducts(@Nonnull Architecture architecture) throws InternalException, CloudException {
+            if( !custom ) {
+                return super.listProducts(architecture);
+            }
+            ArrayList<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
+            VirtualMachineProduct prd = new VirtualMachineProduct();
+
+            prd.setProviderProductId("custom." + architecture.name());
+            prd.setName("Custom");
+            products.add(prd);
+            return products;
+        }
+
+        @Override
+        public void terminate(@Nonnull String vmId) throws InternalException, CloudException {
+            throw new CloudException("Termination is not supported");
+        }
+    }
+
+    @Test
+    public void testGetProductReturnsCopies() throws Exception {
+        VMProductCatalog catalog = VMProductCatalog.getInstance(RESOURCE, "Copies", "Copies");
+        VirtualMachineProduct first = catalog.getProduct("t1.micro", null);
+
+        assertNotNull("The default products should include t1.micro", first);
+        first.setName("changed");
+        first.setCpuCount(64);
+
+        VirtualMachineProduct second = catalog.getProduct("t1.micro", null);
+
+        assertNotSame("Each lookup should return a distinct product", first, second);
+        assertEquals("A change to one lookup leaked into the catalog", "Micro Instance (t1.micro)", second.getName());
+        assertEquals("A change to one lookup leaked into the catalog", 1, second.getCpuCount());
+    }
+
+    @Test
+    public void testListProductsReturnsCopies() throws Exception {
+        VMProductCatalog catalog = VMProductCatalog.getInstance(RESOURCE, "Lists", "Lists");
+        List<VirtualMachineProduct> first = catalog.listProducts(Architecture.I64, "region");
+        int size = first.size();
+
+        assertTrue("The default products should include 64-bit products", size > 0);
+        first.get(0).setName("changed");
+        first.clear();
+
+        List<VirtualMachineProduct> second = catalog.listProducts(Architecture.I64, "region");
+
+        assertEquals("Clearing a listing changed the catalog", size, second.size());
+        assertFalse("A change to a listed product leaked into the catalog", "changed".equals(second.get(0).getName()));
+    }
+
+    @Test
+    public void testCatalogSharedUntilExpired() throws Exception {
+        VMProductCatalog first = VMProductCatalog.getInstance(RESOURCE, "Refresh", "Refresh");
+
+        assertSame("A fresh catalog should be shared", first, VMProductCatalog.getInstance(RESOURCE, "Refresh", "Refresh"));
+        Thread.sleep(5L);
+
+        VMProductCatalog refreshed = VMProductCatalog.getInstance(RESOURCE, "Refresh", "Refresh", 1L);
+
+        assertNotSame("An expired catalog should be parsed again", first, refreshed);
+        assertTrue("The refreshed catalog should be newer", refreshed.getLoadedAt() > first.getLoadedAt());
+        assertSame("The refreshed catalog should replace the shared one", refreshed, VMProductCatalog.getInstance(RESOURCE, "Refresh", "Refresh"));
+    }
+
+    @Test
+    public void testAuthoritativeCatalogLookup() throws Exception {
+        CatalogVMSupport support = new CatalogVMSupport(true, false);
+
+        assertNotNull("The catalog lookup should find t1.micro", support.getProduct("t1.micro"));
+        assertNull("The catalog lookup should not find unknown products", support.getProduct("custom.I64"));
+    }
+
+    @Test
+    public void testCatalogMissFallsBackToListing() throws Exception {
+        CatalogVMSupport support = new CatalogVMSupport(false, true);
+
+        assertNotNull("getProduct should find products from the overridden listing", support.getProduct("custom.I64"));
+        assertNotNull("getProduct should find catalog products without scanning the listing", support.getProduct("t1.micro"));
+        assertNull("getProduct should not find products missing from both the catalog and the listing", support.getProduct("unknown"));
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.AbstractCloud;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.AbstractComputeServices;
+import org.dasein.cloud.compute.AbstractVMSupport;
+import org.dasein.cloud.compute.ComputeServices;
+import org.dasein.cloud.compute.VMLaunchOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VirtualMachineSupport;
+import org.dasein.cloud.util.StreamingException;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class AbstractVLANSupportTestCase extends TestCase {
+    static private class GraphCloud extends AbstractCloud {
+        public volatile CountDownLatch vmGate  = null;
+        public boolean                 vmsFail = false;
+        public final GraphVLANSupport  vlans   = new GraphVLANSupport(this);
+
+        @Override
+        public @Nonnull String getCloudName() {
+            return "Graph";
+        }
+
+        @Override
+        public @Nonnull String getProviderName() {
+            return "Graph";
+        }
+
+        @Override
+        public ComputeServices getComputeServices() {
+            return new AbstractComputeServices() {
+                @Override
+                public VirtualMachineSupport getVirtualMachineSupport() {
+                    return new GraphVMSupport(GraphCloud.this);
+                }
+            };
+        }
+
+        @Override
+        public NetworkServices getNetworkServices() {
+            return new AbstractNetworkServices() {
+                @Override
+                public VLANSupport getVlanSupport() {
+                    return vlans;
+                }
+            };
+        }
+    }
+
+    static private class GraphVMSupport extends AbstractVMSupport {
+        private final GraphCloud cloud;
+
+        public GraphVMSupport(@Nonnull GraphCloud cloud) {
+            super(cloud);
+            this.cloud = cloud;
+        }
+
+        private @Nonnull VirtualMachine vm(@Nonnull String id, String vlanId, String subnetId) {
+            VirtualMachine vm = new VirtualMachine();
+
+            vm.setProviderVirtualMachineId(id);
+            vm.setProviderVlanId(vlanId);
+            vm.setProviderSubnetId(subnetId);
+            return vm;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForServer(@Nonnull Locale locale) {
+            return "server";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+            throw new OperationNotSupportedException("Launching is not supported");
+        }
+
+        @Override
+        public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
+            if( cloud.vmsFail ) {
+                throw new CloudException("VM listing failed");
+            }
+            CountDownLatch gate = cloud.vmGate;
+
+            if( gate != null ) {
+                try {
+                    gate.await();
+                }
+                catch( InterruptedException e ) {
+                    throw new InternalException(e);
+                }
+            }
+            List<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+
+            vms.add(vm("vm-direct", "vlan-1", "sub-1a"));
+            vms.add(vm("vm-subnet", null, "sub-2a"));
+            vms.add(vm("vm-legacy", "sub-1b", null));
+            vms.add(vm("vm-other", "vlan-9", "sub-9a"));
+            return vms;
+        }
+
+        @Override
+        public void terminate(@Nonnull String vmId) throws InternalException, CloudException {
+            throw new OperationNotSupportedException("Termination is not supported");
+        }
+    }
+
+    static private class GraphVLANSupport extends AbstractVLANSupport {
+        public GraphVLANSupport(@Nonnull CloudProvider provider) {
+            super(provider);
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForNetworkInterface(@Nonnull Locale locale) {
+            return "network interface";
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForSubnet(@Nonnull Locale locale) {
+            return "subnet";
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForVlan(@Nonnull Locale locale) {
+            return "VLAN";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull Iterable<RoutingTable> listRoutingTables(@Nonnull String inVlanId) throws CloudException, InternalException {
+            RoutingTable table = new RoutingTable();
+
+            table.setProviderRoutingTableId("rtb-" + inVlanId);
+            table.setProviderVlanId(inVlanId);
+            return Collections.singletonList(table);
+        }
+
+        @Override
+        public @Nonnull Iterable<Subnet> listSubnets(@Nonnull String inVlanId) throws CloudException, InternalException {
+            if( inVlanId.equals("vlan-bad") ) {
+                throw new CloudException("Subnet listing failed");
+            }
+            List<Subnet> subnets = new ArrayList<Subnet>();
+
+            if( inVlanId.equals("vlan-1") ) {
+                subnets.add(Subnet.getInstance("owner", "region", inVlanId, "sub-1a", SubnetState.AVAILABLE, "1a", "1a", "10.1.1.0/24"));
+                subnets.add(Subnet.getInstance("owner", "region", inVlanId, "sub-1b", SubnetState.AVAILABLE, "1b", "1b", "10.1.2.0/24"));
+            }
+            else if( inVlanId.equals("vlan-2") ) {
+                subnets.add(Subnet.getInstance("owner", "region", inVlanId, "sub-2a", SubnetState.AVAILABLE, "2a", "2a", "10.2.1.0/24"));
+            }
+            return subnets;
+        }
+    }
+
+    private @Nonnull GraphCloud connect() {
+        GraphCloud cloud = new GraphCloud();
+
+        cloud.connect(new ProviderContext("account", "region"));
+        return cloud;
+    }
+
+    private @Nonnull Set<String> getIds(@Nonnull Iterable<Networkable> resources) {
+        Set<String> ids = new HashSet<String>();
+
+        for( Networkable resource : resources ) {
+            if( resource instanceof VirtualMachine ) {
+                ids.add(((VirtualMachine)resource).getProviderVirtualMachineId());
+            }
+            else if( resource instanceof Subnet ) {
+                ids.add(((Subnet)resource).getProviderSubnetId());
+            }
+            else if( resource instanceof RoutingTable ) {
+                ids.add(((RoutingTable)resource).getProviderRoutingTableId());
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void testJoinMatchesVmsDirectlyAndThroughSubnets() throws Exception {
+        GraphCloud cloud = connect();
+        Iterable<Networkable> resources = cloud.vlans.listResources("vlan-1");
+
+        assertEquals("Wrong resources in vlan-1", new HashSet<String>(Arrays.asList("rtb-vlan-1", "sub-1a", "sub-1b", "vm-direct", "vm-legacy")), getIds(resources));
+        assertEquals("The resources could not be iterated a second time", getIds(resources), getIds(resources));
+    }
+
+    @Test
+    public void testManyVlansGroupedInOnePass() throws Exception {
+        GraphCloud cloud = connect();
+        Map<String,Iterable<Networkable>> resources = cloud.vlans.listResources(Arrays.asList("vlan-2", "vlan-1", "vlan-empty"));
+
+        assertEquals("VLANs were not kept in the order given", Arrays.asList("vlan-2", "vlan-1", "vlan-empty"), new ArrayList<String>(resources.keySet()));
+        assertEquals("Wrong resources in vlan-1", new HashSet<String>(Arrays.asList("rtb-vlan-1", "sub-1a", "sub-1b", "vm-direct", "vm-legacy")), getIds(resources.get("vlan-1")));
+        assertEquals("Wrong resources in vlan-2", new HashSet<String>(Arrays.asList("rtb-vlan-2", "sub-2a", "vm-subnet")), getIds(resources.get("vlan-2")));
+        assertEquals("Wrong resources in an empty VLAN", Collections.singleton("rtb-vlan-empty"), getIds(resources.get("vlan-empty")));
+    }
+
+    @Test
+    public void testSubnetFailureRaisedWhileStreaming() throws Exception {
+        GraphCloud cloud = connect();
+
+        try {
+            getIds(cloud.vlans.listResources("vlan-bad"));
+            fail("A failed subnet listing went unreported");
+        }
+        catch( StreamingException e ) {
+            assertTrue("The cause should be the cloud error", e.getCause() instanceof CloudException);
+            assertEquals("Wrong error raised", "Subnet listing failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testVmFailureRaisedWhileStreaming() throws Exception {
+        GraphCloud cloud = connect();
+
+        cloud.vmsFail = true;
+        Map<String,Iterable<Networkable>> resources = cloud.vlans.listResources(Arrays.asList("vlan-1", "vlan-2"));
+
+        for( String vlanId : resources.keySet() ) {
+            try {
+                getIds(resources.get(vlanId));
+                fail("A failed VM listing went unreported for " + vlanId);
+            }
+            catch( StreamingException e ) {
+                assertEquals("Wrong error raised", "VM listing failed", e.getCause().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testResourcesStreamBeforeVmsAreListed() throws Exception {
+        GraphCloud cloud = connect();
+
+        cloud.vmGate = new CountDownLatch(1);
+        Iterator<Networkable> it = cloud.vlans.listResources("vlan-2").iterator();
+        Set<String> early = new HashSet<String>();
+
+        // the routing table and subnet arrive while the VM listing is still held up
+        while( early.size() < 2 ) {
+            early.addAll(getIds(Collections.singletonList(it.next())));
+        }
+        assertEquals("Wrong resources streamed ahead of the VMs", new HashSet<String>(Arrays.asList("rtb-vlan-2", "sub-2a")), early);
+        cloud.vmGate.countDown();
+        assertTrue("The VM should follow once listed", it.hasNext());
+        assertEquals("Wrong VM streamed", Collections.singleton("vm-subnet"), getIds(Collections.singletonList(it.next())));
+        assertFalse("Nothing else belongs to vlan-2", it.hasNext());
+    }
+}
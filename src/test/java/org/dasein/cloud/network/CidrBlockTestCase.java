@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class CidrBlockTestCase extends TestCase {
+    @Test
+    public void testParseIPv4() throws Exception {
+        CidrBlock block = CidrBlock.parse("10.1.2.3/8");
+
+        assertNotNull("Failed to parse", block);
+        assertEquals("Wrong version", IPVersion.IPV4, block.getVersion());
+        assertEquals("Wrong prefix", 8, block.getPrefixLength());
+        assertEquals("Host bits should be kept", "10.1.2.3/8", block.toString());
+        assertEquals("Wrong network", "10.0.0.0/8", block.getNetwork().toString());
+        assertEquals("Wrong host prefix", 32, CidrBlock.parse("255.255.255.255").getPrefixLength());
+        assertEquals("Wrong address bits", 0xFFFFFFFF, CidrBlock.parse("255.255.255.255").getIPv4Address());
+        for( String bad : new String[] { "10.1.2", "10.1.2.256", "10.1.2.3.4", "10..2.3", "10.1.2.3/33", "10.1.2.3/", "a.b.c.d", "1", "10.1.2.3/x" } ) {
+            assertNull("Parsed invalid value " + bad, CidrBlock.parse(bad));
+        }
+    }
+
+    @Test
+    public void testParseIPv6() throws Exception {
+        assertEquals("Wrong compression", "2001:db8::1/128", CidrBlock.parse("2001:0DB8:0000:0000:0000:0000:0000:0001").toString());
+        assertEquals("Wrong all-zero form", "::/0", CidrBlock.parse("::/0").toString());
+        assertEquals("Wrong loopback", "::1/128", CidrBlock.parse("::1").toString());
+        assertEquals("Wrong trailing gap", "fe80::/10", CidrBlock.parse("fe80::/10").toString());
+        assertEquals("Wrong embedded IPv4", "::ffff:a01:203/128", CidrBlock.parse("::ffff:10.1.2.3").toString());
+        assertEquals("Only the longest zero run is compressed", "1:0:0:2::3/128", CidrBlock.parse("1:0:0:2:0:0:0:3").toString());
+        for( String bad : new String[] { ":::", "1::2::3", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "12345::", "1:", ":1", "g::1", "::/129" } ) {
+            assertNull("Parsed invalid value " + bad, CidrBlock.parse(bad));
+        }
+    }
+
+    @Test
+    public void testContainmentAndOverlap() throws Exception {
+        CidrBlock ten = CidrBlock.parse("10.0.0.0/8");
+        CidrBlock sub = CidrBlock.parse("10.2.0.0/16");
+        CidrBlock other = CidrBlock.parse("11.0.0.0/8");
+
+        assertTrue("Should contain subnet", ten.contains(sub));
+        assertFalse("Subnet should not contain its parent", sub.contains(ten));
+        assertTrue("Should overlap in both directions", ten.overlaps(sub) && sub.overlaps(ten));
+        assertFalse("Disjoint blocks should not overlap", ten.overlaps(other));
+        assertTrue("Should contain address", sub.contains("10.2.200.1"));
+        assertTrue("Should contain address bits", sub.contains(CidrBlock.parse("10.2.200.1").getIPv4Address()));
+        assertFalse("Versions never overlap", CidrBlock.parse("::/0").overlaps(CidrBlock.parse("0.0.0.0/0")));
+        assertTrue("IPv6 containment", CidrBlock.parse("2001:db8::/32").contains("2001:db8:ffff::1"));
+        assertFalse("IPv6 containment", CidrBlock.parse("2001:db8::/32").contains("2001:db9::1"));
+        assertTrue("IPv6 containment past 64 bits", CidrBlock.parse("2001:db8::/96").contains("2001:db8::ab:1"));
+        assertFalse("IPv6 containment past 64 bits", CidrBlock.parse("2001:db8::/96").contains("2001:db8::1:0:1"));
+    }
+
+    @Test
+    public void testAddresses() throws Exception {
+        CidrBlock block = CidrBlock.parse("192.168.1.77/24");
+
+        assertEquals("Wrong size", 256L, block.getAddressCount());
+        assertEquals("Wrong first address", "192.168.1.0/32", block.getAddress(0).toString());
+        assertEquals("Wrong last address", "192.168.1.255/32", block.getAddress(255).toString());
+        assertEquals("Wrong IPv6 address", "2001:db8::1:1/128", CidrBlock.parse("2001:db8::/64").getAddress(0x10001L).toString());
+        assertEquals("Wrong IPv6 size", Long.MAX_VALUE, CidrBlock.parse("2001:db8::/64").getAddressCount());
+        try {
+            block.getAddress(256);
+            fail("Address outside the block was returned");
+        }
+        catch( IllegalArgumentException expected ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPublic() throws Exception {
+        assertFalse("10/8 is private", new RawAddress("10.9.9.9").isPublicIpAddress());
+        assertFalse("172.16/12 is private", new RawAddress("172.31.0.1").isPublicIpAddress());
+        assertTrue("172.32 is public", new RawAddress("172.32.0.1").isPublicIpAddress());
+        assertFalse("192.168/16 is private", new RawAddress("192.168.0.1").isPublicIpAddress());
+        assertTrue("8.8.8.8 is public", new RawAddress("8.8.8.8").isPublicIpAddress());
+        assertFalse("fd00::/8 is private", new RawAddress("fd12::1").isPublicIpAddress());
+        assertTrue("2001:db8::1 is public", new RawAddress("2001:db8::1").isPublicIpAddress());
+        assertEquals("Wrong version guess", IPVersion.IPV6, new RawAddress("2001:db8::1").getVersion());
+        assertEquals("Wrong version guess", IPVersion.IPV4, new RawAddress("10.1.2.3").getVersion());
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class CompiledFirewallTestCase extends TestCase {
+    static private @Nonnull FirewallRule ingress(@Nonnull String id, @Nonnull String cidr, @Nonnull Protocol protocol, @Nonnull Permission permission, int startPort, int endPort, int precedence) {
+        return FirewallRule.getInstance(id, "fw", RuleTarget.getCIDR(cidr), Direction.INGRESS, protocol, permission, RuleTarget.getGlobal("fw"), startPort, endPort).withPrecedence(precedence);
+    }
+
+    static private @Nonnull String address(int a) {
+        return ((a >>> 24) & 255) + "." + ((a >>> 16) & 255) + "." + ((a >>> 8) & 255) + "." + (a & 255);
+    }
+
+    @Test
+    public void testPrecedenceAndPermission() throws Exception {
+        List<FirewallRule> rules = Arrays.asList(
+                ingress("allow-web", "0.0.0.0/0", Protocol.TCP, Permission.ALLOW, 443, 443, 100),
+                ingress("deny-bad", "10.2.0.0/16", Protocol.ANY, Permission.DENY, -1, -1, 50),
+                ingress("allow-ops", "10.2.3.0/24", Protocol.TCP, Permission.ALLOW, 22, 22, 10)
+        );
+        CompiledFirewall low = CompiledFirewall.getInstance(rules, true);
+
+        assertTrue("Public HTTPS should be allowed", low.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, "8.8.8.8", 443)));
+        assertFalse("Unlisted port should be denied", low.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, "8.8.8.8", 80)));
+        assertEquals("Wrong rule decided", "deny-bad", low.match(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, "10.2.9.9", 443)).getProviderRuleId());
+        assertTrue("SSH from ops should be allowed", low.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, "10.2.3.4", 22)));
+        assertFalse("Egress has no rules", low.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.EGRESS, Protocol.TCP, "10.2.3.4", 22)));
+
+        CompiledFirewall high = CompiledFirewall.getInstance(rules, false);
+
+        assertTrue("Reversed precedence should let HTTPS through", high.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, "10.2.9.9", 443)));
+        assertFalse("Reversed precedence should deny SSH", high.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, "10.2.3.4", 22)));
+    }
+
+    @Test
+    public void testLocalTargetsAndIds() throws Exception {
+        List<FirewallRule> rules = Arrays.asList(
+                FirewallRule.getInstance("vm-only", "fw1", RuleTarget.getCIDR("192.168.0.0/16"), Direction.INGRESS, Protocol.UDP, Permission.ALLOW, RuleTarget.getVirtualMachine("vm-1"), 53, 53),
+                FirewallRule.getInstance("from-group", "fw2", RuleTarget.getGlobal("web"), Direction.INGRESS, Protocol.TCP, Permission.ALLOW, RuleTarget.getGlobal("fw2"), 5432, 5432),
+                FirewallRule.getInstance("v6", "fw1", RuleTarget.getCIDR("2001:db8::/32"), Direction.INGRESS, Protocol.TCP, Permission.ALLOW, RuleTarget.getGlobal("fw1"), 80, 90)
+        );
+        CompiledFirewall firewall = CompiledFirewall.getInstance(rules, true);
+
+        assertTrue("DNS into vm-1 should be allowed", firewall.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.UDP, "192.168.1.1", 53).withLocalVirtualMachine("vm-1")));
+        assertFalse("DNS into vm-2 should be denied", firewall.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.UDP, "192.168.1.1", 53).withLocalVirtualMachine("vm-2")));
+        assertTrue("Database from web group should be allowed", firewall.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, 5432).withRemoteFirewalls("web").withLocalFirewalls("fw2")));
+        assertFalse("Database rule belongs to another firewall", firewall.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, 5432).withRemoteFirewalls("web").withLocalFirewalls("fw1")));
+        assertTrue("IPv6 range should be allowed", firewall.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, "2001:db8::1", 85)));
+        assertFalse("IPv6 outside range should be denied", firewall.isAllowed(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, Protocol.TCP, "2001:db9::1", 85)));
+    }
+
+    @Test
+    public void testMatchesBruteForce() throws Exception {
+        Random random = new Random(7L);
+        List<FirewallRule> rules = new ArrayList<FirewallRule>();
+        Protocol[] protocols = new Protocol[] { Protocol.TCP, Protocol.UDP, Protocol.ANY };
+
+        for( int i=0; i<2000; i++ ) {
+            int length = 8 + random.nextInt(25);
+            int network = (random.nextInt(4) << 24) | (random.nextInt(4) << 16) | (random.nextInt(4) << 8);
+            int start = random.nextInt(1000);
+
+            rules.add(ingress("rule-" + i, address(network) + "/" + length, protocols[random.nextInt(3)], random.nextBoolean() ? Permission.ALLOW : Permission.DENY, start, start + random.nextInt(50), random.nextInt(500)));
+        }
+        CompiledFirewall firewall = CompiledFirewall.getInstance(rules, true);
+        List<CompiledFirewall.Traffic> traffic = new ArrayList<CompiledFirewall.Traffic>();
+        List<FirewallRule> expected = new ArrayList<FirewallRule>();
+
+        for( int i=0; i<2000; i++ ) {
+            int ip = (random.nextInt(4) << 24) | (random.nextInt(4) << 16) | (random.nextInt(4) << 8) | random.nextInt(256);
+            int port = random.nextInt(1050);
+            Protocol protocol = protocols[random.nextInt(2)];
+
+            traffic.add(CompiledFirewall.Traffic.getInstance(Direction.INGRESS, protocol, address(ip), port));
+            expected.add(bruteForce(rules, protocol, ip, port));
+        }
+        List<FirewallRule> actual = firewall.match(traffic);
+
+        for( int i=0; i<expected.size(); i++ ) {
+            FirewallRule e = expected.get(i), a = actual.get(i);
+
+            assertEquals("Mismatch for query " + i, (e == null ? null : e.getProviderRuleId()), (a == null ? null : a.getProviderRuleId()));
+        }
+    }
+
+    private @Nullable FirewallRule bruteForce(@Nonnull List<FirewallRule> rules, @Nonnull Protocol protocol, int ip, int port) {
+        FirewallRule best = null;
+
+        for( FirewallRule rule : rules ) {
+            if( !rule.getProtocol().equals(Protocol.ANY) && !rule.getProtocol().equals(protocol) ) {
+                continue;
+            }
+            if( port < rule.getStartPort() || port > rule.getEndPort() ) {
+                continue;
+            }
+            String[] cidr = rule.getSourceEndpoint().getCidr().split("/");
+            String[] parts = cidr[0].split("\\.");
+            int network = (Integer.parseInt(parts[0]) << 24) | (Integer.parseInt(parts[1]) << 16) | (Integer.parseInt(parts[2]) << 8) | Integer.parseInt(parts[3]);
+            int length = Integer.parseInt(cidr[1]);
+            int mask = (length == 0 ? 0 : -1 << (32 - length));
+
+            if( (network & mask) != (ip & mask) ) {
+                continue;
+            }
+            if( best == null || rule.getPrecedence() < best.getPrecedence() ) {
+                best = rule;
+            }
+            else if( rule.getPrecedence() == best.getPrecedence() ) {
+                if( rule.getPermission().equals(Permission.DENY) && best.getPermission().equals(Permission.ALLOW) ) {
+                    best = rule;
+                }
+                else if( rule.getPermission().equals(best.getPermission()) && rule.getProviderRuleId().compareTo(best.getProviderRuleId()) < 0 ) {
+                    best = rule;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+public class DNSChangeSetTestCase extends TestCase {
+    private @Nonnull MemoryDNSSupport getSupport(boolean batch) {
+        return new MemoryDNSSupport(new LatencyCloudProvider("DNS", 0L, 0, new LatencyCloudProvider.Probe()), batch);
+    }
+
+    private @Nonnull DNSRecord find(@Nonnull MemoryDNSSupport support, @Nonnull String zoneId, @Nonnull String name) throws Exception {
+        DNSRecord found = null;
+
+        for( DNSRecord record : support.listDnsRecords(zoneId, DNSRecordType.A, name) ) {
+            assertNull("Duplicate record for " + name, found);
+            found = record;
+        }
+        return found;
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        MemoryDNSSupport support = getSupport(false);
+        DNSRecord old = support.addDnsRecord("zone-1", DNSRecordType.A, "old", 60, "10.0.0.1");
+        DNSChangeSet changes = DNSChangeSet.getInstance();
+
+        support.addDnsRecord("zone-1", DNSRecordType.A, "www", 60, "10.0.0.1");
+        support.addDnsRecord("zone-1", DNSRecordType.A, "same", 60, "10.0.0.3", "10.0.0.2");
+        changes.upsert("zone-1", DNSRecordType.A, "www", 300, "10.0.0.5");
+        changes.upsert("zone-1", DNSRecordType.A, "www", 300, "10.0.0.9");
+        changes.upsert("zone-1", DNSRecordType.A, "gone", 300, "10.0.0.6").delete(old);
+        changes.upsert("zone-1", DNSRecordType.A, "same", 60, "10.0.0.2", "10.0.0.3");
+        for( int i=0; i<20; i++ ) {
+            changes.upsert("zone-2", DNSRecordType.A, "host-" + i, 60, "10.1.0." + i);
+        }
+        changes.upsert("zone-2", DNSRecordType.A, "fail", 60, "10.1.1.1");
+        assertEquals("Wrong number of coalesced changes", 25, changes.getChangeCount());
+
+        int adds = support.adds.get();
+        DNSChangeSet.Result result = changes.execute(support);
+
+        assertEquals("Wrong failures: " + result.getFailures(), 1, result.getFailures().size());
+        assertEquals("Failed record not reported", "fail", result.getFailures().keySet().iterator().next().getName());
+        assertEquals("Wrong number of applied changes", 24, result.getApplied().size());
+        assertEquals("Wrong value for www", Arrays.asList("10.0.0.9"), Arrays.asList(find(support, "zone-1", "www").getValues()));
+        assertNull("Deleted record still present", find(support, "zone-1", "old"));
+        assertEquals("Wrong number of adds", adds + 23, support.adds.get());
+        assertNotNull("Unchanged record removed", find(support, "zone-1", "same"));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        MemoryDNSSupport support = getSupport(true);
+        DNSChangeSet changes = DNSChangeSet.getInstance();
+
+        for( int i=0; i<100; i++ ) {
+            changes.upsert("zone-" + (i % 4), DNSRecordType.A, "host-" + i, 60, "10.0.0." + i);
+        }
+        DNSChangeSet.Result result = changes.execute(support);
+
+        assertTrue("Batch failed: " + result.getFailures(), result.isSuccessful());
+        assertEquals("Wrong number of batch calls", 4, support.batches.get());
+        assertEquals("Individual calls were made", 0, support.adds.get() + support.lists.get());
+        assertEquals("Wrong number of records", 100, support.records.size());
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DNSRecordCacheTestCase extends TestCase {
+    @Test
+    public void testTtl() throws Exception {
+        MemoryDNSSupport support = new MemoryDNSSupport(new LatencyCloudProvider("DNS", 0L, 0, new LatencyCloudProvider.Probe()), false);
+        DNSRecordCache cache = DNSRecordCache.getInstance(support).withNegativeTtl(0);
+
+        support.addDnsRecord("zone-1", DNSRecordType.A, "long", 3600, "10.0.0.1");
+        support.addDnsRecord("zone-1", DNSRecordType.A, "short", 1, "10.0.0.2");
+        support.addDnsRecord("zone-1", DNSRecordType.A, "none", 0, "10.0.0.3");
+        for( int i=0; i<10; i++ ) {
+            assertEquals("Wrong long record", 1, cache.listDnsRecords("zone-1", DNSRecordType.A, "long").size());
+            assertEquals("Wrong short record", 1, cache.listDnsRecords("zone-1", DNSRecordType.A, i % 2 == 0 ? "short" : "SHORT.").size());
+            assertEquals("Wrong uncached record", 1, cache.listDnsRecords("zone-1", DNSRecordType.A, "none").size());
+            assertEquals("Wrong missing record", 0, cache.listDnsRecords("zone-1", DNSRecordType.A, "missing").size());
+        }
+        assertEquals("Wrong number of provider calls", 2 + 10 + 10, support.lists.get());
+        Thread.sleep(1100L);
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "long");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "short");
+        assertEquals("Short record did not expire", 23, support.lists.get());
+
+        DNSChangeSet.getInstance().upsert("zone-1", DNSRecordType.A, "long", 3600, "10.0.0.9").execute(cache);
+        List<DNSRecord> records = cache.listDnsRecords("zone-1", DNSRecordType.A, "long");
+
+        assertEquals("Stale record after change", "10.0.0.9", records.get(0).getValues()[0]);
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        final MemoryDNSSupport support = new MemoryDNSSupport(new LatencyCloudProvider("DNS", 0L, 0, new LatencyCloudProvider.Probe()), false) {
+            @Override
+            public Iterable<DNSRecord> listDnsRecords(String providerDnsZoneId, DNSRecordType forType, String name) throws org.dasein.cloud.CloudException, org.dasein.cloud.InternalException {
+                try { Thread.sleep(100L); }
+                catch( InterruptedException ignore ) { }
+                return super.listDnsRecords(providerDnsZoneId, forType, name);
+            }
+        };
+        final DNSRecordCache cache = DNSRecordCache.getInstance(support);
+        final CountDownLatch done = new CountDownLatch(16);
+        final AtomicInteger errors = new AtomicInteger(0);
+
+        support.addDnsRecord("zone-1", DNSRecordType.A, "www", 60, "10.0.0.1");
+        for( int i=0; i<16; i++ ) {
+            new Thread() {
+                public void run() {
+                    try {
+                        if( cache.listDnsRecords("zone-1", DNSRecordType.A, "www").size() != 1 ) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    catch( Throwable t ) {
+                        errors.incrementAndGet();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals("Lookups failed", 0, errors.get());
+        assertEquals("Concurrent lookups were not coalesced", 1, support.lists.get());
+        assertEquals("Wrong miss count", 1L, cache.getMissCount());
+    }
+
+    @Test
+    public void testInvalidateCoversEveryFormOfName() throws Exception {
+        MemoryDNSSupport support = new MemoryDNSSupport(new LatencyCloudProvider("DNS", 0L, 0, new LatencyCloudProvider.Probe()), false);
+        DNSRecordCache cache = DNSRecordCache.getInstance(support);
+
+        support.addDnsRecord("zone-1", DNSRecordType.A, "www", 3600, "10.0.0.1");
+        support.addDnsRecord("zone-1", DNSRecordType.A, "mail", 3600, "10.0.0.2");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "www");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "WWW.example.com.");
+        cache.listDnsRecords("zone-1", null, "www");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, null);
+        cache.listDnsRecords("zone-1", DNSRecordType.CNAME, "www");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "mail");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "wwwx");
+        cache.listDnsRecords("zone-2", DNSRecordType.A, "www");
+        assertEquals("Wrong number of cached results", 8, cache.getEntryCount());
+
+        cache.invalidate("zone-1", DNSRecordType.A, "www.Example.com");
+        assertEquals("Wrong results discarded", 4, cache.getEntryCount());
+
+        int lists = support.lists.get();
+
+        cache.listDnsRecords("zone-1", DNSRecordType.CNAME, "www");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "mail");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "wwwx");
+        cache.listDnsRecords("zone-2", DNSRecordType.A, "www");
+        assertEquals("Unrelated results were discarded", lists, support.lists.get());
+        cache.listDnsRecords("zone-1", DNSRecordType.A, "www.example.com");
+        cache.listDnsRecords("zone-1", DNSRecordType.A, null);
+        assertEquals("Affected results were kept", lists + 2, support.lists.get());
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DNSZoneReconcilerTestCase extends TestCase {
+    static private @Nonnull DNSRecord record(@Nonnull String name, int ttl, @Nonnull String ... values) {
+        DNSRecord record = new DNSRecord();
+
+        record.setType(DNSRecordType.A);
+        record.setName(name);
+        record.setTtl(ttl);
+        record.setValues(values);
+        return record;
+    }
+
+    private @Nonnull MemoryDNSSupport getSupport(boolean batch) {
+        return new MemoryDNSSupport(new LatencyCloudProvider("DNS", 0L, 0, new LatencyCloudProvider.Probe()), batch);
+    }
+
+    private @Nonnull MemoryDNSSupport getSupport(@Nonnull String zoneId, @Nonnull String domainName) {
+        MemoryDNSSupport support = getSupport(false);
+        DNSZone zone = new DNSZone();
+
+        zone.setProviderDnsZoneId(zoneId);
+        zone.setDomainName(domainName);
+        zone.setName(domainName);
+        support.zones.add(zone);
+        return support;
+    }
+
+    @Test
+    public void testMinimalChanges() throws Exception {
+        MemoryDNSSupport support = getSupport(false);
+        List<DNSRecord> desired = new ArrayList<DNSRecord>();
+
+        support.addDnsRecord("zone", DNSRecordType.A, "same", 60, "10.0.0.1", "10.0.0.2");
+        support.addDnsRecord("zone", DNSRecordType.A, "ttl", 60, "10.0.0.3");
+        support.addDnsRecord("zone", DNSRecordType.A, "values", 60, "10.0.0.4");
+        support.addDnsRecord("zone", DNSRecordType.A, "stale", 60, "10.0.0.5");
+        support.addDnsRecord("zone", DNSRecordType.A, "split", 60, "10.0.0.6");
+        support.addDnsRecord("zone", DNSRecordType.A, "split", 60, "10.0.0.7");
+        desired.add(record("same", 60, "10.0.0.2", "10.0.0.1"));
+        desired.add(record("ttl", 300, "10.0.0.3"));
+        desired.add(record("values", 60, "10.0.0.8"));
+        desired.add(record("split", 60, "10.0.0.7"));
+        desired.add(record("new", 60, "10.0.0.9"));
+
+        DNSZoneReconciler reconciler = DNSZoneReconciler.getInstance(support);
+        DNSZoneReconciler.Plan plan = reconciler.plan("zone", desired);
+
+        assertEquals("Wrong unchanged count", 2, plan.getUnchangedCount());
+        assertEquals("Wrong upserts", 3, plan.getRecordsToUpsert().size());
+        assertEquals("Wrong deletes", 2, plan.getRecordsToDelete().size());
+
+        int adds = support.adds.get();
+        DNSZoneReconciler.Result result = reconciler.reconcile("zone", desired);
+
+        assertTrue("Reconciliation failed: " + result.getFailures(), result.isSuccessful());
+        assertEquals("Wrong upsert count", 3, result.getUpsertedCount());
+        assertEquals("Wrong delete count", 2, result.getDeletedCount());
+        assertEquals("Wrong number of adds", adds + 3, support.adds.get());
+        assertEquals("Wrong number of records", 5, support.records.size());
+        assertTrue("Zone not in sync", reconciler.plan("zone", desired).isEmpty());
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        MemoryDNSSupport support = getSupport(true);
+        List<DNSRecord> desired = new ArrayList<DNSRecord>();
+
+        support.paged = true;
+        for( int i=0; i<1000; i++ ) {
+            support.addDnsRecord("zone", DNSRecordType.A, "host-" + i, 60, "10.0." + (i/256) + "." + (i%256));
+            if( i % 10 == 0 ) {
+                desired.add(record("host-" + i, 60, "10.1." + (i/256) + "." + (i%256)));
+            }
+            else if( i % 10 != 1 ) {
+                desired.add(record("host-" + i, 60, "10.0." + (i/256) + "." + (i%256)));
+            }
+        }
+        DNSZoneReconciler.Result result = DNSZoneReconciler.getInstance(support).withBatchSize(50).reconcile("zone", desired);
+
+        assertTrue("Reconciliation failed: " + result.getFailures(), result.isSuccessful());
+        assertEquals("Wrong unchanged count", 800, result.getUnchangedCount());
+        assertEquals("Wrong upsert count", 100, result.getUpsertedCount());
+        assertEquals("Wrong delete count", 100, result.getDeletedCount());
+        assertEquals("Wrong number of batches", 4, support.batches.get());
+        assertEquals("Wrong number of records", 900, support.records.size());
+    }
+
+    @Test
+    public void testDuplicateDesiredRecordsMerged() throws Exception {
+        MemoryDNSSupport support = getSupport(false);
+        List<DNSRecord> desired = new ArrayList<DNSRecord>();
+
+        support.addDnsRecord("zone", DNSRecordType.A, "www", 60, "10.0.0.1", "10.0.0.2");
+        desired.add(record("www", 60, "10.0.0.1"));
+        desired.add(record("WWW.", 60, "10.0.0.2"));
+
+        DNSZoneReconciler.Plan plan = DNSZoneReconciler.getInstance(support).plan("zone", desired);
+
+        assertTrue("Merged record set should already be in place: " + plan.getRecordsToUpsert(), plan.isEmpty());
+        assertEquals("Wrong unchanged count", 1, plan.getUnchangedCount());
+
+        desired.add(record("www", 60, "10.0.0.3"));
+        plan = DNSZoneReconciler.getInstance(support).plan("zone", desired);
+        assertEquals("Wrong upserts", 1, plan.getRecordsToUpsert().size());
+        assertEquals("Upsert dropped values", 3, plan.getRecordsToUpsert().get(0).getValues().length);
+    }
+
+    @Test
+    public void testConflictingTtlsRejected() throws Exception {
+        List<DNSRecord> desired = new ArrayList<DNSRecord>();
+
+        desired.add(record("www", 60, "10.0.0.1"));
+        desired.add(record("www", 300, "10.0.0.2"));
+        try {
+            DNSZoneReconciler.getInstance(getSupport(false)).plan("zone", desired);
+            fail("Desired records disagreeing on the TTL were accepted");
+        }
+        catch( InternalException expected ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFingerprintNormalizesValues() throws Exception {
+        DNSRecord current = record("www", 60);
+        DNSRecord wanted = record("www", 60);
+
+        current.setType(DNSRecordType.CNAME);
+        current.setValues(new String[] { "Host.Example.com." });
+        wanted.setType(DNSRecordType.CNAME);
+        wanted.setValues(new String[] { "host.example.com" });
+        assertEquals("Host names should match regardless of case and trailing dot", DNSZoneReconciler.getFingerprint(wanted), DNSZoneReconciler.getFingerprint(current));
+
+        current.setType(DNSRecordType.TXT);
+        wanted.setType(DNSRecordType.TXT);
+        assertFalse("Text values must match exactly", DNSZoneReconciler.getFingerprint(wanted).equals(DNSZoneReconciler.getFingerprint(current)));
+    }
+
+    @Test
+    public void testZoneRecordsLeftAlone() throws Exception {
+        MemoryDNSSupport support = getSupport("zone", "example.com");
+        List<DNSRecord> desired = new ArrayList<DNSRecord>();
+
+        support.addDnsRecord("zone", DNSRecordType.SOA, "example.com.", 900, "ns1.example.net. admin.example.com. 1 7200 900 1209600 86400");
+        support.addDnsRecord("zone", DNSRecordType.NS, "example.com.", 172800, "ns1.example.net.", "ns2.example.net.");
+        support.addDnsRecord("zone", DNSRecordType.NS, "sub.example.com.", 300, "ns.sub.example.com.");
+        support.addDnsRecord("zone", DNSRecordType.A, "www", 60, "10.0.0.1");
+        desired.add(record("www", 60, "10.0.0.1"));
+
+        DNSZoneReconciler reconciler = DNSZoneReconciler.getInstance(support);
+        DNSZoneReconciler.Plan plan = reconciler.plan("zone", desired);
+
+        assertFalse("Zone records should not be managed by default", reconciler.isManagingZoneRecords());
+        assertEquals("Only the delegation should be deleted", 1, plan.getRecordsToDelete().size());
+        assertEquals("Wrong record deleted", "sub.example.com.", plan.getRecordsToDelete().get(0).getName());
+
+        DNSZoneReconciler.Result result = reconciler.reconcile("zone", desired);
+
+        assertEquals("Wrong delete count", 1, result.getDeletedCount());
+        assertEquals("The SOA and apex NS records should remain", 3, support.records.size());
+
+        plan = DNSZoneReconciler.getInstance(support).withManagedZoneRecords(true).plan("zone", desired);
+        assertEquals("Managed zone records should be deleted when not desired", 2, plan.getRecordsToDelete().size());
+    }
+
+    @Test
+    public void testRelativeAndQualifiedNamesMatch() throws Exception {
+        MemoryDNSSupport support = getSupport("zone", "Example.com.");
+        List<DNSRecord> desired = new ArrayList<DNSRecord>();
+
+        support.addDnsRecord("zone", DNSRecordType.A, "www.example.com.", 60, "10.0.0.1");
+        support.addDnsRecord("zone", DNSRecordType.A, "example.com.", 60, "10.0.0.2");
+        support.addDnsRecord("zone", DNSRecordType.A, "mail", 60, "10.0.0.3");
+        desired.add(record("www", 60, "10.0.0.1"));
+        desired.add(record("@", 60, "10.0.0.2"));
+        desired.add(record("mail.example.com", 60, "10.0.0.3"));
+
+        DNSZoneReconciler.Plan plan = DNSZoneReconciler.getInstance(support).plan("zone", desired);
+
+        assertTrue("Relative and fully qualified names should match: " + plan.getRecordsToDelete(), plan.isEmpty());
+        assertEquals("Wrong unchanged count", 3, plan.getUnchangedCount());
+    }
+}
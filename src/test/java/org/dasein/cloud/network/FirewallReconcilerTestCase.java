@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FirewallReconcilerTestCase extends TestCase {
+    static private class MemoryFirewallSupport extends AbstractFirewallSupport {
+        public final AtomicInteger               batchCalls = new AtomicInteger(0);
+        private final boolean                    batch;
+        public final AtomicInteger               calls      = new AtomicInteger(0);
+        public final Map<String,FirewallRule>    rules      = new ConcurrentHashMap<String, FirewallRule>();
+
+        public MemoryFirewallSupport(@Nonnull CloudProvider provider, boolean batch) {
+            super(provider);
+            this.batch = batch;
+        }
+
+        private @Nonnull String add(@Nonnull String firewallId, @Nonnull FirewallRule rule) {
+            FirewallRule r = FirewallRule.getInstance(null, firewallId, rule.getSourceEndpoint(), rule.getDirection(), rule.getProtocol(), rule.getPermission(), rule.getDestinationEndpoint(), rule.getStartPort(), rule.getEndPort());
+
+            rules.put(r.getProviderRuleId(), r);
+            return r.getProviderRuleId();
+        }
+
+        @Override
+        public @Nonnull String authorize(@Nonnull String firewallId, @Nonnull Direction direction, @Nonnull Permission permission, @Nonnull RuleTarget sourceEndpoint, @Nonnull Protocol protocol, @Nonnull RuleTarget destinationEndpoint, int beginPort, int endPort, @Nonnegative int precedence) throws CloudException, InternalException {
+            calls.incrementAndGet();
+            if( beginPort == 666 ) {
+                throw new CloudException("Refused");
+            }
+            return add(firewallId, FirewallRule.getInstance(null, firewallId, sourceEndpoint, direction, protocol, permission, destinationEndpoint, beginPort, endPort));
+        }
+
+        @Override
+        protected @Nonnull List<String> authorizeAll(@Nonnull String firewallId, @Nonnull List<FirewallRule> rules) throws CloudException, InternalException {
+            if( !batch ) {
+                return super.authorizeAll(firewallId, rules);
+            }
+            List<String> ids = new ArrayList<String>();
+
+            batchCalls.incrementAndGet();
+            for( FirewallRule rule : rules ) {
+                ids.add(add(firewallId, rule));
+            }
+            return ids;
+        }
+
+        @Override
+        public void delete(@Nonnull String firewallId) throws InternalException, CloudException {
+            rules.clear();
+        }
+
+        @Override
+        public @Nullable Firewall getFirewall(@Nonnull String firewallId) throws InternalException, CloudException {
+            return null;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForFirewall(@Nonnull java.util.Locale locale) {
+            return "firewall";
+        }
+
+        @Override
+        public @Nonnull Collection<FirewallRule> getRules(@Nonnull String firewallId) throws InternalException, CloudException {
+            calls.incrementAndGet();
+            return new ArrayList<FirewallRule>(rules.values());
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull Collection<Firewall> list() throws InternalException, CloudException {
+            return new ArrayList<Firewall>();
+        }
+
+        @Override
+        public @Nonnull Iterable<RuleTargetType> listSupportedDestinationTypes(boolean inVlan) throws InternalException, CloudException {
+            return Arrays.asList(RuleTargetType.values());
+        }
+
+        @Override
+        public @Nonnull Iterable<Direction> listSupportedDirections(boolean inVlan) throws InternalException, CloudException {
+            return Arrays.asList(Direction.values());
+        }
+
+        @Override
+        public @Nonnull Iterable<Permission> listSupportedPermissions(boolean inVlan) throws InternalException, CloudException {
+            return Arrays.asList(Permission.values());
+        }
+
+        @Override
+        public @Nonnull Iterable<RuleTargetType> listSupportedSourceTypes(boolean inVlan) throws InternalException, CloudException {
+            return Arrays.asList(RuleTargetType.values());
+        }
+
+        @Override
+        public void revoke(@Nonnull String providerFirewallRuleId) throws InternalException, CloudException {
+            calls.incrementAndGet();
+            if( rules.remove(providerFirewallRuleId) == null ) {
+                throw new OperationNotSupportedException("No such rule");
+            }
+        }
+    }
+
+    static private @Nonnull FirewallRule rule(int port) {
+        return FirewallRule.getInstance(null, "fw", RuleTarget.getCIDR("10.0.0.0/8"), Direction.INGRESS, Protocol.TCP, Permission.ALLOW, RuleTarget.getGlobal("fw"), port, port);
+    }
+
+    private @Nonnull MemoryFirewallSupport seed(boolean batch) throws Exception {
+        MemoryFirewallSupport support = new MemoryFirewallSupport(new LatencyCloudProvider("Firewall", 0L, 0, new LatencyCloudProvider.Probe()), batch);
+
+        for( int port=1; port<=300; port++ ) {
+            support.add("fw", rule(port));
+        }
+        support.calls.set(0);
+        return support;
+    }
+
+    private @Nonnull List<FirewallRule> desired(int from, int to) {
+        List<FirewallRule> desired = new ArrayList<FirewallRule>();
+
+        for( int port=from; port<=to; port++ ) {
+            desired.add(rule(port).withPrecedence(port));
+        }
+        return desired;
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        FirewallReconciler.Plan plan = FirewallReconciler.getInstance(seed(false)).plan("fw", desired(101, 400));
+
+        assertEquals("Wrong number of rules to authorize", 100, plan.getRulesToAuthorize().size());
+        assertEquals("Wrong number of rules to revoke", 100, plan.getRulesToRevoke().size());
+        assertEquals("Wrong number of unchanged rules", 200, plan.getUnchangedCount());
+        assertTrue("Identical rule sets should need no changes", FirewallReconciler.getInstance(seed(false)).plan("fw", desired(1, 300)).isEmpty());
+    }
+
+    @Test
+    public void testPerRuleFallback() throws Exception {
+        MemoryFirewallSupport support = seed(false);
+        List<FirewallRule> desired = desired(101, 400);
+
+        desired.add(rule(666));
+        FirewallReconciler.Result result = FirewallReconciler.getInstance(support).withConcurrencyLimit(8).reconcile("fw", desired);
+
+        assertEquals("Only the needed calls should be made", 1 + 101 + 100, support.calls.get());
+        assertEquals("Wrong number of rules authorized", 100, result.getAuthorized().size());
+        assertEquals("Wrong number of rules revoked", 100, result.getRevoked().size());
+        assertFalse("The refused rule should be reported", result.isSuccessful());
+        assertEquals("The refused rule should be reported", 666, result.getFailures().keySet().iterator().next().getStartPort());
+        assertEquals("Wrong final rule count", 300, support.rules.size());
+        assertEquals("Firewall should now match except for the refused rule", 1, FirewallReconciler.getInstance(support).plan("fw", desired).getRulesToAuthorize().size());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        MemoryFirewallSupport support = seed(true);
+        FirewallReconciler.Result result = FirewallReconciler.getInstance(support).reconcile("fw", desired(51, 350));
+
+        assertTrue("Reconciliation failed: " + result.getFailures(), result.isSuccessful());
+        assertEquals("Authorizations should be batched", 1, support.batchCalls.get());
+        assertEquals("Wrong number of rules authorized", 50, result.getAuthorized().size());
+        assertEquals("Wrong number of rules revoked", 50, result.getRevoked().size());
+        assertTrue("Firewall should match the desired rules", FirewallReconciler.getInstance(support).plan("fw", desired(51, 350)).isEmpty());
+    }
+}
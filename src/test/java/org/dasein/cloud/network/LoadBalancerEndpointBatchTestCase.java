@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadBalancerEndpointBatchTestCase extends TestCase {
+    static private class RecordingLoadBalancerSupport extends AbstractLoadBalancerSupport<CloudProvider> {
+        public final AtomicInteger        active = new AtomicInteger(0);
+        public final List<String>         calls  = new CopyOnWriteArrayList<String>();
+        private final boolean             bulk;
+        public final AtomicInteger        peak   = new AtomicInteger(0);
+
+        public RecordingLoadBalancerSupport(@Nonnull CloudProvider provider, boolean bulk) {
+            super(provider);
+            this.bulk = bulk;
+        }
+
+        private void record(@Nonnull String call, @Nonnull String lbId, @Nonnull String ... values) throws CloudException, InternalException {
+            int n = active.incrementAndGet();
+
+            try {
+                int p = peak.get();
+
+                while( n > p && !peak.compareAndSet(p, n) ) {
+                    p = peak.get();
+                }
+                if( lbId.equals("lb-broken") ) {
+                    throw new CloudException("Broken");
+                }
+                try { Thread.sleep(20L); }
+                catch( InterruptedException e ) { throw new InternalException(e); }
+                calls.add(lbId + " " + call + " " + Arrays.toString(values));
+            }
+            finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void addIPEndpoints(@Nonnull String toLoadBalancerId, @Nonnull String ... ipAddresses) throws CloudException, InternalException {
+            record("addIPEndpoints", toLoadBalancerId, ipAddresses);
+        }
+
+        @Override
+        public void addServers(@Nonnull String toLoadBalancerId, @Nonnull String ... serverIdsToAdd) throws CloudException, InternalException {
+            record("addServers", toLoadBalancerId, serverIdsToAdd);
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForLoadBalancer(@Nonnull Locale locale) {
+            return "load balancer";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        protected void modifyEndpoints(@Nonnull LoadBalancerEndpointBatch.Mutation mutation) throws CloudException, InternalException {
+            if( !bulk ) {
+                super.modifyEndpoints(mutation);
+            }
+            record("modifyEndpoints", mutation.getLoadBalancerId(), mutation.getServersToAdd());
+        }
+
+        @Override
+        public void removeServers(@Nonnull String fromLoadBalancerId, @Nonnull String ... serverIdsToRemove) throws CloudException, InternalException {
+            record("removeServers", fromLoadBalancerId, serverIdsToRemove);
+        }
+    }
+
+    private @Nonnull RecordingLoadBalancerSupport getSupport(boolean bulk) {
+        CloudProvider provider = new LatencyCloudProvider("LB", 0L, 0, new LatencyCloudProvider.Probe());
+
+        provider.connect(new ProviderContext("account", "region"));
+        return new RecordingLoadBalancerSupport(provider, bulk);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        LoadBalancerEndpointBatch batch = LoadBalancerEndpointBatch.getInstance();
+
+        batch.addServers("lb-1", "vm-1", "vm-2").removeServers("lb-1", "vm-0").addServers("lb-1", "vm-3").removeServers("lb-1", "vm-2");
+        batch.addIPEndpoints("lb-2", "10.0.0.1").removeIPEndpoints("lb-2", "10.0.0.1");
+
+        LoadBalancerEndpointBatch.Mutation[] mutations = batch.getMutations().toArray(new LoadBalancerEndpointBatch.Mutation[2]);
+
+        assertEquals("Wrong load balancer", "lb-1", mutations[0].getLoadBalancerId());
+        assertEquals("Wrong servers to add", Arrays.asList("vm-1", "vm-3"), Arrays.asList(mutations[0].getServersToAdd()));
+        assertEquals("Wrong servers to remove", Arrays.asList("vm-0", "vm-2"), Arrays.asList(mutations[0].getServersToRemove()));
+        assertEquals("Wrong IPs to add", Collections.<String>emptyList(), Arrays.asList(mutations[1].getIPEndpointsToAdd()));
+        assertEquals("Wrong IPs to remove", Collections.singletonList("10.0.0.1"), Arrays.asList(mutations[1].getIPEndpointsToRemove()));
+
+        RecordingLoadBalancerSupport support = getSupport(false);
+        LoadBalancerEndpointBatch.Result result = batch.execute(support);
+
+        assertEquals("Wrong calls", Arrays.asList("lb-1 addServers [vm-1, vm-3]", "lb-1 removeServers [vm-0, vm-2]"), support.calls);
+        assertEquals("Wrong successes", Collections.singletonList("lb-1"), result.getSucceeded());
+        assertFalse("Unsupported IP removal not reported", result.isSuccessful());
+        assertNotNull("Unsupported IP removal not reported", result.getFailure("lb-2"));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        LoadBalancerEndpointBatch batch = LoadBalancerEndpointBatch.getInstance().withConcurrencyLimit(5);
+
+        for( int i=0; i<50; i++ ) {
+            for( int j=0; j<4; j++ ) {
+                batch.addServers("lb-" + i, "vm-new-" + j);
+                batch.removeServers("lb-" + i, "vm-old-" + j);
+            }
+        }
+        batch.addServers("lb-broken", "vm-1");
+
+        RecordingLoadBalancerSupport support = getSupport(false);
+        LoadBalancerEndpointBatch.Result result = batch.execute(support);
+
+        assertEquals("Wrong number of calls", 100, support.calls.size());
+        assertEquals("Wrong successes", 50, result.getSucceeded().size());
+        assertEquals("Wrong failures", Collections.singleton("lb-broken"), result.getFailures().keySet());
+        assertTrue("Concurrency limit exceeded: " + support.peak.get(), support.peak.get() <= 5);
+        assertTrue("Load balancers were not changed in parallel", support.peak.get() > 1);
+    }
+
+    @Test
+    public void testBulkHook() throws Exception {
+        RecordingLoadBalancerSupport support = getSupport(true);
+        LoadBalancerEndpointBatch.Result result = LoadBalancerEndpointBatch.getInstance().addServers("lb-1", "vm-1").removeServers("lb-1", "vm-0").addServers("lb-2", "vm-2").execute(support);
+
+        assertTrue("Batch failed: " + result.getFailures(), result.isSuccessful());
+        assertEquals("Wrong number of calls", 2, support.calls.size());
+        for( String call : support.calls ) {
+            assertTrue("Individual call made: " + call, call.contains("modifyEndpoints"));
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.util.LatencyCloudProvider;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadBalancerHealthMonitorTestCase extends TestCase {
+    static private class MemoryLoadBalancerSupport extends AbstractLoadBalancerSupport<CloudProvider> {
+        public final AtomicInteger                             active    = new AtomicInteger(0);
+        public final AtomicInteger                             calls     = new AtomicInteger(0);
+        public final Map<String,List<LoadBalancerEndpoint>>    endpoints = new ConcurrentHashMap<String, List<LoadBalancerEndpoint>>();
+        private final long                                     latency;
+        public final AtomicInteger                             peak      = new AtomicInteger(0);
+
+        public MemoryLoadBalancerSupport(@Nonnull CloudProvider provider, long latency) {
+            super(provider);
+            this.latency = latency;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForLoadBalancer(@Nonnull Locale locale) {
+            return "load balancer";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull Iterable<LoadBalancerEndpoint> listEndpoints(@Nonnull String forLoadBalancerId) throws CloudException, InternalException {
+            int n = active.incrementAndGet();
+
+            calls.incrementAndGet();
+            try {
+                int p = peak.get();
+
+                while( n > p && !peak.compareAndSet(p, n) ) {
+                    p = peak.get();
+                }
+                if( latency > 0L ) {
+                    try { Thread.sleep(latency); }
+                    catch( InterruptedException e ) { throw new InternalException(e); }
+                }
+                List<LoadBalancerEndpoint> list = endpoints.get(forLoadBalancerId);
+
+                if( list == null ) {
+                    throw new CloudException("No such load balancer: " + forLoadBalancerId);
+                }
+                return new ArrayList<LoadBalancerEndpoint>(list);
+            }
+            finally {
+                active.decrementAndGet();
+            }
+        }
+
+        public void set(@Nonnull String lbId, @Nonnull LbEndpointState ... states) {
+            List<LoadBalancerEndpoint> list = new ArrayList<LoadBalancerEndpoint>();
+
+            for( int i=0; i<states.length; i++ ) {
+                list.add(LoadBalancerEndpoint.getInstance(LbEndpointType.VM, "vm-" + i, states[i]));
+            }
+            list.add(LoadBalancerEndpoint.getInstance(LbEndpointType.IP, "10.0.0.1", LbEndpointState.ACTIVE));
+            endpoints.put(lbId, list);
+        }
+    }
+
+    private @Nonnull MemoryLoadBalancerSupport getSupport(long latency) {
+        return new MemoryLoadBalancerSupport(new LatencyCloudProvider("LB", 0L, 0, new LatencyCloudProvider.Probe()), latency);
+    }
+
+    @Test
+    public void testChanges() throws Exception {
+        MemoryLoadBalancerSupport support = getSupport(0L);
+        LoadBalancerHealthMonitor monitor = LoadBalancerHealthMonitor.getInstance(support);
+
+        support.set("lb-1", LbEndpointState.ACTIVE, LbEndpointState.ACTIVE, LbEndpointState.ACTIVE);
+        monitor.monitor("lb-1");
+        assertNull("Snapshot before first poll", monitor.getEndpoints("lb-1"));
+        assertEquals("Initial poll should report every endpoint", 4, monitor.poll().size());
+        assertTrue("Stable poll reported changes", monitor.poll().isEmpty());
+
+        support.set("lb-1", LbEndpointState.ACTIVE, LbEndpointState.INACTIVE);
+        List<LoadBalancerHealthMonitor.EndpointChange> changes = monitor.poll();
+
+        assertEquals("Wrong number of changes", 2, changes.size());
+        for( LoadBalancerHealthMonitor.EndpointChange change : changes ) {
+            if( change.getEndpoint().getEndpointValue().equals("vm-1") ) {
+                assertEquals("Wrong previous state", LoadBalancerServerState.ACTIVE, change.getPreviousServerState());
+                assertEquals("Wrong current state", LoadBalancerServerState.INACTIVE, change.getCurrentServerState());
+            }
+            else {
+                assertEquals("Unexpected change " + change, "vm-2", change.getEndpoint().getEndpointValue());
+                assertTrue("vm-2 should be removed", change.isRemoved());
+            }
+        }
+        List<LoadBalancerServer> servers = monitor.getServerHealth("lb-1", "vm-1", "vm-2", "10.0.0.1");
+
+        assertNotNull("No server health", servers);
+        assertEquals("Wrong servers", 1, servers.size());
+        assertEquals("Wrong server", "vm-1", servers.get(0).getProviderServerId());
+        assertEquals("Wrong server state", LoadBalancerServerState.INACTIVE, servers.get(0).getCurrentState());
+        assertEquals("Wrong IP endpoints", 1, monitor.getEndpoints("lb-1", LbEndpointType.IP, "10.0.0.1", "10.0.0.2").size());
+
+        int before = support.calls.get();
+        int found = 0;
+
+        for( LoadBalancerEndpoint endpoint : support.listEndpoints("lb-1", LbEndpointType.VM, "vm-0", "vm-1", "vm-9") ) {
+            assertEquals("Wrong endpoint type", LbEndpointType.VM, endpoint.getEndpointType());
+            found++;
+        }
+        assertEquals("Wrong subset from support", 2, found);
+        assertEquals("Monitor queries should not call the provider", before + 1, support.calls.get());
+    }
+
+    @Test
+    public void testConcurrentPolling() throws Exception {
+        MemoryLoadBalancerSupport support = getSupport(50L);
+        LoadBalancerHealthMonitor monitor = LoadBalancerHealthMonitor.getInstance(support).withConcurrencyLimit(8);
+
+        for( int i=0; i<40; i++ ) {
+            support.set("lb-" + i, LbEndpointState.ACTIVE, LbEndpointState.ACTIVE);
+            monitor.monitor("lb-" + i);
+        }
+        long start = System.currentTimeMillis();
+
+        assertEquals("Wrong number of initial changes", 120, monitor.poll().size());
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Polls did not overlap: " + elapsed + "ms", elapsed < 40 * 50L / 2);
+        assertTrue("Concurrency limit exceeded: " + support.peak.get(), support.peak.get() <= 8);
+        assertEquals("Wrong number of provider calls", 40, support.calls.get());
+    }
+
+    @Test
+    public void testBackgroundPolling() throws Exception {
+        MemoryLoadBalancerSupport support = getSupport(0L);
+        final CountDownLatch changed = new CountDownLatch(2);
+        final CountDownLatch failed = new CountDownLatch(1);
+        LoadBalancerHealthMonitor monitor = LoadBalancerHealthMonitor.getInstance(support).withInterval(10L, 80L).withListener(new LoadBalancerHealthMonitor.HealthListener() {
+            public void endpointsChanged(@Nonnull String loadBalancerId, @Nonnull List<LoadBalancerHealthMonitor.EndpointChange> changes) {
+                changed.countDown();
+            }
+
+            public void pollFailed(@Nonnull String loadBalancerId, @Nonnull Throwable cause) {
+                failed.countDown();
+            }
+        });
+
+        support.set("lb-1", LbEndpointState.ACTIVE);
+        monitor.monitor("lb-1", "lb-missing");
+        monitor.start();
+        try {
+            assertTrue("Missing load balancer not reported", failed.await(5, TimeUnit.SECONDS));
+            Thread.sleep(300L);
+            assertEquals("Stable load balancer should back off", 80L, monitor.getPollingInterval("lb-1"));
+            support.set("lb-1", LbEndpointState.INACTIVE);
+            assertTrue("Change not reported", changed.await(5, TimeUnit.SECONDS));
+            assertEquals("Wrong state after change", LbEndpointState.INACTIVE, monitor.getEndpoints("lb-1", LbEndpointType.VM, "vm-0").get(0).getCurrentState());
+        }
+        finally {
+            monitor.stop();
+        }
+        assertFalse("Monitor still running", monitor.isRunning());
+    }
+
+    @Test
+    public void testThrowingListenerKeepsPolling() throws Exception {
+        MemoryLoadBalancerSupport support = getSupport(0L);
+        final AtomicInteger thrown = new AtomicInteger(0);
+        final CountDownLatch changed = new CountDownLatch(2);
+        final CountDownLatch failed = new CountDownLatch(3);
+        LoadBalancerHealthMonitor monitor = LoadBalancerHealthMonitor.getInstance(support).withInterval(10L, 20L).withListener(new LoadBalancerHealthMonitor.HealthListener() {
+            public void endpointsChanged(@Nonnull String loadBalancerId, @Nonnull List<LoadBalancerHealthMonitor.EndpointChange> changes) {
+                thrown.incrementAndGet();
+                throw new IllegalStateException("Listener failed on changes");
+            }
+
+            public void pollFailed(@Nonnull String loadBalancerId, @Nonnull Throwable cause) {
+                thrown.incrementAndGet();
+                throw new IllegalStateException("Listener failed on a failure");
+            }
+        }).withListener(new LoadBalancerHealthMonitor.HealthListener() {
+            public void endpointsChanged(@Nonnull String loadBalancerId, @Nonnull List<LoadBalancerHealthMonitor.EndpointChange> changes) {
+                changed.countDown();
+            }
+
+            public void pollFailed(@Nonnull String loadBalancerId, @Nonnull Throwable cause) {
+                failed.countDown();
+            }
+        });
+
+        support.set("lb-1", LbEndpointState.ACTIVE);
+        monitor.monitor("lb-1", "lb-missing");
+        monitor.start();
+        try {
+            assertTrue("Failures stopped being polled after a listener threw", failed.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100L);
+            support.set("lb-1", LbEndpointState.INACTIVE);
+            assertTrue("Changes stopped being polled after a listener threw", changed.await(5, TimeUnit.SECONDS));
+            assertTrue("The throwing listener was not called", thrown.get() >= 4);
+        }
+        finally {
+            monitor.stop();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A DNS service held in memory that counts the calls made to it, standing in for a remote DNS API when testing code
+ * built on {@link DNSSupport}.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class MemoryDNSSupport extends AbstractDNSSupport {
+    public final AtomicInteger               adds    = new AtomicInteger(0);
+    public final AtomicInteger               batches = new AtomicInteger(0);
+    public final AtomicInteger               deletes = new AtomicInteger(0);
+    public final AtomicInteger               lists   = new AtomicInteger(0);
+    public final AtomicInteger               open    = new AtomicInteger(0);
+    public final List<DNSRecord>             records = new CopyOnWriteArrayList<DNSRecord>();
+    public volatile boolean                  paged   = false;
+    public final List<DNSZone>               zones   = new CopyOnWriteArrayList<DNSZone>();
+    private final boolean                    batch;
+
+    public MemoryDNSSupport(@Nonnull CloudProvider provider, boolean batch) {
+        super(provider);
+        this.batch = batch;
+    }
+
+    private @Nonnull DNSRecord add(@Nonnull String zoneId, @Nonnull DNSRecordType type, @Nonnull String name, int ttl, @Nonnull String ... values) {
+        DNSRecord record = new DNSRecord();
+
+        record.setProviderZoneId(zoneId);
+        record.setType(type);
+        record.setName(name);
+        record.setTtl(ttl);
+        record.setValues(values);
+        records.add(record);
+        return record;
+    }
+
+    @Override
+    public @Nonnull DNSRecord addDnsRecord(@Nonnull String providerDnsZoneId, @Nonnull DNSRecordType recordType, @Nonnull String name, @Nonnegative int ttl, @Nonnull String ... values) throws CloudException, InternalException {
+        adds.incrementAndGet();
+        checkListing();
+        if( name.startsWith("fail") ) {
+            throw new CloudException("Refused");
+        }
+        return add(providerDnsZoneId, recordType, name, ttl, values);
+    }
+
+    private void checkListing() throws CloudException {
+        if( open.get() > 0 ) {
+            throw new CloudException("Zone changed while being listed");
+        }
+    }
+
+    @Override
+    protected void changeDnsRecords(@Nonnull String providerDnsZoneId, @Nonnull List<DNSRecord> upserts, @Nonnull List<DNSRecord> toDelete) throws CloudException, InternalException {
+        checkListing();
+        if( !batch ) {
+            super.changeDnsRecords(providerDnsZoneId, upserts, toDelete);
+        }
+        batches.incrementAndGet();
+        for( DNSRecord record : toDelete ) {
+            records.remove(find(record));
+        }
+        for( DNSRecord record : upserts ) {
+            for( DNSRecord current : records ) {
+                if( matches(current, providerDnsZoneId, record.getType(), record.getName()) ) {
+                    records.remove(current);
+                }
+            }
+            add(providerDnsZoneId, record.getType(), record.getName(), record.getTtl(), record.getValues());
+        }
+    }
+
+    @Override
+    public void deleteDnsRecords(@Nonnull DNSRecord ... dnsRecords) throws CloudException, InternalException {
+        deletes.incrementAndGet();
+        checkListing();
+        for( DNSRecord record : dnsRecords ) {
+            records.remove(find(record));
+        }
+    }
+
+    private @Nullable DNSRecord find(@Nonnull DNSRecord record) {
+        for( DNSRecord current : records ) {
+            if( current.getProviderZoneId().equals(record.getProviderZoneId()) && current.equals(record) ) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public @Nonnull String getProviderTermForRecord(@Nonnull Locale locale) {
+        return "record";
+    }
+
+    @Override
+    public @Nonnull String getProviderTermForZone(@Nonnull Locale locale) {
+        return "zone";
+    }
+
+    @Override
+    public boolean isSubscribed() throws CloudException, InternalException {
+        return true;
+    }
+
+    @Override
+    public @Nonnull Iterable<DNSRecord> listDnsRecords(@Nonnull String providerDnsZoneId, @Nullable DNSRecordType forType, @Nullable String name) throws CloudException, InternalException {
+        List<DNSRecord> matches = new ArrayList<DNSRecord>();
+
+        lists.incrementAndGet();
+        for( DNSRecord record : records ) {
+            if( matches(record, providerDnsZoneId, forType, name) ) {
+                matches.add(record);
+            }
+        }
+        if( !paged ) {
+            return matches;
+        }
+        // like a provider paging through the zone, the listing stays open until it has been read to the end
+        final Iterator<DNSRecord> it = matches.iterator();
+
+        open.incrementAndGet();
+        return new Iterable<DNSRecord>() {
+            public @Nonnull Iterator<DNSRecord> iterator() {
+                return new Iterator<DNSRecord>() {
+                    private boolean done = false;
+
+                    public boolean hasNext() {
+                        boolean more = it.hasNext();
+
+                        if( !more && !done ) {
+                            done = true;
+                            open.decrementAndGet();
+                        }
+                        return more;
+                    }
+
+                    public DNSRecord next() {
+                        return it.next();
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public @Nonnull Iterable<DNSZone> listDnsZones() throws CloudException, InternalException {
+        return zones;
+    }
+
+    private boolean matches(@Nonnull DNSRecord record, @Nonnull String zoneId, @Nullable DNSRecordType type, @Nullable String name) {
+        return (record.getProviderZoneId().equals(zoneId) && (type == null || type.equals(record.getType())) && (name == null || name.equals(record.getName())));
+    }
+}
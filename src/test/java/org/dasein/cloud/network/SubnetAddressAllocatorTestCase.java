@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.network;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SubnetAddressAllocatorTestCase extends TestCase {
+    static private final int THREADS = 8;
+
+    private @Nonnull Subnet subnet(@Nonnull String cidr) {
+        return Subnet.getInstance("owner", "region", "vlan", "subnet", SubnetState.AVAILABLE, "test", "test", cidr);
+    }
+
+    @Test
+    public void testWholeSlash16() throws Exception {
+        SubnetAddressAllocator allocator = SubnetAddressAllocator.getInstance(subnet("10.20.0.0/16").usingGateway(new RawAddress("10.20.0.1")));
+
+        assertEquals("Wrong capacity", 65534, allocator.getCapacity());
+        assertEquals("Gateway should be claimed", 65533, allocator.getAvailableCount());
+        assertTrue("Gateway should be claimed", allocator.isClaimed(new RawAddress("10.20.0.1")));
+        assertFalse("Network address is not allocatable", allocator.claim(new RawAddress("10.20.0.0")));
+        assertFalse("Broadcast address is not allocatable", allocator.claim(new RawAddress("10.20.255.255")));
+        assertFalse("Outside addresses are not allocatable", allocator.claim(new RawAddress("10.21.0.5")));
+
+        Set<String> seen = new HashSet<String>();
+        RawAddress address;
+
+        while( (address = allocator.claim()) != null ) {
+            assertTrue("Address handed out twice: " + address, seen.add(address.getIpAddress()));
+            assertTrue("Address outside subnet: " + address, CidrBlock.parse("10.20.0.0/16").contains(address.getIpAddress()));
+        }
+        assertEquals("Not every address was handed out", 65533, seen.size());
+        assertFalse("Gateway was handed out", seen.contains("10.20.0.1"));
+        assertEquals("Allocator should be full", 0, allocator.getAvailableCount());
+        assertTrue("Release should succeed", allocator.release(new RawAddress("10.20.128.7")));
+        assertFalse("Double release should fail", allocator.release(new RawAddress("10.20.128.7")));
+        assertEquals("Released address should be reused", "10.20.128.7", allocator.claim().getIpAddress());
+    }
+
+    @Test
+    public void testConcurrentClaimAndRelease() throws Exception {
+        final SubnetAddressAllocator allocator = SubnetAddressAllocator.getInstance(
+                AllocationPool.getInstance(new RawAddress("172.16.0.0"), new RawAddress("172.16.255.255")),
+                AllocationPool.getInstance(new RawAddress("172.17.0.0"), new RawAddress("172.17.255.255"))
+        );
+        final ConcurrentHashMap<String,String> claimed = new ConcurrentHashMap<String, String>();
+        final AtomicInteger duplicates = new AtomicInteger(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+
+        assertEquals("Wrong capacity", 131072, allocator.getCapacity());
+        for( int t=0; t<THREADS; t++ ) {
+            new Thread() {
+                public void run() {
+                    try {
+                        int count = 0;
+                        RawAddress address;
+
+                        start.await();
+                        while( (address = allocator.claim()) != null ) {
+                            if( claimed.putIfAbsent(address.getIpAddress(), getName()) != null ) {
+                                duplicates.incrementAndGet();
+                            }
+                            // churn: give back every tenth address and let someone else take it
+                            if( ++count % 10 == 0 ) {
+                                claimed.remove(address.getIpAddress());
+                                allocator.release(address);
+                            }
+                        }
+                    }
+                    catch( InterruptedException ignore ) {
+                        // ignore
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals("The same address was claimed twice", 0, duplicates.get());
+        assertEquals("Every address should be claimed", 131072, claimed.size());
+        assertEquals("Allocator should be full", 0, allocator.getAvailableCount());
+    }
+
+    @Test
+    public void testSeedAndPools() throws Exception {
+        Subnet subnet = subnet("192.168.0.0/16").havingAllocationPools(
+                AllocationPool.getInstance(new RawAddress("192.168.1.10"), new RawAddress("192.168.1.19")),
+                AllocationPool.getInstance(new RawAddress("192.168.2.0"), new RawAddress("192.168.2.4"))
+        );
+        SubnetAddressAllocator allocator = SubnetAddressAllocator.getInstance(subnet);
+        List<RawAddress> used = new ArrayList<RawAddress>();
+
+        for( int i=10; i<20; i++ ) {
+            used.add(new RawAddress("192.168.1." + i));
+        }
+        used.add(new RawAddress("192.168.9.9"));
+        assertEquals("Wrong capacity", 15, allocator.getCapacity());
+        assertEquals("Only in-pool addresses should be seeded", 10, allocator.seed(used));
+        assertEquals("Seeding twice should claim nothing", 0, allocator.seed(used));
+
+        List<String> rest = new ArrayList<String>();
+        RawAddress address;
+
+        while( (address = allocator.claim()) != null ) {
+            rest.add(address.getIpAddress());
+        }
+        Collections.sort(rest);
+        assertEquals("Wrong addresses left", "[192.168.2.0, 192.168.2.1, 192.168.2.2, 192.168.2.3, 192.168.2.4]", rest.toString());
+    }
+
+    @Test
+    public void testIPv6() throws Exception {
+        SubnetAddressAllocator allocator = SubnetAddressAllocator.getInstance(subnet("2001:db8:0:1::/112"));
+
+        assertEquals("Wrong capacity", 65536, allocator.getCapacity());
+        assertTrue("Specific claim should succeed", allocator.claim(new RawAddress("2001:db8:0:1::ffff")));
+        assertTrue("Claim should be recorded", allocator.isClaimed(new RawAddress("2001:db8:0:1:0:0:0:ffff")));
+        assertEquals("First free address", "2001:db8:0:1::", allocator.claim().getIpAddress());
+        try {
+            SubnetAddressAllocator.getInstance(subnet("2001:db8::/64"));
+            fail("A /64 should be too large to track");
+        }
+        catch( org.dasein.cloud.InternalException expected ) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class BlobCompressionTestCase extends TestCase {
+    static private @Nonnull byte[] read(@Nonnull InputStream input, boolean singleBytes) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try {
+            if( singleBytes ) {
+                int b;
+
+                while( (b = input.read()) != -1 ) {
+                    output.write(b);
+                }
+            }
+            else {
+                byte[] buffer = new byte[777];
+                int count;
+
+                while( (count = input.read(buffer, 0, buffer.length)) != -1 ) {
+                    output.write(buffer, 0, count);
+                }
+            }
+        }
+        finally {
+            input.close();
+        }
+        return output.toByteArray();
+    }
+
+    private @Nonnull byte[][] getInputs() {
+        Random random = new Random(3L);
+        byte[] noise = new byte[1024 * 1024];
+        byte[] text = new byte[3 * 1024 * 1024];
+
+        random.nextBytes(noise);
+        for( int i=0; i<text.length; i++ ) {
+            text[i] = (byte)('a' + (i % 17) + (random.nextInt(50) == 0 ? 1 : 0));
+        }
+        return new byte[][] { new byte[0], "x".getBytes(), "a small piece of content".getBytes(), noise, text };
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws Exception {
+        for( byte[] input : getInputs() ) {
+            byte[] compressed = read(new GzipCompressingInputStream(new ByteArrayInputStream(input)), false);
+            byte[] output = read(new GZIPInputStream(new ByteArrayInputStream(compressed)), false);
+
+            assertTrue("Round trip of " + input.length + " bytes failed", Arrays.equals(input, output));
+        }
+    }
+
+    @Test
+    public void testGzipSingleByteReads() throws Exception {
+        for( byte[] input : getInputs() ) {
+            if( input.length > 100000 ) {
+                continue;
+            }
+            byte[] compressed = read(new GzipCompressingInputStream(new ByteArrayInputStream(input)), true);
+            byte[] output = read(new GZIPInputStream(new ByteArrayInputStream(compressed)), true);
+
+            assertTrue("Single byte round trip of " + input.length + " bytes failed", Arrays.equals(input, output));
+        }
+    }
+
+    @Test
+    public void testSchemesRoundTrip() throws Exception {
+        for( BlobCompression compression : BlobCompression.values() ) {
+            for( byte[] input : getInputs() ) {
+                byte[] compressed = read(compression.compress(new ByteArrayInputStream(input)), false);
+                byte[] output = read(compression.decompress(new ByteArrayInputStream(compressed)), false);
+
+                assertTrue(compression + " round trip of " + input.length + " bytes failed", Arrays.equals(input, output));
+            }
+            assertEquals("Content encoding should map back to the scheme", compression, BlobCompression.fromContentEncoding(compression.getContentEncoding()));
+        }
+    }
+
+    @Test
+    public void testCompressedUploadRoundTrip() throws Exception {
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+        byte[] content = getInputs()[4];
+        File source = File.createTempFile("dasein", ".source");
+        File target = File.createTempFile("dasein", ".target");
+
+        try {
+            OutputStream output = new FileOutputStream(source);
+
+            try {
+                output.write(content);
+            }
+            finally {
+                output.close();
+            }
+            support.createBucket("bucket", false);
+            for( BlobCompression compression : BlobCompression.values() ) {
+                for( boolean addressed : new boolean[] { false, true } ) {
+                    BlobUploadOptions options = BlobUploadOptions.getInstance(compression);
+                    String name = compression + "-" + addressed;
+
+                    if( addressed ) {
+                        options.contentAddressed(BlobUploadOptions.DEFAULT_CONTENT_PREFIX);
+                    }
+                    Blob blob = support.upload(source, "bucket", name, options);
+
+                    if( !compression.equals(BlobCompression.NONE) ) {
+                        assertTrue(name + " was not compressed", blob.getSize().longValue() < content.length);
+                    }
+                    FileTransfer transfer = support.download("bucket", name, target);
+
+                    //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                    synchronized( transfer ) {
+                        while( !transfer.isComplete() ) {
+                            transfer.wait(1000L);
+                        }
+                    }
+                    assertNull(name + " failed to download: " + transfer.getTransferError(), transfer.getTransferError());
+                    assertTrue(name + " did not round trip", Arrays.equals(content, read(new FileInputStream(target), false)));
+                }
+            }
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            source.delete();
+            //noinspection ResultOfMethodCallIgnored
+            target.delete();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transfer and listing paths of {@link AbstractBlobStoreSupport} against the in-memory and local disk
+ * reference stores. After <code>mvn test-compile</code>, run {@link #main(String...)} or
+ * <code>org.openjdk.jmh.Main BlobStoreBenchmark</code> with the test classpath.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlobStoreBenchmark {
+    static private final String BUCKET = "benchmark";
+
+    static public void main(String ... args) throws Exception {
+        new Runner(new OptionsBuilder().include(BlobStoreBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Param({ "memory", "local" })
+    public String store;
+
+    @Param({ "1000" })
+    public int objects;
+
+    @Param({ "65536" })
+    public int objectSize;
+
+    private SimulatedBlobStoreSupport support;
+    private File                      directory;
+    private File                      target;
+    private int                       counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if( store.equals("local") ) {
+            directory = File.createTempFile("dasein", ".bench");
+            if( !directory.delete() || !directory.mkdirs() ) {
+                throw new IllegalStateException("Unable to create " + directory);
+            }
+            support = new LocalBlobStoreSupport(directory);
+        }
+        else {
+            support = new MemoryBlobStoreSupport();
+        }
+        StringBuilder content = new StringBuilder();
+        Random random = new Random(0L);
+
+        for( int i=0; i<objectSize; i++ ) {
+            content.append((char)('a' + random.nextInt(26)));
+        }
+        support.createBucket(BUCKET, false);
+        support.createBucket("copies", false);
+        for( int i=0; i<objects; i++ ) {
+            support.put(BUCKET, "object-" + i, content.toString());
+        }
+        target = File.createTempFile("dasein", ".download");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        support.clearBucket(BUCKET);
+        support.clearBucket("copies");
+        //noinspection ResultOfMethodCallIgnored
+        target.delete();
+        if( directory != null ) {
+            //noinspection ResultOfMethodCallIgnored
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    public long download() throws Exception {
+        FileTransfer transfer = support.download(BUCKET, "object-" + ((counter++) % objects), target);
+
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized( transfer ) {
+            while( !transfer.isComplete() ) {
+                transfer.wait(1000L);
+            }
+        }
+        return transfer.getBytesTransferred();
+    }
+
+    @Benchmark
+    public void copy() throws Exception {
+        int i = (counter++) % objects;
+
+        support.copy(BUCKET, "object-" + i, "copies", "object-" + i);
+    }
+
+    @Benchmark
+    public int list() throws Exception {
+        int count = 0;
+
+        for( Blob ignore : support.list(BUCKET) ) {
+            count++;
+        }
+        return count;
+    }
+
+    @State(Scope.Thread)
+    public static class ClearState {
+        public String bucket;
+
+        @Setup(Level.Invocation)
+        public void setUp(BlobStoreBenchmark benchmark) throws Exception {
+            bucket = benchmark.support.createBucket("clear", true).getBucketName();
+            for( int i=0; i<100; i++ ) {
+                benchmark.support.put(bucket, "object-" + i, "x");
+            }
+        }
+    }
+
+    @Benchmark
+    public void clearBucket(ClearState state) throws Exception {
+        support.clearBucket(state.bucket);
+    }
+}
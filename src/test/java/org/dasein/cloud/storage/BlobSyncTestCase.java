@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.InternalException;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class BlobSyncTestCase extends TestCase {
+    private File directory;
+
+    static private void delete(@Nonnull File file) {
+        File[] files = file.listFiles();
+
+        if( files != null ) {
+            for( File f : files ) {
+                delete(f);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    static private void write(@Nonnull File file, @Nonnull String content) throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(content.getBytes("utf-8"));
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        directory = File.createTempFile("dasein", ".sync");
+        if( !directory.delete() || !directory.mkdirs() ) {
+            throw new IllegalStateException("Unable to create " + directory);
+        }
+        write(new File(directory, "a.txt"), "alpha");
+        write(new File(directory, "b.txt"), "beta");
+        write(new File(directory, "docs/c.txt"), "gamma");
+        write(new File(directory, "docs/deep/d.txt"), "delta");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        delete(directory);
+    }
+
+    private @Nonnull Set<String> names(@Nonnull MemoryBlobStoreSupport support, @Nullable String bucket) throws Exception {
+        Set<String> names = new HashSet<String>();
+
+        for( Blob blob : support.list(bucket) ) {
+            if( !blob.isContainer() ) {
+                names.add(blob.getObjectName());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testDeltaSync() throws Exception {
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+        File manifest = new File(directory, ".dasein-sync");
+        SyncResult result = BlobSync.getInstance(support).withManifest(manifest).sync(directory, "mirror");
+
+        assertTrue("First sync failed: " + result, result.isSuccessful());
+        assertEquals("Every file should be uploaded", 4, result.getUploaded());
+        assertEquals("Wrong remote objects", new HashSet<String>(Arrays.asList("a.txt", "b.txt", "docs/c.txt", "docs/deep/d.txt")), names(support, "mirror"));
+        assertTrue("Manifest was not saved", manifest.isFile());
+
+        result = BlobSync.getInstance(support).withManifest(manifest).sync(directory, "mirror");
+        assertEquals("Nothing should be uploaded when nothing changed", 0, result.getUploaded());
+        assertEquals("Everything should be unchanged", 4, result.getUnchanged());
+
+        write(new File(directory, "b.txt"), "beta, revised");
+        delete(new File(directory, "docs/deep"));
+        result = BlobSync.getInstance(support).withManifest(manifest).sync(directory, "mirror");
+        assertTrue("Third sync failed: " + result, result.isSuccessful());
+        assertEquals("Only the changed file should be uploaded", 1, result.getUploaded());
+        assertEquals("Only the removed file should be deleted", 1, result.getDeleted());
+        assertEquals("Wrong remote objects", new HashSet<String>(Arrays.asList("a.txt", "b.txt", "docs/c.txt")), names(support, "mirror"));
+    }
+
+    @Test
+    public void testKeepExtraneous() throws Exception {
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+
+        support.createBucket("mirror", false);
+        support.put("mirror", "stale.txt", "stale");
+        SyncResult result = BlobSync.getInstance(support).deletingExtraneous(false).sync(directory, "mirror");
+
+        assertEquals("Nothing should be deleted", 0, result.getDeleted());
+        assertTrue("Stale object should survive", names(support, "mirror").contains("stale.txt"));
+        result = BlobSync.getInstance(support).sync(directory, "mirror");
+        assertEquals("Stale object should be deleted", 1, result.getDeleted());
+        assertFalse("Stale object should be gone", names(support, "mirror").contains("stale.txt"));
+    }
+
+    @Test
+    public void testNestedBucketsDoNotCollide() throws Exception {
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+
+        support.createBucket("mirror", false);
+        support.createBucket("mirror/docs", false);
+        support.put("mirror", "a.txt", "alpha");
+        support.put("mirror/docs", "a.txt", "other");
+        SyncResult result = BlobSync.getInstance(support).sync(directory, "mirror");
+
+        assertTrue("Sync failed: " + result, result.isSuccessful());
+        assertTrue("Object in the nested bucket should be treated as docs/a.txt and deleted", names(support, "mirror/docs").isEmpty());
+        assertTrue("Object in the root bucket should survive", names(support, "mirror").contains("a.txt"));
+    }
+
+    @Test
+    public void testRootSyncLeavesBucketsAlone() throws Exception {
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+
+        support.createBucket("unrelated", false);
+        support.put("unrelated", "keep.txt", "keep");
+        support.put(null, "stale.txt", "stale");
+        SyncResult result = BlobSync.getInstance(support).sync(directory, null);
+
+        assertTrue("Sync failed: " + result, result.isSuccessful());
+        assertEquals("Every file should be uploaded", 4, result.getUploaded());
+        assertEquals("Only the stale root object should be deleted", 1, result.getDeleted());
+        assertEquals("Wrong root objects", new HashSet<String>(Arrays.asList("a.txt", "b.txt", "docs/c.txt", "docs/deep/d.txt")), names(support, null));
+        assertTrue("Object in an unrelated bucket was deleted", names(support, "unrelated").contains("keep.txt"));
+    }
+
+    @Test
+    public void testFailureNotMaskedByManifest() throws Exception {
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+        // the manifest cannot be written because its directory is a file
+        File manifest = new File(new File(directory, "a.txt"), "manifest");
+
+        Thread.currentThread().interrupt();
+        try {
+            BlobSync.getInstance(support).withManifest(manifest).sync(directory, "mirror");
+            fail("Sync should have been interrupted");
+        }
+        catch( InternalException e ) {
+            assertTrue("Original failure was masked by " + e.getCause(), e.getCause() instanceof InterruptedException);
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testManifestFailureReported() throws Exception {
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+        File manifest = new File(new File(directory, "a.txt"), "manifest");
+
+        try {
+            BlobSync.getInstance(support).withManifest(manifest).sync(directory, "mirror");
+            fail("Failure to save the manifest should be reported");
+        }
+        catch( InternalException expected ) {
+            // expected
+        }
+        assertEquals("Files should still have been uploaded", 4, names(support, "mirror").size());
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class FileTransferTestCase extends TestCase {
+    @Test
+    public void testTimeCoalescing() throws Exception {
+        FileTransfer transfer = new FileTransfer();
+
+        transfer.setBytesToTransfer(1000L);
+        transfer.setProgressIntervalInMillis(60000L);
+        transfer.setBytesTransferred(100L);
+        assertEquals("First update should notify", 0.1d, transfer.getPercentComplete(), 0.0001d);
+        for( long b=200L; b<1000L; b += 100L ) {
+            transfer.setBytesTransferred(b);
+            assertEquals("Updates inside the interval should be coalesced", 0.1d, transfer.getPercentComplete(), 0.0001d);
+        }
+        assertEquals("Byte count should still be current", 900L, transfer.getBytesTransferred());
+        transfer.setBytesTransferred(1000L);
+        assertEquals("Reaching the expected size should notify", 1.0d, transfer.getPercentComplete(), 0.0001d);
+    }
+
+    @Test
+    public void testElapsedInterval() throws Exception {
+        FileTransfer transfer = new FileTransfer();
+
+        transfer.setBytesToTransfer(1000L);
+        transfer.setProgressIntervalInMillis(50L);
+        transfer.setBytesTransferred(100L);
+        transfer.setBytesTransferred(200L);
+        assertEquals("Update inside the interval should be coalesced", 0.1d, transfer.getPercentComplete(), 0.0001d);
+        Thread.sleep(80L);
+        transfer.setBytesTransferred(300L);
+        assertEquals("Update after the interval should notify", 0.3d, transfer.getPercentComplete(), 0.0001d);
+    }
+
+    @Test
+    public void testByteCoalescing() throws Exception {
+        FileTransfer transfer = new FileTransfer();
+
+        transfer.setBytesToTransfer(1000L);
+        transfer.setProgressIntervalInMillis(0L);
+        transfer.setProgressIntervalInBytes(300L);
+        transfer.setBytesTransferred(100L);
+        assertEquals("Update under the byte interval should be coalesced", 0d, transfer.getPercentComplete(), 0.0001d);
+        transfer.setBytesTransferred(300L);
+        assertEquals("Update at the byte interval should notify", 0.3d, transfer.getPercentComplete(), 0.0001d);
+        transfer.setBytesTransferred(500L);
+        assertEquals("Update under the byte interval should be coalesced", 0.3d, transfer.getPercentComplete(), 0.0001d);
+        transfer.setBytesTransferred(100L);
+        assertEquals("A reset should always notify", 0.1d, transfer.getPercentComplete(), 0.0001d);
+    }
+
+    @Test
+    public void testNoCoalescing() throws Exception {
+        FileTransfer transfer = new FileTransfer();
+
+        transfer.setBytesToTransfer(1000L);
+        transfer.setProgressIntervalInMillis(0L);
+        transfer.setProgressIntervalInBytes(0L);
+        for( long b=10L; b<=1000L; b += 10L ) {
+            transfer.setBytesTransferred(b);
+            assertEquals("Every update should notify", b/1000d, transfer.getPercentComplete(), 0.0001d);
+        }
+    }
+
+    @Test
+    public void testCompletionNotifies() throws Exception {
+        FileTransfer transfer = new FileTransfer();
+
+        transfer.setBytesToTransfer(1000L);
+        transfer.setProgressIntervalInMillis(60000L);
+        transfer.setBytesTransferred(100L);
+        transfer.setBytesTransferred(700L);
+        transfer.complete(null);
+        assertEquals("Completion should publish the final progress", 0.7d, transfer.getPercentComplete(), 0.0001d);
+    }
+
+    @Test
+    public void testWaitersWokenOnlyOnNotification() throws Exception {
+        final FileTransfer transfer = new FileTransfer();
+        final int[] wakeups = { 0 };
+
+        transfer.setBytesToTransfer(100000L);
+        transfer.setProgressIntervalInMillis(60000L);
+        Thread waiter = new Thread() {
+            public void run() {
+                synchronized( transfer ) {
+                    while( !transfer.isComplete() ) {
+                        try {
+                            transfer.wait();
+                        }
+                        catch( InterruptedException e ) {
+                            return;
+                        }
+                        wakeups[0]++;
+                    }
+                }
+            }
+        };
+
+        waiter.setDaemon(true);
+        waiter.start();
+        Thread.sleep(50L);
+        for( long b=1L; b<=100000L; b++ ) {
+            transfer.setBytesTransferred(b);
+        }
+        transfer.complete(null);
+        waiter.join(5000L);
+        assertFalse("Waiter should have finished", waiter.isAlive());
+        // the first update, reaching the expected size, and completion; spurious wakeups are rare enough to allow a few
+        assertTrue("Waiter was woken " + wakeups[0] + " times for 100000 updates", wakeups[0] <= 10);
+    }
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A blob store backed by a directory on local disk. Buckets are directories beneath the root directory and objects are
+ * files within them. Object names are URL-encoded on disk so that names containing <code>/</code> are not confused
+ * with nested buckets. Objects are written to a temporary file and renamed into place when complete. Object metadata
+ * is kept in a properties file alongside the object whose suffix can never appear in an encoded object name.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class LocalBlobStoreSupport extends SimulatedBlobStoreSupport {
+    static private final String META_SUFFIX = "~meta";
+    static private final String TEMP_SUFFIX = "~partial";
+
+    private final File root;
+
+    /**
+     * Constructs a store rooted in the specified directory that allows both nested buckets and root objects.
+     * @param root the directory holding the store
+     */
+    public LocalBlobStoreSupport(@Nonnull File root) {
+        this(root, "local", true, true);
+    }
+
+    /**
+     * Constructs a store rooted in the specified directory with the specified rules.
+     * @param root the directory holding the store
+     * @param regionId the region ID to report for buckets and objects
+     * @param allowsNestedBuckets true if buckets may be created within other buckets
+     * @param allowsRootObjects true if objects may be placed outside of any bucket
+     */
+    public LocalBlobStoreSupport(@Nonnull File root, @Nonnull String regionId, boolean allowsNestedBuckets, boolean allowsRootObjects) {
+        super(regionId, allowsNestedBuckets, allowsRootObjects);
+        this.root = root;
+    }
+
+    /**
+     * @return the directory holding this store
+     */
+    public @Nonnull File getRoot() {
+        return root;
+    }
+
+    @Override
+    protected void createBucketStorage(@Nonnull String bucket) throws InternalException {
+        File dir = toDirectory(bucket);
+
+        if( !dir.isDirectory() && !dir.mkdirs() ) {
+            throw new InternalException("Unable to create directory " + dir);
+        }
+    }
+
+    @Override
+    protected @Nonnull OutputStream createObject(@Nullable String bucket, @Nonnull String object, @Nonnull Map<String,String> metadata) throws InternalException {
+        final File target = toFile(bucket, object);
+        final File meta = toMetadataFile(target);
+        final File tmp = new File(target.getParentFile(), target.getName() + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        final Properties properties = new Properties();
+
+        properties.putAll(metadata);
+
+        try {
+            return new FilterOutputStream(new FileOutputStream(tmp)) {
+                private boolean closed = false;
+
+                @Override
+                public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if( closed ) {
+                        return;
+                    }
+                    closed = true;
+                    super.close();
+                    if( target.exists() && !target.delete() ) {
+                        throw new IOException("Unable to replace " + target);
+                    }
+                    if( !tmp.renameTo(target) ) {
+                        throw new IOException("Unable to write " + target);
+                    }
+                    if( properties.isEmpty() ) {
+                        if( meta.exists() && !meta.delete() ) {
+                            throw new IOException("Unable to remove " + meta);
+                        }
+                    }
+                    else {
+                        OutputStream output = new FileOutputStream(meta);
+
+                        try {
+                            properties.store(output, null);
+                        }
+                        finally {
+                            output.close();
+                        }
+                    }
+                }
+            };
+        }
+        catch( FileNotFoundException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    @Override
+    protected void deleteBucketStorage(@Nonnull String bucket) throws InternalException {
+        File dir = toDirectory(bucket);
+
+        if( dir.exists() && !dir.delete() ) {
+            throw new InternalException("Unable to remove directory " + dir);
+        }
+    }
+
+    @Override
+    protected void deleteObject(@Nullable String bucket, @Nonnull String object) throws InternalException {
+        File file = toFile(bucket, object);
+
+        if( file.exists() && !file.delete() ) {
+            throw new InternalException("Unable to remove " + file);
+        }
+        File meta = toMetadataFile(file);
+
+        if( meta.exists() && !meta.delete() ) {
+            throw new InternalException("Unable to remove " + meta);
+        }
+    }
+
+    @Override
+    protected long getBucketTimestamp(@Nonnull String bucket) {
+        if( !isValidBucketName(bucket) ) {
+            return -1L;
+        }
+        File dir = toDirectory(bucket);
+
+        return (dir.isDirectory() ? dir.lastModified() : -1L);
+    }
+
+    @Override
+    protected long getObjectLength(@Nullable String bucket, @Nonnull String object) {
+        File file = toFile(bucket, object);
+
+        return (file.isFile() ? file.length() : -1L);
+    }
+
+    @Override
+    protected @Nonnull Map<String,String> getObjectMetadata(@Nullable String bucket, @Nonnull String object) throws InternalException {
+        File meta = toMetadataFile(toFile(bucket, object));
+        Map<String,String> metadata = new HashMap<String, String>();
+
+        if( meta.isFile() ) {
+            Properties properties = new Properties();
+
+            try {
+                InputStream input = new FileInputStream(meta);
+
+                try {
+                    properties.load(input);
+                }
+                finally {
+                    input.close();
+                }
+            }
+            catch( IOException e ) {
+                throw new InternalException(e);
+            }
+            for( String key : properties.stringPropertyNames() ) {
+                metadata.put(key, properties.getProperty(key));
+            }
+        }
+        return metadata;
+    }
+
+    @Override
+    protected long getObjectTimestamp(@Nullable String bucket, @Nonnull String object) {
+        File file = toFile(bucket, object);
+
+        return (file.isFile() ? file.lastModified() : -1L);
+    }
+
+    @Override
+    protected @Nonnull Collection<String> listBucketNames(@Nullable String parent) {
+        List<String> names = new ArrayList<String>();
+        File[] files = (parent == null ? root : toDirectory(parent)).listFiles();
+
+        if( files != null ) {
+            for( File file : files ) {
+                if( file.isDirectory() ) {
+                    names.add(parent == null ? file.getName() : parent + "/" + file.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    @Override
+    protected @Nonnull Collection<String> listObjectNames(@Nullable String bucket) {
+        List<String> names = new ArrayList<String>();
+        File[] files = (bucket == null ? root : toDirectory(bucket)).listFiles();
+
+        if( files != null ) {
+            for( File file : files ) {
+                if( file.isFile() && !file.getName().endsWith(TEMP_SUFFIX) && !file.getName().endsWith(META_SUFFIX) ) {
+                    try {
+                        names.add(URLDecoder.decode(file.getName(), "utf-8"));
+                    }
+                    catch( UnsupportedEncodingException e ) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    @Override
+    protected @Nonnull InputStream openObject(@Nullable String bucket, @Nonnull String object) throws InternalException {
+        try {
+            return new FileInputStream(toFile(bucket, object));
+        }
+        catch( FileNotFoundException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    private @Nonnull File toDirectory(@Nonnull String bucket) {
+        return new File(root, bucket.replace('/', File.separatorChar));
+    }
+
+    private @Nonnull File toFile(@Nullable String bucket, @Nonnull String object) {
+        try {
+            String name = URLEncoder.encode(object, "utf-8");
+
+            // keep names like . and .. from resolving to directories
+            if( name.startsWith(".") ) {
+                name = "%2E" + name.substring(1);
+            }
+            return new File(bucket == null ? root : toDirectory(bucket), name);
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private @Nonnull File toMetadataFile(@Nonnull File file) {
+        return new File(file.getParentFile(), file.getName() + META_SUFFIX);
+    }
+
+    @Override
+    protected @Nonnull String toLocation(@Nullable String bucket, @Nullable String object) {
+        if( object == null ) {
+            return (bucket == null ? root : toDirectory(bucket)).toURI().toString();
+        }
+        return toFile(bucket, object).toURI().toString();
+    }
+}
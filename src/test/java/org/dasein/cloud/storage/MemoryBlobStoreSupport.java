@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.util.uom.storage.Storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A blob store held entirely in memory. Object content lives on the heap, so this store is suited to benchmarks and
+ * tests that need to measure or exercise the Dasein Cloud transfer paths without any disk or network I/O.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class MemoryBlobStoreSupport extends SimulatedBlobStoreSupport {
+    static private final String ROOT = "";
+
+    static private class MemoryBucket {
+        public final long                                 created = System.currentTimeMillis();
+        public final ConcurrentHashMap<String,MemoryObject> objects = new ConcurrentHashMap<String, MemoryObject>();
+    }
+
+    static private class MemoryObject {
+        public final byte[]             content;
+        public final long               created = System.currentTimeMillis();
+        public final Map<String,String> metadata;
+
+        public MemoryObject(@Nonnull byte[] content, @Nonnull Map<String,String> metadata) {
+            this.content = content;
+            this.metadata = metadata;
+        }
+    }
+
+    private final ConcurrentHashMap<String,MemoryBucket> buckets = new ConcurrentHashMap<String, MemoryBucket>();
+
+    /**
+     * Constructs an in-memory store in the region &quot;memory&quot; that allows both nested buckets and root objects.
+     */
+    public MemoryBlobStoreSupport() {
+        this("memory", true, true);
+    }
+
+    /**
+     * Constructs an in-memory store with the specified rules.
+     * @param regionId the region ID to report for buckets and objects
+     * @param allowsNestedBuckets true if buckets may be created within other buckets
+     * @param allowsRootObjects true if objects may be placed outside of any bucket
+     */
+    public MemoryBlobStoreSupport(@Nonnull String regionId, boolean allowsNestedBuckets, boolean allowsRootObjects) {
+        super(regionId, allowsNestedBuckets, allowsRootObjects);
+        buckets.put(ROOT, new MemoryBucket());
+    }
+
+    @Override
+    protected void createBucketStorage(@Nonnull String bucket) throws InternalException {
+        buckets.putIfAbsent(bucket, new MemoryBucket());
+    }
+
+    @Override
+    protected @Nonnull OutputStream createObject(final @Nullable String bucket, final @Nonnull String object, @Nonnull Map<String,String> metadata) throws InternalException {
+        final MemoryBucket b = buckets.get(bucket == null ? ROOT : bucket);
+
+        if( b == null ) {
+            throw new InternalException("No such bucket: " + bucket);
+        }
+        final Map<String,String> copy = Collections.unmodifiableMap(new HashMap<String, String>(metadata));
+
+        return new ByteArrayOutputStream() {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if( !closed ) {
+                    closed = true;
+                    b.objects.put(object, new MemoryObject(toByteArray(), copy));
+                }
+            }
+        };
+    }
+
+    @Override
+    protected void deleteBucketStorage(@Nonnull String bucket) throws InternalException {
+        buckets.remove(bucket);
+    }
+
+    @Override
+    protected void deleteObject(@Nullable String bucket, @Nonnull String object) throws InternalException {
+        MemoryBucket b = buckets.get(bucket == null ? ROOT : bucket);
+
+        if( b != null ) {
+            b.objects.remove(object);
+        }
+    }
+
+    @Override
+    protected long getBucketTimestamp(@Nonnull String bucket) {
+        MemoryBucket b = (bucket.equals(ROOT) ? null : buckets.get(bucket));
+
+        return (b == null ? -1L : b.created);
+    }
+
+    @Override
+    public Storage<org.dasein.util.uom.storage.Byte> getMaxObjectSize() throws InternalException, CloudException {
+        return new Storage<org.dasein.util.uom.storage.Byte>(Integer.MAX_VALUE, Storage.BYTE);
+    }
+
+    private @Nullable MemoryObject getMemoryObject(@Nullable String bucket, @Nonnull String object) {
+        MemoryBucket b = buckets.get(bucket == null ? ROOT : bucket);
+
+        return (b == null ? null : b.objects.get(object));
+    }
+
+    @Override
+    protected long getObjectLength(@Nullable String bucket, @Nonnull String object) {
+        MemoryObject o = getMemoryObject(bucket, object);
+
+        return (o == null ? -1L : o.content.length);
+    }
+
+    @Override
+    protected @Nonnull Map<String,String> getObjectMetadata(@Nullable String bucket, @Nonnull String object) throws InternalException {
+        MemoryObject o = getMemoryObject(bucket, object);
+
+        if( o == null ) {
+            return Collections.emptyMap();
+        }
+        return o.metadata;
+    }
+
+    @Override
+    protected long getObjectTimestamp(@Nullable String bucket, @Nonnull String object) {
+        MemoryObject o = getMemoryObject(bucket, object);
+
+        return (o == null ? -1L : o.created);
+    }
+
+    @Override
+    protected @Nonnull Collection<String> listBucketNames(@Nullable String parent) {
+        List<String> names = new ArrayList<String>();
+
+        for( String name : buckets.keySet() ) {
+            if( name.equals(ROOT) ) {
+                continue;
+            }
+            int idx = name.lastIndexOf('/');
+
+            if( parent == null ? idx < 0 : (idx == parent.length() && name.startsWith(parent)) ) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    @Override
+    protected @Nonnull Collection<String> listObjectNames(@Nullable String bucket) {
+        MemoryBucket b = buckets.get(bucket == null ? ROOT : bucket);
+
+        if( b == null ) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(b.objects.keySet());
+    }
+
+    @Override
+    protected @Nonnull InputStream openObject(@Nullable String bucket, @Nonnull String object) throws InternalException {
+        MemoryObject o = getMemoryObject(bucket, object);
+
+        if( o == null ) {
+            throw new InternalException("No such object: " + object);
+        }
+        return new ByteArrayInputStream(o.content);
+    }
+
+    @Override
+    protected @Nonnull String toLocation(@Nullable String bucket, @Nullable String object) {
+        return ("memory://" + getRegionId() + "/" + (bucket == null ? "" : bucket + "/") + (object == null ? "" : object));
+    }
+}
@@ -0,0 +1,669 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.NameRules;
+import org.dasein.cloud.identity.ServiceAction;
+import org.dasein.util.uom.storage.Storage;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class for blob stores that run entirely within the local JVM or on local disk without a cloud provider. These
+ * test fixtures are intended for benchmarking the transfer paths of {@link AbstractBlobStoreSupport} and for testing
+ * tools built on {@link BlobStoreSupport}. They honor {@link #allowsNestedBuckets()} and {@link #allowsRootObjects()} as
+ * configured and can inject a fixed latency into every operation and a bandwidth limit into every data transfer to
+ * approximate the behavior of a real provider.
+ * <p>
+ * Buckets are identified by their full path, with nested buckets separated from their parents by a <code>/</code>.
+ * A bucket must be empty before it can be removed and must exist before objects can be placed into it.
+ * </p>
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public abstract class SimulatedBlobStoreSupport extends AbstractBlobStoreSupport {
+    private final TokenBucket bandwidth = new TokenBucket(0L);
+    private volatile long     latency = 0L;
+    private final boolean     nestedBuckets;
+    private final Set<String> publicPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final String      regionId;
+    private final boolean     rootObjects;
+
+    protected SimulatedBlobStoreSupport(@Nonnull String regionId, boolean allowsNestedBuckets, boolean allowsRootObjects) {
+        this.regionId = regionId;
+        this.nestedBuckets = allowsNestedBuckets;
+        this.rootObjects = allowsRootObjects;
+    }
+
+    /**
+     * @return the bandwidth limit in bytes per second applied to each data transfer, zero or less if unlimited
+     */
+    public long getBandwidth() {
+        return bandwidth.getBytesPerSecond();
+    }
+
+    /**
+     * @return the latency in milliseconds injected into each operation
+     */
+    public @Nonnegative long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the region ID reported for all buckets and objects in this store
+     */
+    public @Nonnull String getRegionId() {
+        return regionId;
+    }
+
+    /**
+     * Limits the rate at which data is read from or written to this store. The limit is shared by all concurrent
+     * transfers, just as the network link to a real provider would be.
+     * @param bytesPerSecond the bandwidth limit in bytes per second, zero or less for no limit
+     * @return this
+     */
+    public @Nonnull SimulatedBlobStoreSupport withBandwidth(long bytesPerSecond) {
+        bandwidth.setBytesPerSecond(bytesPerSecond);
+        return this;
+    }
+
+    /**
+     * Injects a fixed delay into every operation against this store to approximate the round trip to a provider.
+     * @param millis the latency in milliseconds
+     * @return this
+     */
+    public @Nonnull SimulatedBlobStoreSupport withLatency(@Nonnegative long millis) {
+        latency = Math.max(0L, millis);
+        return this;
+    }
+
+    /**
+     * Creates the specified bucket in the underlying storage.
+     * @param bucket the full path of the bucket
+     * @throws InternalException an error occurred creating the bucket
+     */
+    protected abstract void createBucketStorage(@Nonnull String bucket) throws InternalException;
+
+    /**
+     * Opens a stream that writes the content of the specified object. The object, along with its metadata, becomes
+     * visible when the stream is closed and replaces any existing object and metadata of the same name.
+     * @param bucket the bucket containing the object or <code>null</code> for the root
+     * @param object the name of the object
+     * @param metadata the metadata to store with the object
+     * @return a stream for writing the object content
+     * @throws InternalException an error occurred preparing the object
+     */
+    protected abstract @Nonnull OutputStream createObject(@Nullable String bucket, @Nonnull String object, @Nonnull Map<String,String> metadata) throws InternalException;
+
+    /**
+     * Removes the specified (empty) bucket from the underlying storage.
+     * @param bucket the full path of the bucket
+     * @throws InternalException an error occurred removing the bucket
+     */
+    protected abstract void deleteBucketStorage(@Nonnull String bucket) throws InternalException;
+
+    /**
+     * Removes the specified object from the underlying storage if it exists.
+     * @param bucket the bucket containing the object or <code>null</code> for the root
+     * @param object the name of the object
+     * @throws InternalException an error occurred removing the object
+     */
+    protected abstract void deleteObject(@Nullable String bucket, @Nonnull String object) throws InternalException;
+
+    /**
+     * @param bucket the full path of the bucket
+     * @return the time the bucket was created or -1 if it does not exist
+     */
+    protected abstract long getBucketTimestamp(@Nonnull String bucket);
+
+    /**
+     * @param bucket the bucket containing the object or <code>null</code> for the root
+     * @param object the name of the object
+     * @return the size of the object in bytes or -1 if it does not exist
+     */
+    protected abstract long getObjectLength(@Nullable String bucket, @Nonnull String object);
+
+    /**
+     * @param bucket the bucket containing the object or <code>null</code> for the root
+     * @param object the name of the object
+     * @return the metadata stored with the object, empty if it has none or does not exist
+     * @throws InternalException an error occurred reading the metadata
+     */
+    protected abstract @Nonnull Map<String,String> getObjectMetadata(@Nullable String bucket, @Nonnull String object) throws InternalException;
+
+    /**
+     * @param bucket the bucket containing the object or <code>null</code> for the root
+     * @param object the name of the object
+     * @return the time the object was last written
+     */
+    protected abstract long getObjectTimestamp(@Nullable String bucket, @Nonnull String object);
+
+    /**
+     * @param parent the parent bucket or <code>null</code> for the root
+     * @return the full paths of the buckets directly within the parent
+     */
+    protected abstract @Nonnull Collection<String> listBucketNames(@Nullable String parent);
+
+    /**
+     * @param bucket the bucket or <code>null</code> for the root
+     * @return the names of the objects directly within the bucket
+     */
+    protected abstract @Nonnull Collection<String> listObjectNames(@Nullable String bucket);
+
+    /**
+     * Opens a stream for reading the content of the specified object.
+     * @param bucket the bucket containing the object or <code>null</code> for the root
+     * @param object the name of the object
+     * @return a stream of the object content
+     * @throws InternalException an error occurred opening the object
+     */
+    protected abstract @Nonnull InputStream openObject(@Nullable String bucket, @Nonnull String object) throws InternalException;
+
+    /**
+     * @param bucket the bucket containing the object or <code>null</code> for the root
+     * @param object the name of the object, or <code>null</code> for the bucket itself
+     * @return the location reported for the bucket or object
+     */
+    protected abstract @Nonnull String toLocation(@Nullable String bucket, @Nullable String object);
+
+    @Override
+    public boolean allowsNestedBuckets() throws CloudException, InternalException {
+        return nestedBuckets;
+    }
+
+    @Override
+    public boolean allowsRootObjects() throws CloudException, InternalException {
+        return rootObjects;
+    }
+
+    @Override
+    public boolean allowsPublicSharing() throws CloudException, InternalException {
+        return true;
+    }
+
+    /**
+     * Copies an object, or all objects in a bucket, without staging the content in a temporary file. This method is
+     * public in simulated stores so that benchmarks and tests can exercise the copy path directly.
+     * @param sourceBucket the bucket containing the source
+     * @param sourceObject the source object, or <code>null</code> to copy the entire bucket
+     * @param targetBucket the target bucket
+     * @param targetObject the target object name, or <code>null</code> to keep the source name
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws CloudException the copy violates the rules of this store
+     */
+    @Override
+    public void copy(@Nullable String sourceBucket, @Nullable String sourceObject, @Nullable String targetBucket, @Nullable String targetObject) throws InternalException, CloudException {
+        super.copy(sourceBucket, sourceObject, targetBucket, targetObject);
+    }
+
+    @Override
+    protected void copyFile(@Nullable String sourceBucket, @Nonnull String sourceObject, @Nullable String targetBucket, @Nonnull String targetObject) throws InternalException, CloudException {
+        pause();
+        if( getObjectLength(sourceBucket, sourceObject) < 0L ) {
+            throw new CloudException("No such object: " + path(sourceBucket, sourceObject));
+        }
+        checkTarget(targetBucket, targetObject);
+        try {
+            copy(throttle(openObject(sourceBucket, sourceObject)), createObject(targetBucket, targetObject, getObjectMetadata(sourceBucket, sourceObject)), null);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    @Override
+    public synchronized @Nonnull Blob createBucket(@Nonnull String bucket, boolean findFreeName) throws InternalException, CloudException {
+        pause();
+        checkBucketName(bucket);
+        int idx = bucket.lastIndexOf('/');
+
+        if( idx > -1 ) {
+            if( !nestedBuckets ) {
+                throw new CloudException("Nested buckets are not supported");
+            }
+            String parent = bucket.substring(0, idx);
+
+            if( getBucketTimestamp(parent) < 0L ) {
+                throw new CloudException("No such bucket: " + parent);
+            }
+        }
+        if( getBucketTimestamp(bucket) > -1L ) {
+            if( !findFreeName ) {
+                throw new CloudException("Bucket already exists: " + bucket);
+            }
+            String base = bucket;
+            int i = 1;
+
+            do {
+                bucket = base + "-" + (i++);
+            } while( getBucketTimestamp(bucket) > -1L );
+        }
+        createBucketStorage(bucket);
+        return Blob.getInstance(regionId, toLocation(bucket, null), bucket, getBucketTimestamp(bucket));
+    }
+
+    @Override
+    public boolean exists(@Nonnull String bucket) throws InternalException, CloudException {
+        pause();
+        return (isValidBucketName(bucket) && getBucketTimestamp(bucket) > -1L);
+    }
+
+    @Override
+    protected void get(@Nullable String bucket, @Nonnull String object, @Nonnull File toFile, @Nullable FileTransfer transfer) throws InternalException, CloudException {
+        if( getObjectLength(bucket, object) < 0L ) {
+            throw new CloudException("No such object: " + path(bucket, object));
+        }
+        try {
+            copy(throttle(openObject(bucket, object)), new FileOutputStream(toFile), transfer);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    @Override
+    public Blob getBucket(@Nonnull String bucketName) throws InternalException, CloudException {
+        pause();
+        if( !isValidBucketName(bucketName) ) {
+            return null;
+        }
+        long timestamp = getBucketTimestamp(bucketName);
+
+        if( timestamp < 0L ) {
+            return null;
+        }
+        return Blob.getInstance(regionId, toLocation(bucketName, null), bucketName, timestamp);
+    }
+
+    @Override
+    public Blob getObject(@Nullable String bucketName, @Nonnull String objectName) throws InternalException, CloudException {
+        pause();
+        return toBlob(bucketName, objectName);
+    }
+
+    @Override
+    public @Nullable Storage<org.dasein.util.uom.storage.Byte> getObjectSize(@Nullable String bucketName, @Nullable String objectName) throws InternalException, CloudException {
+        pause();
+        if( objectName == null || (bucketName != null && !isValidBucketName(bucketName)) ) {
+            return null;
+        }
+        long length = getObjectLength(bucketName, objectName);
+
+        if( length < 0L ) {
+            return null;
+        }
+        return new Storage<org.dasein.util.uom.storage.Byte>(length, Storage.BYTE);
+    }
+
+    @Override
+    protected @Nonnull Map<String,String> getMetadata(@Nullable String bucket, @Nonnull String object) throws InternalException, CloudException {
+        pause();
+        if( bucket != null && !isValidBucketName(bucket) ) {
+            return Collections.emptyMap();
+        }
+        return getObjectMetadata(bucket, object);
+    }
+
+    @Override
+    protected @Nonnull InputStream getStream(@Nullable String bucket, @Nonnull String object) throws InternalException, CloudException {
+        pause();
+        if( (bucket != null && !isValidBucketName(bucket)) || getObjectLength(bucket, object) < 0L ) {
+            throw new CloudException("No such object: " + path(bucket, object));
+        }
+        return throttle(openObject(bucket, object));
+    }
+
+    @Override
+    public int getMaxBuckets() throws CloudException, InternalException {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Storage<org.dasein.util.uom.storage.Byte> getMaxObjectSize() throws InternalException, CloudException {
+        return new Storage<org.dasein.util.uom.storage.Byte>(Long.MAX_VALUE, Storage.BYTE);
+    }
+
+    @Override
+    public int getMaxObjectsPerBucket() throws CloudException, InternalException {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public @Nonnull NameRules getBucketNameRules() throws CloudException, InternalException {
+        return NameRules.getInstance(1, 255, true, true, true, new char[] { '-', '.', '_' });
+    }
+
+    @Override
+    public @Nonnull NameRules getObjectNameRules() throws CloudException, InternalException {
+        return NameRules.getInstance(1, 1024, true, true, false, new char[] { '-', '.', '_', '/', ' ', '+', '=' });
+    }
+
+    @Override
+    public @Nonnull String getProviderTermForBucket(@Nonnull Locale locale) {
+        return "bucket";
+    }
+
+    @Override
+    public @Nonnull String getProviderTermForObject(@Nonnull Locale locale) {
+        return "object";
+    }
+
+    @Override
+    public boolean isPublic(@Nullable String bucket, @Nullable String object) throws CloudException, InternalException {
+        pause();
+        return publicPaths.contains(path(bucket, object));
+    }
+
+    @Override
+    public boolean isSubscribed() throws CloudException, InternalException {
+        return true;
+    }
+
+    @Override
+    public @Nonnull Iterable<Blob> list(@Nullable String bucket) throws CloudException, InternalException {
+        pause();
+        if( bucket != null && (!isValidBucketName(bucket) || getBucketTimestamp(bucket) < 0L) ) {
+            throw new CloudException("No such bucket: " + bucket);
+        }
+        List<Blob> list = new ArrayList<Blob>();
+
+        for( String name : listBucketNames(bucket) ) {
+            long timestamp = getBucketTimestamp(name);
+
+            if( timestamp > -1L ) {
+                list.add(Blob.getInstance(regionId, toLocation(name, null), name, timestamp));
+            }
+        }
+        for( String name : listObjectNames(bucket) ) {
+            Blob blob = toBlob(bucket, name);
+
+            if( blob != null ) {
+                list.add(blob);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void makePublic(@Nonnull String bucket) throws InternalException, CloudException {
+        pause();
+        if( getBucketTimestamp(bucket) < 0L ) {
+            throw new CloudException("No such bucket: " + bucket);
+        }
+        publicPaths.add(path(bucket, null));
+    }
+
+    @Override
+    public void makePublic(@Nullable String bucket, @Nonnull String object) throws InternalException, CloudException {
+        pause();
+        if( getObjectLength(bucket, object) < 0L ) {
+            throw new CloudException("No such object: " + path(bucket, object));
+        }
+        publicPaths.add(path(bucket, object));
+    }
+
+    @Override
+    public @Nonnull String[] mapServiceAction(@Nonnull ServiceAction action) {
+        return new String[0];
+    }
+
+    @Override
+    public void move(@Nullable String fromBucket, @Nullable String objectName, @Nullable String toBucket) throws InternalException, CloudException {
+        if( objectName == null ) {
+            for( String name : listObjectNames(fromBucket) ) {
+                move(fromBucket, name, toBucket);
+            }
+            return;
+        }
+        copyFile(fromBucket, objectName, toBucket, objectName);
+        removeObject(fromBucket, objectName);
+    }
+
+    @Override
+    protected void put(@Nullable String bucket, @Nonnull String objectName, @Nonnull File file) throws InternalException, CloudException {
+        checkTarget(bucket, objectName);
+        try {
+            copy(throttle(new FileInputStream(file)), createObject(bucket, objectName, Collections.<String,String>emptyMap()), null);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    @Override
+    protected void put(@Nullable String bucketName, @Nonnull String objectName, @Nonnull String content) throws InternalException, CloudException {
+        checkTarget(bucketName, objectName);
+        try {
+            copy(throttle(new ByteArrayInputStream(content.getBytes("utf-8"))), createObject(bucketName, objectName, Collections.<String,String>emptyMap()), null);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    @Override
+    protected void put(@Nullable String bucket, @Nonnull String objectName, @Nonnull InputStream content, @Nonnull Map<String,String> metadata, @Nullable FileTransfer transfer) throws InternalException, CloudException {
+        try {
+            checkTarget(bucket, objectName);
+        }
+        catch( CloudException e ) {
+            try { content.close(); }
+            catch( IOException ignore ) { }
+            throw e;
+        }
+        try {
+            copy(throttle(content), createObject(bucket, objectName, new HashMap<String, String>(metadata)), transfer);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    @Override
+    public synchronized void removeBucket(@Nonnull String bucket) throws CloudException, InternalException {
+        pause();
+        if( !isValidBucketName(bucket) || getBucketTimestamp(bucket) < 0L ) {
+            throw new CloudException("No such bucket: " + bucket);
+        }
+        if( !listBucketNames(bucket).isEmpty() || !listObjectNames(bucket).isEmpty() ) {
+            throw new CloudException("Bucket is not empty: " + bucket);
+        }
+        deleteBucketStorage(bucket);
+        publicPaths.remove(path(bucket, null));
+    }
+
+    @Override
+    public void removeObject(@Nullable String bucket, @Nonnull String object) throws CloudException, InternalException {
+        pause();
+        deleteObject(bucket, object);
+        publicPaths.remove(path(bucket, object));
+    }
+
+    @Override
+    public @Nonnull String renameBucket(@Nonnull String oldName, @Nonnull String newName, boolean findFreeName) throws CloudException, InternalException {
+        if( getBucketTimestamp(oldName) < 0L ) {
+            throw new CloudException("No such bucket: " + oldName);
+        }
+        if( newName.startsWith(oldName + "/") ) {
+            throw new CloudException("Cannot move a bucket into itself");
+        }
+        String name = createBucket(newName, findFreeName).getBucketName();
+
+        if( name == null ) {
+            throw new InternalException("Newly created bucket has no name");
+        }
+        for( String child : listBucketNames(oldName) ) {
+            renameBucket(child, name + child.substring(oldName.length()), false);
+        }
+        move(oldName, null, name);
+        removeBucket(oldName);
+        return name;
+    }
+
+    @Override
+    public void renameObject(@Nullable String bucket, @Nonnull String oldName, @Nonnull String newName) throws CloudException, InternalException {
+        copyFile(bucket, oldName, bucket, newName);
+        removeObject(bucket, oldName);
+    }
+
+    @Override
+    public @Nonnull Blob upload(@Nonnull File sourceFile, @Nullable String bucket, @Nonnull String objectName) throws CloudException, InternalException {
+        TransferGovernor governor = TransferGovernor.getInstance();
+        FileTransfer transfer = new FileTransfer();
+
+        pause();
+        transfer.setBytesToTransfer(sourceFile.length());
+        governor.register(transfer);
+        try {
+            put(bucket, objectName, sourceFile, transfer);
+            transfer.completeWithResult(null);
+        }
+        finally {
+            governor.unregister(transfer);
+        }
+        Blob blob = toBlob(bucket, objectName);
+
+        if( blob == null ) {
+            throw new CloudException("Object vanished during upload: " + path(bucket, objectName));
+        }
+        return blob;
+    }
+
+    private void checkBucketName(@Nonnull String bucket) throws CloudException {
+        if( !isValidBucketName(bucket) ) {
+            throw new CloudException("Invalid bucket name: " + bucket);
+        }
+    }
+
+    private void checkTarget(@Nullable String bucket, @Nonnull String object) throws CloudException {
+        if( bucket == null ) {
+            if( !rootObjects ) {
+                throw new CloudException("Cannot place objects in the root");
+            }
+        }
+        else if( !isValidBucketName(bucket) || getBucketTimestamp(bucket) < 0L ) {
+            throw new CloudException("No such bucket: " + bucket);
+        }
+        if( object.length() < 1 ) {
+            throw new CloudException("Object names may not be empty");
+        }
+    }
+
+    /**
+     * Verifies that a bucket path contains no empty, <code>.</code>, or <code>..</code> segments.
+     * @param bucket the bucket path to check
+     * @return true if the path is acceptable
+     */
+    protected boolean isValidBucketName(@Nonnull String bucket) {
+        if( bucket.length() < 1 ) {
+            return false;
+        }
+        for( String segment : bucket.split("/", -1) ) {
+            if( segment.length() < 1 || segment.equals(".") || segment.equals("..") ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void pause() throws InternalException {
+        long l = latency;
+
+        if( l > 0L ) {
+            try {
+                Thread.sleep(l);
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+        }
+    }
+
+    private @Nonnull String path(@Nullable String bucket, @Nullable String object) {
+        return ((bucket == null ? "" : bucket) + "/" + (object == null ? "" : object));
+    }
+
+    private @Nonnull InputStream throttle(@Nonnull InputStream input) {
+        if( !bandwidth.isLimited() ) {
+            return input;
+        }
+        return new FilterInputStream(input) {
+            @Override
+            public int read() throws IOException {
+                acquire(1);
+                return super.read();
+            }
+
+            @Override
+            public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+
+                if( count > 0 ) {
+                    acquire(count);
+                }
+                return count;
+            }
+
+            private void acquire(int count) throws IOException {
+                try {
+                    bandwidth.acquire(count);
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for simulated bandwidth");
+                }
+            }
+        };
+    }
+
+    private @Nullable Blob toBlob(@Nullable String bucket, @Nonnull String object) {
+        if( bucket != null && !isValidBucketName(bucket) ) {
+            return null;
+        }
+        long length = getObjectLength(bucket, object);
+
+        if( length < 0L ) {
+            return null;
+        }
+        return Blob.getInstance(regionId, toLocation(bucket, object), bucket, object, getObjectTimestamp(bucket, object), new Storage<org.dasein.util.uom.storage.Byte>(length, Storage.BYTE));
+    }
+}
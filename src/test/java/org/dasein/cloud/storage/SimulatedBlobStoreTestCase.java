@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SimulatedBlobStoreTestCase extends TestCase {
+    private final List<File> directories = new ArrayList<File>();
+    private File             file;
+
+    static private void delete(@Nonnull File file) {
+        File[] files = file.listFiles();
+
+        if( files != null ) {
+            for( File f : files ) {
+                delete(f);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        OutputStream output;
+
+        file = File.createTempFile("dasein", ".upload");
+        output = new FileOutputStream(file);
+        try {
+            output.write("content".getBytes("utf-8"));
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        for( File dir : directories ) {
+            delete(dir);
+        }
+    }
+
+    private @Nonnull List<SimulatedBlobStoreSupport> getStores(boolean nestedBuckets, boolean rootObjects) throws Exception {
+        List<SimulatedBlobStoreSupport> stores = new ArrayList<SimulatedBlobStoreSupport>();
+        File dir = File.createTempFile("dasein", ".store");
+
+        if( !dir.delete() || !dir.mkdirs() ) {
+            throw new IllegalStateException("Unable to create " + dir);
+        }
+        directories.add(dir);
+        stores.add(new MemoryBlobStoreSupport("memory", nestedBuckets, rootObjects));
+        stores.add(new LocalBlobStoreSupport(dir, "local", nestedBuckets, rootObjects));
+        return stores;
+    }
+
+    private @Nonnull Set<String> list(@Nonnull SimulatedBlobStoreSupport store, String bucket) throws Exception {
+        Set<String> names = new HashSet<String>();
+
+        for( Blob blob : store.list(bucket) ) {
+            names.add(blob.isContainer() ? blob.getBucketName() + "/" : blob.getObjectName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testNestedBucketsAllowed() throws Exception {
+        for( SimulatedBlobStoreSupport store : getStores(true, false) ) {
+            String name = store.getClass().getSimpleName();
+
+            assertTrue(name + " should allow nested buckets", store.allowsNestedBuckets());
+            store.createBucket("parent", false);
+            store.createBucket("parent/child", false);
+            store.upload(file, "parent/child", "object");
+            assertTrue(name + " should list the nested bucket in its parent", list(store, "parent").contains("parent/child/"));
+            assertTrue(name + " should list the object in the nested bucket", list(store, "parent/child").contains("object"));
+            try {
+                store.createBucket("missing/child", false);
+                fail(name + " should not create a nested bucket without its parent");
+            }
+            catch( CloudException expected ) {
+                // expected
+            }
+            try {
+                store.removeBucket("parent");
+                fail(name + " should not remove a bucket with children");
+            }
+            catch( CloudException expected ) {
+                // expected
+            }
+            String renamed = store.renameBucket("parent", "moved", false);
+
+            assertEquals(name + " renamed to the wrong bucket", "moved", renamed);
+            assertTrue(name + " should move nested objects with their bucket", list(store, "moved/child").contains("object"));
+            assertFalse(name + " should remove the old bucket", store.exists("parent"));
+        }
+    }
+
+    @Test
+    public void testNestedBucketsForbidden() throws Exception {
+        for( SimulatedBlobStoreSupport store : getStores(false, false) ) {
+            String name = store.getClass().getSimpleName();
+
+            assertFalse(name + " should not allow nested buckets", store.allowsNestedBuckets());
+            store.createBucket("parent", false);
+            try {
+                store.createBucket("parent/child", false);
+                fail(name + " should reject nested buckets");
+            }
+            catch( CloudException expected ) {
+                // expected
+            }
+            assertTrue(name + " should have no children", list(store, "parent").isEmpty());
+        }
+    }
+
+    @Test
+    public void testRootObjectsAllowed() throws Exception {
+        for( SimulatedBlobStoreSupport store : getStores(false, true) ) {
+            String name = store.getClass().getSimpleName();
+
+            assertTrue(name + " should allow root objects", store.allowsRootObjects());
+            store.upload(file, null, "root-object");
+            assertTrue(name + " should list the root object", list(store, null).contains("root-object"));
+            assertNotNull(name + " should find the root object", store.getObject(null, "root-object"));
+            store.createBucket("bucket", false);
+            store.copy("bucket", null, null, null);
+            store.removeObject(null, "root-object");
+            assertFalse(name + " should remove the root object", list(store, null).contains("root-object"));
+        }
+    }
+
+    @Test
+    public void testRootObjectsForbidden() throws Exception {
+        for( SimulatedBlobStoreSupport store : getStores(true, false) ) {
+            String name = store.getClass().getSimpleName();
+
+            assertFalse(name + " should not allow root objects", store.allowsRootObjects());
+            try {
+                store.upload(file, null, "root-object");
+                fail(name + " should reject uploads into the root");
+            }
+            catch( CloudException expected ) {
+                // expected
+            }
+            store.createBucket("bucket", false);
+            store.upload(file, "bucket", "object");
+            try {
+                store.copy("bucket", null, null, null);
+                fail(name + " should reject copying a bucket into the root");
+            }
+            catch( CloudException expected ) {
+                // expected
+            }
+            assertEquals(name + " should hold only the bucket in the root", 1, list(store, null).size());
+        }
+    }
+
+    @Test
+    public void testObjectsRequireBucket() throws Exception {
+        for( SimulatedBlobStoreSupport store : getStores(true, true) ) {
+            String name = store.getClass().getSimpleName();
+
+            try {
+                store.upload(file, "missing", "object");
+                fail(name + " should reject uploads into a missing bucket");
+            }
+            catch( CloudException expected ) {
+                // expected
+            }
+            Blob bucket = store.createBucket("bucket", false);
+            Blob free = store.createBucket("bucket", true);
+
+            assertEquals(name + " created the wrong bucket", "bucket", bucket.getBucketName());
+            assertFalse(name + " should find a free name", "bucket".equals(free.getBucketName()));
+            try {
+                store.createBucket("bucket", false);
+                fail(name + " should reject a duplicate bucket");
+            }
+            catch( CloudException expected ) {
+                // expected
+            }
+        }
+    }
+}
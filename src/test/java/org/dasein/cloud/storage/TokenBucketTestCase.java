@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TokenBucketTestCase extends TestCase {
+    @Test
+    public void testUnlimited() throws Exception {
+        TokenBucket bucket = new TokenBucket(0L);
+
+        assertFalse("Bucket should be unlimited", bucket.isLimited());
+        for( int i=0; i<100; i++ ) {
+            assertEquals("Unlimited bucket should never ask for a wait", 0L, bucket.reserve(Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void testReserveDebt() throws Exception {
+        TokenBucket bucket = new TokenBucket(1000L);
+
+        assertEquals("A full bucket should allow one second of data without waiting", 0L, bucket.reserve(1000));
+
+        long wait = bucket.reserve(500);
+
+        // 500 bytes of debt at 1000 bytes/second is half a second, less whatever refilled in between
+        assertTrue("Wait should be about 500ms, was " + wait/1000000L + "ms", wait > 450000000L && wait <= 500000000L);
+        wait = bucket.reserve(1000);
+        assertTrue("Debt should accumulate, wait was " + wait/1000000L + "ms", wait > 1450000000L && wait <= 1500000000L);
+    }
+
+    @Test
+    public void testRefillCappedAtOneSecond() throws Exception {
+        TokenBucket bucket = new TokenBucket(100000L);
+
+        Thread.sleep(300L);
+        assertEquals("A full bucket should hold one second of data", 0L, bucket.reserve(100000));
+        assertTrue("An idle bucket should not accumulate more than one second of data", bucket.reserve(50000) > 0L);
+    }
+
+    @Test
+    public void testAcquireRate() throws Exception {
+        TokenBucket bucket = new TokenBucket(200000L);
+        long start = System.nanoTime();
+
+        // 200k free from the full bucket, then 200k more at 200k/s
+        for( int i=0; i<20; i++ ) {
+            bucket.acquire(20000);
+        }
+        long millis = (System.nanoTime() - start)/1000000L;
+
+        assertTrue("400k at 200k/s with a full bucket should take about 1s, took " + millis + "ms", millis >= 900L && millis < 2000L);
+    }
+
+    @Test
+    public void testSetBytesPerSecond() throws Exception {
+        TokenBucket bucket = new TokenBucket(100000L);
+
+        bucket.setBytesPerSecond(1000L);
+        assertEquals("Wrong rate", 1000L, bucket.getBytesPerSecond());
+        assertEquals("Tokens should be capped to the new rate", 0L, bucket.reserve(1000));
+        assertTrue("Tokens above the new rate should be gone", bucket.reserve(1000) > 900000000L);
+        bucket.setBytesPerSecond(0L);
+        assertFalse("Bucket should now be unlimited", bucket.isLimited());
+        assertEquals("Unlimited bucket should never ask for a wait", 0L, bucket.reserve(1000000));
+    }
+}
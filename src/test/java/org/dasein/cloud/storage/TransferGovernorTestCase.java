@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.storage;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TransferGovernorTestCase extends TestCase {
+    static private final int LIMIT = 100000;
+
+    private File file;
+
+    @Override
+    public void setUp() throws Exception {
+        byte[] content = new byte[LIMIT * 5 / 2];
+        OutputStream output;
+
+        // random content so that compression does not shrink it below the limit
+        new Random(11L).nextBytes(content);
+        file = File.createTempFile("dasein", ".governed");
+        output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        TransferGovernor.getInstance().setDefaultTransferLimit(0L);
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private long timeUpload(@Nonnull MemoryBlobStoreSupport support, @Nonnull String name, BlobUploadOptions options) throws Exception {
+        long start = System.nanoTime();
+
+        if( options == null ) {
+            support.upload(file, "governed", name);
+        }
+        else {
+            support.upload(file, "governed", name, options);
+        }
+        return (System.nanoTime() - start)/1000000L;
+    }
+
+    @Test
+    public void testUploadsAreGoverned() throws Exception {
+        TransferGovernor governor = TransferGovernor.getInstance();
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+        long transfers = governor.getTotalTransfers();
+
+        support.createBucket("governed", false);
+        governor.setDefaultTransferLimit(LIMIT);
+        // 250k at 100k/s with a full bucket is at least 1.5s for each upload
+        long plain = timeUpload(support, "plain", null);
+        long options = timeUpload(support, "options", BlobUploadOptions.getInstance());
+        long compressed = timeUpload(support, "compressed", BlobUploadOptions.getInstance(BlobCompression.GZIP));
+
+        assertTrue("Plain upload was not governed: " + plain + "ms", plain >= 1400L);
+        assertTrue("Upload with options was not governed: " + options + "ms", options >= 1400L);
+        assertTrue("Compressed upload was not governed: " + compressed + "ms", compressed >= 1400L);
+        assertEquals("Each upload should register a transfer", transfers + 3, governor.getTotalTransfers());
+        assertEquals("No transfers should remain active", 0, governor.getActiveTransferCount());
+    }
+
+    @Test
+    public void testCompressedDownloadIsGoverned() throws Exception {
+        TransferGovernor governor = TransferGovernor.getInstance();
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport();
+        File target = File.createTempFile("dasein", ".download");
+
+        try {
+            support.createBucket("governed", false);
+            support.upload(file, "governed", "compressed", BlobUploadOptions.getInstance(BlobCompression.GZIP));
+            governor.setDefaultTransferLimit(LIMIT);
+
+            long start = System.nanoTime();
+            FileTransfer transfer = support.download("governed", "compressed", target);
+
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized( transfer ) {
+                while( !transfer.isComplete() ) {
+                    transfer.wait(1000L);
+                }
+            }
+            long millis = (System.nanoTime() - start)/1000000L;
+
+            assertNull("Download failed: " + transfer.getTransferError(), transfer.getTransferError());
+            assertEquals("Wrong size after decompression", file.length(), target.length());
+            assertTrue("Compressed download was not governed: " + millis + "ms", millis >= 1400L);
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            target.delete();
+        }
+    }
+
+    @Test
+    public void testFailedUploadCompletesTransfer() throws Exception {
+        final List<FileTransfer> transfers = new ArrayList<FileTransfer>();
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport() {
+            @Override
+            protected void put(@Nullable String bucket, @Nonnull String objectName, @Nonnull InputStream content, @Nonnull Map<String,String> metadata, @Nullable FileTransfer transfer) throws InternalException, CloudException {
+                transfers.add(transfer);
+                try {
+                    content.close();
+                }
+                catch( IOException ignore ) {
+                    // ignore
+                }
+                throw new CloudException("Refused");
+            }
+        };
+
+        support.createBucket("governed", false);
+        try {
+            support.upload(file, "governed", "refused", BlobUploadOptions.getInstance());
+            fail("Upload should have failed");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+        assertEquals("Upload should have streamed through the transfer", 1, transfers.size());
+        assertTrue("Failed transfer was never completed", transfers.get(0).isComplete());
+        assertNotNull("Failed transfer has no error", transfers.get(0).getTransferError());
+    }
+
+    @Test
+    public void testUploadWithoutStreamingSupport() throws Exception {
+        MemoryBlobStoreSupport support = new MemoryBlobStoreSupport() {
+            @Override
+            protected void put(@Nullable String bucket, @Nonnull String objectName, @Nonnull InputStream content, @Nonnull Map<String,String> metadata, @Nullable FileTransfer transfer) throws InternalException, CloudException {
+                try {
+                    content.close();
+                }
+                catch( IOException ignore ) {
+                    // ignore
+                }
+                throw new OperationNotSupportedException("No streaming");
+            }
+        };
+
+        support.createBucket("governed", false);
+        assertEquals("Wrong object size", file.length(), support.upload(file, "governed", "plain", BlobUploadOptions.getInstance()).getSize().longValue());
+    }
+}
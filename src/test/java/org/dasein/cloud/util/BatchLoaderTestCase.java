@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.AbstractImageSupport;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.ImageClass;
+import org.dasein.cloud.compute.ImageFilterOptions;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.MachineImageState;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VirtualMachineSupport;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BatchLoaderTestCase extends TestCase {
+    static private final int THREADS = 40;
+
+    static private class BatchedImageSupport extends AbstractImageSupport {
+        public final AtomicInteger batches = new AtomicInteger(0);
+        public final AtomicInteger largest = new AtomicInteger(0);
+
+        public BatchedImageSupport(@Nonnull CloudProvider provider) {
+            super(provider);
+        }
+
+        @Override
+        public MachineImage getImage(@Nonnull String providerImageId) throws CloudException, InternalException {
+            throw new CloudException("Images should be fetched in batches");
+        }
+
+        @Override
+        protected @Nonnull Map<String,MachineImage> getImages(@Nonnull Collection<String> ids) throws CloudException, InternalException {
+            Map<String,MachineImage> images = new HashMap<String, MachineImage>();
+
+            batches.incrementAndGet();
+            synchronized( largest ) {
+                largest.set(Math.max(largest.get(), ids.size()));
+            }
+            try { Thread.sleep(20L); }
+            catch( InterruptedException e ) { throw new InternalException(e); }
+            for( String id : ids ) {
+                if( !id.equals("img-missing") ) {
+                    images.put(id, MachineImage.getImageInstance("owner", "region", id, ImageClass.MACHINE, MachineImageState.ACTIVE, id, "Image " + id, Architecture.I64, Platform.UNKNOWN));
+                }
+            }
+            return images;
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForImage(@Nonnull Locale locale, @Nonnull ImageClass cls) {
+            return "image";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull Iterable<MachineImage> listImages(@Nonnull ImageFilterOptions options) throws CloudException, InternalException {
+            return new ArrayList<MachineImage>();
+        }
+
+        @Override
+        public void remove(@Nonnull String providerImageId, boolean checkState) throws CloudException, InternalException {
+            throw new CloudException("Images cannot be removed");
+        }
+
+        @Override
+        public @Nonnull Iterable<MachineImage> searchPublicImages(@Nonnull ImageFilterOptions options) throws CloudException, InternalException {
+            return new ArrayList<MachineImage>();
+        }
+    }
+
+    private @Nonnull CloudProvider connect(@Nonnull String name, @Nonnull LatencyCloudProvider.Probe probe) {
+        CloudProvider provider = new LatencyCloudProvider(name, 20L, THREADS, probe);
+
+        provider.connect(new ProviderContext("account", "region"));
+        return provider;
+    }
+
+    private void runConcurrently(@Nonnull final Task task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for( int i=0; i<THREADS; i++ ) {
+            final int n = i;
+
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        task.run(n);
+                    }
+                    catch( Throwable t ) {
+                        failure.compareAndSet(null, t);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        if( failure.get() != null ) {
+            throw new Exception(failure.get());
+        }
+    }
+
+    static private interface Task {
+        public void run(int n) throws Exception;
+    }
+
+    @Test
+    public void testCoalescedLookups() throws Exception {
+        LatencyCloudProvider.Probe probe = new LatencyCloudProvider.Probe();
+        CloudProvider provider = connect("Coalesced", probe);
+        //noinspection ConstantConditions
+        final VirtualMachineSupport support = provider.getComputeServices().getVirtualMachineSupport();
+
+        BatchLoader.getInstance(provider, "virtualMachines", VirtualMachine.class).withWindow(50L);
+        runConcurrently(new Task() {
+            public void run(int n) throws Exception {
+                VirtualMachine vm = support.getVirtualMachine("vm-" + n);
+
+                assertNotNull("No VM for vm-" + n, vm);
+                assertEquals("Wrong VM returned", "vm-" + n, vm.getProviderVirtualMachineId());
+            }
+        });
+        assertTrue("Lookups were not coalesced: " + probe.getCalls() + " list calls", probe.getCalls() < THREADS / 4);
+        assertNull("Found a VM that does not exist", support.getVirtualMachine("vm-missing"));
+    }
+
+    @Test
+    public void testErrorsReachEveryCaller() throws Exception {
+        final BatchLoader<String> loader = BatchLoader.getInstance(connect("Errors", new LatencyCloudProvider.Probe()), "failing", String.class).withWindow(50L);
+        final AtomicInteger errors = new AtomicInteger(0);
+        final ProviderContext ctx = new ProviderContext("account", "region");
+
+        runConcurrently(new Task() {
+            public void run(int n) throws Exception {
+                try {
+                    loader.load(ctx, "id-" + n, new BatchLoader.Fetcher<String>() {
+                        public @Nonnull Map<String,String> fetch(@Nonnull Collection<String> ids) throws CloudException {
+                            try { Thread.sleep(20L); }
+                            catch( InterruptedException ignore ) { }
+                            throw new CloudException("Failed");
+                        }
+                    });
+                }
+                catch( CloudException e ) {
+                    errors.incrementAndGet();
+                }
+            }
+        });
+        assertEquals("Not every caller saw the error", THREADS, errors.get());
+        assertTrue("Lookups were not coalesced", loader.getFetchCount() < THREADS);
+    }
+
+    @Test
+    public void testBatchSizeAndContexts() throws Exception {
+        final BatchLoader<String> loader = BatchLoader.getInstance(connect("Sizes", new LatencyCloudProvider.Probe()), "sized", String.class).withWindow(200L).withMaxBatchSize(10);
+        final ProviderContext[] contexts = new ProviderContext[] { new ProviderContext("a", "region"), new ProviderContext("b", "region") };
+        final AtomicInteger largest = new AtomicInteger(0);
+        long start = System.currentTimeMillis();
+
+        runConcurrently(new Task() {
+            public void run(final int n) throws Exception {
+                final ProviderContext ctx = contexts[n % 2];
+                String value = loader.load(ctx, "id-" + n, new BatchLoader.Fetcher<String>() {
+                    public @Nonnull Map<String,String> fetch(@Nonnull Collection<String> ids) {
+                        Map<String,String> results = new HashMap<String, String>();
+
+                        for( String id : ids ) {
+                            results.put(id, ctx.getAccountNumber() + ":" + id);
+                        }
+                        synchronized( largest ) {
+                            largest.set(Math.max(largest.get(), ids.size()));
+                        }
+                        return results;
+                    }
+                });
+
+                assertEquals("Result crossed contexts", ctx.getAccountNumber() + ":id-" + n, value);
+            }
+        });
+        assertTrue("Batch exceeded its maximum size", largest.get() <= 10);
+        assertTrue("Full batches waited out the window", System.currentTimeMillis() - start < 2000L);
+    }
+
+    @Test
+    public void testUncontendedLookupFetchesAtOnce() throws Exception {
+        BatchLoader<String> loader = BatchLoader.getInstance(connect("Uncontended", new LatencyCloudProvider.Probe()), "single", String.class).withWindow(2000L);
+        long start = System.currentTimeMillis();
+        String value = loader.load(new ProviderContext("account", "region"), "id", new BatchLoader.Fetcher<String>() {
+            public @Nonnull Map<String,String> fetch(@Nonnull Collection<String> ids) {
+                Map<String,String> results = new HashMap<String, String>();
+
+                for( String id : ids ) {
+                    results.put(id, "value-" + id);
+                }
+                return results;
+            }
+        });
+
+        assertEquals("Wrong value loaded", "value-id", value);
+        assertTrue("A lone lookup waited out the batching window", System.currentTimeMillis() - start < 1000L);
+    }
+
+    @Test
+    public void testLoadersBelongToProviderInstance() throws Exception {
+        CloudProvider first = connect("Scoped", new LatencyCloudProvider.Probe());
+        CloudProvider second = connect("Scoped", new LatencyCloudProvider.Probe());
+        BatchLoader<String> loader = BatchLoader.getInstance(first, "scoped", String.class).withWindow(500L).withMaxBatchSize(7);
+
+        assertSame("The same provider got a different loader", loader, BatchLoader.getInstance(first, "scoped", String.class));
+        assertNotSame("Another provider instance shared the loader", loader, BatchLoader.getInstance(second, "scoped", String.class));
+        assertEquals("A window setting leaked to another provider", 2L, BatchLoader.getInstance(second, "scoped", String.class).getWindow());
+        assertEquals("A batch size setting leaked to another provider", 100, BatchLoader.getInstance(second, "scoped", String.class).getMaxBatchSize());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testCoalescedImageLookups() throws Exception {
+        final BatchedImageSupport support = new BatchedImageSupport(connect("Images", new LatencyCloudProvider.Probe()));
+
+        runConcurrently(new Task() {
+            public void run(int n) throws Exception {
+                MachineImage img = support.getMachineImage("img-" + n);
+
+                assertNotNull("No image for img-" + n, img);
+                assertEquals("Wrong image returned", "img-" + n, img.getProviderMachineImageId());
+            }
+        });
+        assertTrue("Image lookups were not coalesced: " + support.batches.get() + " fetches", support.batches.get() < THREADS / 2);
+        assertTrue("No batch held more than one image", support.largest.get() > 1);
+        assertNull("Found an image that does not exist", support.getMachineImage("img-missing"));
+    }
+}
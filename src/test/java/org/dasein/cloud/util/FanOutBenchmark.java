@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.ProviderFactory;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares an inventory sweep run one context after another, connecting a fresh provider each time, against the same
+ * sweep fanned out by {@link FanOutExecutor} over two providers with injected API latency. After
+ * <code>mvn test-compile</code>, run {@link #main(String...)} or <code>org.openjdk.jmh.Main FanOutBenchmark</code>
+ * with the test classpath.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    static public void main(String ... args) throws Exception {
+        new Runner(new OptionsBuilder().include(FanOutBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Param({ "200" })
+    public int contexts;
+
+    @Param({ "5" })
+    public long latency;
+
+    @Param({ "10" })
+    public int limit;
+
+    private FanOutExecutor                       executor;
+    private ProviderFactory                      factory;
+    private FanOutExecutor.Query<VirtualMachine> query;
+    private List<ProviderContext>                targets;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final LatencyCloudProvider.Probe probe = new LatencyCloudProvider.Probe();
+
+        targets = new ArrayList<ProviderContext>();
+        for( int i=0; i<contexts; i++ ) {
+            ProviderContext ctx = new ProviderContext("account-" + i, "region-" + (i % 4));
+
+            ctx.setProviderName(i % 2 == 0 ? "Alpha" : "Beta");
+            targets.add(ctx);
+        }
+        factory = new ProviderFactory() {
+            public @Nonnull CloudProvider newProvider(@Nonnull ProviderContext context) {
+                //noinspection ConstantConditions
+                return new LatencyCloudProvider(context.getProviderName(), latency, 20, probe);
+            }
+        };
+        query = new FanOutExecutor.Query<VirtualMachine>() {
+            public @Nonnull Iterable<VirtualMachine> query(@Nonnull CloudProvider provider) throws CloudException, InternalException {
+                //noinspection ConstantConditions
+                return provider.getComputeServices().getVirtualMachineSupport().listVirtualMachines();
+            }
+        };
+        executor = FanOutExecutor.getInstance(factory, limit * 2).withConcurrencyLimit(limit);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    public int sequential() throws Exception {
+        int count = 0;
+
+        for( ProviderContext ctx : targets ) {
+            CloudProvider provider = factory.newProvider(ctx);
+
+            provider.connect(ctx);
+            for( VirtualMachine ignore : query.query(provider) ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int fanOut() {
+        int count = 0;
+
+        for( ContextResult<VirtualMachine> ignore : executor.execute(targets, query) ) {
+            count++;
+        }
+        return count;
+    }
+}
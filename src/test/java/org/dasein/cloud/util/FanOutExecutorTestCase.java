@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.CloudProviderPool;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.ProviderFactory;
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FanOutExecutorTestCase extends TestCase {
+    static private final int VMS = 4;
+
+    private FanOutExecutor                               executor;
+    private final AtomicInteger                          created = new AtomicInteger(0);
+    private final Map<String,LatencyCloudProvider.Probe> probes  = new HashMap<String, LatencyCloudProvider.Probe>();
+
+    @Before
+    public void setUp() {
+        probes.put("Alpha", new LatencyCloudProvider.Probe());
+        probes.put("Beta", new LatencyCloudProvider.Probe());
+        executor = FanOutExecutor.getInstance(new ProviderFactory() {
+            public @Nonnull CloudProvider newProvider(@Nonnull ProviderContext context) {
+                created.incrementAndGet();
+                return new LatencyCloudProvider(context.getProviderName(), 20L, VMS, probes.get(context.getProviderName()));
+            }
+        }, 20);
+        executor.withConcurrencyLimit("Alpha", 2).withConcurrencyLimit("Beta", 5);
+    }
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    private @Nonnull List<ProviderContext> getContexts(@Nonnull String providerName, int count) {
+        List<ProviderContext> contexts = new ArrayList<ProviderContext>();
+
+        for( int i=0; i<count; i++ ) {
+            ProviderContext ctx = new ProviderContext(providerName + "-" + i, "region-" + (i % 3));
+
+            ctx.setProviderName(providerName);
+            contexts.add(ctx);
+        }
+        return contexts;
+    }
+
+    private @Nonnull FanOutExecutor.Query<VirtualMachine> getRunningQuery() {
+        return new FanOutExecutor.Query<VirtualMachine>() {
+            public @Nonnull Iterable<VirtualMachine> query(@Nonnull CloudProvider provider) throws CloudException, InternalException {
+                //noinspection ConstantConditions
+                return provider.getComputeServices().getVirtualMachineSupport().listVirtualMachines(VMFilterOptions.getInstance().withVmStates(VmState.RUNNING));
+            }
+        };
+    }
+
+    @Test
+    public void testResultsTaggedByContext() {
+        List<ProviderContext> contexts = getContexts("Alpha", 10);
+        int count = 0;
+
+        contexts.addAll(getContexts("Beta", 10));
+        FanOutResults<VirtualMachine> results = executor.execute(contexts, getRunningQuery());
+
+        for( ContextResult<VirtualMachine> result : results ) {
+            VirtualMachine vm = result.getItem();
+
+            assertNotNull("No item in result " + result, vm);
+            assertEquals("Result was tagged with the wrong context", result.getContext().getAccountNumber(), vm.getProviderOwnerId());
+            assertEquals("Filter was not applied", VmState.RUNNING, vm.getCurrentState());
+            count++;
+        }
+        assertEquals("Wrong number of results", contexts.size() * VMS / 2, count);
+        assertTrue("Results are not complete", results.isComplete());
+        assertEquals("Unexpected failures", 0, results.getFailedContextCount());
+    }
+
+    @Test
+    public void testConcurrencyLimits() {
+        List<ProviderContext> contexts = getContexts("Alpha", 12);
+
+        contexts.addAll(getContexts("Beta", 20));
+        for( ContextResult<VirtualMachine> ignore : executor.execute(contexts, getRunningQuery()) ) {
+            // drain
+        }
+        assertEquals("Alpha was not queried in every context", 12, probes.get("Alpha").getCalls());
+        assertTrue("Alpha exceeded its limit: " + probes.get("Alpha").getPeak(), probes.get("Alpha").getPeak() <= 2);
+        assertTrue("Beta exceeded its limit: " + probes.get("Beta").getPeak(), probes.get("Beta").getPeak() <= 5);
+        assertTrue("Beta never ran in parallel", probes.get("Beta").getPeak() > 2);
+    }
+
+    @Test
+    public void testErrorsTaggedByContext() {
+        List<ProviderContext> contexts = getContexts("Alpha", 6);
+        int errors = 0;
+
+        FanOutResults<VirtualMachine> results = executor.execute(contexts, new FanOutExecutor.Query<VirtualMachine>() {
+            public @Nonnull Iterable<VirtualMachine> query(@Nonnull CloudProvider provider) throws CloudException, InternalException {
+                //noinspection ConstantConditions
+                if( provider.getContext().getAccountNumber().endsWith("3") ) {
+                    throw new CloudException("Failed");
+                }
+                //noinspection ConstantConditions
+                return provider.getComputeServices().getVirtualMachineSupport().listVirtualMachines();
+            }
+        });
+        for( ContextResult<VirtualMachine> result : results ) {
+            if( result.isError() ) {
+                assertEquals("Error was tagged with the wrong context", "Alpha-3", result.getContext().getAccountNumber());
+                errors++;
+            }
+        }
+        assertEquals("Wrong number of errors", 1, errors);
+        assertEquals("Wrong number of failed contexts", 1, results.getFailedContextCount());
+    }
+
+    @Test
+    public void testProvidersReused() throws Exception {
+        List<ProviderContext> contexts = getContexts("Beta", 8);
+
+        for( int i=0; i<3; i++ ) {
+            for( ContextResult<VirtualMachine> ignore : executor.execute(contexts, getRunningQuery()) ) {
+                // drain
+            }
+        }
+        assertEquals("Providers were not reused", contexts.size(), created.get());
+        assertEquals("Providers were not handed back to the pool", contexts.size(), executor.getPool().getIdleCount());
+        assertEquals("Providers were left borrowed", 0, executor.getPool().getActiveCount());
+    }
+
+    @Test
+    public void testCancel() {
+        FanOutResults<VirtualMachine> results = executor.execute(getContexts("Alpha", 50), getRunningQuery());
+        Iterator<ContextResult<VirtualMachine>> it = results.iterator();
+
+        it.next();
+        results.cancel();
+        assertTrue("Results were not cancelled", results.isCancelled());
+        assertFalse("Results continued after cancel", it.hasNext());
+        assertTrue("Contexts were queried after cancel", probes.get("Alpha").getCalls() < 50);
+    }
+
+    @Test
+    public void testSharedPoolLeftOpen() throws Exception {
+        CloudProviderPool pool = CloudProviderPool.getInstance(new ProviderFactory() {
+            public @Nonnull CloudProvider newProvider(@Nonnull ProviderContext context) {
+                created.incrementAndGet();
+                return new LatencyCloudProvider(context.getProviderName(), 0L, VMS, probes.get(context.getProviderName()));
+            }
+        });
+        FanOutExecutor shared = FanOutExecutor.getInstance(pool, 4);
+        List<ProviderContext> contexts = getContexts("Beta", 3);
+
+        try {
+            for( ContextResult<VirtualMachine> ignore : shared.execute(contexts, getRunningQuery()) ) {
+                // drain
+            }
+            shared.close();
+            assertEquals("The shared pool lost its idle providers", contexts.size(), pool.getIdleCount());
+
+            CloudProvider provider = pool.borrowProvider(contexts.get(0));
+
+            assertTrue("The shared pool handed out a closed provider", provider.isConnected());
+            pool.returnProvider(provider);
+        }
+        finally {
+            pool.close();
+        }
+    }
+}
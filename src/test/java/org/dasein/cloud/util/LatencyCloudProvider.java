@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import org.dasein.cloud.AbstractCloud;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.CloudProvider;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.OperationNotSupportedException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.AbstractComputeServices;
+import org.dasein.cloud.compute.AbstractVMSupport;
+import org.dasein.cloud.compute.ComputeServices;
+import org.dasein.cloud.compute.VMLaunchOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VirtualMachineSupport;
+import org.dasein.cloud.compute.VmState;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cloud provider whose virtual machine listings take a fixed time to return, standing in for a remote cloud API
+ * when testing and benchmarking code that fans out across many contexts. A shared {@link Probe} records how many
+ * listings are in progress at once.
+ * @version 2013.04.2 initial version
+ * @since 2013.04.2
+ */
+public class LatencyCloudProvider extends AbstractCloud {
+    /**
+     * Tracks the calls in progress across every provider sharing it.
+     */
+    static public class Probe {
+        private final AtomicInteger calls    = new AtomicInteger(0);
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private final AtomicInteger peak     = new AtomicInteger(0);
+
+        public int getCalls() {
+            return calls.get();
+        }
+
+        public int getPeak() {
+            return peak.get();
+        }
+
+        void enter() {
+            int current = inFlight.incrementAndGet();
+            int p;
+
+            calls.incrementAndGet();
+            while( current > (p = peak.get()) && !peak.compareAndSet(p, current) ) { }
+        }
+
+        void exit() {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private final long   latency;
+    private final Probe  probe;
+    private final String providerName;
+    private final int    vmCount;
+
+    public LatencyCloudProvider(@Nonnull String providerName, long latency, int vmCount, @Nonnull Probe probe) {
+        this.latency = latency;
+        this.probe = probe;
+        this.providerName = providerName;
+        this.vmCount = vmCount;
+    }
+
+    @Override
+    public @Nonnull String getCloudName() {
+        return providerName;
+    }
+
+    @Override
+    public ComputeServices getComputeServices() {
+        return new AbstractComputeServices() {
+            @Override
+            public VirtualMachineSupport getVirtualMachineSupport() {
+                return new LatencyVMSupport(LatencyCloudProvider.this);
+            }
+        };
+    }
+
+    @Override
+    public @Nonnull String getProviderName() {
+        return providerName;
+    }
+
+    private class LatencyVMSupport extends AbstractVMSupport {
+        public LatencyVMSupport(@Nonnull CloudProvider provider) {
+            super(provider);
+        }
+
+        @Override
+        public @Nonnull String getProviderTermForServer(@Nonnull Locale locale) {
+            return "server";
+        }
+
+        @Override
+        public boolean isSubscribed() throws CloudException, InternalException {
+            return true;
+        }
+
+        @Override
+        public @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+            throw new OperationNotSupportedException("Launching is not supported");
+        }
+
+        @Override
+        public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
+            ProviderContext ctx = getContext();
+            ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+
+            probe.enter();
+            try {
+                Thread.sleep(latency);
+            }
+            catch( InterruptedException e ) {
+                throw new InternalException(e);
+            }
+            finally {
+                probe.exit();
+            }
+            for( int i=0; i<vmCount; i++ ) {
+                VirtualMachine vm = new VirtualMachine();
+
+                vm.setProviderVirtualMachineId("vm-" + i);
+                vm.setName("vm-" + i);
+                vm.setProviderOwnerId(ctx.getAccountNumber());
+                vm.setProviderRegionId(ctx.getRegionId());
+                vm.setCurrentState(i % 2 == 0 ? VmState.RUNNING : VmState.STOPPED);
+                vms.add(vm);
+            }
+            return vms;
+        }
+
+        @Override
+        public void terminate(@Nonnull String vmId) throws InternalException, CloudException {
+            throw new OperationNotSupportedException("Termination is not supported");
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2009-2013 enstratius, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.util;
+
+import junit.framework.TestCase;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PagedIterableTestCase extends TestCase {
+    static private class NumberListing extends PagedIterable<Integer> {
+        public final List<String>   fetched   = Collections.synchronizedList(new ArrayList<String>());
+        public final CountDownLatch prefetched = new CountDownLatch(1);
+
+        public int failOnPage = -1;
+        public int pageCount;
+        public int pageSize;
+
+        public NumberListing(int pageCount, int pageSize) {
+            this.pageCount = pageCount;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        protected @Nonnull Page<Integer> fetchPage(@Nullable String pageToken) throws CloudException, InternalException {
+            int page = (pageToken == null ? 0 : Integer.parseInt(pageToken));
+            ArrayList<Integer> items = new ArrayList<Integer>();
+
+            fetched.add(String.valueOf(page));
+            if( page > 0 ) {
+                prefetched.countDown();
+            }
+            if( page == failOnPage ) {
+                throw new CloudException("Page " + page + " failed");
+            }
+            for( int i=0; i<pageSize; i++ ) {
+                items.add(page * pageSize + i);
+            }
+            return Page.getInstance(items, page + 1 < pageCount ? String.valueOf(page + 1) : null);
+        }
+    }
+
+    @Test
+    public void testLazyCompleteIteration() {
+        NumberListing listing = new NumberListing(4, 3);
+        Iterator<Integer> it = listing.withPrefetch(false).iterator();
+
+        assertEquals("Nothing should be fetched before iteration begins", 0, listing.fetched.size());
+        for( int i=0; i<12; i++ ) {
+            assertTrue("The listing ended early at " + i, it.hasNext());
+            assertEquals("Items should arrive in order", Integer.valueOf(i), it.next());
+        }
+        assertFalse("The listing should end after the last page", it.hasNext());
+        assertEquals("Each page should be fetched exactly once", 4, listing.fetched.size());
+        try {
+            it.next();
+            fail("next() past the end should throw");
+        }
+        catch( NoSuchElementException expected ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNoPrefetchFetchesOnDemand() {
+        NumberListing listing = new NumberListing(3, 2);
+        Iterator<Integer> it = listing.withPrefetch(false).iterator();
+
+        it.next();
+        it.next();
+        assertEquals("The second page should not be fetched until needed", 1, listing.fetched.size());
+        it.next();
+        assertEquals("The second page should be fetched once needed", 2, listing.fetched.size());
+    }
+
+    @Test
+    public void testPrefetchFetchesAhead() throws Exception {
+        NumberListing listing = new NumberListing(3, 2);
+        Iterator<Integer> it = listing.iterator();
+
+        assertEquals(Integer.valueOf(0), it.next());
+        assertTrue("The second page was not prefetched while the first was consumed", listing.prefetched.await(5, TimeUnit.SECONDS));
+        int count = 1;
+
+        while( it.hasNext() ) {
+            assertEquals("Prefetched items should arrive in order", Integer.valueOf(count++), it.next());
+        }
+        assertEquals("All items should be listed", 6, count);
+        assertEquals("Prefetching should not fetch any page twice", 3, listing.fetched.size());
+    }
+
+    @Test
+    public void testSuppliedExecutorIsUsed() throws Exception {
+        final AtomicInteger threads = new AtomicInteger(0);
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(@Nonnull Runnable r) {
+                threads.incrementAndGet();
+                return new Thread(r);
+            }
+        });
+
+        try {
+            NumberListing listing = new NumberListing(5, 1);
+            int count = 0;
+
+            listing.withExecutor(executor);
+            assertSame("The supplied executor should be reported", executor, listing.getExecutor());
+            for( Integer ignore : listing ) {
+                count++;
+            }
+            assertEquals("All items should be listed", 5, count);
+            assertEquals("Prefetches should run on the supplied executor", 1, threads.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelStopsFetching() throws Exception {
+        NumberListing listing = new NumberListing(100, 1);
+        PagedIterable.PagedIterator<Integer> it = listing.withPrefetch(false).iterator();
+
+        it.next();
+        it.next();
+        it.cancel();
+        assertTrue("The iterator should report that it was cancelled", it.isCancelled());
+        assertFalse("A cancelled iterator should have no more items", it.hasNext());
+        assertEquals("No pages should be fetched after cancellation", 2, listing.fetched.size());
+    }
+
+    @Test
+    public void testCancelAbandonsPrefetch() throws Exception {
+        NumberListing listing = new NumberListing(100, 1);
+        PagedIterable.PagedIterator<Integer> it = listing.iterator();
+
+        it.next();
+        it.cancel();
+        assertFalse("A cancelled iterator should have no more items", it.hasNext());
+        Thread.sleep(50L);
+        assertTrue("At most the in-flight prefetch may follow cancellation", listing.fetched.size() <= 2);
+    }
+
+    @Test
+    public void testFetchErrorPropagates() {
+        NumberListing listing = new NumberListing(3, 2);
+
+        listing.failOnPage = 1;
+        for( boolean prefetch : new boolean[] { false, true } ) {
+            Iterator<Integer> it = listing.withPrefetch(prefetch).iterator();
+
+            it.next();
+            it.next();
+            try {
+                it.hasNext();
+                fail("The failure fetching the second page should be raised (prefetch=" + prefetch + ")");
+            }
+            catch( StreamingException e ) {
+                assertTrue("The cloud error should be the cause (prefetch=" + prefetch + ")", e.getCause() instanceof CloudException);
+            }
+        }
+    }
+
+    @Test
+    public void testIteratorsAreIndependent() {
+        NumberListing listing = new NumberListing(2, 2);
+        int first = 0, second = 0;
+
+        listing.withPrefetch(false);
+        for( Integer ignore : listing ) {
+            first++;
+        }
+        for( Integer ignore : listing ) {
+            second++;
+        }
+        assertEquals("Each pass should list every item", 4, first);
+        assertEquals("A second pass should list every item again", 4, second);
+    }
+}